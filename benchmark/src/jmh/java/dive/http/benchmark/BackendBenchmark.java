@@ -0,0 +1,92 @@
+package dive.http.benchmark;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import dive.http.common.BodyDecoder;
+import dive.http.common.MimeHttp;
+import dive.http.common.MimeRequest;
+import dive.http.jackson.JacksonDecoder;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 各实现对本地回环服务的吞吐量与延迟分布(p50/p99见SampleTime结果)
+ * 线程数可通过 -t 参数覆盖
+ * @author dawn
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class BackendBenchmark {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private static final BodyDecoder<JsonNode> DECODER = JacksonDecoder.of(MAPPER, JsonNode.class);
+
+    @Param({"client", "client5", "okhttp", "spring", "mime", "jdk"})
+    public String backend;
+
+    @Param({LocalServer.SMALL, LocalServer.LARGE})
+    public String size;
+
+    private LocalServer server;
+
+    private MimeHttp http;
+
+    private MimeRequest get;
+
+    private MimeRequest post;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        server = new LocalServer();
+        http = Backends.of(backend);
+        get = MimeRequest.builder().url(server.url(size)).get().build();
+        post = MimeRequest.builder().url(server.url(LocalServer.ECHO))
+                .body("{\"symbol\":\"btcusdt\",\"amount\":1}").post().build();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        server.stop();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public String get() {
+        return http.execute(get);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public String getConcurrent() {
+        return http.execute(get);
+    }
+
+    /**
+     * 先得到完整字符串再解析
+     */
+    @Benchmark
+    @Threads(1)
+    public JsonNode getParse() throws IOException {
+        return MAPPER.readTree(http.execute(get));
+    }
+
+    /**
+     * 从响应体字节流直接解析
+     */
+    @Benchmark
+    @Threads(1)
+    public JsonNode getDecode() {
+        return http.decode(get, DECODER, null);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public String post() {
+        return http.execute(post);
+    }
+
+}
@@ -0,0 +1,39 @@
+package dive.http.benchmark;
+
+import dive.http.client.ClientHttp;
+import dive.http.client5.Client5Http;
+import dive.http.common.BaseMimeHttp;
+import dive.http.common.model.Protocol;
+import dive.http.jdk.JdkHttp;
+import dive.http.okhttp.OkHttp;
+import dive.http.spring.SpringHttp;
+
+/**
+ * 被测试的各个实现
+ * @author dawn
+ */
+public class Backends {
+
+    private Backends() {}
+
+    /**
+     * 根据名称获取实现，错误输出关闭以免干扰测试结果
+     * @param name 名称
+     * @return 实现对象
+     */
+    public static BaseMimeHttp of(String name) {
+        BaseMimeHttp http;
+        switch (name) {
+            case "client": http = new ClientHttp(); break;
+            // 本地服务只支持http/1.1
+            case "client5": http = new Client5Http(Protocol.HTTP_1_1); break;
+            case "okhttp": http = new OkHttp(); break;
+            case "spring": http = new SpringHttp(); break;
+            case "mime": http = new dive.http.mime.MimeHttp(); break;
+            case "jdk": http = new JdkHttp(); break;
+            default: throw new IllegalArgumentException("unknown backend: " + name);
+        }
+        return http.error(message -> { });
+    }
+
+}
@@ -0,0 +1,124 @@
+package dive.http.benchmark;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 进程内回环服务，基准测试不依赖外部网络
+ * @author dawn
+ */
+public class LocalServer {
+
+    /**
+     * 小响应体，约128字节
+     */
+    public static final String SMALL = "/small";
+
+    /**
+     * 大响应体，约1MB
+     */
+    public static final String LARGE = "/large";
+
+    /**
+     * 回显请求体
+     */
+    public static final String ECHO = "/echo";
+
+    /**
+     * 延迟20ms返回小响应体，模拟慢服务，等待期间不占用服务端线程
+     */
+    public static final String SLOW = "/slow";
+
+    static {
+        // 关闭Nagle算法，否则小响应会因延迟确认多等待约40ms
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+    }
+
+    private static final byte[] SMALL_BODY = body(128);
+
+    private static final byte[] LARGE_BODY = body(1024 * 1024);
+
+    private final HttpServer server;
+
+    private final ExecutorService executor;
+
+    private final ScheduledExecutorService scheduler;
+
+    /**
+     * 启动服务，随机端口
+     * @throws IOException 启动失败
+     */
+    public LocalServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 1024);
+        executor = Executors.newFixedThreadPool(Math.max(4, Runtime.getRuntime().availableProcessors() * 2));
+        server.setExecutor(executor);
+        server.createContext(SMALL, exchange -> send(exchange, SMALL_BODY));
+        server.createContext(LARGE, exchange -> send(exchange, LARGE_BODY));
+        server.createContext(ECHO, exchange -> send(exchange, read(exchange.getRequestBody())));
+        scheduler = Executors.newScheduledThreadPool(2);
+        server.createContext(SLOW, exchange -> scheduler.schedule(() -> {
+            send(exchange, SMALL_BODY);
+            return null;
+        }, 20, TimeUnit.MILLISECONDS));
+        server.start();
+    }
+
+    /**
+     * 获取完整url
+     * @param path 路径
+     * @return url
+     */
+    public String url(String path) {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + path;
+    }
+
+    /**
+     * 停止服务
+     */
+    public void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+        scheduler.shutdownNow();
+    }
+
+    private static void send(HttpExchange exchange, byte[] body) throws IOException {
+        exchange.getResponseHeaders().add("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private static byte[] read(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int n;
+        while (-1 != (n = in.read(buffer))) {
+            out.write(buffer, 0, n);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] body(int size) {
+        StringBuilder sb = new StringBuilder(size + 16);
+        sb.append("[");
+        while (sb.length() < size) {
+            sb.append("{\"id\":").append(sb.length()).append(",\"ok\":true},");
+        }
+        sb.setCharAt(sb.length() - 1, ']');
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+}
@@ -0,0 +1,67 @@
+package dive.http.benchmark;
+
+import dive.http.common.MimeHttp;
+import dive.http.common.MimeRequest;
+import dive.http.common.VirtualHttp;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 阻塞实现的大量并发慢请求：各实现自身的异步方法与虚拟线程对比
+ * platform为各实现自身的异步方法，mime和spring为默认的有界线程池，client为httpasyncclient
+ * virtual为VirtualHttp，在虚拟线程中调用同步方法，低于java 21时退回默认的有界线程池
+ * 每次发出requests个请求并等待全部完成，服务端延迟20ms，耗时越接近20ms并发越充分
+ * @author dawn
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class VirtualThreadBenchmark {
+
+    @Param({"client", "spring", "mime"})
+    public String backend;
+
+    @Param({"platform", "virtual"})
+    public String threads;
+
+    @Param({"1000"})
+    public int requests;
+
+    private LocalServer server;
+
+    private MimeHttp http;
+
+    private List<MimeRequest> batch;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        server = new LocalServer();
+        http = Backends.of(backend);
+        if ("virtual".equals(threads)) {
+            if (!VirtualHttp.supported()) {
+                System.err.println("virtual threads need java 21, running on " + System.getProperty("java.version"));
+            }
+            http = new VirtualHttp(http);
+        }
+        batch = new ArrayList<>(requests);
+        for (int i = 0; i < requests; i++) {
+            batch.add(MimeRequest.builder().url(server.url(LocalServer.SLOW)).get().build());
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        server.stop();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public List<String> executeAll() {
+        return http.executeAll(batch, requests);
+    }
+
+}
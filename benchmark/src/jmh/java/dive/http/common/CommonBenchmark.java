@@ -0,0 +1,220 @@
+package dive.http.common;
+
+import dive.http.common.model.Header;
+import dive.http.common.model.Parameter;
+import org.openjdk.jmh.annotations.*;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 公用类的微基准测试，放在同一包下以便访问包内的类
+ * @author dawn
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class CommonBenchmark {
+
+    private static final String SECRET = "b0xxxxxx-c6xxxxxx-94xxxxxx-dxxxx";
+
+    private MimeRequest request;
+
+    private Parameter parameter;
+
+    private Header header;
+
+    private String[] response;
+
+    private int[] ints;
+
+    private float[] floats;
+
+    private List<String> strings;
+
+    private String template;
+
+    private SignHttp sign;
+
+    private Map<String, Object> variables;
+
+    @Setup
+    public void setup() {
+        parameter = Parameter.build("symbol", "btcusdt")
+                .add("period", "1min")
+                .add("size", 200)
+                .add("timestamp", 1543213233000L)
+                .add("note", "中文 & space");
+        request = MimeRequest.builder()
+                .url("http://127.0.0.1/market/history/kline")
+                .body(parameter)
+                .get()
+                .build();
+        header = Header.build("User-Agent", "Mozilla/5.0")
+                .add("Accept", "application/json")
+                .add("Accept-Language", "zh-CN")
+                .add("Accept-Language", "en-US")
+                .add("Connection", "keep-alive");
+        response = new String[]{
+                "Date", "Mon, 26 Nov 2018 06:20:33 GMT", "Content-Type", "application/json;charset=utf-8",
+                "Content-Length", "1024", "Connection", "keep-alive", "Cache-Control", "max-age=60",
+                "ETag", "\"5bfb9071-400\"", "Set-Cookie", "a=1; Path=/", "Set-Cookie", "b=2; Path=/",
+                "Vary", "Accept-Encoding", "Server", "nginx", "X-RateLimit-Remaining", "99",
+                "Strict-Transport-Security", "max-age=31536000"};
+        ints = new int[256];
+        floats = new float[256];
+        for (int i = 0; i < ints.length; i++) {
+            ints[i] = i * 31;
+            floats[i] = i * 0.5f;
+        }
+        strings = Arrays.asList("btcusdt", "ethusdt", "eosusdt", "中文");
+        template = "http://127.0.0.1/market/{market}/history/kline?symbol={1}&period={period}&note={2}";
+        variables = new HashMap<>();
+        variables.put("market", "spot");
+        variables.put("1", "btcusdt");
+        variables.put("period", "1min");
+        variables.put("2", "中文");
+        sign = SignHttp.builder(new BaseMimeHttp() {
+            @Override
+            public String execute(MimeRequest request, Detail detail) {
+                return null;
+            }
+        }, SECRET).parameter("AccessKeyId", "e2xxxxxx-99xxxxxx-84xxxxxx-7xxxx").build();
+    }
+
+    @Benchmark
+    public String url() {
+        return MimeHttp.url(request);
+    }
+
+    /**
+     * 原先MimeRequest.getUrl的做法，每个变量替换一次
+     */
+    @Benchmark
+    public String urlReplace() {
+        String url = template;
+        for (String name : variables.keySet()) {
+            url = url.replace("{" + name + "}", variables.get(name).toString());
+        }
+        return url;
+    }
+
+    @Benchmark
+    public String urlTemplate() {
+        return UrlTemplate.compile(template).expand(variables);
+    }
+
+    @Benchmark
+    public String formatString() {
+        return ValueWriter.format("中文 & space");
+    }
+
+    @Benchmark
+    public String formatIntArray() {
+        return ValueWriter.format(ints);
+    }
+
+    @Benchmark
+    public String formatFloatArray() {
+        return ValueWriter.format(floats);
+    }
+
+    @Benchmark
+    public String formatCollection() {
+        return ValueWriter.format(strings);
+    }
+
+    @Benchmark
+    public Object headerPairs() {
+        return header.pairs();
+    }
+
+    /**
+     * 各实现收到响应后复制响应头
+     */
+    @Benchmark
+    public Header headerCopy() {
+        Header h = Header.build();
+        for (int i = 0; i < response.length; i += 2) {
+            h.add(response[i], response[i + 1]);
+        }
+        return h;
+    }
+
+    @Benchmark
+    public String headerGet() {
+        return header.get("Accept-Language").get(0);
+    }
+
+    @Benchmark
+    public Object headerEach() {
+        StringBuilder sb = new StringBuilder(64);
+        header.each((k, v) -> sb.append(k.length()).append(v.length()));
+        return sb;
+    }
+
+    @Benchmark
+    public String parameterConcat() {
+        return parameter.concat();
+    }
+
+    /**
+     * 原先各实现拼接表单的做法
+     */
+    @Benchmark
+    public String formUrlEncoder() {
+        return parameter.concat(v -> {
+            try {
+                return URLEncoder.encode(v.toString(), "utf-8");
+            } catch (UnsupportedEncodingException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+    }
+
+    @Benchmark
+    public String form() {
+        return parameter.form();
+    }
+
+    /**
+     * 原先的签名做法：复制参数并排序，拼接后每次创建Mac
+     */
+    @Benchmark
+    public String signSortConcat() throws GeneralSecurityException {
+        Parameter p = Parameter.build();
+        parameter.forEach(p::add);
+        p.add("AccessKeyId", "e2xxxxxx-99xxxxxx-84xxxxxx-7xxxx");
+        String canonical = p.sort().concat(v -> {
+            try {
+                return URLEncoder.encode(v.toString(), "utf-8");
+            } catch (UnsupportedEncodingException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(SECRET.getBytes(StandardCharsets.UTF_8), "HmacSHA256"));
+        byte[] digest = mac.doFinal(canonical.getBytes(StandardCharsets.UTF_8));
+        StringBuilder sb = new StringBuilder(digest.length * 2);
+        for (byte b : digest) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        p.add("signature", sb.toString());
+        return p.concat();
+    }
+
+    @Benchmark
+    public MimeRequest sign() {
+        return sign.sign(request);
+    }
+
+}
@@ -0,0 +1,272 @@
+package dive.http.client;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ClientHttp连接池配置，时间单位均为毫秒
+ * @author dawn
+ */
+public class ClientConfig {
+
+    /**
+     * 连接池最大连接数
+     */
+    private int maxTotal = 200;
+
+    /**
+     * 每个路由最大连接数
+     */
+    private int maxPerRoute = 50;
+
+    /**
+     * 指定主机的最大连接数，键为 scheme://host[:port] 或 host[:port]
+     */
+    private Map<String, Integer> maxPerHost = Collections.emptyMap();
+
+    /**
+     * 连接存活时间，超过后不再复用，-1表示不限制，同步和异步请求都适用
+     */
+    private long timeToLive = -1;
+
+    /**
+     * 连接空闲超过该时间后，复用前先检查是否可用，只用于同步请求
+     * 异步连接池不支持复用前检查，由IO线程发现已关闭的连接
+     */
+    private int validateAfterInactivity = 2000;
+
+    /**
+     * 服务端未声明Keep-Alive时的默认保持时间
+     */
+    private long keepAlive = 5000;
+
+    /**
+     * 空闲超过该时间的连接由后台线程关闭
+     */
+    private long maxIdleTime = 10000;
+
+    /**
+     * 后台线程清理连接的间隔
+     */
+    private long evictInterval = 5000;
+
+    /**
+     * 建立连接超时时间
+     */
+    private int connectTimeout = 10000;
+
+    /**
+     * 读取超时时间
+     */
+    private int socketTimeout = 10000;
+
+    /**
+     * 从连接池获取连接的超时时间
+     */
+    private int connectionRequestTimeout = 10000;
+
+    private ClientConfig() {}
+
+    /**
+     * 默认配置
+     * @return 配置
+     */
+    public static ClientConfig defaults() {
+        return new ClientConfig();
+    }
+
+    /**
+     * 获取建造者实例
+     * @return 建造者实例
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public int getMaxTotal() {
+        return maxTotal;
+    }
+
+    public int getMaxPerRoute() {
+        return maxPerRoute;
+    }
+
+    public Map<String, Integer> getMaxPerHost() {
+        return maxPerHost;
+    }
+
+    public long getTimeToLive() {
+        return timeToLive;
+    }
+
+    public int getValidateAfterInactivity() {
+        return validateAfterInactivity;
+    }
+
+    public long getKeepAlive() {
+        return keepAlive;
+    }
+
+    public long getMaxIdleTime() {
+        return maxIdleTime;
+    }
+
+    public long getEvictInterval() {
+        return evictInterval;
+    }
+
+    public int getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    public int getSocketTimeout() {
+        return socketTimeout;
+    }
+
+    public int getConnectionRequestTimeout() {
+        return connectionRequestTimeout;
+    }
+
+    /**
+     * 建造者类，用于创建ClientConfig对象
+     */
+    public static class Builder {
+
+        private final ClientConfig config = new ClientConfig();
+
+        private final Map<String, Integer> maxPerHost = new LinkedHashMap<>();
+
+        /**
+         * 设置连接池最大连接数
+         * @param maxTotal 最大连接数
+         * @return Builder
+         */
+        public Builder maxTotal(int maxTotal) {
+            config.maxTotal = positive(maxTotal, "maxTotal");
+            return this;
+        }
+
+        /**
+         * 设置每个路由最大连接数
+         * @param maxPerRoute 最大连接数
+         * @return Builder
+         */
+        public Builder maxPerRoute(int maxPerRoute) {
+            config.maxPerRoute = positive(maxPerRoute, "maxPerRoute");
+            return this;
+        }
+
+        /**
+         * 设置指定主机的最大连接数
+         * @param host 主机，例如：https://api.huobi.pro、http://127.0.0.1:8080，没有scheme时按http，例如：127.0.0.1:8080
+         * @param max 最大连接数
+         * @return Builder
+         * @throws IllegalArgumentException 不是合法的主机
+         */
+        public Builder maxPerHost(String host, int max) {
+            Objects.requireNonNull(host, "host");
+            ClientPool.route(host);
+            maxPerHost.put(host, positive(max, "max"));
+            return this;
+        }
+
+        /**
+         * 设置连接存活时间
+         * @param timeToLive 存活时间，-1表示不限制
+         * @param unit 时间单位
+         * @return Builder
+         */
+        public Builder timeToLive(long timeToLive, TimeUnit unit) {
+            config.timeToLive = 0 > timeToLive ? -1 : unit.toMillis(timeToLive);
+            return this;
+        }
+
+        /**
+         * 设置连接空闲多久后复用前需要检查，只用于同步请求
+         * @param validateAfterInactivity 空闲时间
+         * @param unit 时间单位
+         * @return Builder
+         */
+        public Builder validateAfterInactivity(long validateAfterInactivity, TimeUnit unit) {
+            config.validateAfterInactivity = (int) unit.toMillis(validateAfterInactivity);
+            return this;
+        }
+
+        /**
+         * 设置服务端未声明Keep-Alive时的默认保持时间
+         * @param keepAlive 保持时间
+         * @param unit 时间单位
+         * @return Builder
+         */
+        public Builder keepAlive(long keepAlive, TimeUnit unit) {
+            config.keepAlive = unit.toMillis(keepAlive);
+            return this;
+        }
+
+        /**
+         * 设置后台清理连接的策略
+         * @param maxIdleTime 空闲超过该时间的连接将被关闭
+         * @param interval 清理间隔
+         * @param unit 时间单位
+         * @return Builder
+         */
+        public Builder evict(long maxIdleTime, long interval, TimeUnit unit) {
+            config.maxIdleTime = unit.toMillis(maxIdleTime);
+            config.evictInterval = positive(unit.toMillis(interval), "interval");
+            return this;
+        }
+
+        /**
+         * 设置超时时间
+         * @param connect 建立连接超时时间
+         * @param socket 读取超时时间
+         * @param connectionRequest 从连接池获取连接的超时时间
+         * @param unit 时间单位
+         * @return Builder
+         */
+        public Builder timeout(long connect, long socket, long connectionRequest, TimeUnit unit) {
+            config.connectTimeout = (int) unit.toMillis(connect);
+            config.socketTimeout = (int) unit.toMillis(socket);
+            config.connectionRequestTimeout = (int) unit.toMillis(connectionRequest);
+            return this;
+        }
+
+        /**
+         * 构建ClientConfig对象
+         * @return ClientConfig对象
+         */
+        public ClientConfig build() {
+            ClientConfig result = new ClientConfig();
+            result.maxTotal = config.maxTotal;
+            result.maxPerRoute = config.maxPerRoute;
+            result.maxPerHost = Collections.unmodifiableMap(new LinkedHashMap<>(maxPerHost));
+            result.timeToLive = config.timeToLive;
+            result.validateAfterInactivity = config.validateAfterInactivity;
+            result.keepAlive = config.keepAlive;
+            result.maxIdleTime = config.maxIdleTime;
+            result.evictInterval = config.evictInterval;
+            result.connectTimeout = config.connectTimeout;
+            result.socketTimeout = config.socketTimeout;
+            result.connectionRequestTimeout = config.connectionRequestTimeout;
+            return result;
+        }
+
+        private static int positive(int value, String name) {
+            if (value <= 0) {
+                throw new IllegalArgumentException(name + " must be positive: " + value);
+            }
+            return value;
+        }
+
+        private static long positive(long value, String name) {
+            if (value <= 0) {
+                throw new IllegalArgumentException(name + " must be positive: " + value);
+            }
+            return value;
+        }
+    }
+
+}
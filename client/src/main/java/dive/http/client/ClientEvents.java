@@ -0,0 +1,258 @@
+package dive.http.client;
+
+import dive.http.common.MimeRequest;
+import dive.http.common.RequestListener;
+import org.apache.http.HttpClientConnection;
+import org.apache.http.HttpConnection;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpException;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpResponseInterceptor;
+import org.apache.http.config.Registry;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.config.SocketConfig;
+import org.apache.http.conn.DnsResolver;
+import org.apache.http.conn.ManagedHttpClientConnection;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.entity.HttpEntityWrapper;
+import org.apache.http.impl.conn.DefaultHttpClientConnectionOperator;
+import org.apache.http.impl.conn.SystemDefaultDnsResolver;
+import org.apache.http.protocol.BasicHttpContext;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.protocol.HttpCoreContext;
+import org.apache.http.protocol.HttpRequestExecutor;
+import org.apache.http.ssl.SSLContexts;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.UnknownHostException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+
+/**
+ * 将httpclient各阶段的事件转交给RequestListener，监听和请求对象放在HttpContext中，没有时不产生事件
+ * @author dawn
+ */
+class ClientEvents {
+
+    private static final String LISTENER = "dive.http.listener";
+
+    private static final String REQUEST = "dive.http.request";
+
+    /**
+     * 域名解析接口没有HttpContext，建立连接期间放在当前线程
+     */
+    private static final ThreadLocal<HttpContext> CONNECTING = new ThreadLocal<>();
+
+    private ClientEvents() {}
+
+    /**
+     * 构造携带监听的HttpContext，每次调用一个HttpContext和一个本次调用的监听
+     * @param listener 监听
+     * @param request 请求对象
+     * @return HttpContext，没有监听时为null
+     */
+    static HttpContext context(RequestListener listener, MimeRequest request) {
+        if (null == listener) {
+            return null;
+        }
+        HttpContext context = new BasicHttpContext();
+        context.setAttribute(LISTENER, listener.call(request));
+        context.setAttribute(REQUEST, request);
+        return context;
+    }
+
+    /**
+     * 触发事件
+     * @param context HttpContext
+     * @param event 事件
+     */
+    static void fire(HttpContext context, BiConsumer<RequestListener, MimeRequest> event) {
+        if (null == context) {
+            return;
+        }
+        Object listener = context.getAttribute(LISTENER);
+        Object request = context.getAttribute(REQUEST);
+        if (listener instanceof RequestListener && request instanceof MimeRequest) {
+            try {
+                event.accept((RequestListener) listener, (MimeRequest) request);
+            } catch (RuntimeException e) {
+                // 监听异常不影响请求
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * 有监听时包装响应体，读取时累计实际读到的原始字节数，用于bodyEnd
+     * @param context HttpContext
+     * @param entity 响应体
+     * @param bytes 字节数
+     * @return 读取时计数的响应体，没有监听时为原响应体
+     */
+    static HttpEntity count(HttpContext context, HttpEntity entity, LongAdder bytes) {
+        if (null == context || null == entity) {
+            return entity;
+        }
+        return new HttpEntityWrapper(entity) {
+            @Override
+            public InputStream getContent() throws IOException {
+                return RequestListener.count(wrappedEntity.getContent(), bytes);
+            }
+
+            @Override
+            public void writeTo(OutputStream out) throws IOException {
+                try (InputStream in = getContent()) {
+                    byte[] buffer = new byte[8192];
+                    int n;
+                    while (-1 != (n = in.read(buffer))) {
+                        out.write(buffer, 0, n);
+                    }
+                }
+            }
+        };
+    }
+
+    /**
+     * 带连接事件的socket工厂
+     * @return socket工厂
+     */
+    static Registry<ConnectionSocketFactory> registry() {
+        return RegistryBuilder.<ConnectionSocketFactory>create()
+                .register("http", new PlainSocket())
+                .register("https", new SecureSocket())
+                .build();
+    }
+
+    /**
+     * 建立连接，期间域名解析可以取到HttpContext
+     */
+    static class Operator extends DefaultHttpClientConnectionOperator {
+
+        Operator() {
+            super(registry(), null, new Dns());
+        }
+
+        @Override
+        public void connect(ManagedHttpClientConnection conn, HttpHost host, InetSocketAddress localAddress,
+                            int connectTimeout, SocketConfig socketConfig, HttpContext context) throws IOException {
+            if (null == context.getAttribute(LISTENER)) {
+                super.connect(conn, host, localAddress, connectTimeout, socketConfig, context);
+                return;
+            }
+            CONNECTING.set(context);
+            try {
+                super.connect(conn, host, localAddress, connectTimeout, socketConfig, context);
+            } finally {
+                CONNECTING.remove();
+            }
+        }
+    }
+
+    /**
+     * 域名解析
+     */
+    private static class Dns implements DnsResolver {
+
+        @Override
+        public InetAddress[] resolve(String host) throws UnknownHostException {
+            HttpContext context = CONNECTING.get();
+            fire(context, (listener, request) -> listener.dnsStart(request, host));
+            InetAddress[] addresses = SystemDefaultDnsResolver.INSTANCE.resolve(host);
+            fire(context, (listener, request) -> listener.dnsEnd(request, host));
+            return addresses;
+        }
+    }
+
+    private static class PlainSocket extends PlainConnectionSocketFactory {
+
+        @Override
+        public Socket connectSocket(int connectTimeout, Socket socket, HttpHost host, InetSocketAddress remoteAddress,
+                                    InetSocketAddress localAddress, HttpContext context) throws IOException {
+            fire(context, (listener, request) -> listener.connectStart(request, remoteAddress));
+            Socket connected = super.connectSocket(connectTimeout, socket, host, remoteAddress, localAddress, context);
+            fire(context, RequestListener::connectEnd);
+            return connected;
+        }
+    }
+
+    private static class SecureSocket extends SSLConnectionSocketFactory {
+
+        SecureSocket() {
+            super(SSLContexts.createDefault(), getDefaultHostnameVerifier());
+        }
+
+        @Override
+        public Socket connectSocket(int connectTimeout, Socket socket, HttpHost host, InetSocketAddress remoteAddress,
+                                    InetSocketAddress localAddress, HttpContext context) throws IOException {
+            fire(context, (listener, request) -> listener.connectStart(request, remoteAddress));
+            Socket connected = super.connectSocket(connectTimeout, socket, host, remoteAddress, localAddress, context);
+            fire(context, RequestListener::connectEnd);
+            return connected;
+        }
+
+        @Override
+        public Socket createLayeredSocket(Socket socket, String target, int port, HttpContext context) throws IOException {
+            fire(context, RequestListener::secureConnectStart);
+            Socket layered = super.createLayeredSocket(socket, target, port, context);
+            fire(context, RequestListener::secureConnectEnd);
+            return layered;
+        }
+    }
+
+    /**
+     * 同步请求的连接复用、请求写出和收到响应头事件
+     */
+    static class Executor extends HttpRequestExecutor {
+
+        @Override
+        public HttpResponse execute(HttpRequest request, HttpClientConnection conn, HttpContext context)
+                throws IOException, HttpException {
+            if (null != context.getAttribute(LISTENER)) {
+                boolean reused = 0 < conn.getMetrics().getRequestCount();
+                fire(context, (listener, r) -> listener.connectionAcquired(r, reused));
+            }
+            return super.execute(request, conn, context);
+        }
+
+        @Override
+        protected HttpResponse doSendRequest(HttpRequest request, HttpClientConnection conn, HttpContext context)
+                throws IOException, HttpException {
+            HttpResponse response = super.doSendRequest(request, conn, context);
+            fire(context, RequestListener::requestWritten);
+            return response;
+        }
+
+        @Override
+        protected HttpResponse doReceiveResponse(HttpRequest request, HttpClientConnection conn, HttpContext context)
+                throws HttpException, IOException {
+            HttpResponse response = super.doReceiveResponse(request, conn, context);
+            fire(context, RequestListener::firstByte);
+            return response;
+        }
+    }
+
+    /**
+     * 异步请求的连接复用和收到响应头事件，此时本次请求已计入连接的请求数
+     */
+    static final HttpResponseInterceptor ASYNC = (response, context) -> {
+        if (null == context.getAttribute(LISTENER)) {
+            return;
+        }
+        Object conn = context.getAttribute(HttpCoreContext.HTTP_CONNECTION);
+        if (conn instanceof HttpConnection) {
+            boolean reused = 1 < ((HttpConnection) conn).getMetrics().getRequestCount();
+            fire(context, (listener, request) -> listener.connectionAcquired(request, reused));
+        }
+        fire(context, RequestListener::firstByte);
+    };
+
+}
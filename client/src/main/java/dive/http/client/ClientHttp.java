@@ -1,96 +1,89 @@
 package dive.http.client;
 
 import dive.http.common.BaseMimeHttp;
+import dive.http.common.Compression;
 import dive.http.common.Detail;
 import dive.http.common.MimeHttp;
 import dive.http.common.MimeRequest;
+import dive.http.common.Receiver;
+import dive.http.common.RequestListener;
+import dive.http.common.model.Content;
 import dive.http.common.model.Header;
 import dive.http.common.model.Method;
 import dive.http.common.model.Parameter;
-import org.apache.http.Consts;
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
-import org.apache.http.NameValuePair;
-import org.apache.http.client.HttpClient;
-import org.apache.http.client.config.RequestConfig;
-import org.apache.http.client.entity.UrlEncodedFormEntity;
+import org.apache.http.concurrent.FutureCallback;
 import org.apache.http.client.methods.*;
 import org.apache.http.conn.ConnectTimeoutException;
-import org.apache.http.conn.ConnectionKeepAliveStrategy;
 import org.apache.http.conn.HttpHostConnectException;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.FileEntity;
+import org.apache.http.entity.HttpEntityWrapper;
 import org.apache.http.entity.StringEntity;
-import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
-import org.apache.http.impl.client.HttpClients;
-import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
-import org.apache.http.message.BasicNameValuePair;
 import org.apache.http.protocol.HttpContext;
 import org.apache.http.util.EntityUtils;
 
+import java.io.Closeable;
 import java.io.IOException;
-import java.util.LinkedList;
-import java.util.List;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ConnectException;
+import java.nio.charset.Charset;
 import java.util.Objects;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * 利用apache的httpclient包实现
  * @author dawn
  */
-public class ClientHttp extends BaseMimeHttp {
+public class ClientHttp extends BaseMimeHttp implements Closeable {
 
 	/**
-	 * 底层请求对象
+	 * 默认连接池，所有使用默认配置的实例共享
 	 */
-	private static HttpClient client;
-
-	private static long startTime = System.currentTimeMillis();
+	private static class Default {
+		private static final ClientPool POOL = new ClientPool(ClientConfig.defaults());
+	}
 
 	/**
-	 * 连接池
+	 * 连接池及底层请求对象
 	 */
-	private static PoolingHttpClientConnectionManager cm =
-			new PoolingHttpClientConnectionManager();
+	private final ClientPool pool;
 
 	/**
-	 * 连接保持策略
+	 * 是否独占连接池，独占时关闭实例会关闭连接池
 	 */
-	private static ConnectionKeepAliveStrategy keepAliveStart =
-			new DefaultConnectionKeepAliveStrategy() {
-		@Override
-		public long getKeepAliveDuration(HttpResponse response, HttpContext context) {
-			long keepAlive = super.getKeepAliveDuration(response, context);
-			if (-1 == keepAlive) {
-				keepAlive = 5000;
-			}
-			return keepAlive;
-		}
-	};
+	private final boolean owned;
 
 	/**
-	 * 请求配置，超时时间10s
+	 * 构造器，使用共享的默认连接池
 	 */
-	private static RequestConfig requestConfig = RequestConfig.custom()
-			.setSocketTimeout(10000)
-			.setConnectTimeout(10000)
-			.setConnectionRequestTimeout(10000)
-			.build();
-
-	/*
-	 * 实例化对象
+	public ClientHttp() {
+		this.pool = Default.POOL;
+		this.owned = false;
+	}
+
+	/**
+	 * 构造器，按配置创建独占的连接池，不再使用时应调用close
+	 * @param config 连接池配置
 	 */
-	static {
-		client = HttpClients.custom().setConnectionManager(cm)
-				.setKeepAliveStrategy(keepAliveStart).build();
+	public ClientHttp(ClientConfig config) {
+		Objects.requireNonNull(config, "config");
+		this.pool = new ClientPool(config);
+		this.owned = true;
 	}
 
 	/**
-	 * 超时连接监控
+	 * 关闭独占的连接池和后台清理线程，共享的默认连接池不受影响
+	 * @throws IOException 关闭异常
 	 */
-	private static void idleConnectionMonitor(){
-		if(startTime + 10000 < System.currentTimeMillis()){
-			startTime = System.currentTimeMillis();
-			cm.closeExpiredConnections();
-			cm.closeIdleConnections(10, TimeUnit.SECONDS);
+	@Override
+	public void close() throws IOException {
+		if (owned) {
+			pool.close();
 		}
 	}
 
@@ -98,101 +91,170 @@ public class ClientHttp extends BaseMimeHttp {
 	public String execute(MimeRequest request, Detail detail) {
 		Objects.requireNonNull(request, "mime request is null");
 
-		idleConnectionMonitor();
-
 		String url = MimeHttp.url(request);
 		Method method = request.getMethod();
 		Header requestHeader = request.getHeader();
-		Parameter parameter = request.getParameter();
-		String string = request.getString();
-		Object para = null != parameter ? parameter : string;
+		Object para = request.getBody();
 
+		HttpContext context = ClientEvents.context(listener, request);
+		ClientEvents.fire(context, RequestListener::callStart);
 		HttpEntity entity = null;
-		Integer code = null;
-		Header responseHeader = Header.build();
 		String result = null;
+		boolean ended = false;
 		try {
-			HttpRequestBase http = null;
-			switch (method) {
-				case GET: http = new HttpGet(url); break;
-				case POST: http = new HttpPost(url);break;
-				case PUT: http = new HttpPut(url);break;
-				case DELETE: http = new HttpDelete(url);break;
-			}
-
-			if (null != request.getHeader()) {
-				request.getHeader().each(http::setHeader);
-			}
-
-			if (!Method.GET.equals(method)) {
-				HttpEntityEnclosingRequestBase base = (HttpEntityEnclosingRequestBase) http;
-
-				if (null != parameter) {
-					base.setHeader("Content-Type", "application/x-www-form-urlencoded; charset=utf-8");
-					List<NameValuePair> pairs = new LinkedList<>() ;
-					parameter.forEach((k, v) -> pairs.add(new BasicNameValuePair(k, v.toString())));
-					UrlEncodedFormEntity urlEncodedFormEntity = new UrlEncodedFormEntity(pairs, Consts.UTF_8);
-					base.setEntity(urlEncodedFormEntity);
-				} else if (null != string) {
-					if (!string.trim().startsWith("{") && !string.trim().startsWith("[")) {
-						base.setHeader("Content-Type","text/plain; charset=utf-8");
-					} else {
-						base.setHeader("Content-Type", "application/json; charset=utf-8");
+			HttpResponse response = pool.client().execute(request(request, url, false), context);
+			entity = response.getEntity();
+			result = response(response, context, detail, url, method, requestHeader, para);
+			ended = true;
+			ClientEvents.fire(context, RequestListener::callEnd);
+			if(null == entity) {
+				return null;
+			}
+		} catch (IOException e) {
+			ended = true;
+			ClientEvents.fire(context, (l, r) -> l.callFailed(r, e));
+			result = failure(e, detail, url, method, requestHeader, para);
+		} finally {
+			if (!ended) {
+				// 回调抛出了非IO异常，同样结束本次调用
+				ClientEvents.fire(context, (l, r) -> l.callFailed(r, new IOException("Aborted")));
+			}
+			if (null != entity) {
+				try {
+					EntityUtils.consume(entity);
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		}
+		if (null == result) {
+			error("HttpClient result is null. url --> " + url);
+		}
+		return result;
+	}
+
+	@Override
+	public CompletableFuture<String> executeAsync(MimeRequest request, Detail detail) {
+		Objects.requireNonNull(request, "mime request is null");
+
+		String url = MimeHttp.url(request);
+		Method method = request.getMethod();
+		Header requestHeader = request.getHeader();
+		Object para = request.getBody();
+
+		CompletableFuture<String> future = new CompletableFuture<>();
+		HttpRequestBase httpRequest = request(request, url, true);
+		HttpContext context = ClientEvents.context(listener, request);
+		ClientEvents.fire(context, RequestListener::callStart);
+		pool.async().execute(httpRequest, context, new FutureCallback<HttpResponse>() {
+			@Override
+			public void completed(HttpResponse response) {
+				if (future.isDone()) {
+					ClientEvents.fire(context, RequestListener::callEnd);
+					return;
+				}
+				try {
+					String result = response(response, context, detail, url, method, requestHeader, para);
+					ClientEvents.fire(context, RequestListener::callEnd);
+					if (null == response.getEntity()) {
+						future.complete(null);
+						return;
 					}
-					StringEntity stringEntity = new StringEntity(string, "UTF-8");
-					base.setEntity(stringEntity);
+					complete(result);
+				} catch (IOException e) {
+					ClientEvents.fire(context, (l, r) -> l.callFailed(r, e));
+					if (!future.isDone()) {
+						complete(failure(e, detail, url, method, requestHeader, para));
+					}
+				} catch (RuntimeException e) {
+					ClientEvents.fire(context, (l, r) -> l.callFailed(r, new IOException(e)));
+					future.completeExceptionally(e);
 				}
 			}
 
-			http.setConfig(requestConfig);
+			@Override
+			public void failed(Exception e) {
+				ClientEvents.fire(context, (l, r) -> l.callFailed(r, e instanceof IOException ? (IOException) e : new IOException(e)));
+				if (future.isDone()) {
+					return;
+				}
+				if (e instanceof IOException) {
+					complete(failure((IOException) e, detail, url, method, requestHeader, para));
+				} else {
+					future.completeExceptionally(e);
+				}
+			}
 
-			HttpResponse response = client.execute(http);
-			entity = response.getEntity();
-			if(null == entity) {
-				return null;
+			@Override
+			public void cancelled() {
+				ClientEvents.fire(context, (l, r) -> l.callFailed(r, new IOException("Canceled")));
+				future.cancel(false);
 			}
-			result = EntityUtils.toString(entity, "UTF-8");
 
-			if (null != detail) {
-				code = response.getStatusLine().getStatusCode();
-				org.apache.http.Header[] headers = response.getAllHeaders();
-				for (org.apache.http.Header h : headers) {
-					responseHeader.add(h.getName(), h.getValue());
+			private void complete(String result) {
+				if (null == result) {
+					error("HttpClient result is null. url --> " + url);
 				}
+				future.complete(result);
+			}
+		});
+		// 取消时中止请求
+		future.whenComplete((result, e) -> {
+			if (future.isCancelled()) {
+				httpRequest.abort();
+			}
+		});
+		return future;
+	}
+
+	@Override
+	public <R> R executeStream(MimeRequest request, Receiver<R> receiver, Detail detail) {
+		Objects.requireNonNull(request, "mime request is null");
+		Objects.requireNonNull(receiver, "receiver");
+
+		String url = MimeHttp.url(request);
+		Method method = request.getMethod();
+		Header requestHeader = request.getHeader();
+		Object para = request.getBody();
+
+		HttpContext context = ClientEvents.context(listener, request);
+		ClientEvents.fire(context, RequestListener::callStart);
+		HttpEntity entity = null;
+		R result = null;
+		boolean ended = false;
+		try {
+			HttpResponse response = pool.client().execute(request(request, url, false), context);
+			entity = response.getEntity();
+			// 只有2xx响应交给receiver，错误响应在finally中读完
+			if (null != entity && MimeHttp.success(response.getStatusLine().getStatusCode())) {
+				Charset charset = MimeHttp.charset(null != entity.getContentType() ? entity.getContentType().getValue() : null);
+				LongAdder bytes = null == context ? null : new LongAdder();
+				try (InputStream in = decoded(response, ClientEvents.count(context, entity, bytes)).getContent()) {
+					result = receiver.receive(in, charset);
+				}
+				// 接收者可能没有读完响应体，报告实际读取的字节数
+				ClientEvents.fire(context, (l, r) -> l.bodyEnd(r, bytes.sum()));
+			}
+			ended = true;
+			ClientEvents.fire(context, RequestListener::callEnd);
+			if (null != detail) {
 				detail.accept(url,
 						method,
 						requestHeader,
 						para,
-						code,
-						responseHeader,
-						result);
-			}
-		} catch (ConnectTimeoutException e) {
-			e.printStackTrace();
-			error(e, "HttpClient", url);
-			result = MimeHttp.except("Connection timed out: connect", detail,
-					url,
-					method,
-					requestHeader,
-					para,
-					code,
-					responseHeader,
-					result);
-		} catch (HttpHostConnectException e) {
-			e.printStackTrace();
-			error(e, "HttpClient", url);
-			result = MimeHttp.except(e.getCause().getMessage(), detail,
-					url,
-					method,
-					requestHeader,
-					para,
-					code,
-					responseHeader,
-					result);
+						response.getStatusLine().getStatusCode(),
+						header(response),
+						null);
+			}
 		} catch (IOException e) {
-			e.printStackTrace();
-			error(e, "HttpClient", url);
+			ended = true;
+			ClientEvents.fire(context, (l, r) -> l.callFailed(r, e));
+			failure(e, detail, url, method, requestHeader, para);
 		} finally {
+			if (!ended) {
+				// 接收者或回调抛出了非IO异常，同样结束本次调用
+				ClientEvents.fire(context, (l, r) -> l.callFailed(r, new IOException("Aborted")));
+			}
 			if (null != entity) {
 				try {
 					EntityUtils.consume(entity);
@@ -201,11 +263,207 @@ public class ClientHttp extends BaseMimeHttp {
 				}
 			}
 		}
-		if (null == result) {
-			error("HttpClient result is null. url --> " + url);
+		return result;
+	}
+
+	/**
+	 * 构造请求对象
+	 * @param request MimeRequest请求对象
+	 * @param url 请求url
+	 * @param async 是否为异步请求，异步请求的二进制请求体不在I/O线程中读取
+	 * @return 请求对象
+	 */
+	private HttpRequestBase request(MimeRequest request, String url, boolean async) {
+		Method method = request.getMethod();
+		Parameter parameter = request.getParameter();
+		String string = request.getString();
+		Content content = request.getContent();
+
+		HttpRequestBase http = null;
+		switch (method) {
+			case GET: http = new HttpGet(url); break;
+			case POST: http = new HttpPost(url);break;
+			case PUT: http = new HttpPut(url);break;
+			case DELETE: http = new HttpDelete(url);break;
+		}
+
+		if (null != request.getHeader()) {
+			request.getHeader().each(http::setHeader);
+		}
+		// 连接池关闭了httpclient自带的解压，统一由Compression声明和解码
+		Compression compression = this.compression;
+		if (null != compression.accept() && !http.containsHeader("Accept-Encoding")) {
+			http.setHeader("Accept-Encoding", compression.accept());
+		}
+		boolean encode = !http.containsHeader("Content-Encoding");
+
+		if (!Method.GET.equals(method)) {
+			HttpEntityEnclosingRequestBase base = (HttpEntityEnclosingRequestBase) http;
+
+			if (null != parameter) {
+				base.setHeader("Content-Type", "application/x-www-form-urlencoded; charset=utf-8");
+				base.setEntity(entity(base, parameter.form(), ContentType.APPLICATION_FORM_URLENCODED, encode));
+			} else if (null != string) {
+				if (!string.trim().startsWith("{") && !string.trim().startsWith("[")) {
+					base.setHeader("Content-Type","text/plain; charset=utf-8");
+				} else {
+					base.setHeader("Content-Type", "application/json; charset=utf-8");
+				}
+				base.setEntity(entity(base, string, ContentType.create("text/plain", "UTF-8"), encode));
+			} else if (null != content) {
+				if (async) {
+					// 文件和流都在线程池中读取，I/O线程只写出已读取的数据
+					base.setEntity(new ContentProducer(content, executor()));
+				} else if (null != content.getPath()) {
+					base.setEntity(new FileEntity(content.getPath().toFile(), ContentType.parse(content.getType())));
+				} else {
+					base.setEntity(new ContentEntity(content));
+				}
+			}
+		}
+
+		http.setConfig(pool.requestConfig());
+		return http;
+	}
+
+	/**
+	 * 构造字符串请求体，达到阈值时压缩
+	 * @param base 请求对象，压缩时设置Content-Encoding
+	 * @param text 请求体
+	 * @param type 类型
+	 * @param encode 是否可以压缩，已指定Content-Encoding时不压缩
+	 * @return 请求体
+	 */
+	private HttpEntity entity(HttpEntityEnclosingRequestBase base, String text, ContentType type, boolean encode) {
+		Compression compression = this.compression;
+		byte[] encoded = encode ? compression.encode(text, type.getCharset()) : null;
+		if (null == encoded) {
+			return new StringEntity(text, type);
+		}
+		base.setHeader("Content-Encoding", compression.getRequestCoding());
+		return new ByteArrayEntity(encoded, type);
+	}
+
+	/**
+	 * 按Content-Encoding解码响应体，读取时解码，长度和释放仍使用原响应体
+	 * @param response 响应
+	 * @param entity 响应体
+	 * @return 解码后的响应体
+	 */
+	private HttpEntity decoded(HttpResponse response, HttpEntity entity) {
+		org.apache.http.Header encoding = response.getFirstHeader("Content-Encoding");
+		if (null == encoding) {
+			return entity;
+		}
+		Compression compression = this.compression;
+		return new HttpEntityWrapper(entity) {
+			@Override
+			public InputStream getContent() throws IOException {
+				return compression.decode(wrappedEntity.getContent(), encoding.getValue());
+			}
+
+			@Override
+			public long getContentLength() {
+				return -1;
+			}
+
+			@Override
+			public org.apache.http.Header getContentEncoding() {
+				return null;
+			}
+
+			@Override
+			public void writeTo(OutputStream out) throws IOException {
+				try (InputStream in = getContent()) {
+					byte[] buffer = new byte[8192];
+					int n;
+					while (-1 != (n = in.read(buffer))) {
+						out.write(buffer, 0, n);
+					}
+				}
+			}
+		};
+	}
+
+	/**
+	 * 读取响应结果
+	 * @param response 响应
+	 * @param context 携带监听的HttpContext
+	 * @param detail 更加详细的处理
+	 * @param url 请求url
+	 * @param method 请求方法
+	 * @param requestHeader 请求header
+	 * @param para 请求体
+	 * @return 请求结果
+	 * @throws IOException 读取异常
+	 */
+	private String response(HttpResponse response, HttpContext context, Detail detail,
+							String url, Method method, Header requestHeader, Object para) throws IOException {
+		// 304等没有响应体的响应也需要回调响应码和响应头
+		HttpEntity entity = response.getEntity();
+		LongAdder bytes = null == context ? null : new LongAdder();
+		String result = null == entity ? null : EntityUtils.toString(decoded(response, ClientEvents.count(context, entity, bytes)), "UTF-8");
+		ClientEvents.fire(context, (l, r) -> l.bodyEnd(r, bytes.sum()));
+
+		if (null != detail) {
+			detail.accept(url,
+					method,
+					requestHeader,
+					para,
+					response.getStatusLine().getStatusCode(),
+					header(response),
+					result);
 		}
 		return result;
 	}
 
-}
+	/**
+	 * 获取响应头
+	 * @param response 响应
+	 * @return 响应头
+	 */
+	private Header header(HttpResponse response) {
+		org.apache.http.Header[] headers = response.getAllHeaders();
+		Header responseHeader = Header.build(headers.length);
+		for (org.apache.http.Header h : headers) {
+			responseHeader.add(h.getName(), h.getValue());
+		}
+		return responseHeader;
+	}
+
+	/**
+	 * 请求异常处理
+	 * @param e 异常
+	 * @param detail 更加详细的处理
+	 * @param url 请求url
+	 * @param method 请求方法
+	 * @param requestHeader 请求header
+	 * @param para 请求体
+	 * @return 请求结果
+	 */
+	private String failure(IOException e, Detail detail,
+						   String url, Method method, Header requestHeader, Object para) {
+		e.printStackTrace();
+		error(e, "HttpClient", url);
+		String message = null;
+		if (e instanceof ConnectTimeoutException) {
+			message = "Connection timed out: connect";
+		} else if (e instanceof HttpHostConnectException) {
+			message = null != e.getCause() ? e.getCause().getMessage() : e.getMessage();
+		} else if (e instanceof ConnectException) {
+			message = e.getMessage();
+		}
+		if (null == message) {
+			return null;
+		}
+		return MimeHttp.except(message, detail,
+				url,
+				method,
+				requestHeader,
+				para,
+				null,
+				Header.build(),
+				null);
+	}
 
+}
@@ -0,0 +1,233 @@
+package dive.http.client;
+
+import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.config.Registry;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.DefaultSchemePortResolver;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.impl.conn.SystemDefaultDnsResolver;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.impl.nio.conn.ManagedNHttpClientConnectionFactory;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.nio.conn.NoopIOSessionStrategy;
+import org.apache.http.nio.conn.SchemeIOSessionStrategy;
+import org.apache.http.nio.conn.ssl.SSLIOSessionStrategy;
+import org.apache.http.nio.reactor.IOReactorException;
+import org.apache.http.protocol.HttpContext;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 连接池及底层请求对象，空闲和过期连接由后台线程清理，不占用请求线程
+ * @author dawn
+ */
+class ClientPool implements Closeable {
+
+    private static final AtomicInteger COUNT = new AtomicInteger();
+
+    /**
+     * 异步连接池的协议，与默认值相同，指定连接存活时间时需要显式传入
+     */
+    private static final Registry<SchemeIOSessionStrategy> STRATEGIES = RegistryBuilder.<SchemeIOSessionStrategy>create()
+            .register("http", NoopIOSessionStrategy.INSTANCE)
+            .register("https", SSLIOSessionStrategy.getDefaultStrategy())
+            .build();
+
+    /**
+     * 配置
+     */
+    private final ClientConfig config;
+
+    /**
+     * 连接池
+     */
+    private final PoolingHttpClientConnectionManager cm;
+
+    /**
+     * 底层请求对象
+     */
+    private final CloseableHttpClient client;
+
+    /**
+     * 请求配置
+     */
+    private final RequestConfig requestConfig;
+
+    /**
+     * 连接保持策略
+     */
+    private final ConnectionKeepAliveStrategy keepAliveStrategy;
+
+    /**
+     * 异步连接池，首次异步请求时创建
+     */
+    private volatile PoolingNHttpClientConnectionManager asyncCm;
+
+    /**
+     * 底层异步请求对象，首次异步请求时创建并启动
+     */
+    private volatile CloseableHttpAsyncClient asyncClient;
+
+    /**
+     * 清理连接的后台线程
+     */
+    private final ScheduledExecutorService evictor;
+
+    ClientPool(ClientConfig config) {
+        this.config = config;
+
+        // 建立连接时可以发出请求过程事件，未设置监听时与默认实现相同
+        cm = new PoolingHttpClientConnectionManager(new ClientEvents.Operator(), null,
+                config.getTimeToLive(), TimeUnit.MILLISECONDS);
+        cm.setMaxTotal(config.getMaxTotal());
+        cm.setDefaultMaxPerRoute(config.getMaxPerRoute());
+        cm.setValidateAfterInactivity(config.getValidateAfterInactivity());
+        config.getMaxPerHost().forEach((host, max) -> cm.setMaxPerRoute(route(host), max));
+
+        long keepAlive = config.getKeepAlive();
+        keepAliveStrategy = new DefaultConnectionKeepAliveStrategy() {
+            @Override
+            public long getKeepAliveDuration(HttpResponse response, HttpContext context) {
+                long duration = super.getKeepAliveDuration(response, context);
+                if (-1 == duration) {
+                    duration = keepAlive;
+                }
+                return duration;
+            }
+        };
+
+        requestConfig = RequestConfig.custom()
+                .setSocketTimeout(config.getSocketTimeout())
+                .setConnectTimeout(config.getConnectTimeout())
+                .setConnectionRequestTimeout(config.getConnectionRequestTimeout())
+                .build();
+
+        // 响应体由ClientHttp按Compression解码
+        client = HttpClients.custom().setConnectionManager(cm)
+                .disableContentCompression()
+                .setKeepAliveStrategy(keepAliveStrategy)
+                .setRequestExecutor(new ClientEvents.Executor()).build();
+
+        evictor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "dive-http-client-evictor-" + COUNT.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        evictor.scheduleWithFixedDelay(this::evict,
+                config.getEvictInterval(), config.getEvictInterval(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 清理过期和空闲连接
+     */
+    private void evict() {
+        try {
+            cm.closeExpiredConnections();
+            cm.closeIdleConnections(config.getMaxIdleTime(), TimeUnit.MILLISECONDS);
+            PoolingNHttpClientConnectionManager nio = asyncCm;
+            if (null != nio) {
+                nio.closeExpiredConnections();
+                nio.closeIdleConnections(config.getMaxIdleTime(), TimeUnit.MILLISECONDS);
+            }
+        } catch (RuntimeException e) {
+            // 清理失败不能终止后台线程，下次继续
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * 根据主机构造路由，没有scheme时按http处理
+     * @param host scheme://host[:port] 或 host[:port]
+     * @return 路由
+     * @throws IllegalArgumentException 不是合法的主机
+     */
+    static HttpRoute route(String host) {
+        URI uri;
+        try {
+            uri = URI.create(host.contains("://") ? host : "http://" + host);
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("invalid host: " + host, e);
+        }
+        String scheme = uri.getScheme().toLowerCase();
+        if (null == uri.getHost() || !("http".equals(scheme) || "https".equals(scheme))) {
+            throw new IllegalArgumentException("invalid host: " + host);
+        }
+        boolean secure = "https".equals(scheme);
+        int port = 0 < uri.getPort() ? uri.getPort() : (secure ? 443 : 80);
+        return new HttpRoute(new HttpHost(uri.getHost(), port, scheme), null, secure);
+    }
+
+    CloseableHttpClient client() {
+        return client;
+    }
+
+    RequestConfig requestConfig() {
+        return requestConfig;
+    }
+
+    /**
+     * 获取异步请求对象
+     * @return 异步请求对象
+     */
+    CloseableHttpAsyncClient async() {
+        if (null == asyncClient) {
+            synchronized (this) {
+                if (null == asyncClient) {
+                    PoolingNHttpClientConnectionManager nio;
+                    try {
+                        // 异步连接池没有复用前检查，validateAfterInactivity只用于同步请求
+                        nio = new PoolingNHttpClientConnectionManager(new DefaultConnectingIOReactor(),
+                                ManagedNHttpClientConnectionFactory.INSTANCE, STRATEGIES,
+                                DefaultSchemePortResolver.INSTANCE, SystemDefaultDnsResolver.INSTANCE,
+                                config.getTimeToLive(), TimeUnit.MILLISECONDS);
+                    } catch (IOReactorException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                    nio.setMaxTotal(config.getMaxTotal());
+                    nio.setDefaultMaxPerRoute(config.getMaxPerRoute());
+                    config.getMaxPerHost().forEach((host, max) -> nio.setMaxPerRoute(route(host), max));
+                    CloseableHttpAsyncClient c = HttpAsyncClients.custom()
+                            .setConnectionManager(nio)
+                            .setKeepAliveStrategy(keepAliveStrategy)
+                            .setDefaultRequestConfig(requestConfig)
+                            .addInterceptorLast(ClientEvents.ASYNC)
+                            .build();
+                    c.start();
+                    asyncCm = nio;
+                    asyncClient = c;
+                }
+            }
+        }
+        return asyncClient;
+    }
+
+    @Override
+    public void close() throws IOException {
+        evictor.shutdownNow();
+        try {
+            client.close();
+        } finally {
+            CloseableHttpAsyncClient c = asyncClient;
+            if (null != c) {
+                c.close();
+            }
+        }
+    }
+
+}
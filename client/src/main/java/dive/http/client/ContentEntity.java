@@ -0,0 +1,48 @@
+package dive.http.client;
+
+import dive.http.common.model.Content;
+import org.apache.http.entity.AbstractHttpEntity;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * 二进制请求体，写出时才打开数据源，长度未知时分块传输
+ * @author dawn
+ */
+public class ContentEntity extends AbstractHttpEntity {
+
+    private final Content content;
+
+    public ContentEntity(Content content) {
+        this.content = content;
+        setContentType(content.getType());
+        setChunked(0 > content.getLength());
+    }
+
+    @Override
+    public boolean isRepeatable() {
+        return true;
+    }
+
+    @Override
+    public long getContentLength() {
+        return content.getLength();
+    }
+
+    @Override
+    public InputStream getContent() throws IOException {
+        return content.open();
+    }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+        content.writeTo(out);
+    }
+
+    @Override
+    public boolean isStreaming() {
+        return false;
+    }
+}
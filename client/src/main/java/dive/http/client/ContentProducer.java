@@ -0,0 +1,177 @@
+package dive.http.client;
+
+import dive.http.common.model.Content;
+import org.apache.http.nio.ContentEncoder;
+import org.apache.http.nio.IOControl;
+import org.apache.http.nio.entity.HttpAsyncContentProducer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * 异步请求的二进制请求体，数据源在线程池中读取，I/O线程只写出已读取的数据，不在I/O线程上阻塞
+ * 每次最多缓冲8K，读取期间暂停写出，读取完成后请求I/O线程继续写出
+ * 同步请求仍按ContentEntity在请求线程中写出
+ * @author dawn
+ */
+class ContentProducer extends ContentEntity implements HttpAsyncContentProducer {
+
+    private static final int SIZE = 8192;
+
+    private final Content content;
+
+    private final Executor executor;
+
+    /**
+     * 当前一次发送的状态，重新发送时重建
+     */
+    private volatile Transfer transfer;
+
+    ContentProducer(Content content, Executor executor) {
+        super(content);
+        this.content = content;
+        this.executor = executor;
+    }
+
+    @Override
+    public void produceContent(ContentEncoder encoder, IOControl ioctrl) throws IOException {
+        Transfer transfer = this.transfer;
+        if (null == transfer) {
+            transfer = new Transfer();
+            this.transfer = transfer;
+        }
+        transfer.produce(encoder, ioctrl);
+    }
+
+    /**
+     * 发送结束、失败或重新发送前调用
+     */
+    @Override
+    public void close() {
+        Transfer transfer = this.transfer;
+        this.transfer = null;
+        if (null != transfer) {
+            transfer.release();
+        }
+    }
+
+    /**
+     * 一次发送，读取在线程池中进行，读取期间I/O线程不访问缓冲区
+     */
+    private class Transfer {
+
+        private final ByteBuffer buffer = ByteBuffer.allocate(SIZE);
+
+        private InputStream in;
+
+        private volatile IOControl ioctrl;
+
+        /**
+         * 正在线程池中读取
+         */
+        private volatile boolean reading;
+
+        /**
+         * 缓冲区中有待写出的数据
+         */
+        private volatile boolean ready;
+
+        private volatile boolean eof;
+
+        private volatile boolean released;
+
+        private volatile IOException error;
+
+        /**
+         * 在I/O线程中调用
+         */
+        void produce(ContentEncoder encoder, IOControl ioctrl) throws IOException {
+            this.ioctrl = ioctrl;
+            if (reading) {
+                ioctrl.suspendOutput();
+                // 暂停前读取已经结束时，结束时的requestOutput可能已被覆盖
+                if (!reading) {
+                    ioctrl.requestOutput();
+                }
+                return;
+            }
+            if (null != error) {
+                throw error;
+            }
+            if (ready) {
+                encoder.write(buffer);
+                if (buffer.hasRemaining()) {
+                    return;
+                }
+                ready = false;
+            }
+            if (eof) {
+                encoder.complete();
+                close();
+                return;
+            }
+            reading = true;
+            ioctrl.suspendOutput();
+            try {
+                executor.execute(this::read);
+            } catch (RejectedExecutionException e) {
+                reading = false;
+                throw new IOException(e);
+            }
+        }
+
+        /**
+         * 在线程池中读取一块
+         */
+        private void read() {
+            try {
+                if (null == in) {
+                    in = content.open();
+                }
+                buffer.clear();
+                int n = in.read(buffer.array(), 0, buffer.capacity());
+                if (-1 == n) {
+                    buffer.limit(0);
+                    eof = true;
+                } else {
+                    buffer.limit(n);
+                    ready = true;
+                }
+            } catch (IOException e) {
+                error = e;
+            } catch (RuntimeException e) {
+                error = new IOException(e);
+            } finally {
+                reading = false;
+            }
+            if (released) {
+                close();
+                return;
+            }
+            ioctrl.requestOutput();
+        }
+
+        void release() {
+            released = true;
+            if (!reading) {
+                close();
+            }
+        }
+
+        private void close() {
+            InputStream in = this.in;
+            this.in = null;
+            if (null != in) {
+                try {
+                    in.close();
+                } catch (IOException ignored) {
+                    // 请求体已发送完或请求已失败，关闭异常无需处理
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,155 @@
+package test.http.client;
+
+import com.sun.net.httpserver.HttpServer;
+import dive.http.client.ClientConfig;
+import dive.http.client.ClientHttp;
+import dive.http.common.MimeRequest;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ClientConfigTest {
+
+    private static HttpServer server;
+
+    private static int port;
+
+    private static final AtomicInteger running = new AtomicInteger();
+
+    private static final AtomicInteger maxRunning = new AtomicInteger();
+
+    /**
+     * 本地服务，返回客户端的端口，用于判断连接是否复用；/slow 在返回前等待
+     */
+    @BeforeClass
+    public static void start() throws Exception {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/", exchange -> {
+            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            try {
+                if (exchange.getRequestURI().getPath().startsWith("/slow")) {
+                    Thread.sleep(200);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                running.decrementAndGet();
+            }
+            byte[] body = String.valueOf(exchange.getRemoteAddress().getPort()).getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(body);
+            }
+        });
+        server.start();
+        port = server.getAddress().getPort();
+    }
+
+    @AfterClass
+    public static void stop() {
+        server.stop(0);
+    }
+
+    @Test
+    public void testHost() {
+        ClientConfig config = ClientConfig.builder()
+                .maxPerHost("https://api.huobi.pro", 10)
+                .maxPerHost("127.0.0.1:8080", 2)
+                .maxPerHost("api.example.com", 3)
+                .build();
+        Assert.assertEquals(3, config.getMaxPerHost().size());
+        Assert.assertEquals(2, config.getMaxPerHost().get("127.0.0.1:8080").intValue());
+        for (String host : new String[]{"ftp://example.com", "http://", "http://exa mple.com", ""}) {
+            try {
+                ClientConfig.builder().maxPerHost(host, 1);
+                Assert.fail(host);
+            } catch (IllegalArgumentException e) {
+                Assert.assertTrue(e.getMessage().contains("invalid host"));
+            }
+        }
+    }
+
+    @Test
+    public void testBuilder() {
+        ClientConfig config = ClientConfig.builder()
+                .timeToLive(-5, TimeUnit.SECONDS)
+                .validateAfterInactivity(1, TimeUnit.SECONDS)
+                .evict(30, 1, TimeUnit.SECONDS)
+                .build();
+        Assert.assertEquals(-1, config.getTimeToLive());
+        Assert.assertEquals(1000, config.getValidateAfterInactivity());
+        Assert.assertEquals(30000, config.getMaxIdleTime());
+        Assert.assertEquals(1000, config.getEvictInterval());
+        Assert.assertEquals(ClientConfig.defaults().getMaxTotal(), config.getMaxTotal());
+        try {
+            ClientConfig.builder().maxPerRoute(0);
+            Assert.fail();
+        } catch (IllegalArgumentException e) {
+            Assert.assertTrue(e.getMessage().contains("maxPerRoute"));
+        }
+    }
+
+    /**
+     * 没有scheme的主机同样限制连接数
+     */
+    @Test
+    public void testMaxPerHost() throws Exception {
+        ClientHttp http = new ClientHttp(ClientConfig.builder().maxPerHost("127.0.0.1:" + port, 1).build());
+        try {
+            maxRunning.set(0);
+            List<CompletableFuture<String>> futures = new ArrayList<>();
+            for (int i = 0; i < 3; i++) {
+                futures.add(http.executeAsync(get("/slow")));
+            }
+            for (CompletableFuture<String> future : futures) {
+                Assert.assertNotNull(future.get(5, TimeUnit.SECONDS));
+            }
+            Assert.assertEquals(1, maxRunning.get());
+        } finally {
+            http.close();
+        }
+    }
+
+    /**
+     * 连接存活时间同样用于异步连接池，超过后建立新连接
+     */
+    @Test
+    public void testTimeToLive() throws Exception {
+        ClientHttp http = new ClientHttp(ClientConfig.builder().timeToLive(100, TimeUnit.MILLISECONDS).build());
+        ClientHttp keep = new ClientHttp(ClientConfig.defaults());
+        try {
+            String first = http.executeAsync(get("/")).get(5, TimeUnit.SECONDS);
+            Thread.sleep(300);
+            Assert.assertNotEquals(first, http.executeAsync(get("/")).get(5, TimeUnit.SECONDS));
+
+            first = http.execute(get("/"));
+            Thread.sleep(300);
+            Assert.assertNotEquals(first, http.execute(get("/")));
+
+            first = keep.executeAsync(get("/")).get(5, TimeUnit.SECONDS);
+            Thread.sleep(300);
+            Assert.assertEquals(first, keep.executeAsync(get("/")).get(5, TimeUnit.SECONDS));
+        } finally {
+            http.close();
+            keep.close();
+        }
+    }
+
+    private static MimeRequest get(String path) {
+        return MimeRequest.builder().url("http://127.0.0.1:" + port + path).get().build();
+    }
+
+}
@@ -1,40 +1,275 @@
 package test.http.client;
 
+import com.sun.net.httpserver.HttpServer;
+import dive.http.client.ClientConfig;
 import dive.http.client.ClientHttp;
 import dive.http.common.MimeHttp;
 import dive.http.common.MimeRequest;
+import dive.http.common.RequestListener;
+import dive.http.common.model.Content;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
 import org.junit.Test;
 import org.springframework.boot.test.context.SpringBootTest;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
 @SpringBootTest
 public class ClientHttpTest {
 
+    private static HttpServer server;
+
+    private static String base;
+
     private MimeHttp http = new ClientHttp();
 
+    /**
+     * 本地服务，分块返回请求路径中指定字节数的响应体，例如/chunked/5000；/s 返回请求方法和查询串
+     */
+    @BeforeClass
+    public static void start() throws Exception {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/chunked/", exchange -> {
+            String path = exchange.getRequestURI().getPath();
+            byte[] body = new byte[Integer.parseInt(path.substring(path.lastIndexOf('/') + 1))];
+            Arrays.fill(body, (byte) 'a');
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=UTF-8");
+            exchange.sendResponseHeaders(200, 0);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(body);
+            }
+        });
+        server.createContext("/echo", exchange -> {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            try (InputStream in = exchange.getRequestBody()) {
+                byte[] buffer = new byte[8192];
+                int n;
+                while (-1 != (n = in.read(buffer))) {
+                    out.write(buffer, 0, n);
+                }
+            }
+            byte[] body = out.toByteArray();
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=UTF-8");
+            exchange.sendResponseHeaders(200, 0 == body.length ? -1 : body.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(body);
+            }
+        });
+        server.createContext("/s", exchange -> {
+            byte[] body = (exchange.getRequestMethod() + " " + exchange.getRequestURI().getRawQuery()).getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=UTF-8");
+            exchange.getResponseHeaders().set("X-Agent", String.valueOf(exchange.getRequestHeaders().getFirst("User-Agent")));
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(body);
+            }
+        });
+        server.start();
+        base = "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    @AfterClass
+    public static void stop() {
+        server.stop(0);
+    }
+
+    /**
+     * 二进制请求体：内存、文件和长度未知的流，同步和异步请求
+     */
+    @Test
+    public void testContent() throws Exception {
+        byte[] bytes = new byte[100_000];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) ('a' + i % 26);
+        }
+        String expected = new String(bytes, StandardCharsets.UTF_8);
+        Path file = Files.createTempFile("content", ".txt");
+        try {
+            Files.write(file, bytes);
+            List<Content> contents = Arrays.asList(Content.of(bytes), Content.of(file, "text/plain"),
+                    Content.of(() -> new ByteArrayInputStream(bytes), -1));
+            for (Content content : contents) {
+                MimeRequest request = MimeRequest.builder().url(base + "/echo").post().body(content).build();
+                Assert.assertEquals(content.toString(), expected, http.execute(request));
+                Assert.assertEquals(content.toString(), expected, http.executeAsync(request).get(10, TimeUnit.SECONDS));
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    /**
+     * 异步请求的流请求体在线程池中读取，不阻塞I/O线程；读取时暂停写出，读取后继续
+     */
+    @Test
+    public void testContentOffReactor() throws Exception {
+        Set<String> threads = ConcurrentHashMap.newKeySet();
+        Content slow = Content.of(() -> new InputStream() {
+            private int count;
+
+            @Override
+            public int read() throws IOException {
+                threads.add(Thread.currentThread().getName());
+                if (0 == count % 1000) {
+                    try {
+                        Thread.sleep(20);
+                    } catch (InterruptedException e) {
+                        throw new InterruptedIOException();
+                    }
+                }
+                return 5000 <= count ? -1 : 'a' + count++ % 26;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                // 每次只读一部分，模拟慢速数据源
+                int n = 0;
+                int c;
+                while (n < Math.min(len, 700) && -1 != (c = read())) {
+                    b[off + n++] = (byte) c;
+                }
+                return 0 == n ? -1 : n;
+            }
+        }, -1);
+        MimeRequest request = MimeRequest.builder().url(base + "/echo").post().body(slow).build();
+        // 同时发出的GET请求不被慢速的请求体阻塞
+        CompletableFuture<String> upload = http.executeAsync(request);
+        Assert.assertEquals(10, http.executeAsync(MimeRequest.builder().url(base + "/chunked/10").get().build())
+                .get(10, TimeUnit.SECONDS).length());
+        String result = upload.get(10, TimeUnit.SECONDS);
+        Assert.assertEquals(5000, result.length());
+        Assert.assertTrue(result.startsWith("abcdefghijklmnopqrstuvwxyza"));
+        for (String thread : threads) {
+            Assert.assertFalse(thread, thread.startsWith("I/O dispatcher"));
+        }
+    }
+
+    /**
+     * 报告实际读取的响应体字节数，分块传输时没有Content-Length
+     */
+    @Test
+    public void testListener() throws IOException {
+        List<String> events = new ArrayList<>();
+        long[] bytes = new long[]{-2};
+        RequestListener listener = new RequestListener() {
+            @Override
+            public void dnsStart(MimeRequest request, String host) {
+                events.add("dns");
+            }
+
+            @Override
+            public void bodyEnd(MimeRequest request, long count) {
+                bytes[0] = count;
+            }
+
+            @Override
+            public void callEnd(MimeRequest request) {
+                events.add("end");
+            }
+        };
+        // 单独的连接池，不复用其他测试的连接，才有DNS事件
+        ClientHttp listened = new ClientHttp(ClientConfig.defaults());
+        listened.listener(listener);
+        String result = listened.execute(MimeRequest.builder().url(base + "/chunked/5000").get().build());
+        Assert.assertEquals(5000, result.length());
+        Assert.assertEquals(5000, bytes[0]);
+        Assert.assertEquals("[dns, end]", events.toString());
+
+        Long read = listened.executeStream(MimeRequest.builder().url(base + "/chunked/3000").get().build(), (in, charset) -> {
+            long count = 0;
+            while (-1 != in.read()) {
+                count++;
+            }
+            return count;
+        });
+        Assert.assertEquals(3000L, read.longValue());
+        Assert.assertEquals(3000, bytes[0]);
+        listened.close();
+    }
+
     @Test
     public void test() {
-        new MimeRequest.Builder()
-                .url("https://www.baidu.com/s?wd={1}_{name}")
-                .url("http://www.baidu.com/s?wd={1}_{name}")
-                .url("http://www.huobi.com")
-                .url("https://www.huobi.com")
+        List<String> details = new ArrayList<>();
+        String result = new MimeRequest.Builder()
+                .url(base + "/s?wd={1}_{name}")
                 .replace(123)
                 .replace("name", 456)
                 .get()
+                .header("User-Agent", "dive-http")
                 .body("name", "123")
                 .body("name2", "123")
                 .build()
-                .execute(http, (url, method, request, body, code, response, result) -> {
-                    System.out.println("url: " + url);
-                    System.out.println("method: " + method);
-                    System.out.println("request: ");
-                    if (null != request) request.forEach((k, v) -> System.out.println(k + " --> " + v));
-                    System.out.println("body:\n" + body);
-                    System.out.println("code: " + code);
-                    System.out.println("response:");
-                    if (null != response) response.forEach((k, v) -> System.out.println(k + " --> " + v));
-                    System.out.println("result: \n" + result);
-                });
+                .execute(http, (url, method, request, body, code, response, r) -> details.add(
+                        method + " " + request.first("User-Agent") + " " + code + " " + response.first("X-Agent") + " " + r));
+        Assert.assertEquals("GET wd=123_456&name=123&name2=123", result);
+        Assert.assertEquals(Collections.singletonList("GET dive-http 200 dive-http " + result), details);
+    }
+
+    /**
+     * 错误响应同样回调响应码
+     */
+    @Test
+    public void testError() {
+        List<Integer> codes = new ArrayList<>();
+        new MimeRequest.Builder()
+                .url(base + "/missing")
+                .get()
+                .build()
+                .execute(http, (url, method, request, body, code, response, result) -> codes.add(code));
+        Assert.assertEquals(Collections.singletonList(404), codes);
+    }
+
+    @Test
+    public void testAsync() throws Exception {
+        List<String> details = new ArrayList<>();
+        String result = new MimeRequest.Builder()
+                .url(base + "/s?wd={1}_{name}")
+                .replace(123)
+                .replace("name", 456)
+                .get()
+                .build()
+                .executeAsync(http, (url, method, request, body, code, response, r) -> details.add(method + " " + code + " " + r))
+                .get(10, TimeUnit.SECONDS);
+        Assert.assertEquals("GET wd=123_456", result);
+        Assert.assertEquals(Collections.singletonList("GET 200 " + result), details);
+    }
+
+    @Test
+    public void testStream() {
+        List<Integer> codes = new ArrayList<>();
+        Long length = http.executeStream(new MimeRequest.Builder()
+                .url(base + "/chunked/20000")
+                .get()
+                .build(), (in, charset) -> {
+                    long count = 0;
+                    byte[] buffer = new byte[8192];
+                    int n;
+                    while (-1 != (n = in.read(buffer))) {
+                        count += n;
+                    }
+                    return count;
+                }, (url, method, request, body, code, response, result) -> codes.add(code));
+        Assert.assertEquals(20000L, length.longValue());
+        Assert.assertEquals(Collections.singletonList(200), codes);
     }
 
 }
@@ -0,0 +1,450 @@
+package dive.http.client5;
+
+import dive.http.common.BaseMimeHttp;
+import dive.http.common.Compression;
+import dive.http.common.Detail;
+import dive.http.common.MimeHttp;
+import dive.http.common.MimeRequest;
+import dive.http.common.Receiver;
+import dive.http.common.model.Content;
+import dive.http.common.model.Header;
+import dive.http.common.model.Method;
+import dive.http.common.model.Protocol;
+import org.apache.hc.client5.http.ConnectTimeoutException;
+import org.apache.hc.client5.http.async.methods.SimpleHttpResponse;
+import org.apache.hc.client5.http.async.methods.SimpleResponseConsumer;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.impl.async.CloseableHttpAsyncClient;
+import org.apache.hc.client5.http.impl.async.HttpAsyncClients;
+import org.apache.hc.client5.http.impl.nio.PoolingAsyncClientConnectionManagerBuilder;
+import org.apache.hc.core5.concurrent.FutureCallback;
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.HttpResponse;
+import org.apache.hc.core5.http.nio.AsyncResponseConsumer;
+import org.apache.hc.core5.http.nio.AsyncEntityProducer;
+import org.apache.hc.core5.http.nio.entity.AsyncEntityProducers;
+import org.apache.hc.core5.http.nio.support.AsyncRequestBuilder;
+import org.apache.hc.core5.http2.HttpVersionPolicy;
+import org.apache.hc.core5.io.CloseMode;
+import org.apache.hc.core5.reactor.IOReactorConfig;
+import org.apache.hc.core5.util.Timeout;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ConnectException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 利用HttpClient5实现，支持HTTP/2，同一主机的并发请求复用一个连接
+ * HTTP/2模式下https通过ALPN协商，http直接使用h2c，服务端必须支持HTTP/2
+ * @author dawn
+ */
+public class Client5Http extends BaseMimeHttp implements Closeable {
+
+    /**
+     * HTTP/2不允许出现的连接相关请求头
+     */
+    private static final Set<String> CONNECTION_HEADERS = new HashSet<>(Arrays.asList(
+            "connection", "keep-alive", "proxy-connection", "transfer-encoding", "upgrade", "host"));
+
+    /**
+     * 底层异步请求对象
+     */
+    private final CloseableHttpAsyncClient client;
+
+    /**
+     * 是否为HTTP/2
+     */
+    private final boolean h2;
+
+    /**
+     * 构造器，默认HTTP/2
+     */
+    public Client5Http() {
+        this(Protocol.HTTP_2);
+    }
+
+    /**
+     * 构造器
+     * @param protocol 协议版本，HTTP_2和H2C都使用多路复用的HTTP/2客户端
+     */
+    public Client5Http(Protocol protocol) {
+        this(protocol, 10, 10);
+    }
+
+    /**
+     * 构造器
+     * @param protocol 协议版本
+     * @param connect 设置连接超时时间，单位秒
+     * @param read 设置读取超时时间，单位秒
+     */
+    public Client5Http(Protocol protocol, long connect, long read) {
+        Objects.requireNonNull(protocol, "protocol");
+        RequestConfig requestConfig = RequestConfig.custom()
+                .setConnectTimeout(connect, TimeUnit.SECONDS)
+                .setResponseTimeout(read, TimeUnit.SECONDS)
+                .build();
+        IOReactorConfig ioReactorConfig = IOReactorConfig.custom()
+                .setSoTimeout(Timeout.ofSeconds(read))
+                .build();
+        if (Protocol.HTTP_1_1.equals(protocol)) {
+            this.client = HttpAsyncClients.custom()
+                    .setVersionPolicy(HttpVersionPolicy.FORCE_HTTP_1)
+                    .setConnectionManager(PoolingAsyncClientConnectionManagerBuilder.create()
+                            .setMaxConnTotal(200)
+                            .setMaxConnPerRoute(50)
+                            .build())
+                    .setDefaultRequestConfig(requestConfig)
+                    .setIOReactorConfig(ioReactorConfig)
+                    .disableAutomaticRetries()
+                    .build();
+        } else {
+            this.client = HttpAsyncClients.customHttp2()
+                    .setDefaultRequestConfig(requestConfig)
+                    .setIOReactorConfig(ioReactorConfig)
+                    .disableAutomaticRetries()
+                    .build();
+        }
+        this.h2 = !Protocol.HTTP_1_1.equals(protocol);
+        this.client.start();
+    }
+
+    /**
+     * 构造器
+     * @param client 异步请求对象，未启动时自动启动，由调用方关闭
+     * @param protocol 该请求对象使用的协议版本
+     */
+    public Client5Http(CloseableHttpAsyncClient client, Protocol protocol) {
+        this.client = Objects.requireNonNull(client, "client");
+        this.h2 = !Protocol.HTTP_1_1.equals(Objects.requireNonNull(protocol, "protocol"));
+        this.client.start();
+    }
+
+    @Override
+    public String execute(MimeRequest request, Detail detail) {
+        return executeAsync(request, detail).join();
+    }
+
+    @Override
+    public CompletableFuture<String> executeAsync(MimeRequest request, Detail detail) {
+        Objects.requireNonNull(request, "mime request is null");
+
+        String url = MimeHttp.url(request);
+        Method method = request.getMethod();
+        Header requestHeader = request.getHeader();
+        Object para = request.getBody();
+
+        CompletableFuture<SimpleHttpResponse> sent = send(request, url);
+        CompletableFuture<String> future = sent.handle((response, e) -> {
+            String result;
+            if (e instanceof CancellationException) {
+                return null;
+            }
+            if (null != e) {
+                result = failure(e, detail, url, method, requestHeader, para);
+            } else {
+                try {
+                    byte[] bytes = body(response);
+                    result = null == bytes ? "" : new String(bytes, MimeHttp.charset(contentType(response)));
+                    response(response, result, detail, url, method, requestHeader, para);
+                } catch (IOException ex) {
+                    result = failure(ex, detail, url, method, requestHeader, para);
+                }
+            }
+            if (null == result) {
+                error("Client5Http result is null. url --> " + url);
+            }
+            return result;
+        });
+        // 取消时取消请求
+        future.whenComplete((result, e) -> {
+            if (future.isCancelled()) {
+                sent.cancel(true);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * 收到2xx响应头后即交给receiver，响应体边接收边读取，不在内存中缓冲整个响应体
+     * downloadTo通过该方法写入文件，同样不缓冲整个响应体
+     */
+    @Override
+    public <R> R executeStream(MimeRequest request, Receiver<R> receiver, Detail detail) {
+        Objects.requireNonNull(request, "mime request is null");
+        Objects.requireNonNull(receiver, "receiver");
+
+        String url = MimeHttp.url(request);
+        Method method = request.getMethod();
+        Header requestHeader = request.getHeader();
+        Object para = request.getBody();
+
+        R result = null;
+        StreamConsumer consumer = new StreamConsumer();
+        CompletableFuture<HttpResponse> sent = consumer.head();
+        execute(request, url, consumer, callback(sent));
+        HttpResponse response;
+        try {
+            response = sent.join();
+        } catch (CompletionException | CancellationException e) {
+            failure(e, detail, url, method, requestHeader, para);
+            return result;
+        }
+        // 在调用线程中读取响应体，读取后I/O线程才继续接收；错误响应不交给receiver，关闭流时丢弃
+        boolean success = MimeHttp.success(response.getCode());
+        try (InputStream in = success ? body(response, consumer.stream()) : consumer.stream()) {
+            if (success) {
+                result = receiver.receive(in, MimeHttp.charset(contentType(response)));
+            }
+            response(response, null, detail, url, method, requestHeader, para);
+        } catch (IOException e) {
+            failure(e, detail, url, method, requestHeader, para);
+        }
+        return result;
+    }
+
+    /**
+     * 发送请求
+     * @param request MimeRequest请求对象
+     * @param url 请求url
+     * @return 响应
+     */
+    private CompletableFuture<SimpleHttpResponse> send(MimeRequest request, String url) {
+        CompletableFuture<SimpleHttpResponse> future = new CompletableFuture<>();
+        Future<SimpleHttpResponse> call = execute(request, url, SimpleResponseConsumer.create(), callback(future));
+        future.whenComplete((response, e) -> {
+            if (future.isCancelled()) {
+                call.cancel(true);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * 构造并执行请求
+     * @param request MimeRequest请求对象
+     * @param url 请求url
+     * @param consumer 响应处理
+     * @param callback 回调
+     * @param <T> 响应类型
+     * @return 执行结果
+     */
+    private <T> Future<T> execute(MimeRequest request, String url, AsyncResponseConsumer<T> consumer,
+                                  FutureCallback<T> callback) {
+        AsyncRequestBuilder builder = AsyncRequestBuilder.create(request.getMethod().name()).setUri(url);
+        if (null != request.getHeader()) {
+            request.getHeader().each((k, v) -> {
+                if (!h2 || !CONNECTION_HEADERS.contains(k.toLowerCase())) {
+                    builder.addHeader(k, v);
+                }
+            });
+        }
+        Compression compression = this.compression;
+        if (null != compression.accept() && (null == request.getHeader() || !request.getHeader().containsKey("Accept-Encoding"))) {
+            builder.addHeader("Accept-Encoding", compression.accept());
+        }
+        if (!Method.GET.equals(request.getMethod())) {
+            builder.setEntity(body(request, builder));
+        }
+        return client.execute(builder.build(), consumer, callback);
+    }
+
+    /**
+     * 将回调转为CompletableFuture
+     * @param future 结果
+     * @param <T> 响应类型
+     * @return 回调
+     */
+    private static <T> FutureCallback<T> callback(CompletableFuture<T> future) {
+        return new FutureCallback<T>() {
+            @Override
+            public void completed(T response) {
+                future.complete(response);
+            }
+
+            @Override
+            public void failed(Exception e) {
+                future.completeExceptionally(e);
+            }
+
+            @Override
+            public void cancelled() {
+                future.cancel(false);
+            }
+        };
+    }
+
+    /**
+     * 构造请求体，未设置Content-Type时按请求体类型补充，字符串和键值对请求体达到阈值时压缩
+     * @param request MimeRequest请求对象
+     * @param builder 请求构造，压缩时设置Content-Encoding
+     * @return 请求体
+     */
+    private AsyncEntityProducer body(MimeRequest request, AsyncRequestBuilder builder) {
+        String type = null == request.getHeader() ? null : request.getHeader().first("Content-Type");
+        boolean encode = null == request.getHeader() || !request.getHeader().containsKey("Content-Encoding");
+        if (null != request.getParameter()) {
+            String form = request.getParameter().form();
+            return body(form.getBytes(StandardCharsets.UTF_8), null != type ? ContentType.parse(type)
+                    : ContentType.APPLICATION_FORM_URLENCODED.withCharset(StandardCharsets.UTF_8), builder, encode);
+        }
+        if (null != request.getString()) {
+            String string = request.getString();
+            if (null == type) {
+                if (!string.trim().startsWith("{") && !string.trim().startsWith("[")) {
+                    type = "text/plain; charset=utf-8";
+                } else {
+                    type = "application/json; charset=utf-8";
+                }
+            }
+            return body(string.getBytes(StandardCharsets.UTF_8), ContentType.parse(type), builder, encode);
+        }
+        Content content = request.getContent();
+        if (null != content) {
+            ContentType contentType = ContentType.parse(null != type ? type : content.getType());
+            if (null != content.getPath()) {
+                return AsyncEntityProducers.create(content.getPath().toFile(), contentType);
+            }
+            return new ContentProducer(content, contentType, executor());
+        }
+        return null;
+    }
+
+    /**
+     * 构造字节请求体，达到阈值时压缩
+     * @param bytes 请求体
+     * @param type 类型
+     * @param builder 请求构造
+     * @param encode 是否可以压缩，已指定Content-Encoding时不压缩
+     * @return 请求体
+     */
+    private AsyncEntityProducer body(byte[] bytes, ContentType type, AsyncRequestBuilder builder, boolean encode) {
+        Compression compression = this.compression;
+        byte[] encoded = encode ? compression.encode(bytes) : null;
+        if (null == encoded) {
+            return AsyncEntityProducers.create(bytes, type);
+        }
+        builder.setHeader("Content-Encoding", compression.getRequestCoding());
+        return AsyncEntityProducers.create(encoded, type);
+    }
+
+    /**
+     * 按Content-Encoding解码响应体
+     * @param response 响应
+     * @return 响应体，没有响应体时为null
+     * @throws IOException 解码异常
+     */
+    private byte[] body(SimpleHttpResponse response) throws IOException {
+        org.apache.hc.core5.http.Header encoding = response.getFirstHeader("Content-Encoding");
+        byte[] bytes = response.getBodyBytes();
+        return null != encoding ? compression.decode(bytes, encoding.getValue()) : bytes;
+    }
+
+    /**
+     * 按Content-Encoding解码流式响应体
+     * @param response 响应
+     * @param body 响应体
+     * @return 解码后的响应体
+     * @throws IOException 解码异常
+     */
+    private InputStream body(HttpResponse response, InputStream body) throws IOException {
+        org.apache.hc.core5.http.Header encoding = response.getFirstHeader("Content-Encoding");
+        if (null == encoding) {
+            return body;
+        }
+        try {
+            return compression.decode(body, encoding.getValue());
+        } catch (IOException | RuntimeException e) {
+            body.close();
+            throw e;
+        }
+    }
+
+    /**
+     * 获取响应的Content-Type
+     * @param response 响应
+     * @return Content-Type
+     */
+    private static String contentType(HttpResponse response) {
+        org.apache.hc.core5.http.Header header = response.getFirstHeader("Content-Type");
+        return null != header ? header.getValue() : null;
+    }
+
+    /**
+     * 处理响应结果
+     * @param response 响应
+     * @param result 请求结果
+     * @param detail 更加详细的处理
+     * @param url 请求url
+     * @param method 请求方法
+     * @param requestHeader 请求header
+     * @param para 请求体
+     */
+    private void response(HttpResponse response, String result, Detail detail,
+                          String url, Method method, Header requestHeader, Object para) {
+        if (null != detail) {
+            org.apache.hc.core5.http.Header[] headers = response.getHeaders();
+            Header responseHeader = Header.build(headers.length);
+            for (org.apache.hc.core5.http.Header h : headers) {
+                responseHeader.add(h.getName(), h.getValue());
+            }
+            detail.accept(url,
+                    method,
+                    requestHeader,
+                    para,
+                    response.getCode(),
+                    responseHeader,
+                    result);
+        }
+    }
+
+    /**
+     * 请求异常处理
+     * @param e 异常
+     * @param detail 更加详细的处理
+     * @param url 请求url
+     * @param method 请求方法
+     * @param requestHeader 请求header
+     * @param para 请求体
+     * @return 请求结果
+     */
+    private String failure(Throwable e, Detail detail,
+                           String url, Method method, Header requestHeader, Object para) {
+        Throwable cause = e instanceof CompletionException && null != e.getCause() ? e.getCause() : e;
+        if (cause instanceof Error) {
+            throw (Error) cause;
+        }
+        cause.printStackTrace();
+        error(cause instanceof Exception ? (Exception) cause : new RuntimeException(cause), "Client5Http", url);
+        String message = null;
+        if (cause instanceof ConnectTimeoutException) {
+            message = "Connection timed out: connect";
+        } else if (cause instanceof ConnectException) {
+            message = cause.getMessage();
+        }
+        return MimeHttp.except(message, detail,
+                url,
+                method,
+                requestHeader,
+                para,
+                null,
+                Header.build(),
+                null);
+    }
+
+    @Override
+    public void close() throws IOException {
+        client.close(CloseMode.GRACEFUL);
+    }
+
+}
@@ -0,0 +1,232 @@
+package dive.http.client5;
+
+import dive.http.common.model.Content;
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.nio.AsyncEntityProducer;
+import org.apache.hc.core5.http.nio.DataStreamChannel;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * 二进制请求体，数据源在线程池中读取，I/O线程只写出已读取的数据，不在I/O线程上阻塞
+ * 每次最多缓冲8K，写出后才读取下一块，读取完成时请求I/O线程继续写出
+ * @author dawn
+ */
+class ContentProducer implements AsyncEntityProducer {
+
+    private static final int SIZE = 8192;
+
+    private final Content content;
+
+    private final ContentType contentType;
+
+    private final Executor executor;
+
+    /**
+     * 当前一次发送的状态，重新发送时重建
+     */
+    private volatile Transfer transfer;
+
+    ContentProducer(Content content, ContentType contentType, Executor executor) {
+        this.content = content;
+        this.contentType = contentType;
+        this.executor = executor;
+    }
+
+    @Override
+    public int available() {
+        Transfer transfer = this.transfer;
+        if (null == transfer) {
+            // 还没有开始，需要I/O线程调用produce开始读取
+            return 1;
+        }
+        return transfer.available();
+    }
+
+    @Override
+    public void produce(DataStreamChannel channel) throws IOException {
+        Transfer transfer = this.transfer;
+        if (null == transfer) {
+            transfer = new Transfer();
+            this.transfer = transfer;
+        }
+        transfer.produce(channel);
+    }
+
+    @Override
+    public long getContentLength() {
+        return content.getLength();
+    }
+
+    @Override
+    public String getContentType() {
+        return null != contentType ? contentType.toString() : null;
+    }
+
+    @Override
+    public String getContentEncoding() {
+        return null;
+    }
+
+    @Override
+    public boolean isChunked() {
+        return 0 > content.getLength();
+    }
+
+    @Override
+    public Set<String> getTrailerNames() {
+        return null;
+    }
+
+    @Override
+    public boolean isRepeatable() {
+        return true;
+    }
+
+    @Override
+    public void failed(Exception cause) {
+        releaseResources();
+    }
+
+    @Override
+    public void releaseResources() {
+        Transfer transfer = this.transfer;
+        this.transfer = null;
+        if (null != transfer) {
+            transfer.release();
+        }
+    }
+
+    /**
+     * 一次发送，读取在线程池中进行，读取期间I/O线程不访问缓冲区
+     */
+    private class Transfer {
+
+        private final ByteBuffer buffer = ByteBuffer.allocate(SIZE);
+
+        private InputStream in;
+
+        private volatile DataStreamChannel channel;
+
+        /**
+         * 正在线程池中读取
+         */
+        private volatile boolean reading;
+
+        /**
+         * 缓冲区中有待写出的数据
+         */
+        private volatile boolean ready;
+
+        private volatile boolean eof;
+
+        private volatile boolean ended;
+
+        private volatile boolean released;
+
+        private volatile IOException error;
+
+        int available() {
+            if (reading) {
+                return 0;
+            }
+            if (ready) {
+                return buffer.remaining();
+            }
+            // 需要调用produce读取下一块、结束或抛出异常
+            return ended ? 0 : 1;
+        }
+
+        /**
+         * 在I/O线程中调用，先判断是否正在读取，读取结束后的状态才可见
+         */
+        void produce(DataStreamChannel channel) throws IOException {
+            this.channel = channel;
+            if (reading || ended) {
+                return;
+            }
+            if (null != error) {
+                throw error;
+            }
+            if (ready) {
+                channel.write(buffer);
+                if (buffer.hasRemaining()) {
+                    return;
+                }
+                ready = false;
+            }
+            if (eof) {
+                ended = true;
+                channel.endStream();
+                close();
+                return;
+            }
+            reading = true;
+            try {
+                executor.execute(this::read);
+            } catch (RejectedExecutionException e) {
+                reading = false;
+                throw new IOException(e);
+            }
+        }
+
+        /**
+         * 在线程池中读取一块
+         */
+        private void read() {
+            try {
+                if (null == in) {
+                    in = content.open();
+                }
+                buffer.clear();
+                int n = in.read(buffer.array(), 0, buffer.capacity());
+                if (-1 == n) {
+                    buffer.limit(0);
+                    eof = true;
+                } else {
+                    buffer.limit(n);
+                    ready = true;
+                }
+            } catch (IOException e) {
+                error = e;
+            } catch (RuntimeException e) {
+                error = new IOException(e);
+            } finally {
+                reading = false;
+            }
+            if (released) {
+                close();
+                return;
+            }
+            DataStreamChannel channel = this.channel;
+            if (null != channel) {
+                channel.requestOutput();
+            }
+        }
+
+        void release() {
+            released = true;
+            if (!reading) {
+                close();
+            }
+        }
+
+        private void close() {
+            InputStream in = this.in;
+            this.in = null;
+            if (null != in) {
+                try {
+                    in.close();
+                } catch (IOException ignored) {
+                    // 请求体已发送完或请求已失败，关闭异常无需处理
+                }
+            }
+        }
+    }
+
+}
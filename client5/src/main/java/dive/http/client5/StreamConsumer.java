@@ -0,0 +1,267 @@
+package dive.http.client5;
+
+import org.apache.hc.core5.concurrent.FutureCallback;
+import org.apache.hc.core5.http.EntityDetails;
+import org.apache.hc.core5.http.Header;
+import org.apache.hc.core5.http.HttpResponse;
+import org.apache.hc.core5.http.nio.AsyncResponseConsumer;
+import org.apache.hc.core5.http.nio.CapacityChannel;
+import org.apache.hc.core5.http.protocol.HttpContext;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 流式接收响应体，收到响应头时head()即完成，响应体由调用线程通过stream()读取
+ * 请求本身的回调在响应体接收完毕后才完成，httpclient5在交换结束前不会认为请求已完成
+ * I/O线程只把收到的数据放入队列，调用线程读取后才归还接收窗口，HTTP/2下缓冲的数据不超过流的窗口大小
+ * HTTP/1.1下httpcore5 5.1在窗口用完后仍会继续读取，读取慢于接收时队列会增长
+ * 未读完就关闭流时，后续数据到达会中止本次交换，不会继续接收整个响应体
+ * @author dawn
+ */
+class StreamConsumer implements AsyncResponseConsumer<HttpResponse> {
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private final Condition readable = lock.newCondition();
+
+    /**
+     * 已收到未读取的数据
+     */
+    private final ArrayDeque<ByteBuffer> chunks = new ArrayDeque<>();
+
+    private final InputStream stream = new Stream();
+
+    private final CompletableFuture<HttpResponse> head = new CompletableFuture<>();
+
+    private HttpResponse response;
+
+    private FutureCallback<HttpResponse> callback;
+
+    /**
+     * 接收窗口，收到第一块数据前可能还没有
+     */
+    private CapacityChannel capacity;
+
+    /**
+     * 已读取但还没有归还的窗口
+     */
+    private int credit;
+
+    private boolean end;
+
+    private Exception error;
+
+    private boolean closed;
+
+    /**
+     * 响应头
+     * @return 收到响应头时完成，请求失败时异常完成
+     */
+    CompletableFuture<HttpResponse> head() {
+        return head;
+    }
+
+    /**
+     * 响应体输入流，调用方负责关闭
+     * @return 输入流
+     */
+    InputStream stream() {
+        return stream;
+    }
+
+    @Override
+    public void consumeResponse(HttpResponse response, EntityDetails entityDetails, HttpContext context,
+                                FutureCallback<HttpResponse> resultCallback) {
+        lock.lock();
+        try {
+            this.response = response;
+            this.callback = resultCallback;
+            end = null == entityDetails;
+        } finally {
+            lock.unlock();
+        }
+        head.complete(response);
+        if (null == entityDetails) {
+            resultCallback.completed(response);
+        }
+    }
+
+    @Override
+    public void informationResponse(HttpResponse response, HttpContext context) {
+        // 1xx响应无需处理
+    }
+
+    @Override
+    public void updateCapacity(CapacityChannel capacityChannel) throws IOException {
+        int n;
+        lock.lock();
+        try {
+            capacity = capacityChannel;
+            n = credit;
+            credit = 0;
+        } finally {
+            lock.unlock();
+        }
+        if (0 < n) {
+            capacityChannel.update(n);
+        }
+    }
+
+    @Override
+    public void consume(ByteBuffer src) throws IOException {
+        lock.lock();
+        try {
+            if (closed) {
+                throw new IOException("Response stream closed");
+            }
+            ByteBuffer copy = ByteBuffer.allocate(src.remaining());
+            copy.put(src).flip();
+            chunks.add(copy);
+            readable.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void streamEnd(List<? extends Header> trailers) {
+        FutureCallback<HttpResponse> callback;
+        lock.lock();
+        try {
+            end = true;
+            callback = this.callback;
+            readable.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        if (null != callback) {
+            callback.completed(response);
+        }
+    }
+
+    @Override
+    public void failed(Exception cause) {
+        lock.lock();
+        try {
+            if (null == error) {
+                error = cause;
+            }
+            readable.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        head.completeExceptionally(cause);
+    }
+
+    @Override
+    public void releaseResources() {
+        lock.lock();
+        try {
+            if (!end && null == error) {
+                error = new IOException("Response stream released before end");
+            }
+            readable.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        head.completeExceptionally(new IOException("Response released before head"));
+    }
+
+    /**
+     * 读取队列中的数据，读取后归还窗口
+     */
+    private class Stream extends InputStream {
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return -1 == read(b, 0, 1) ? -1 : b[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (0 == len) {
+                return 0;
+            }
+            int n;
+            CapacityChannel channel;
+            lock.lock();
+            try {
+                while (chunks.isEmpty()) {
+                    if (null != error) {
+                        throw error instanceof IOException ? (IOException) error : new IOException(error);
+                    }
+                    if (end || closed) {
+                        return -1;
+                    }
+                    try {
+                        readable.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException();
+                    }
+                }
+                ByteBuffer head = chunks.peek();
+                n = Math.min(len, head.remaining());
+                head.get(b, off, n);
+                if (!head.hasRemaining()) {
+                    chunks.poll();
+                }
+                channel = capacity;
+                if (null == channel) {
+                    credit += n;
+                }
+            } finally {
+                lock.unlock();
+            }
+            if (null != channel) {
+                channel.update(n);
+            }
+            return n;
+        }
+
+        @Override
+        public int available() {
+            lock.lock();
+            try {
+                ByteBuffer head = chunks.peek();
+                return null == head ? 0 : head.remaining();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            CapacityChannel channel;
+            int unread = 0;
+            lock.lock();
+            try {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                for (ByteBuffer chunk : chunks) {
+                    unread += chunk.remaining();
+                }
+                chunks.clear();
+                channel = end || null != error ? null : capacity;
+            } finally {
+                lock.unlock();
+            }
+            // 窗口可能被未读的数据占满，归还后后续数据才会到达，从而中止本次交换
+            if (null != channel && 0 < unread) {
+                channel.update(unread);
+            }
+        }
+    }
+
+}
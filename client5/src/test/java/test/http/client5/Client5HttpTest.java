@@ -0,0 +1,127 @@
+package test.http.client5;
+
+import dive.http.client5.Client5Http;
+import dive.http.common.MimeHttp;
+import dive.http.common.MimeRequest;
+import org.apache.hc.core5.http.EntityDetails;
+import org.apache.hc.core5.http.HttpRequest;
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.Message;
+import org.apache.hc.core5.http.impl.bootstrap.HttpAsyncServer;
+import org.apache.hc.core5.http.nio.AsyncRequestConsumer;
+import org.apache.hc.core5.http.nio.AsyncServerRequestHandler;
+import org.apache.hc.core5.http.nio.entity.StringAsyncEntityConsumer;
+import org.apache.hc.core5.http.nio.support.BasicRequestConsumer;
+import org.apache.hc.core5.http.nio.support.BasicResponseProducer;
+import org.apache.hc.core5.http.protocol.HttpContext;
+import org.apache.hc.core5.http2.HttpVersionPolicy;
+import org.apache.hc.core5.http2.impl.nio.bootstrap.H2ServerBootstrap;
+import org.apache.hc.core5.io.CloseMode;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+@SpringBootTest
+public class Client5HttpTest {
+
+    private static final AtomicInteger CONNECTIONS = new AtomicInteger();
+
+    private static HttpAsyncServer server;
+
+    private static String base;
+
+    private MimeHttp http = new Client5Http();
+
+    /**
+     * 本地h2c服务，原样返回请求体或请求路径，并统计连接数
+     */
+    @BeforeClass
+    public static void start() throws Exception {
+        server = H2ServerBootstrap.bootstrap()
+                .setVersionPolicy(HttpVersionPolicy.FORCE_HTTP_2)
+                .setIOSessionDecorator(session -> {
+                    CONNECTIONS.incrementAndGet();
+                    return session;
+                })
+                .register("*", new AsyncServerRequestHandler<Message<HttpRequest, String>>() {
+                    @Override
+                    public AsyncRequestConsumer<Message<HttpRequest, String>> prepare(HttpRequest request, EntityDetails entityDetails, HttpContext context) {
+                        return new BasicRequestConsumer<>(null != entityDetails ? new StringAsyncEntityConsumer() : null);
+                    }
+
+                    @Override
+                    public void handle(Message<HttpRequest, String> message, ResponseTrigger responseTrigger, HttpContext context) throws java.io.IOException, org.apache.hc.core5.http.HttpException {
+                        String body = null != message.getBody() ? message.getBody() : message.getHead().getPath();
+                        responseTrigger.submitResponse(new BasicResponseProducer(200, body, ContentType.TEXT_PLAIN), context);
+                    }
+                })
+                .create();
+        server.start();
+        InetSocketAddress address = (InetSocketAddress) server.listen(new InetSocketAddress("127.0.0.1", 0)).get().getAddress();
+        base = "http://127.0.0.1:" + address.getPort();
+    }
+
+    @AfterClass
+    public static void stop() {
+        server.close(CloseMode.GRACEFUL);
+    }
+
+    @Test
+    public void test() {
+        List<String> details = new ArrayList<>();
+        String result = new MimeRequest.Builder()
+                .url(base + "/s?wd={1}_{name}")
+                .replace(123)
+                .replace("name", 456)
+                .get()
+                .header("User-Agent", "dive-http")
+                .build()
+                .execute(http, (url, method, request, body, code, response, r) -> details.add(
+                        method + " " + request.first("User-Agent") + " " + code + " " + response.first("Content-Type") + " " + r));
+        Assert.assertEquals("/s?wd=123_456", result);
+        Assert.assertEquals(Collections.singletonList("GET dive-http 200 text/plain; charset=ISO-8859-1 " + result), details);
+    }
+
+    @Test
+    public void testH2c() {
+        String result = new MimeRequest.Builder()
+                .url(base + "/echo")
+                .post()
+                .body("{\"name\":\"123\"}")
+                .build()
+                .execute(http, (url, method, request, body, code, response, r) -> System.out.println("code: " + code));
+        Assert.assertEquals("{\"name\":\"123\"}", result);
+    }
+
+    @Test
+    public void testMultiplex() {
+        int before = CONNECTIONS.get();
+        // 连接建立之前的并发请求可能各自建立连接，先建立连接
+        Assert.assertEquals("/", http.execute(MimeRequest.builder().url(base + "/").get().build()));
+        List<CompletableFuture<String>> futures = IntStream.range(0, 50)
+                .mapToObj(i -> new MimeRequest.Builder()
+                        .url(base + "/{1}")
+                        .replace(i)
+                        .get()
+                        .build()
+                        .executeAsync(http))
+                .collect(Collectors.toList());
+        for (int i = 0; i < futures.size(); i++) {
+            Assert.assertEquals("/" + i, futures.get(i).join());
+        }
+        System.out.println("connections: " + (CONNECTIONS.get() - before));
+        Assert.assertEquals(1, CONNECTIONS.get() - before);
+    }
+
+}
@@ -0,0 +1,36 @@
+package dive.http.common;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 默认的有界线程池，阻塞实现的异步请求在此执行，不占用公共ForkJoinPool
+ * MimeHttp接口的默认异步方法和BaseMimeHttp未设置执行器时共用，首次使用时才创建
+ * @author dawn
+ */
+final class AsyncPool {
+
+    private static final int SIZE = Math.max(8, Runtime.getRuntime().availableProcessors() * 4);
+
+    static final Executor EXECUTOR;
+
+    static {
+        AtomicInteger count = new AtomicInteger();
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(SIZE, SIZE,
+                60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(),
+                r -> {
+                    Thread thread = new Thread(r, "dive-http-async-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        pool.allowCoreThreadTimeOut(true);
+        EXECUTOR = pool;
+    }
+
+    private AsyncPool() {}
+
+}
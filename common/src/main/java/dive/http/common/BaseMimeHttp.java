@@ -1,5 +1,10 @@
 package dive.http.common;
 
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.function.Consumer;
 
 /**
@@ -14,6 +19,21 @@ public abstract class BaseMimeHttp implements MimeHttp {
      */
     protected Consumer<String> error = System.err::println;
 
+    /**
+     * 异步请求执行器，阻塞实现的异步请求在此执行，未设置时使用默认的有界线程池
+     */
+    protected Executor executor;
+
+    /**
+     * 请求过程监听，未设置时不产生事件
+     */
+    protected RequestListener listener;
+
+    /**
+     * 内容编码，默认不声明Accept-Encoding也不压缩请求体，响应带Content-Encoding时仍会解码
+     */
+    protected Compression compression = Compression.none();
+
     /**
      * 更改错误处理方法
      * @param error 错误消费者
@@ -26,9 +46,94 @@ public abstract class BaseMimeHttp implements MimeHttp {
         return this;
     }
 
+    /**
+     * 更改异步请求执行器
+     * @param executor 执行器
+     * @return 本实例
+     */
+    public BaseMimeHttp executor(Executor executor) {
+        if (null != executor) {
+            this.executor = executor;
+        }
+        return this;
+    }
+
+    /**
+     * 设置请求过程监听，传入null取消监听
+     * @param listener 监听
+     * @return 本实例
+     */
+    public BaseMimeHttp listener(RequestListener listener) {
+        this.listener = listener;
+        return this;
+    }
+
+    /**
+     * 更改内容编码配置
+     * @param compression 内容编码，例如Compression.of()声明gzip和deflate
+     * @return 本实例
+     */
+    public BaseMimeHttp compression(Compression compression) {
+        if (null != compression) {
+            this.compression = compression;
+        }
+        return this;
+    }
+
+    /**
+     * 获取内容编码配置，包含压缩前后的字节数统计
+     * @return 内容编码
+     */
+    public Compression getCompression() {
+        return compression;
+    }
+
+    /**
+     * 获取异步请求执行器
+     * @return 执行器
+     */
+    protected Executor executor() {
+        return null != executor ? executor : AsyncPool.EXECUTOR;
+    }
+
     @Override
     public void error(String message) {
         this.error.accept(message);
     }
 
+    @Override
+    public CompletableFuture<String> executeAsync(MimeRequest request, Detail detail) {
+        return CompletableFuture.supplyAsync(() -> this.execute(request, detail), executor());
+    }
+
+    /**
+     * 在执行器中执行同步的decode，请求和解码期间一直占用执行器的一个线程，即使executeAsync是非阻塞实现
+     * 大量并发解码时应通过executor(Executor)配置足够的线程
+     */
+    @Override
+    public <R> CompletableFuture<R> decodeAsync(MimeRequest request, BodyDecoder<R> decoder, Detail detail) {
+        Objects.requireNonNull(decoder, "decoder");
+        return CompletableFuture.supplyAsync(() -> this.decode(request, decoder, detail), executor());
+    }
+
+    /**
+     * 获取延迟任务调度器，用于延迟发出异步请求
+     * @return 调度器
+     */
+    protected static ScheduledExecutorService scheduler() {
+        return Scheduler.SCHEDULER;
+    }
+
+    /**
+     * 延迟任务的调度线程，首次使用时才创建
+     */
+    private static class Scheduler {
+
+        private static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "dive-http-scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
 }
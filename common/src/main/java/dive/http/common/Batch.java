@@ -0,0 +1,264 @@
+package dive.http.common;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * 批量请求配置
+ * 请求通过各实现的异步方法发出，一个请求完成后才发出下一个，不为每个请求占用一个线程
+ * @author dawn
+ */
+public class Batch {
+
+    /**
+     * 同时进行的最大请求数
+     */
+    private int concurrency = 16;
+
+    /**
+     * 每个主机同时进行的最大请求数
+     */
+    private int maxPerHost = Integer.MAX_VALUE;
+
+    /**
+     * 指定主机的最大请求数，键为 host[:port]
+     */
+    private Map<String, Integer> hostLimits = Collections.emptyMap();
+
+    /**
+     * 出现失败后是否停止发出剩余请求
+     */
+    private boolean failFast;
+
+    /**
+     * 每个请求的回调
+     */
+    private Detail detail;
+
+    private Batch() {}
+
+    /**
+     * 指定并发数的默认配置：不限制单个主机，失败后继续
+     * @param concurrency 同时进行的最大请求数
+     * @return 配置
+     */
+    public static Batch of(int concurrency) {
+        return builder().concurrency(concurrency).build();
+    }
+
+    /**
+     * 获取建造者实例
+     * @return 建造者实例
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public int getConcurrency() {
+        return concurrency;
+    }
+
+    public boolean isFailFast() {
+        return failFast;
+    }
+
+    public Detail getDetail() {
+        return detail;
+    }
+
+    /**
+     * 获取主机的最大请求数
+     * @param host host[:port]
+     * @return 最大请求数
+     */
+    public int limit(String host) {
+        Integer limit = hostLimits.get(host);
+        return null != limit ? limit : maxPerHost;
+    }
+
+    /**
+     * 单个请求的结果
+     * 回调报告了响应码时以响应码是否为2xx判断成功，没有报告响应码时(请求未得到响应)以结果是否为null判断
+     */
+    public static class Result {
+
+        private final int index;
+
+        private final MimeRequest request;
+
+        private final String result;
+
+        private final Throwable error;
+
+        private final Integer code;
+
+        Result(int index, MimeRequest request, String result, Throwable error, Integer code) {
+            this.index = index;
+            this.request = request;
+            this.result = result;
+            this.error = error;
+            this.code = code;
+        }
+
+        /**
+         * 请求在输入中的位置
+         * @return 位置
+         */
+        public int getIndex() {
+            return index;
+        }
+
+        public MimeRequest getRequest() {
+            return request;
+        }
+
+        public String getResult() {
+            return result;
+        }
+
+        public Throwable getError() {
+            return error;
+        }
+
+        /**
+         * 回调报告的响应码
+         * @return 响应码，未得到响应时为null
+         */
+        public Integer getCode() {
+            return code;
+        }
+
+        public boolean isSuccess() {
+            if (null != error) {
+                return false;
+            }
+            if (null != code) {
+                return 200 <= code && code < 300;
+            }
+            return null != result;
+        }
+
+        @Override
+        public String toString() {
+            return "Result{index=" + index + ", success=" + isSuccess()
+                    + (null != code ? ", code=" + code : "")
+                    + (null != error ? ", error=" + error : "") + "}";
+        }
+    }
+
+    /**
+     * 快速失败模式下第一个失败的请求
+     */
+    public static class FailedException extends RuntimeException {
+
+        private static final long serialVersionUID = -2637455620483371046L;
+
+        private final transient Result result;
+
+        FailedException(Result result) {
+            super("batch request failed at index " + result.getIndex()
+                            + (null != result.getCode() ? " with code " + result.getCode() : "")
+                            + ": " + result.getRequest().getUrl(),
+                    result.getError());
+            this.result = result;
+        }
+
+        public Result getResult() {
+            return result;
+        }
+    }
+
+    /**
+     * 建造者类，用于创建Batch对象
+     */
+    public static class Builder {
+
+        private final Batch batch = new Batch();
+
+        private final Map<String, Integer> hostLimits = new LinkedHashMap<>();
+
+        /**
+         * 设置同时进行的最大请求数
+         * @param concurrency 最大请求数
+         * @return Builder
+         */
+        public Builder concurrency(int concurrency) {
+            batch.concurrency = positive(concurrency, "concurrency");
+            return this;
+        }
+
+        /**
+         * 设置每个主机同时进行的最大请求数
+         * @param maxPerHost 最大请求数
+         * @return Builder
+         */
+        public Builder maxPerHost(int maxPerHost) {
+            batch.maxPerHost = positive(maxPerHost, "maxPerHost");
+            return this;
+        }
+
+        /**
+         * 设置指定主机同时进行的最大请求数
+         * @param host 主机，例如：api.huobi.pro 或 127.0.0.1:8080
+         * @param max 最大请求数
+         * @return Builder
+         */
+        public Builder maxPerHost(String host, int max) {
+            Objects.requireNonNull(host, "host");
+            hostLimits.put(host.toLowerCase(), positive(max, "max"));
+            return this;
+        }
+
+        /**
+         * 出现失败后停止发出剩余请求，已发出的请求仍会完成
+         * @return Builder
+         */
+        public Builder failFast() {
+            batch.failFast = true;
+            return this;
+        }
+
+        /**
+         * 失败后继续，最后统一返回每个请求的结果和异常，默认方式
+         * @return Builder
+         */
+        public Builder collectErrors() {
+            batch.failFast = false;
+            return this;
+        }
+
+        /**
+         * 设置每个请求的回调
+         * @param detail 更加详细的处理
+         * @return Builder
+         */
+        public Builder detail(Detail detail) {
+            batch.detail = detail;
+            return this;
+        }
+
+        /**
+         * 构建Batch对象
+         * @return Batch对象
+         */
+        public Batch build() {
+            Batch result = new Batch();
+            result.concurrency = batch.concurrency;
+            result.maxPerHost = batch.maxPerHost;
+            result.hostLimits = Collections.unmodifiableMap(new LinkedHashMap<>(hostLimits));
+            result.failFast = batch.failFast;
+            result.detail = batch.detail;
+            return result;
+        }
+
+        private static int positive(int value, String name) {
+            if (value <= 0) {
+                throw new IllegalArgumentException(name + " must be positive: " + value);
+            }
+            return value;
+        }
+    }
+
+}
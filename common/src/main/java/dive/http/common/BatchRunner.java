@@ -0,0 +1,179 @@
+package dive.http.common;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * 执行一批请求，由请求完成的回调驱动发出下一个请求
+ * @author dawn
+ */
+class BatchRunner {
+
+    private final MimeHttp http;
+
+    private final List<MimeRequest> requests;
+
+    private final Batch batch;
+
+    private final Consumer<Batch.Result> receiver;
+
+    /**
+     * 各主机等待发出的请求，按主机首次出现的顺序排列
+     */
+    private final LinkedHashMap<String, ArrayDeque<Integer>> pending = new LinkedHashMap<>();
+
+    /**
+     * 各主机进行中的请求数
+     */
+    private final Map<String, Integer> running = new HashMap<>();
+
+    private final String[] hosts;
+
+    private final CompletableFuture<Void> done = new CompletableFuture<>();
+
+    /**
+     * 防止请求同步完成时递归发出下一个请求
+     */
+    private final AtomicInteger wip = new AtomicInteger();
+
+    private int inFlight;
+
+    private int finished;
+
+    private Batch.Result failure;
+
+    BatchRunner(MimeHttp http, List<MimeRequest> requests, Batch batch, Consumer<Batch.Result> receiver) {
+        this.http = http;
+        this.requests = requests;
+        this.batch = batch;
+        this.receiver = receiver;
+        this.hosts = new String[requests.size()];
+        for (int i = 0; i < requests.size(); i++) {
+            MimeRequest request = Objects.requireNonNull(requests.get(i), "mime request is null");
+            hosts[i] = Util.host(MimeHttp.url(request));
+            pending.computeIfAbsent(hosts[i], h -> new ArrayDeque<>()).add(i);
+        }
+    }
+
+    /**
+     * 开始执行
+     * @return 全部完成时结束，快速失败模式下以Batch.FailedException结束
+     */
+    CompletableFuture<Void> start() {
+        if (requests.isEmpty()) {
+            done.complete(null);
+        } else {
+            drain();
+        }
+        return done;
+    }
+
+    private void drain() {
+        if (0 != wip.getAndIncrement()) {
+            return;
+        }
+        do {
+            List<Integer> next;
+            synchronized (this) {
+                next = next();
+            }
+            for (int index : next) {
+                launch(index);
+            }
+        } while (0 != wip.decrementAndGet());
+    }
+
+    /**
+     * 在总并发数和主机并发数限制内选出可以发出的请求
+     * @return 请求位置
+     */
+    private List<Integer> next() {
+        List<Integer> next = new ArrayList<>();
+        if (null != failure && batch.isFailFast()) {
+            return next;
+        }
+        boolean progress = true;
+        while (inFlight < batch.getConcurrency() && progress) {
+            progress = false;
+            Iterator<Map.Entry<String, ArrayDeque<Integer>>> it = pending.entrySet().iterator();
+            while (it.hasNext() && inFlight < batch.getConcurrency()) {
+                Map.Entry<String, ArrayDeque<Integer>> e = it.next();
+                String host = e.getKey();
+                int count = running.getOrDefault(host, 0);
+                if (count >= batch.limit(host)) {
+                    continue;
+                }
+                next.add(e.getValue().poll());
+                running.put(host, count + 1);
+                inFlight++;
+                progress = true;
+                if (e.getValue().isEmpty()) {
+                    it.remove();
+                }
+            }
+        }
+        return next;
+    }
+
+    private void launch(int index) {
+        // 记录回调报告的响应码，用于判断请求是否成功，重试时以最后一次为准
+        AtomicReference<Integer> code = new AtomicReference<>();
+        Detail detail = batch.getDetail();
+        Detail record = (url, method, request, body, c, response, result) -> {
+            code.set(c);
+            if (null != detail) {
+                detail.accept(url, method, request, body, c, response, result);
+            }
+        };
+        CompletableFuture<String> future;
+        try {
+            future = http.executeAsync(requests.get(index), record);
+        } catch (Throwable e) {
+            // 包括Error，否则已计入的进行中请求数不会减少，整批请求无法结束
+            future = new CompletableFuture<>();
+            future.completeExceptionally(e);
+        }
+        future.whenComplete((result, e) -> complete(index, result, e, code.get()));
+    }
+
+    private void complete(int index, String result, Throwable e, Integer code) {
+        Throwable error = e instanceof CompletionException && null != e.getCause() ? e.getCause() : e;
+        Batch.Result r = new Batch.Result(index, requests.get(index), result, error, code);
+        boolean last;
+        synchronized (this) {
+            inFlight--;
+            finished++;
+            running.merge(hosts[index], -1, Integer::sum);
+            if (!r.isSuccess() && null == failure) {
+                failure = r;
+            }
+            try {
+                receiver.accept(r);
+            } catch (RuntimeException ex) {
+                http.error(ex, "BatchReceiver", r.getRequest().getUrl());
+            }
+            last = finished == requests.size() || (batch.isFailFast() && null != failure && 0 == inFlight);
+        }
+        if (last) {
+            if (batch.isFailFast() && null != failure) {
+                done.completeExceptionally(new Batch.FailedException(failure));
+            } else {
+                done.complete(null);
+            }
+            return;
+        }
+        drain();
+    }
+
+}
@@ -0,0 +1,73 @@
+package dive.http.common;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+
+/**
+ * 响应体解码，直接从响应体字节流解析为对象，不生成中间字符串
+ * 通过MimeHttp.decode/decodeAsync使用，由各实现的executeStream读取，流由执行请求的实现负责关闭
+ * @param <R> 解码结果类型
+ * @author dawn
+ */
+@FunctionalInterface
+public interface BodyDecoder<R> {
+
+    /**
+     * 解码响应体
+     * @param body 响应体输入流
+     * @param charset 响应声明的字符集，未声明则为utf-8
+     * @return 解码结果
+     * @throws IOException 读取或解析异常
+     */
+    R decode(InputStream body, Charset charset) throws IOException;
+
+    /**
+     * 解码已读取的字节
+     * @param bytes 响应体字节
+     * @param charset 字符集
+     * @return 解码结果
+     * @throws IOException 解析异常
+     */
+    default R decode(byte[] bytes, Charset charset) throws IOException {
+        return decode(new ByteArrayInputStream(bytes), charset);
+    }
+
+    /**
+     * 作为流消费者使用
+     * @return 流消费者
+     */
+    default Receiver<R> receiver() {
+        return this::decode;
+    }
+
+    /**
+     * 以字符流的形式解码，按声明的字符集转换
+     * @param reader 字符流解码函数
+     * @param <R> 解码结果类型
+     * @return 解码器
+     */
+    static <R> BodyDecoder<R> reader(ReaderDecoder<R> reader) {
+        return (body, charset) -> reader.decode(new InputStreamReader(body, charset));
+    }
+
+    /**
+     * 字符流解码函数
+     * @param <R> 解码结果类型
+     */
+    @FunctionalInterface
+    interface ReaderDecoder<R> {
+
+        /**
+         * 解码响应体
+         * @param body 响应体字符流
+         * @return 解码结果
+         * @throws IOException 读取或解析异常
+         */
+        R decode(Reader body) throws IOException;
+    }
+
+}
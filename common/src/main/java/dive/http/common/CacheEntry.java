@@ -0,0 +1,485 @@
+package dive.http.common;
+
+import dive.http.common.model.Header;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * 缓存的响应，按RFC 7234计算新鲜度
+ * 磁盘中按固定格式读写，不使用java序列化，目录中的其他文件无法构造出任意对象
+ * @author dawn
+ */
+class CacheEntry {
+
+    /**
+     * 磁盘格式的文件头和版本
+     */
+    private static final int MAGIC = 0x44484301;
+
+    /**
+     * 默认可缓存的响应码
+     */
+    private static final Set<Integer> CACHEABLE = new HashSet<>(Arrays.asList(
+            200, 203, 204, 300, 301, 404, 405, 410, 414, 501));
+
+    /**
+     * 启发式新鲜度上限，超过时RFC要求附加警告，这里直接限制为一天
+     */
+    private static final long HEURISTIC_LIMIT = 24 * 60 * 60 * 1000L;
+
+    /**
+     * 304响应中不应覆盖缓存的头
+     */
+    private static final Set<String> KEEP = new HashSet<>(Arrays.asList(
+            "content-length", "content-encoding", "transfer-encoding", "content-range"));
+
+    private final String url;
+
+    private final int code;
+
+    private final Header header;
+
+    private final String result;
+
+    /**
+     * 发出请求的时间
+     */
+    private final long requestTime;
+
+    /**
+     * 收到响应的时间
+     */
+    private final long responseTime;
+
+    /**
+     * Vary声明的请求头及其取值
+     */
+    private final Map<String, String> vary;
+
+    private CacheEntry(String url, int code, Header header, String result,
+                       long requestTime, long responseTime, Map<String, String> vary) {
+        this.url = url;
+        this.code = code;
+        this.header = header;
+        this.result = result;
+        this.requestTime = requestTime;
+        this.responseTime = responseTime;
+        this.vary = vary;
+    }
+
+    /**
+     * 构造缓存，响应不允许缓存时返回null
+     * @param url 请求url
+     * @param requestHeader 请求头
+     * @param code 响应码
+     * @param responseHeader 响应头
+     * @param result 请求结果
+     * @param requestTime 发出请求的时间
+     * @param responseTime 收到响应的时间
+     * @return 缓存，不可缓存为null
+     */
+    static CacheEntry of(String url, Header requestHeader, Integer code, Header responseHeader, String result,
+                         long requestTime, long responseTime) {
+        if (null == code || null == result || null == responseHeader) {
+            return null;
+        }
+        Map<String, String> request = directives(requestHeader);
+        Map<String, String> response = directives(responseHeader);
+        if (request.containsKey("no-store") || response.containsKey("no-store")) {
+            return null;
+        }
+        boolean explicit = response.containsKey("max-age") || null != first(responseHeader, "Expires")
+                || response.containsKey("public");
+        if (!explicit && !CACHEABLE.contains(code)) {
+            return null;
+        }
+        Map<String, String> vary = new LinkedHashMap<>();
+        String names = join(responseHeader, "Vary");
+        if (null != names) {
+            for (String name : names.split(",")) {
+                name = name.trim();
+                if ("*".equals(name)) {
+                    return null;
+                }
+                if (!name.isEmpty()) {
+                    vary.put(name.toLowerCase(), join(requestHeader, name));
+                }
+            }
+        }
+        CacheEntry entry = new CacheEntry(url, code, copy(responseHeader), result, requestTime, responseTime, vary);
+        if (0 >= entry.lifetime() && !entry.validatable()) {
+            return null;
+        }
+        return entry;
+    }
+
+    /**
+     * 收到304后更新缓存
+     * @param responseHeader 304响应头
+     * @param requestTime 发出请求的时间
+     * @param responseTime 收到响应的时间
+     * @return 新的缓存
+     */
+    CacheEntry revalidated(Header responseHeader, long requestTime, long responseTime) {
+        Header merged = copy(header);
+        if (null != responseHeader) {
+            for (String key : responseHeader.keySet()) {
+                if (null == key || KEEP.contains(key.toLowerCase()) || null == responseHeader.get(key)) {
+                    continue;
+                }
+                merged.remove(key);
+                responseHeader.get(key).forEach(v -> merged.add(key, v));
+            }
+        }
+        return new CacheEntry(url, code, merged, result, requestTime, responseTime, vary);
+    }
+
+    /**
+     * 新鲜度生存期
+     * @return 毫秒
+     */
+    long lifetime() {
+        Map<String, String> response = directives(header);
+        if (response.containsKey("no-cache")) {
+            return 0;
+        }
+        long maxAge = seconds(response.get("max-age"));
+        if (0 <= maxAge) {
+            return maxAge * 1000;
+        }
+        String expires = first(header, "Expires");
+        if (null != expires) {
+            long time = date(expires);
+            // 无效的Expires视为已过期
+            return 0 > time ? 0 : Math.max(0, time - date());
+        }
+        String lastModified = first(header, "Last-Modified");
+        if (null != lastModified && CACHEABLE.contains(code)) {
+            long time = date(lastModified);
+            if (0 <= time) {
+                return Math.min(HEURISTIC_LIMIT, Math.max(0, (date() - time) / 10));
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * 当前年龄
+     * @param now 当前时间
+     * @return 毫秒
+     */
+    long age(long now) {
+        long apparent = Math.max(0, responseTime - date());
+        long ageValue = Math.max(0, seconds(first(header, "Age"))) * 1000;
+        long corrected = ageValue + (responseTime - requestTime);
+        return Math.max(apparent, corrected) + (now - responseTime);
+    }
+
+    /**
+     * 是否新鲜
+     * @param requestHeader 请求头
+     * @param now 当前时间
+     * @return 是否可直接使用
+     */
+    boolean fresh(Header requestHeader, long now) {
+        Map<String, String> request = directives(requestHeader);
+        if (request.containsKey("no-cache") || "no-cache".equalsIgnoreCase(first(requestHeader, "Pragma"))) {
+            return false;
+        }
+        long lifetime = lifetime();
+        long maxAge = seconds(request.get("max-age"));
+        if (0 <= maxAge) {
+            lifetime = Math.min(lifetime, maxAge * 1000);
+        }
+        return age(now) < lifetime;
+    }
+
+    /**
+     * 是否可以条件请求验证
+     * @return 是否有ETag或Last-Modified
+     */
+    boolean validatable() {
+        return null != first(header, "ETag") || null != first(header, "Last-Modified");
+    }
+
+    /**
+     * 是否与请求头的Vary取值一致
+     * @param requestHeader 请求头
+     * @return 是否一致
+     */
+    boolean matches(Header requestHeader) {
+        for (Map.Entry<String, String> e : vary.entrySet()) {
+            if (!Objects.equals(e.getValue(), join(requestHeader, e.getKey()))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 粗略估算占用内存
+     * @return 字节数
+     */
+    long size() {
+        long[] size = {64 + url.length() * 2L + result.length() * 2L};
+        header.each((k, v) -> size[0] += (k.length() + v.length()) * 2L);
+        return size[0];
+    }
+
+    String getUrl() {
+        return url;
+    }
+
+    int getCode() {
+        return code;
+    }
+
+    /**
+     * 获取响应头副本，避免回调修改缓存内容
+     * @return 响应头
+     */
+    Header getHeader() {
+        return copy(header);
+    }
+
+    String getResult() {
+        return result;
+    }
+
+    /**
+     * 获取第一个值，忽略大小写
+     * @param header 头
+     * @param name 名称
+     * @return 值
+     */
+    static String first(Header header, String name) {
+        if (null == header) {
+            return null;
+        }
+        return header.first(name);
+    }
+
+    /**
+     * 合并所有同名的值，忽略大小写
+     * @param header 头
+     * @param name 名称
+     * @return 以逗号分隔的值
+     */
+    private static String join(Header header, String name) {
+        if (null == header) {
+            return null;
+        }
+        List<String> values = header.get(name);
+        return null == values ? null : String.join(",", values);
+    }
+
+    /**
+     * 解析Cache-Control指令，名称小写，无值的指令值为空字符串
+     * @param header 头
+     * @return 指令
+     */
+    private static Map<String, String> directives(Header header) {
+        String value = join(header, "Cache-Control");
+        if (null == value) {
+            return new HashMap<>(0);
+        }
+        Map<String, String> directives = new HashMap<>();
+        boolean quoted = false;
+        int start = 0;
+        for (int i = 0; i <= value.length(); i++) {
+            char c = i < value.length() ? value.charAt(i) : ',';
+            if ('"' == c) {
+                quoted = !quoted;
+            } else if (',' == c && !quoted) {
+                String part = value.substring(start, i).trim();
+                start = i + 1;
+                if (part.isEmpty()) {
+                    continue;
+                }
+                int eq = part.indexOf('=');
+                if (0 > eq) {
+                    directives.put(part.toLowerCase(), "");
+                } else {
+                    directives.put(part.substring(0, eq).trim().toLowerCase(),
+                            part.substring(eq + 1).trim().replace("\"", ""));
+                }
+            }
+        }
+        return directives;
+    }
+
+    /**
+     * 解析秒数
+     * @param value 值
+     * @return 秒数，无效为-1
+     */
+    private static long seconds(String value) {
+        if (null == value) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * 响应的Date，没有时使用收到响应的时间
+     * @return 时间
+     */
+    private long date() {
+        String date = first(header, "Date");
+        long time = null == date ? -1 : date(date);
+        return 0 > time ? responseTime : time;
+    }
+
+    /**
+     * 解析http日期
+     * @param value 值
+     * @return 时间，无效为-1
+     */
+    static long date(String value) {
+        try {
+            return ZonedDateTime.parse(value.trim(), DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+        } catch (DateTimeParseException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * 写入磁盘格式
+     * @param out 输出
+     * @throws IOException 写入异常
+     */
+    void write(DataOutput out) throws IOException {
+        out.writeInt(MAGIC);
+        string(out, url);
+        out.writeInt(code);
+        out.writeLong(requestTime);
+        out.writeLong(responseTime);
+        out.writeInt(header.size());
+        IOException[] error = new IOException[1];
+        header.each((k, v) -> {
+            try {
+                if (null == error[0]) {
+                    string(out, k);
+                    string(out, v);
+                }
+            } catch (IOException e) {
+                error[0] = e;
+            }
+        });
+        if (null != error[0]) {
+            throw error[0];
+        }
+        out.writeInt(vary.size());
+        for (Map.Entry<String, String> e : vary.entrySet()) {
+            string(out, e.getKey());
+            string(out, e.getValue());
+        }
+        string(out, result);
+    }
+
+    /**
+     * 读取磁盘格式
+     * @param in 输入
+     * @return 缓存
+     * @throws IOException 读取异常或格式错误
+     */
+    static CacheEntry read(DataInput in) throws IOException {
+        if (MAGIC != in.readInt()) {
+            throw new IOException("not a cache entry");
+        }
+        String url = string(in);
+        int code = in.readInt();
+        long requestTime = in.readLong();
+        long responseTime = in.readLong();
+        int count = count(in);
+        Header header = Header.build(count);
+        for (int i = 0; i < count; i++) {
+            header.add(string(in), string(in));
+        }
+        count = count(in);
+        Map<String, String> vary = new LinkedHashMap<>();
+        for (int i = 0; i < count; i++) {
+            vary.put(string(in), string(in));
+        }
+        String result = string(in);
+        if (null == url || null == result) {
+            throw new IOException("invalid cache entry");
+        }
+        return new CacheEntry(url, code, header, result, requestTime, responseTime, vary);
+    }
+
+    /**
+     * 写入字符串，null长度为-1
+     */
+    private static void string(DataOutput out, String value) throws IOException {
+        if (null == value) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String string(DataInput in) throws IOException {
+        int length = in.readInt();
+        if (-1 == length) {
+            return null;
+        }
+        if (0 > length) {
+            throw new IOException("invalid length: " + length);
+        }
+        // 按块读取，长度字段损坏时在文件末尾失败，不预先分配过大的数组
+        byte[] bytes = new byte[Math.min(length, 8192)];
+        int read = 0;
+        while (read < length) {
+            if (read == bytes.length) {
+                bytes = Arrays.copyOf(bytes, (int) Math.min(length, bytes.length * 2L));
+            }
+            int n = Math.min(bytes.length, length) - read;
+            in.readFully(bytes, read, n);
+            read += n;
+        }
+        return new String(bytes, 0, length, StandardCharsets.UTF_8);
+    }
+
+    private static int count(DataInput in) throws IOException {
+        int count = in.readInt();
+        if (0 > count || 65536 < count) {
+            throw new IOException("invalid count: " + count);
+        }
+        return count;
+    }
+
+    /**
+     * 复制头
+     * @param header 头
+     * @return 副本
+     */
+    private static Header copy(Header header) {
+        Header copy = Header.build(null == header ? 0 : header.size());
+        if (null != header) {
+            header.each(copy::add);
+        }
+        return copy;
+    }
+
+}
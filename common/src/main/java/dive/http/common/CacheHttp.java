@@ -0,0 +1,323 @@
+package dive.http.common;
+
+import dive.http.common.model.Header;
+import dive.http.common.model.Method;
+
+import java.nio.file.Path;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 带缓存的请求，按RFC 7234处理Cache-Control和Expires，只缓存GET请求的结果
+ * 缓存过期后带If-None-Match/If-Modified-Since重新验证，收到304时使用缓存
+ * 响应码和响应头通过回调获取，因此各个实现的效果一致
+ * 流式请求和文件下载不经过缓存
+ * @author dawn
+ */
+public class CacheHttp extends BaseMimeHttp {
+
+    /**
+     * 实际执行请求的对象
+     */
+    private final MimeHttp http;
+
+    /**
+     * 缓存存储
+     */
+    private final CacheStore store;
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    private final LongAdder revalidations = new LongAdder();
+
+    private CacheHttp(MimeHttp http, CacheStore store) {
+        this.http = http;
+        this.store = store;
+    }
+
+    /**
+     * 获取建造者实例
+     * @param http 实际执行请求的对象
+     * @return 建造者实例
+     */
+    public static Builder builder(MimeHttp http) {
+        return new Builder(http);
+    }
+
+    @Override
+    public String execute(MimeRequest request, Detail detail) {
+        Objects.requireNonNull(request, "mime request is null");
+        Exchange exchange = new Exchange(request);
+        if (exchange.hit()) {
+            return exchange.cached(detail);
+        }
+        return exchange.complete(http.execute(exchange.request, exchange), detail);
+    }
+
+    @Override
+    public CompletableFuture<String> executeAsync(MimeRequest request, Detail detail) {
+        Objects.requireNonNull(request, "mime request is null");
+        Exchange exchange = new Exchange(request);
+        if (exchange.hit()) {
+            return CompletableFuture.completedFuture(exchange.cached(detail));
+        }
+        return http.executeAsync(exchange.request, exchange).thenApply(result -> exchange.complete(result, detail));
+    }
+
+    @Override
+    public <R> R executeStream(MimeRequest request, Receiver<R> receiver, Detail detail) {
+        return http.executeStream(request, receiver, detail);
+    }
+
+    @Override
+    public Long downloadTo(MimeRequest request, Path path, Detail detail) {
+        return http.downloadTo(request, path, detail);
+    }
+
+    /**
+     * 清空缓存
+     */
+    public void clear() {
+        store.clear();
+    }
+
+    /**
+     * 直接使用缓存的次数
+     * @return 次数
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * 未使用缓存的次数
+     * @return 次数
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * 验证后使用缓存的次数
+     * @return 次数
+     */
+    public long getRevalidations() {
+        return revalidations.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "CacheHttp{hits=" + getHits() + ", misses=" + getMisses()
+                + ", revalidations=" + getRevalidations() + "}";
+    }
+
+    /**
+     * 一次请求，记录缓存状态并通过回调获取响应码和响应头
+     */
+    private class Exchange implements Detail {
+
+        /**
+         * 原始请求
+         */
+        private final MimeRequest origin;
+
+        /**
+         * 实际发出的请求，重新验证时附带条件请求头
+         */
+        private MimeRequest request;
+
+        private final String url;
+
+        /**
+         * 是否可以使用缓存
+         */
+        private final boolean cacheable;
+
+        private CacheEntry entry;
+
+        private long requestTime;
+
+        private Method method;
+
+        private Object body;
+
+        private Integer code;
+
+        private Header responseHeader;
+
+        private String result;
+
+        private boolean accepted;
+
+        Exchange(MimeRequest origin) {
+            this.origin = origin;
+            this.request = origin;
+            this.url = MimeHttp.url(origin);
+            Header header = origin.getHeader();
+            this.cacheable = Method.GET.equals(origin.getMethod())
+                    && null == CacheEntry.first(header, "If-None-Match")
+                    && null == CacheEntry.first(header, "If-Modified-Since")
+                    && null == CacheEntry.first(header, "Range");
+            if (cacheable) {
+                CacheEntry cached = store.get(url);
+                if (null != cached && cached.matches(header)) {
+                    entry = cached;
+                }
+            }
+        }
+
+        /**
+         * 判断缓存是否新鲜，不新鲜时准备条件请求
+         * @return 是否直接使用缓存
+         */
+        boolean hit() {
+            requestTime = System.currentTimeMillis();
+            if (null == entry) {
+                return false;
+            }
+            if (entry.fresh(origin.getHeader(), requestTime)) {
+                hits.increment();
+                return true;
+            }
+            if (entry.validatable()) {
+                MimeRequest.Builder builder = new MimeRequest.Builder(url).get();
+                Header header = Header.build();
+                if (null != origin.getHeader()) {
+                    origin.getHeader().each(header::add);
+                }
+                String etag = CacheEntry.first(entry.getHeader(), "ETag");
+                String lastModified = CacheEntry.first(entry.getHeader(), "Last-Modified");
+                if (null != etag) {
+                    header.put("If-None-Match", etag);
+                }
+                if (null != lastModified) {
+                    header.put("If-Modified-Since", lastModified);
+                }
+                request = builder.header(header).extra(origin.getExtra()).build();
+            }
+            return false;
+        }
+
+        /**
+         * 使用缓存的结果
+         * @param detail 更加详细的处理
+         * @return 请求结果
+         */
+        String cached(Detail detail) {
+            if (null != detail) {
+                detail.accept(url, origin.getMethod(), origin.getHeader(), origin.getBody(),
+                        entry.getCode(), entry.getHeader(), entry.getResult());
+            }
+            return entry.getResult();
+        }
+
+        @Override
+        public void accept(String url, Method method, Header requestHeader, Object body,
+                           Integer code, Header responseHeader, String result) {
+            this.method = method;
+            this.body = body;
+            this.code = code;
+            this.responseHeader = responseHeader;
+            this.result = result;
+            this.accepted = true;
+        }
+
+        /**
+         * 请求结束后更新缓存
+         * @param result 请求结果
+         * @param detail 更加详细的处理
+         * @return 请求结果
+         */
+        String complete(String result, Detail detail) {
+            long responseTime = System.currentTimeMillis();
+            if (!cacheable) {
+                // 不安全的方法成功后，同一url的缓存失效
+                if (!Method.GET.equals(origin.getMethod()) && null != code && 200 <= code && code < 400) {
+                    store.remove(url);
+                }
+                return report(result, detail);
+            }
+            if (null != entry && null != code && 304 == code) {
+                revalidations.increment();
+                entry = entry.revalidated(responseHeader, requestTime, responseTime);
+                store.put(url, entry);
+                return cached(detail);
+            }
+            misses.increment();
+            CacheEntry fresh = CacheEntry.of(url, origin.getHeader(), code, responseHeader, result,
+                    requestTime, responseTime);
+            if (null != fresh) {
+                store.put(url, fresh);
+            } else if (null != entry && null != code && code < 500) {
+                store.remove(url);
+            }
+            return report(result, detail);
+        }
+
+        /**
+         * 将实际请求的回调转交给调用方
+         * @param result 请求结果
+         * @param detail 更加详细的处理
+         * @return 请求结果
+         */
+        private String report(String result, Detail detail) {
+            if (null != detail && accepted) {
+                detail.accept(url, null == method ? origin.getMethod() : method,
+                        origin.getHeader(), body, code, responseHeader, this.result);
+            }
+            return result;
+        }
+    }
+
+    /**
+     * 建造者类，用于创建CacheHttp对象
+     */
+    public static class Builder {
+
+        private final MimeHttp http;
+
+        private long maxMemory = 16L << 20;
+
+        private Path disk;
+
+        private long maxDisk = 256L << 20;
+
+        private Builder(MimeHttp http) {
+            this.http = Objects.requireNonNull(http, "http");
+        }
+
+        /**
+         * 设置内存缓存的最大字节数，默认16M
+         * @param maxMemory 最大字节数
+         * @return Builder
+         */
+        public Builder memory(long maxMemory) {
+            this.maxMemory = maxMemory;
+            return this;
+        }
+
+        /**
+         * 设置磁盘缓存，内存中淘汰的缓存写入该目录
+         * @param disk 目录
+         * @param maxDisk 最大字节数
+         * @return Builder
+         */
+        public Builder disk(Path disk, long maxDisk) {
+            this.disk = Objects.requireNonNull(disk, "disk");
+            this.maxDisk = maxDisk;
+            return this;
+        }
+
+        /**
+         * 构建CacheHttp对象
+         * @return CacheHttp对象
+         */
+        public CacheHttp build() {
+            return new CacheHttp(http, new CacheStore(maxMemory, disk, maxDisk));
+        }
+    }
+
+}
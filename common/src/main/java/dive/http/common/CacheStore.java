@@ -0,0 +1,341 @@
+package dive.http.common;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 缓存存储，内存按最近最少使用淘汰，设置目录时淘汰的缓存转存到磁盘
+ * 磁盘文件按CacheEntry的固定格式读写，文件读写在锁外进行
+ * 锁外进行中的转存和读回按文件名登记版本，期间同一个键被存入、移除或清空时版本作废，完成时不再登记过期的缓存
+ * @author dawn
+ */
+class CacheStore {
+
+    private static final String SUFFIX = ".cache";
+
+    /**
+     * 内存缓存，按访问顺序排列
+     */
+    private final LinkedHashMap<String, CacheEntry> memory = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * 内存缓存最大字节数
+     */
+    private final long maxMemory;
+
+    /**
+     * 磁盘目录，为null时不使用磁盘
+     */
+    private final Path disk;
+
+    /**
+     * 磁盘缓存最大字节数
+     */
+    private final long maxDisk;
+
+    /**
+     * 磁盘文件及大小，按写入顺序排列
+     */
+    private final LinkedHashMap<String, Long> files = new LinkedHashMap<>();
+
+    /**
+     * 锁外进行中的转存和读回的版本，按文件名登记
+     */
+    private final Map<String, Long> pending = new HashMap<>();
+
+    private long version;
+
+    private long memoryBytes;
+
+    private long diskBytes;
+
+    CacheStore(long maxMemory, Path disk, long maxDisk) {
+        this.maxMemory = maxMemory;
+        this.disk = disk;
+        this.maxDisk = maxDisk;
+        if (null != disk) {
+            load();
+        }
+    }
+
+    /**
+     * 获取缓存，磁盘中的缓存取出后放回内存
+     * 锁内只登记和取消登记文件，文件读写和删除都在锁外进行
+     * @param key 键
+     * @return 缓存
+     */
+    CacheEntry get(String key) {
+        String name;
+        long token;
+        synchronized (this) {
+            CacheEntry entry = memory.get(key);
+            if (null != entry || null == disk) {
+                return entry;
+            }
+            name = name(key);
+            if (!unregister(name)) {
+                return null;
+            }
+            token = ++version;
+            pending.put(name, token);
+        }
+        CacheEntry entry = read(name);
+        delete(name);
+        if (null != entry && key.equals(entry.getUrl()) && put(key, name, token, entry)) {
+            return entry;
+        }
+        return null;
+    }
+
+    /**
+     * 存入缓存，内存超出时淘汰的缓存在锁外写入磁盘
+     * @param key 键
+     * @param entry 缓存
+     */
+    void put(String key, CacheEntry entry) {
+        put(key, null == disk ? null : name(key), 0, entry);
+    }
+
+    /**
+     * 存入缓存，读回时只有版本仍然有效才存入
+     * @param key 键
+     * @param name 文件名，不使用磁盘时为null
+     * @param token 读回的版本，直接存入时为0，同时作废进行中的转存和读回
+     * @param entry 缓存
+     * @return 是否存入
+     */
+    private boolean put(String key, String name, long token, CacheEntry entry) {
+        List<Map.Entry<String, CacheEntry>> evicted = null;
+        List<Long> tokens = null;
+        synchronized (this) {
+            if (0 != token) {
+                if (!pending.remove(name, token)) {
+                    return false;
+                }
+            } else if (null != name) {
+                pending.remove(name);
+            }
+            CacheEntry old = memory.put(key, entry);
+            if (null != old) {
+                memoryBytes -= old.size();
+            }
+            memoryBytes += entry.size();
+            Iterator<Map.Entry<String, CacheEntry>> it = memory.entrySet().iterator();
+            while (memoryBytes > maxMemory && it.hasNext()) {
+                Map.Entry<String, CacheEntry> eldest = it.next();
+                it.remove();
+                memoryBytes -= eldest.getValue().size();
+                if (null != disk) {
+                    if (null == evicted) {
+                        evicted = new ArrayList<>();
+                        tokens = new ArrayList<>();
+                    }
+                    long t = ++version;
+                    pending.put(name(eldest.getKey()), t);
+                    evicted.add(eldest);
+                    tokens.add(t);
+                }
+            }
+        }
+        if (null != evicted) {
+            for (int i = 0; i < evicted.size(); i++) {
+                write(evicted.get(i).getKey(), evicted.get(i).getValue(), tokens.get(i));
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 移除缓存
+     * @param key 键
+     */
+    void remove(String key) {
+        String name = null;
+        synchronized (this) {
+            CacheEntry old = memory.remove(key);
+            if (null != old) {
+                memoryBytes -= old.size();
+            }
+            if (null != disk) {
+                name = name(key);
+                pending.remove(name);
+                unregister(name);
+            }
+        }
+        if (null != name) {
+            delete(name);
+        }
+    }
+
+    /**
+     * 清空缓存
+     */
+    void clear() {
+        List<String> names;
+        synchronized (this) {
+            memory.clear();
+            memoryBytes = 0;
+            pending.clear();
+            names = new ArrayList<>(files.keySet());
+            files.clear();
+            diskBytes = 0;
+        }
+        names.forEach(this::delete);
+    }
+
+    /**
+     * 读取目录中已有的缓存文件，较早的文件先淘汰
+     */
+    private void load() {
+        try {
+            Files.createDirectories(disk);
+            List<Path> paths = new ArrayList<>();
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(disk, "*" + SUFFIX)) {
+                stream.forEach(paths::add);
+            }
+            paths.sort(Comparator.comparingLong(p -> p.toFile().lastModified()));
+            for (Path path : paths) {
+                long size = Files.size(path);
+                files.put(path.getFileName().toString(), size);
+                diskBytes += size;
+            }
+            trim().forEach(this::delete);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * 写入磁盘，先在锁外写入唯一的临时文件，再在锁内确认版本仍然有效后移动并登记大小
+     * 转存期间键被存入、移除或清空时版本作废，丢弃临时文件，不会登记过期的缓存
+     * 同名文件被并发的读取删除时只会造成一次未命中，读取失败的文件会被取消登记
+     */
+    private void write(String key, CacheEntry entry, long token) {
+        String name = name(key);
+        Path temp = null;
+        try {
+            temp = Files.createTempFile(disk, name, ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                entry.write(out);
+            }
+            long size = Files.size(temp);
+            List<String> victims;
+            synchronized (this) {
+                if (!pending.remove(name, token)) {
+                    return;
+                }
+                // 同一文件系统内的原子重命名，只修改目录项
+                Files.move(temp, disk.resolve(name), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                temp = null;
+                Long old = files.remove(name);
+                if (null != old) {
+                    diskBytes -= old;
+                }
+                files.put(name, size);
+                diskBytes += size;
+                victims = trim();
+            }
+            victims.forEach(this::delete);
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            if (null != temp) {
+                try {
+                    Files.deleteIfExists(temp);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+    }
+
+    /**
+     * 按固定格式读取，文件不存在或格式不符时返回null
+     */
+    private CacheEntry read(String name) {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(disk.resolve(name))))) {
+            return CacheEntry.read(in);
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * 取消登记文件，需持有锁
+     * @param name 文件名
+     * @return 是否已登记
+     */
+    private boolean unregister(String name) {
+        Long size = files.remove(name);
+        if (null == size) {
+            return false;
+        }
+        diskBytes -= size;
+        return true;
+    }
+
+    /**
+     * 删除文件，不需要持有锁
+     */
+    private void delete(String name) {
+        try {
+            Files.deleteIfExists(disk.resolve(name));
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * 磁盘超出大小时取消登记最早的文件，需持有锁
+     * @return 需要在锁外删除的文件
+     */
+    private List<String> trim() {
+        List<String> victims = new ArrayList<>();
+        while (diskBytes > maxDisk && !files.isEmpty()) {
+            String name = files.keySet().iterator().next();
+            unregister(name);
+            victims.add(name);
+        }
+        return victims;
+    }
+
+    /**
+     * 键对应的文件名
+     * @param key 键
+     * @return 文件名
+     */
+    private static String name(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(key.getBytes(StandardCharsets.UTF_8));
+            StringBuilder sb = new StringBuilder(digest.length * 2 + SUFFIX.length());
+            for (byte b : digest) {
+                sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return sb.append(SUFFIX).toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+}
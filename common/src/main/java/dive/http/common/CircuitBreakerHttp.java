@@ -0,0 +1,606 @@
+package dive.http.common;
+
+import dive.http.common.model.Header;
+import dive.http.common.model.Method;
+
+import java.nio.file.Path;
+import java.util.Objects;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 熔断请求，每个主机一个熔断器
+ * 最近若干次请求中失败(异常、未得到响应、408或5xx)或慢请求的比例超过阈值时熔断，熔断期间请求不发出，
+ * 直接按 503 CIRCUIT OPEN 返回，与连接失败一样经过回调
+ * 熔断一段时间后进入半开状态，放行少量探测请求，全部成功则恢复，任一失败则继续熔断
+ * @author dawn
+ */
+public class CircuitBreakerHttp extends BaseMimeHttp {
+
+    /**
+     * 实际执行请求的对象
+     */
+    private final MimeHttp http;
+
+    /**
+     * 统计最近多少次请求
+     */
+    private final int window;
+
+    /**
+     * 至少有多少次请求才判断是否熔断
+     */
+    private final int minCalls;
+
+    /**
+     * 失败比例阈值
+     */
+    private final double failureRate;
+
+    /**
+     * 慢请求比例阈值
+     */
+    private final double slowRate;
+
+    /**
+     * 超过该耗时视为慢请求，纳秒
+     */
+    private final long slowCall;
+
+    /**
+     * 熔断持续时间，纳秒
+     */
+    private final long openFor;
+
+    /**
+     * 半开状态放行的探测请求数
+     */
+    private final int probes;
+
+    /**
+     * 状态变化监听
+     */
+    private final Listener listener;
+
+    private final ConcurrentMap<String, Circuit> circuits = new ConcurrentHashMap<>();
+
+    private final LongAdder rejected = new LongAdder();
+
+    private CircuitBreakerHttp(Builder builder) {
+        this.http = builder.http;
+        this.window = builder.window;
+        this.minCalls = builder.minCalls;
+        this.failureRate = builder.failureRate;
+        this.slowRate = builder.slowRate;
+        this.slowCall = builder.slowCall;
+        this.openFor = builder.openFor;
+        this.probes = builder.probes;
+        this.listener = builder.listener;
+    }
+
+    /**
+     * 获取建造者实例
+     * @param http 实际执行请求的对象
+     * @return 建造者实例
+     */
+    public static Builder builder(MimeHttp http) {
+        return new Builder(http);
+    }
+
+    @Override
+    public String execute(MimeRequest request, Detail detail) {
+        Objects.requireNonNull(request, "mime request is null");
+        String url = MimeHttp.url(request);
+        Circuit circuit = circuit(url);
+        long permit = circuit.acquire();
+        if (0 > permit) {
+            return reject(request, url, detail);
+        }
+        Watch watch = new Watch(detail);
+        String result;
+        try {
+            result = http.execute(request, watch);
+        } catch (RuntimeException e) {
+            circuit.record(permit, false, watch.elapsed());
+            throw e;
+        }
+        circuit.record(permit, watch.success(result), watch.elapsed());
+        return result;
+    }
+
+    @Override
+    public CompletableFuture<String> executeAsync(MimeRequest request, Detail detail) {
+        Objects.requireNonNull(request, "mime request is null");
+        String url = MimeHttp.url(request);
+        Circuit circuit = circuit(url);
+        long permit = circuit.acquire();
+        if (0 > permit) {
+            return CompletableFuture.completedFuture(reject(request, url, detail));
+        }
+        Watch watch = new Watch(detail);
+        CompletableFuture<String> future;
+        try {
+            future = http.executeAsync(request, watch);
+        } catch (RuntimeException e) {
+            circuit.record(permit, false, watch.elapsed());
+            throw e;
+        }
+        future.whenComplete((result, e) -> {
+            Throwable cause = e instanceof CompletionException && null != e.getCause() ? e.getCause() : e;
+            if (cause instanceof CancellationException) {
+                circuit.release(permit);
+            } else {
+                circuit.record(permit, null == e && watch.success(result), watch.elapsed());
+            }
+        });
+        return future;
+    }
+
+    @Override
+    public <R> R executeStream(MimeRequest request, Receiver<R> receiver, Detail detail) {
+        Objects.requireNonNull(request, "mime request is null");
+        String url = MimeHttp.url(request);
+        Circuit circuit = circuit(url);
+        long permit = circuit.acquire();
+        if (0 > permit) {
+            reject(request, url, detail);
+            return null;
+        }
+        Watch watch = new Watch(detail);
+        R result;
+        try {
+            result = http.executeStream(request, receiver, watch);
+        } catch (RuntimeException e) {
+            circuit.record(permit, false, watch.elapsed());
+            throw e;
+        }
+        circuit.record(permit, watch.success(result), watch.elapsed());
+        return result;
+    }
+
+    @Override
+    public Long downloadTo(MimeRequest request, Path path, Detail detail) {
+        Objects.requireNonNull(request, "mime request is null");
+        String url = MimeHttp.url(request);
+        Circuit circuit = circuit(url);
+        long permit = circuit.acquire();
+        if (0 > permit) {
+            reject(request, url, detail);
+            return null;
+        }
+        Watch watch = new Watch(detail);
+        Long result;
+        try {
+            result = http.downloadTo(request, path, watch);
+        } catch (RuntimeException e) {
+            circuit.record(permit, false, watch.elapsed());
+            throw e;
+        }
+        circuit.record(permit, watch.success(result), watch.elapsed());
+        return result;
+    }
+
+    /**
+     * 主机的熔断状态
+     * @param host 主机，例如：api.huobi.pro 或 127.0.0.1:8080，也可以是url，与请求时取主机的方式相同
+     * @return 状态，没有请求过的主机为CLOSED
+     */
+    public State state(String host) {
+        Circuit circuit = circuits.get(Util.host(host));
+        return null != circuit ? circuit.state() : State.CLOSED;
+    }
+
+    /**
+     * 因熔断未发出的请求数
+     * @return 请求数
+     */
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "CircuitBreakerHttp{circuits=" + circuits.size() + ", rejected=" + getRejected() + "}";
+    }
+
+    private Circuit circuit(String url) {
+        return circuits.computeIfAbsent(Util.host(url), Circuit::new);
+    }
+
+    /**
+     * 熔断时直接返回，与连接失败一样经过回调
+     * @param request 请求对象
+     * @param url 请求url
+     * @param detail 更加详细的处理
+     * @return 请求结果
+     */
+    private String reject(MimeRequest request, String url, Detail detail) {
+        rejected.increment();
+        return MimeHttp.except(new OpenException(Util.host(url)), detail,
+                url,
+                request.getMethod(),
+                request.getHeader(),
+                request.getBody(),
+                null,
+                Header.build(),
+                null);
+    }
+
+    /**
+     * 熔断期间拒绝请求，交给MimeHttp.except映射为 503 CIRCUIT OPEN，不会抛出
+     */
+    public static class OpenException extends RuntimeException {
+
+        private static final long serialVersionUID = 2701832194507410370L;
+
+        private final String host;
+
+        OpenException(String host) {
+            // 每次拒绝都创建，不需要调用栈
+            super("circuit breaker is open: " + host, null, false, false);
+            this.host = host;
+        }
+
+        public String getHost() {
+            return host;
+        }
+    }
+
+    /**
+     * 熔断器状态
+     */
+    public enum State {
+        /**
+         * 正常放行
+         */
+        CLOSED,
+        /**
+         * 熔断，不发出请求
+         */
+        OPEN,
+        /**
+         * 放行少量探测请求
+         */
+        HALF_OPEN
+    }
+
+    /**
+     * 熔断器状态变化监听
+     */
+    @FunctionalInterface
+    public interface Listener {
+
+        /**
+         * 状态变化
+         * @param host 主机
+         * @param from 原状态
+         * @param to 新状态
+         */
+        void transition(String host, State from, State to);
+
+    }
+
+    /**
+     * 一个主机的熔断器
+     * 每次状态变化时代数加一，之前发出的请求结束后不再计入
+     */
+    private class Circuit {
+
+        private final String host;
+
+        /**
+         * 最近请求是否失败、是否慢，环形记录
+         */
+        private final boolean[] failures = new boolean[window];
+
+        private final boolean[] slows = new boolean[window];
+
+        private int index;
+
+        private int calls;
+
+        private int failed;
+
+        private int slow;
+
+        private State state = State.CLOSED;
+
+        private long generation;
+
+        private long openedAt;
+
+        /**
+         * 半开状态已放行和已成功的探测请求数
+         */
+        private int issued;
+
+        private int succeeded;
+
+        Circuit(String host) {
+            this.host = host;
+        }
+
+        synchronized State state() {
+            return state;
+        }
+
+        /**
+         * 获取放行许可
+         * @return 当前代数，不放行为-1
+         */
+        long acquire() {
+            State from;
+            long permit;
+            synchronized (this) {
+                from = state;
+                if (State.OPEN == state) {
+                    if (System.nanoTime() - openedAt < openFor) {
+                        return -1;
+                    }
+                    move(State.HALF_OPEN);
+                }
+                if (State.HALF_OPEN == state) {
+                    if (issued >= probes) {
+                        permit = -1;
+                    } else {
+                        issued++;
+                        permit = generation;
+                    }
+                } else {
+                    permit = generation;
+                }
+            }
+            if (State.OPEN == from) {
+                fire(State.OPEN, State.HALF_OPEN);
+            }
+            return permit;
+        }
+
+        /**
+         * 记录请求结果
+         * @param permit 放行时的代数
+         * @param success 是否成功
+         * @param elapsed 耗时，纳秒
+         */
+        void record(long permit, boolean success, long elapsed) {
+            State from;
+            State to;
+            synchronized (this) {
+                if (permit != generation) {
+                    return;
+                }
+                from = state;
+                boolean slowCall = elapsed >= CircuitBreakerHttp.this.slowCall;
+                if (State.HALF_OPEN == state) {
+                    if (!success || slowCall) {
+                        open();
+                    } else if (++succeeded >= probes) {
+                        move(State.CLOSED);
+                    }
+                } else {
+                    add(!success, slowCall);
+                    if (calls >= minCalls
+                            && (failed >= failureRate * calls || slow >= slowRate * calls)) {
+                        open();
+                    }
+                }
+                to = state;
+            }
+            if (from != to) {
+                fire(from, to);
+            }
+        }
+
+        /**
+         * 请求被取消，不计入结果，归还探测名额
+         * @param permit 放行时的代数
+         */
+        synchronized void release(long permit) {
+            if (permit == generation && State.HALF_OPEN == state && 0 < issued) {
+                issued--;
+            }
+        }
+
+        private void add(boolean failure, boolean slowCall) {
+            if (calls == window) {
+                failed -= failures[index] ? 1 : 0;
+                slow -= slows[index] ? 1 : 0;
+            } else {
+                calls++;
+            }
+            failures[index] = failure;
+            slows[index] = slowCall;
+            failed += failure ? 1 : 0;
+            slow += slowCall ? 1 : 0;
+            index = (index + 1) % window;
+        }
+
+        private void open() {
+            move(State.OPEN);
+            openedAt = System.nanoTime();
+        }
+
+        /**
+         * 切换状态并清空统计，在锁内调用
+         * @param to 新状态
+         */
+        private void move(State to) {
+            state = to;
+            generation++;
+            index = 0;
+            calls = 0;
+            failed = 0;
+            slow = 0;
+            issued = 0;
+            succeeded = 0;
+        }
+
+        private void fire(State from, State to) {
+            if (null == listener) {
+                return;
+            }
+            try {
+                listener.transition(host, from, to);
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * 记录响应码和耗时，同时转交给调用方
+     */
+    private static class Watch implements Detail {
+
+        private final Detail detail;
+
+        private final long start = System.nanoTime();
+
+        private Integer code;
+
+        private boolean accepted;
+
+        Watch(Detail detail) {
+            this.detail = detail;
+        }
+
+        @Override
+        public void accept(String url, Method method, Header requestHeader, Object body,
+                           Integer code, Header responseHeader, String result) {
+            this.code = code;
+            this.accepted = true;
+            if (null != detail) {
+                detail.accept(url, method, requestHeader, body, code, responseHeader, result);
+            }
+        }
+
+        long elapsed() {
+            return System.nanoTime() - start;
+        }
+
+        /**
+         * 请求是否成功：得到了响应且不是408或5xx
+         * @param result 请求结果
+         * @return 是否成功
+         */
+        boolean success(Object result) {
+            if (!accepted || null == code) {
+                return null != result;
+            }
+            return 408 != code && code < 500;
+        }
+    }
+
+    /**
+     * 建造者类，用于创建CircuitBreakerHttp对象
+     */
+    public static class Builder {
+
+        private final MimeHttp http;
+
+        private int window = 100;
+
+        private int minCalls = 20;
+
+        private double failureRate = 0.5;
+
+        private double slowRate = 0.8;
+
+        private long slowCall = TimeUnit.SECONDS.toNanos(5);
+
+        private long openFor = TimeUnit.SECONDS.toNanos(30);
+
+        private int probes = 3;
+
+        private Listener listener;
+
+        private Builder(MimeHttp http) {
+            this.http = Objects.requireNonNull(http, "http");
+        }
+
+        /**
+         * 设置统计窗口，默认最近100次请求，至少20次请求才判断
+         * @param window 统计最近多少次请求
+         * @param minCalls 至少有多少次请求才判断是否熔断
+         * @return Builder
+         */
+        public Builder window(int window, int minCalls) {
+            if (window < 1 || minCalls < 1 || minCalls > window) {
+                throw new IllegalArgumentException("illegal window: " + window + ", " + minCalls);
+            }
+            this.window = window;
+            this.minCalls = minCalls;
+            return this;
+        }
+
+        /**
+         * 设置失败比例阈值，默认0.5
+         * @param failureRate 失败比例
+         * @return Builder
+         */
+        public Builder failureRate(double failureRate) {
+            this.failureRate = rate(failureRate);
+            return this;
+        }
+
+        /**
+         * 设置慢请求，默认耗时超过5秒的请求占0.8以上时熔断
+         * @param slowCall 超过该耗时视为慢请求
+         * @param unit 时间单位
+         * @param slowRate 慢请求比例
+         * @return Builder
+         */
+        public Builder slowCall(long slowCall, TimeUnit unit, double slowRate) {
+            this.slowCall = unit.toNanos(slowCall);
+            this.slowRate = rate(slowRate);
+            return this;
+        }
+
+        /**
+         * 设置熔断持续时间和之后放行的探测请求数，默认30秒、3个
+         * @param openFor 熔断持续时间
+         * @param unit 时间单位
+         * @param probes 探测请求数
+         * @return Builder
+         */
+        public Builder open(long openFor, TimeUnit unit, int probes) {
+            if (probes < 1) {
+                throw new IllegalArgumentException("probes must be positive: " + probes);
+            }
+            this.openFor = unit.toNanos(openFor);
+            this.probes = probes;
+            return this;
+        }
+
+        /**
+         * 设置状态变化监听
+         * @param listener 监听
+         * @return Builder
+         */
+        public Builder listener(Listener listener) {
+            this.listener = listener;
+            return this;
+        }
+
+        /**
+         * 构建CircuitBreakerHttp对象
+         * @return CircuitBreakerHttp对象
+         */
+        public CircuitBreakerHttp build() {
+            return new CircuitBreakerHttp(this);
+        }
+
+        private static double rate(double rate) {
+            if (!(0 < rate && rate <= 1)) {
+                throw new IllegalArgumentException("rate must be in (0, 1]: " + rate);
+            }
+            return rate;
+        }
+    }
+
+}
@@ -0,0 +1,219 @@
+package dive.http.common;
+
+import dive.http.common.model.Header;
+import dive.http.common.model.Method;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 合并相同的并发GET请求，同一时刻只有一个请求发出，其余请求等待并共享它的结果和回调
+ * 请求方法、最终url和指定的请求头都相同才视为相同请求
+ * 流式请求和文件下载不合并
+ * @author dawn
+ */
+public class CoalesceHttp extends BaseMimeHttp {
+
+    /**
+     * 实际执行请求的对象
+     */
+    private final MimeHttp http;
+
+    /**
+     * 参与比较的请求头
+     */
+    private final List<String> headers;
+
+    /**
+     * 进行中的请求
+     */
+    private final ConcurrentMap<String, Flight> flights = new ConcurrentHashMap<>();
+
+    private final LongAdder coalesced = new LongAdder();
+
+    /**
+     * 构造器
+     * @param http 实际执行请求的对象
+     * @param headers 参与比较的请求头，例如：Authorization
+     */
+    public CoalesceHttp(MimeHttp http, String... headers) {
+        this.http = Objects.requireNonNull(http, "http");
+        this.headers = Collections.unmodifiableList(new ArrayList<>(Arrays.asList(headers)));
+    }
+
+    @Override
+    public String execute(MimeRequest request, Detail detail) {
+        Objects.requireNonNull(request, "mime request is null");
+        if (!Method.GET.equals(request.getMethod())) {
+            return http.execute(request, detail);
+        }
+        String key = key(request);
+        Flight flight = new Flight();
+        Flight leader = flights.putIfAbsent(key, flight);
+        if (null == leader) {
+            String result;
+            try {
+                result = http.execute(request, flight);
+            } catch (RuntimeException | Error e) {
+                flights.remove(key, flight);
+                flight.future.completeExceptionally(e);
+                throw e;
+            }
+            flights.remove(key, flight);
+            flight.future.complete(result);
+            return flight.replay(result, detail);
+        }
+        coalesced.increment();
+        String result;
+        try {
+            result = leader.future.join();
+        } catch (CompletionException e) {
+            throw null != e.getCause() && e.getCause() instanceof RuntimeException
+                    ? (RuntimeException) e.getCause() : e;
+        }
+        return leader.replay(result, detail);
+    }
+
+    @Override
+    public CompletableFuture<String> executeAsync(MimeRequest request, Detail detail) {
+        Objects.requireNonNull(request, "mime request is null");
+        if (!Method.GET.equals(request.getMethod())) {
+            return http.executeAsync(request, detail);
+        }
+        String key = key(request);
+        Flight flight = new Flight();
+        Flight leader = flights.putIfAbsent(key, flight);
+        if (null == leader) {
+            leader = flight;
+            CompletableFuture<String> future;
+            try {
+                future = http.executeAsync(request, flight);
+            } catch (RuntimeException | Error e) {
+                future = new CompletableFuture<>();
+                future.completeExceptionally(e);
+            }
+            future.whenComplete((result, e) -> {
+                flights.remove(key, flight);
+                if (null != e) {
+                    flight.future.completeExceptionally(e);
+                } else {
+                    flight.future.complete(result);
+                }
+            });
+        } else {
+            coalesced.increment();
+        }
+        Flight shared = leader;
+        return shared.future.thenApply(result -> shared.replay(result, detail));
+    }
+
+    @Override
+    public <R> R executeStream(MimeRequest request, Receiver<R> receiver, Detail detail) {
+        return http.executeStream(request, receiver, detail);
+    }
+
+    @Override
+    public Long downloadTo(MimeRequest request, Path path, Detail detail) {
+        return http.downloadTo(request, path, detail);
+    }
+
+    /**
+     * 被合并(未实际发出)的请求数
+     * @return 请求数
+     */
+    public long getCoalesced() {
+        return coalesced.sum();
+    }
+
+    /**
+     * 进行中的请求数
+     * @return 请求数
+     */
+    public int getInFlight() {
+        return flights.size();
+    }
+
+    /**
+     * 请求的键：方法、最终url和指定的请求头
+     * @param request 请求对象
+     * @return 键
+     */
+    private String key(MimeRequest request) {
+        StringBuilder sb = new StringBuilder(request.getMethod().name()).append(' ').append(MimeHttp.url(request));
+        Header header = request.getHeader();
+        for (String name : headers) {
+            sb.append('\n').append(name).append(':');
+            List<String> values = null == header ? null : header.get(name);
+            if (null != values) {
+                values.forEach(v -> sb.append(v).append(','));
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 一次实际发出的请求，记录回调以便转交给所有等待者
+     */
+    private static class Flight implements Detail {
+
+        private final CompletableFuture<String> future = new CompletableFuture<>();
+
+        private String url;
+
+        private Method method;
+
+        private Header requestHeader;
+
+        private Object body;
+
+        private Integer code;
+
+        private Header responseHeader;
+
+        private String result;
+
+        private boolean accepted;
+
+        @Override
+        public void accept(String url, Method method, Header requestHeader, Object body,
+                           Integer code, Header responseHeader, String result) {
+            this.url = url;
+            this.method = method;
+            this.requestHeader = requestHeader;
+            this.body = body;
+            this.code = code;
+            this.responseHeader = responseHeader;
+            this.result = result;
+            this.accepted = true;
+        }
+
+        /**
+         * 将回调转交给调用方，future完成后调用，回调内容对所有等待者可见
+         * @param result 请求结果
+         * @param detail 更加详细的处理
+         * @return 请求结果
+         */
+        String replay(String result, Detail detail) {
+            if (null != detail && accepted) {
+                // 每个等待者得到各自的响应头副本
+                Header copy = null;
+                if (null != responseHeader) {
+                    copy = Header.build(responseHeader.size());
+                    responseHeader.each(copy::add);
+                }
+                detail.accept(url, method, requestHeader, body, code, copy, this.result);
+            }
+            return result;
+        }
+    }
+
+}
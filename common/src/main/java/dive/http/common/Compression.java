@@ -0,0 +1,509 @@
+package dive.http.common;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * 内容编码，请求时声明Accept-Encoding并按响应的Content-Encoding解码，可选压缩较大的字符串请求体
+ * 支持gzip、deflate，类路径中有aircompressor时支持zstd；不认识的编码原样返回
+ * zstd需要通过Builder.accept显式声明，整块解码，解码后超过zstdLimit的响应按读取异常处理
+ * 统计压缩前后的字节数，用于观察节省的带宽
+ * @author dawn
+ */
+public final class Compression {
+
+    public static final String GZIP = "gzip";
+
+    public static final String DEFLATE = "deflate";
+
+    public static final String ZSTD = "zstd";
+
+    /**
+     * 是否可以使用zstd，需要io.airlift:aircompressor
+     */
+    private static final boolean ZSTD_AVAILABLE = available("io.airlift.compress.zstd.ZstdDecompressor") && Zstd.usable();
+
+    /**
+     * 请求头Accept-Encoding的值，null表示不声明
+     */
+    private final String accept;
+
+    /**
+     * 请求体的压缩方式，null表示不压缩
+     */
+    private final String request;
+
+    /**
+     * 请求体达到此字节数才压缩
+     */
+    private final int threshold;
+
+    /**
+     * zstd响应体解码后的最大字节数
+     */
+    private final int zstdLimit;
+
+    private final LongAdder requestRaw = new LongAdder();
+
+    private final LongAdder requestEncoded = new LongAdder();
+
+    private final LongAdder responseEncoded = new LongAdder();
+
+    private final LongAdder responseDecoded = new LongAdder();
+
+    private Compression(Builder builder) {
+        this.accept = builder.accept.isEmpty() ? null : String.join(", ", builder.accept);
+        this.request = builder.request;
+        this.threshold = builder.threshold;
+        this.zstdLimit = builder.zstdLimit;
+    }
+
+    /**
+     * 获取建造者实例，默认声明gzip和deflate，不压缩请求体
+     * @return 建造者实例
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * 常用配置
+     * @return 声明gzip和deflate，不压缩请求体
+     */
+    public static Compression of() {
+        return builder().build();
+    }
+
+    /**
+     * 不声明也不压缩，响应带Content-Encoding时仍会解码
+     * @return 配置
+     */
+    public static Compression none() {
+        return builder().accept().build();
+    }
+
+    /**
+     * 是否可以使用zstd
+     * @return 类路径中是否有aircompressor
+     */
+    public static boolean zstd() {
+        return ZSTD_AVAILABLE;
+    }
+
+    /**
+     * 请求头Accept-Encoding的值
+     * @return 例如：gzip, deflate, zstd，不声明为null
+     */
+    public String accept() {
+        return accept;
+    }
+
+    /**
+     * 请求体的压缩方式
+     * @return 例如：gzip，不压缩为null
+     */
+    public String getRequestCoding() {
+        return request;
+    }
+
+    /**
+     * 压缩请求体，未开启或未达到阈值时返回null，此时应按原样发送
+     * @param body 请求体
+     * @return 压缩后的请求体，需要同时设置请求头Content-Encoding为getRequestCoding()
+     */
+    public byte[] encode(byte[] body) {
+        if (null == request || null == body || body.length < threshold) {
+            return null;
+        }
+        byte[] encoded;
+        try {
+            encoded = encode(body, request);
+        } catch (IOException e) {
+            // 内存中压缩不会发生读写异常
+            throw new IllegalStateException(e);
+        }
+        requestRaw.add(body.length);
+        requestEncoded.add(encoded.length);
+        return encoded;
+    }
+
+    /**
+     * 压缩字符串请求体
+     * @param body 请求体
+     * @param charset 字符集
+     * @return 压缩后的请求体，未开启或未达到阈值时返回null
+     */
+    public byte[] encode(String body, Charset charset) {
+        // 每个字符最多3个字节，字符数足够少时不需要转换
+        if (null == request || null == body || (long) body.length() * 3 < threshold) {
+            return null;
+        }
+        return encode(body.getBytes(charset));
+    }
+
+    /**
+     * 按Content-Encoding解码响应体，在读取时解码
+     * 多个编码按声明的相反顺序解码，含有不认识的编码时原样返回
+     * @param body 响应体
+     * @param encoding 响应头Content-Encoding的值，可以为null
+     * @return 解码后的响应体
+     * @throws IOException 读取异常
+     */
+    public InputStream decode(InputStream body, String encoding) throws IOException {
+        List<String> codings = codings(encoding);
+        if (null == body || null == codings) {
+            return body;
+        }
+        // 空响应体(例如HEAD、204、304)不解码
+        PushbackInputStream pushback = new PushbackInputStream(body, 2);
+        int first = pushback.read();
+        if (-1 == first) {
+            return pushback;
+        }
+        pushback.unread(first);
+        InputStream in = new Counting(pushback, responseEncoded);
+        for (int i = codings.size() - 1; 0 <= i; i--) {
+            in = decoder(in, codings.get(i), zstdLimit);
+        }
+        return new Counting(in, responseDecoded);
+    }
+
+    /**
+     * 按Content-Encoding解码已读取的响应体
+     * @param body 响应体
+     * @param encoding 响应头Content-Encoding的值，可以为null
+     * @return 解码后的响应体，不需要解码时返回原数组
+     * @throws IOException 解码异常
+     */
+    public byte[] decode(byte[] body, String encoding) throws IOException {
+        if (null == body || 0 == body.length || null == codings(encoding)) {
+            return body;
+        }
+        try (InputStream in = decode(new ByteArrayInputStream(body), encoding)) {
+            return read(in, body.length * 4);
+        }
+    }
+
+    /**
+     * 压缩前的请求体字节数
+     * @return 字节数
+     */
+    public long getRequestRaw() {
+        return requestRaw.sum();
+    }
+
+    /**
+     * 压缩后的请求体字节数
+     * @return 字节数
+     */
+    public long getRequestEncoded() {
+        return requestEncoded.sum();
+    }
+
+    /**
+     * 收到的已编码的响应体字节数，不含未编码的响应
+     * @return 字节数
+     */
+    public long getResponseEncoded() {
+        return responseEncoded.sum();
+    }
+
+    /**
+     * 已编码的响应体解码后的字节数
+     * @return 字节数
+     */
+    public long getResponseDecoded() {
+        return responseDecoded.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "Compression{accept=" + accept + ", request=" + request + ", threshold=" + threshold
+                + ", zstdLimit=" + zstdLimit
+                + ", request " + getRequestRaw() + " -> " + getRequestEncoded()
+                + ", response " + getResponseEncoded() + " -> " + getResponseDecoded() + "}";
+    }
+
+    /**
+     * 拆分Content-Encoding，去掉identity
+     * @return 编码列表，不需要解码或含有不认识的编码时为null
+     */
+    private static List<String> codings(String encoding) {
+        if (null == encoding || encoding.isEmpty()) {
+            return null;
+        }
+        List<String> codings = new ArrayList<>(1);
+        for (String part : encoding.split(",")) {
+            String coding = part.trim().toLowerCase(Locale.ROOT);
+            if (coding.isEmpty() || "identity".equals(coding)) {
+                continue;
+            }
+            if ("x-gzip".equals(coding)) {
+                coding = GZIP;
+            }
+            if (!GZIP.equals(coding) && !DEFLATE.equals(coding) && !(ZSTD.equals(coding) && ZSTD_AVAILABLE)) {
+                return null;
+            }
+            codings.add(coding);
+        }
+        return codings.isEmpty() ? null : codings;
+    }
+
+    private static InputStream decoder(InputStream in, String coding, int zstdLimit) throws IOException {
+        switch (coding) {
+            case GZIP:
+                return new GZIPInputStream(in, 8192);
+            case DEFLATE:
+                return inflater(in);
+            default:
+                return Zstd.decode(in, zstdLimit);
+        }
+    }
+
+    /**
+     * deflate应为zlib格式，部分服务端发送不带zlib头的原始deflate数据，按前两个字节判断
+     */
+    private static InputStream inflater(InputStream in) throws IOException {
+        PushbackInputStream pushback = new PushbackInputStream(in, 2);
+        byte[] head = new byte[2];
+        int n = pushback.read(head);
+        if (0 < n) {
+            pushback.unread(head, 0, n);
+        }
+        boolean zlib = 2 == n && 8 == (head[0] & 0x0F) && 0 == ((head[0] & 0xFF) << 8 | (head[1] & 0xFF)) % 31;
+        return new InflaterInputStream(pushback, new Inflater(!zlib), 8192) {
+            @Override
+            public void close() throws IOException {
+                // 自行创建的Inflater需要释放本地内存
+                try {
+                    super.close();
+                } finally {
+                    inf.end();
+                }
+            }
+        };
+    }
+
+    private static byte[] encode(byte[] body, String coding) throws IOException {
+        if (ZSTD.equals(coding)) {
+            return Zstd.encode(body);
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, body.length / 4));
+        try (OutputStream encoder = GZIP.equals(coding) ? new GZIPOutputStream(out, 8192) : new DeflaterOutputStream(out)) {
+            encoder.write(body);
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] read(InputStream in, int size) throws IOException {
+        return read(in, size, Integer.MAX_VALUE);
+    }
+
+    /**
+     * 读取全部数据
+     * @param limit 最大字节数，超过时抛出IOException
+     */
+    private static byte[] read(InputStream in, int size, int limit) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, Math.min(size, limit)));
+        byte[] buffer = new byte[8192];
+        int n;
+        while (-1 != (n = in.read(buffer))) {
+            if (out.size() > limit - n) {
+                throw new IOException("body exceeds " + limit + " bytes");
+            }
+            out.write(buffer, 0, n);
+        }
+        return out.toByteArray();
+    }
+
+    private static boolean available(String name) {
+        try {
+            Class.forName(name, false, Compression.class.getClassLoader());
+            return true;
+        } catch (ClassNotFoundException | LinkageError e) {
+            return false;
+        }
+    }
+
+    /**
+     * 读取时计数，也用于统计监听事件中的响应体字节数
+     */
+    static class Counting extends FilterInputStream {
+
+        private final LongAdder count;
+
+        Counting(InputStream in, LongAdder count) {
+            super(in);
+            this.count = count;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (-1 != b) {
+                count.increment();
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (0 < n) {
+                count.add(n);
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count.add(skipped);
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    }
+
+    /**
+     * zstd编解码，aircompressor只支持整块数据，单独放在内部类中，没有依赖时不会加载
+     */
+    private static class Zstd {
+
+        /**
+         * 整块读入并解码，只分配一次输出缓冲区
+         * 帧头带原始长度时按长度分配，否则按上限分配；超过上限或数据损坏时抛出IOException，不重试
+         * @param limit 解码后的最大字节数，压缩数据也不能超过此值
+         */
+        static InputStream decode(InputStream in, int limit) throws IOException {
+            byte[] input = read(in, 8192, limit);
+            long size = io.airlift.compress.zstd.ZstdDecompressor.getDecompressedSize(input, 0, input.length);
+            if (size > limit) {
+                throw new IOException("zstd body exceeds " + limit + " bytes: " + size);
+            }
+            byte[] output = new byte[0 <= size ? (int) size : limit];
+            try {
+                int n = new io.airlift.compress.zstd.ZstdDecompressor()
+                        .decompress(input, 0, input.length, output, 0, output.length);
+                return new ByteArrayInputStream(output, 0, n);
+            } catch (io.airlift.compress.MalformedInputException e) {
+                throw new IOException(0 <= size ? "invalid zstd body"
+                        : "invalid zstd body or exceeds " + limit + " bytes", e);
+            }
+        }
+
+        /**
+         * aircompressor依赖Unsafe访问Buffer地址，新版本jdk未开放java.nio时初始化失败
+         */
+        static boolean usable() {
+            try {
+                decode(new ByteArrayInputStream(encode(new byte[1])), 64);
+                return true;
+            } catch (IOException | RuntimeException | LinkageError e) {
+                return false;
+            }
+        }
+
+        static byte[] encode(byte[] body) {
+            io.airlift.compress.zstd.ZstdCompressor compressor = new io.airlift.compress.zstd.ZstdCompressor();
+            byte[] output = new byte[compressor.maxCompressedLength(body.length)];
+            int n = compressor.compress(body, 0, body.length, output, 0, output.length);
+            return Arrays.copyOf(output, n);
+        }
+    }
+
+    /**
+     * 建造者类，用于创建Compression对象
+     */
+    public static class Builder {
+
+        private List<String> accept = new ArrayList<>(Arrays.asList(GZIP, DEFLATE));
+
+        private String request;
+
+        private int threshold = 1024;
+
+        private int zstdLimit = 8 * 1024 * 1024;
+
+        private Builder() { }
+
+        /**
+         * 设置请求时声明的编码，不传则不声明
+         * @param codings 编码，例如：gzip
+         * @return Builder
+         */
+        public Builder accept(String... codings) {
+            List<String> accept = new ArrayList<>(codings.length);
+            for (String coding : codings) {
+                accept.add(supported(coding));
+            }
+            this.accept = accept;
+            return this;
+        }
+
+        /**
+         * 请求体达到阈值时压缩，只压缩字符串和键值对请求体，服务端需要支持对应的Content-Encoding
+         * @param coding 编码，例如：gzip
+         * @param threshold 字节数
+         * @return Builder
+         */
+        public Builder request(String coding, int threshold) {
+            if (0 > threshold) {
+                throw new IllegalArgumentException("threshold must not be negative: " + threshold);
+            }
+            this.request = supported(coding);
+            this.threshold = threshold;
+            return this;
+        }
+
+        /**
+         * zstd响应体整块解码，限制解码后的字节数，防止很小的响应解压为巨大的数据，默认8MB
+         * @param bytes 最大字节数
+         * @return Builder
+         */
+        public Builder zstdLimit(int bytes) {
+            if (0 >= bytes) {
+                throw new IllegalArgumentException("zstd limit must be positive: " + bytes);
+            }
+            this.zstdLimit = bytes;
+            return this;
+        }
+
+        /**
+         * 构建Compression对象
+         * @return Compression对象
+         */
+        public Compression build() {
+            return new Compression(this);
+        }
+
+        private static String supported(String coding) {
+            String c = Objects.requireNonNull(coding, "coding").trim().toLowerCase(Locale.ROOT);
+            if (GZIP.equals(c) || DEFLATE.equals(c) || (ZSTD.equals(c) && ZSTD_AVAILABLE)) {
+                return c;
+            }
+            throw new IllegalArgumentException("unsupported coding: " + coding);
+        }
+    }
+
+}
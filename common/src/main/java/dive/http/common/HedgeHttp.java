@@ -0,0 +1,432 @@
+package dive.http.common;
+
+import dive.http.common.model.Header;
+import dive.http.common.model.Method;
+
+import java.nio.file.Path;
+import java.util.EnumSet;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 对冲请求，用于降低长尾延迟
+ * 请求在指定时间内没有响应时再发出一个相同的请求，先成功的响应作为结果，另一个请求被取消
+ * 默认只对冲GET请求，PUT/DELETE需要在建造时指定，POST不对冲；结果为null或异常的请求算作失败，等待另一个请求
+ * 等待时间可以固定，也可以取最近请求耗时的分位数(默认p95)；对冲预算限制额外请求占请求数的比例
+ * 取消依赖各实现的异步方法，mime实现无法中止已发出的请求，只丢弃其结果
+ * 流式请求和文件下载不对冲
+ * @author dawn
+ */
+public class HedgeHttp extends BaseMimeHttp {
+
+    /**
+     * 实际执行请求的对象
+     */
+    private final MimeHttp http;
+
+    /**
+     * 固定的等待时间，纳秒，-1表示使用分位数
+     */
+    private final long fixed;
+
+    /**
+     * 记录不足时的等待时间，纳秒
+     */
+    private final long initial;
+
+    /**
+     * 最近请求的耗时
+     */
+    private final LatencyWindow window;
+
+    private final RetryBudget budget;
+
+    /**
+     * 对冲的请求方法
+     */
+    private final Set<Method> methods;
+
+    private final LongAdder hedges = new LongAdder();
+
+    private final LongAdder won = new LongAdder();
+
+    private HedgeHttp(Builder builder) {
+        this.http = builder.http;
+        this.fixed = builder.fixed;
+        this.initial = builder.initial;
+        this.window = new LatencyWindow(builder.quantile);
+        this.budget = new RetryBudget(builder.ratio, builder.reserve);
+        this.methods = builder.methods;
+    }
+
+    /**
+     * 获取建造者实例
+     * @param http 实际执行请求的对象
+     * @return 建造者实例
+     */
+    public static Builder builder(MimeHttp http) {
+        return new Builder(http);
+    }
+
+    @Override
+    public String execute(MimeRequest request, Detail detail) {
+        Objects.requireNonNull(request, "mime request is null");
+        if (!methods.contains(request.getMethod())) {
+            return http.execute(request, detail);
+        }
+        try {
+            return executeAsync(request, detail).join();
+        } catch (CompletionException e) {
+            throw null != e.getCause() && e.getCause() instanceof RuntimeException
+                    ? (RuntimeException) e.getCause() : e;
+        }
+    }
+
+    @Override
+    public CompletableFuture<String> executeAsync(MimeRequest request, Detail detail) {
+        Objects.requireNonNull(request, "mime request is null");
+        if (!methods.contains(request.getMethod())) {
+            return http.executeAsync(request, detail);
+        }
+        budget.deposit();
+        return new Race(request, detail).start();
+    }
+
+    @Override
+    public <R> R executeStream(MimeRequest request, Receiver<R> receiver, Detail detail) {
+        return http.executeStream(request, receiver, detail);
+    }
+
+    @Override
+    public Long downloadTo(MimeRequest request, Path path, Detail detail) {
+        return http.downloadTo(request, path, detail);
+    }
+
+    /**
+     * 已发出的对冲请求数
+     * @return 请求数
+     */
+    public long getHedges() {
+        return hedges.sum();
+    }
+
+    /**
+     * 对冲请求先于原请求成功的次数
+     * @return 次数
+     */
+    public long getWon() {
+        return won.sum();
+    }
+
+    /**
+     * 当前发出对冲请求前的等待时间
+     * @return 毫秒
+     */
+    public long getDelay() {
+        return TimeUnit.NANOSECONDS.toMillis(delay());
+    }
+
+    @Override
+    public String toString() {
+        return "HedgeHttp{hedges=" + getHedges() + ", won=" + getWon() + ", delay=" + getDelay() + "ms}";
+    }
+
+    private long delay() {
+        if (0 <= fixed) {
+            return fixed;
+        }
+        long observed = window.get();
+        return 0 <= observed ? observed : initial;
+    }
+
+    /**
+     * 一次对冲：原请求和可能发出的对冲请求，先成功的作为结果
+     */
+    private class Race {
+
+        private final MimeRequest request;
+
+        private final Detail detail;
+
+        private final CompletableFuture<String> result = new CompletableFuture<>();
+
+        /**
+         * 锁内会发出请求，被包装的实现可能在调用线程中阻塞，用synchronized会使虚拟线程固定在载体线程上
+         */
+        private final ReentrantLock lock = new ReentrantLock();
+
+        private Attempt primary;
+
+        private Attempt hedge;
+
+        private ScheduledFuture<?> timer;
+
+        /**
+         * 进行中的请求数
+         */
+        private int running;
+
+        /**
+         * 是否已决定结果
+         */
+        private boolean decided;
+
+        Race(MimeRequest request, Detail detail) {
+            this.request = request;
+            this.detail = detail;
+        }
+
+        CompletableFuture<String> start() {
+            lock.lock();
+            try {
+                primary = launch(false);
+                if (!decided) {
+                    timer = scheduler().schedule(this::hedge, delay(), TimeUnit.NANOSECONDS);
+                }
+            } finally {
+                lock.unlock();
+            }
+            result.whenComplete((r, e) -> cancel());
+            return result;
+        }
+
+        private void hedge() {
+            lock.lock();
+            try {
+                if (decided || !budget.withdraw()) {
+                    return;
+                }
+                hedges.increment();
+                hedge = launch(true);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * 发出请求，在锁内调用
+         * @param hedged 是否为对冲请求
+         * @return 请求
+         */
+        private Attempt launch(boolean hedged) {
+            Attempt attempt = new Attempt(hedged);
+            running++;
+            CompletableFuture<String> future;
+            try {
+                future = http.executeAsync(request, attempt);
+            } catch (RuntimeException e) {
+                future = new CompletableFuture<>();
+                future.completeExceptionally(e);
+            }
+            attempt.future = future;
+            future.whenComplete((r, e) -> finish(attempt, r, e));
+            return attempt;
+        }
+
+        private void finish(Attempt attempt, String value, Throwable e) {
+            // 实现在请求失败时返回null，与异常一样算作失败
+            boolean failed = null != e || null == value;
+            if (!failed) {
+                window.record(System.nanoTime() - attempt.start);
+            }
+            lock.lock();
+            try {
+                running--;
+                // 失败时若另一个请求仍在进行则等待它
+                if (decided || (failed && 0 < running)) {
+                    return;
+                }
+                decided = true;
+                if (null == e) {
+                    if (!failed && attempt.hedged) {
+                        won.increment();
+                    }
+                    attempt.replay(detail);
+                }
+            } finally {
+                lock.unlock();
+            }
+            if (null != e) {
+                result.completeExceptionally(e instanceof CompletionException && null != e.getCause()
+                        ? e.getCause() : e);
+            } else {
+                result.complete(value);
+            }
+        }
+
+        /**
+         * 结束后取消等待和落后的请求
+         */
+        private void cancel() {
+            Attempt[] attempts;
+            lock.lock();
+            try {
+                if (null != timer) {
+                    timer.cancel(false);
+                }
+                attempts = new Attempt[]{primary, hedge};
+            } finally {
+                lock.unlock();
+            }
+            for (Attempt attempt : attempts) {
+                if (null != attempt && null != attempt.future && !attempt.future.isDone()) {
+                    attempt.future.cancel(true);
+                }
+            }
+        }
+    }
+
+    /**
+     * 一个实际发出的请求，记录回调以便转交给调用方
+     */
+    private static class Attempt implements Detail {
+
+        private final boolean hedged;
+
+        private final long start = System.nanoTime();
+
+        private CompletableFuture<String> future;
+
+        private String url;
+
+        private Method method;
+
+        private Header requestHeader;
+
+        private Object body;
+
+        private Integer code;
+
+        private Header responseHeader;
+
+        private String result;
+
+        private boolean accepted;
+
+        Attempt(boolean hedged) {
+            this.hedged = hedged;
+        }
+
+        @Override
+        public void accept(String url, Method method, Header requestHeader, Object body,
+                           Integer code, Header responseHeader, String result) {
+            this.url = url;
+            this.method = method;
+            this.requestHeader = requestHeader;
+            this.body = body;
+            this.code = code;
+            this.responseHeader = responseHeader;
+            this.result = result;
+            this.accepted = true;
+        }
+
+        void replay(Detail detail) {
+            if (null != detail && accepted) {
+                detail.accept(url, method, requestHeader, body, code, responseHeader, result);
+            }
+        }
+    }
+
+    /**
+     * 建造者类，用于创建HedgeHttp对象
+     */
+    public static class Builder {
+
+        private final MimeHttp http;
+
+        private long fixed = -1;
+
+        private double quantile = 0.95;
+
+        private long initial = TimeUnit.MILLISECONDS.toNanos(100);
+
+        private double ratio = 0.1;
+
+        private int reserve = 10;
+
+        private Set<Method> methods = EnumSet.of(Method.GET);
+
+        private Builder(MimeHttp http) {
+            this.http = Objects.requireNonNull(http, "http");
+        }
+
+        /**
+         * 使用固定的等待时间
+         * @param delay 等待时间
+         * @param unit 时间单位
+         * @return Builder
+         */
+        public Builder delay(long delay, TimeUnit unit) {
+            if (delay < 0) {
+                throw new IllegalArgumentException("delay must not be negative: " + delay);
+            }
+            this.fixed = unit.toNanos(delay);
+            return this;
+        }
+
+        /**
+         * 使用最近请求耗时的分位数作为等待时间，默认p95，记录不足时等待100毫秒
+         * @param quantile 分位，例如：0.95
+         * @param initial 记录不足时的等待时间
+         * @param unit 时间单位
+         * @return Builder
+         */
+        public Builder quantile(double quantile, long initial, TimeUnit unit) {
+            if (!(0 < quantile && quantile <= 1)) {
+                throw new IllegalArgumentException("illegal quantile: " + quantile);
+            }
+            this.fixed = -1;
+            this.quantile = quantile;
+            this.initial = unit.toNanos(initial);
+            return this;
+        }
+
+        /**
+         * 设置对冲预算，默认对冲请求数不超过请求数的10%，另有10次余量
+         * @param ratio 对冲请求数占请求数的比例
+         * @param reserve 余量
+         * @return Builder
+         */
+        public Builder budget(double ratio, int reserve) {
+            if (ratio < 0 || reserve < 0) {
+                throw new IllegalArgumentException("illegal budget: " + ratio + ", " + reserve);
+            }
+            this.ratio = ratio;
+            this.reserve = reserve;
+            return this;
+        }
+
+        /**
+         * 设置对冲的请求方法，默认只有GET；PUT、DELETE是幂等的，确认服务端可以重复执行时再加入
+         * POST不是幂等的，不能对冲
+         * @param methods 请求方法
+         * @return Builder
+         */
+        public Builder methods(Method... methods) {
+            Set<Method> set = EnumSet.noneOf(Method.class);
+            for (Method method : methods) {
+                if (Method.POST.equals(method)) {
+                    throw new IllegalArgumentException("POST is not idempotent and can not be hedged");
+                }
+                set.add(Objects.requireNonNull(method, "method"));
+            }
+            this.methods = set;
+            return this;
+        }
+
+        /**
+         * 构建HedgeHttp对象
+         * @return HedgeHttp对象
+         */
+        public HedgeHttp build() {
+            return new HedgeHttp(this);
+        }
+    }
+
+}
@@ -0,0 +1,78 @@
+package dive.http.common;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 最近若干次请求的耗时，用于估计分位数
+ * 写入只做一次自增和一次数组写，分位数每写入一定次数才重新计算
+ * @author dawn
+ */
+class LatencyWindow {
+
+    /**
+     * 窗口大小
+     */
+    private static final int SIZE = 512;
+
+    /**
+     * 每写入多少次重新计算分位数
+     */
+    private static final int REFRESH = 64;
+
+    /**
+     * 至少有多少次记录才给出分位数
+     */
+    private static final int MIN_SAMPLES = 32;
+
+    private final double quantile;
+
+    private final AtomicLongArray samples = new AtomicLongArray(SIZE);
+
+    private final AtomicLong count = new AtomicLong();
+
+    /**
+     * 上次计算的分位数，纳秒，-1表示尚未计算
+     */
+    private volatile long value = -1;
+
+    /**
+     * 构造器
+     * @param quantile 分位，例如：0.95
+     */
+    LatencyWindow(double quantile) {
+        this.quantile = quantile;
+    }
+
+    /**
+     * 记录一次耗时
+     * @param nanos 耗时，纳秒
+     */
+    void record(long nanos) {
+        long n = count.getAndIncrement();
+        samples.set((int) (n % SIZE), nanos);
+        if (MIN_SAMPLES - 1 == n || (MIN_SAMPLES <= n && 0 == n % REFRESH)) {
+            refresh(n + 1);
+        }
+    }
+
+    /**
+     * 获取分位数
+     * @return 耗时，纳秒，记录不足时为-1
+     */
+    long get() {
+        return value;
+    }
+
+    private void refresh(long n) {
+        int size = (int) Math.min(n, SIZE);
+        long[] copy = new long[size];
+        for (int i = 0; i < size; i++) {
+            copy[i] = samples.get(i);
+        }
+        Arrays.sort(copy);
+        value = copy[Math.min(size - 1, (int) Math.ceil(quantile * size) - 1)];
+    }
+
+}
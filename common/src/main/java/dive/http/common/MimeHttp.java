@@ -5,9 +5,31 @@ import dive.http.common.model.Header;
 import dive.http.common.model.Method;
 import dive.http.common.model.Parameter;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.BiFunction;
+import java.util.function.Consumer;
 import java.util.function.Function;
+import java.util.stream.Collectors;
 
 /**
  * 执行请求接口
@@ -15,6 +37,11 @@ import java.util.function.Function;
  */
 public interface MimeHttp {
 
+    /**
+     * 下载文件时每次从响应体转移到文件的最大字节数
+     */
+    long TRANSFER_SIZE = 1 << 20;
+
     /**
      * 执行请求
      * @param request MimeRequest请求对象
@@ -81,6 +108,241 @@ public interface MimeHttp {
         return this.execute(request, change, clazz, null);
     }
 
+    /**
+     * 执行请求，响应体按声明的字符集直接解码为对象，不生成中间字符串
+     * 通过executeStream读取响应体，回调中的请求结果为null
+     * 只解码2xx响应，错误响应不交给decoder，只回调响应码和响应头
+     * 与execute(MimeRequest, BiFunction, Class)区分命名，lambda参数不会产生重载歧义
+     * @param request MimeRequest请求对象
+     * @param decoder 响应体解码器
+     * @param detail 更加详细的处理
+     * @param <R> 解码结果类型
+     * @return 解码结果，请求失败、响应码不是2xx或解码异常为null
+     */
+    default <R> R decode(MimeRequest request, BodyDecoder<R> decoder, Detail detail) {
+        Objects.requireNonNull(decoder, "decoder");
+        return this.executeStream(request, decoder.receiver(), detail);
+    }
+
+    /**
+     * 异步执行请求，默认在有界的专用线程池中执行同步请求，不占用公共ForkJoinPool，各实现可覆盖为非阻塞方式
+     * @param request MimeRequest请求对象
+     * @param detail 更加详细的处理
+     * @return 请求结果
+     */
+    default CompletableFuture<String> executeAsync(MimeRequest request, Detail detail) {
+        return CompletableFuture.supplyAsync(() -> this.execute(request, detail), AsyncPool.EXECUTOR);
+    }
+
+    /**
+     * 异步执行请求
+     * @param request MimeRequest请求对象
+     * @return 请求结果
+     */
+    default CompletableFuture<String> executeAsync(MimeRequest request) {
+        return this.executeAsync(request, null);
+    }
+
+    /**
+     * 异步执行请求
+     * @param request MimeRequest请求对象
+     * @param change 将字符串转变为想要对象的函数
+     * @param detail 回调
+     * @param <R> 转换对象类型
+     * @return 转换后的实例对象
+     */
+    default <R> CompletableFuture<R> executeAsync(MimeRequest request, Function<String, R> change,
+                                                  Detail detail) {
+        return this.executeAsync(request, detail).thenApply(result -> {
+            if (null == result) {
+                return null;
+            }
+            Objects.requireNonNull(change, "change");
+            return change.apply(result);
+        });
+    }
+
+    /**
+     * 异步执行请求
+     * @param request MimeRequest请求对象
+     * @param change 将字符串转变为想要对象的函数
+     * @param clazz 结果对象的类型
+     * @param detail 更加详细的处理
+     * @param <R> 转换对象类型
+     * @return 转换后的实例对象
+     */
+    default <R> CompletableFuture<R> executeAsync(MimeRequest request, BiFunction<String, Class, R> change,
+                                                  Class clazz, Detail detail) {
+        return this.executeAsync(request, detail).thenApply(result -> {
+            if (null == result) {
+                return null;
+            }
+            Objects.requireNonNull(change, "change");
+            return change.apply(result, clazz);
+        });
+    }
+
+    /**
+     * 异步执行请求
+     * @param request MimeRequest请求对象
+     * @param change 将字符串转变为想要对象的函数
+     * @param clazz 结果对象的类型
+     * @param <R> 转换对象类型
+     * @return 转换后的实例对象
+     */
+    default <R> CompletableFuture<R> executeAsync(MimeRequest request,
+                                                  BiFunction<String, Class, R> change, Class clazz) {
+        return this.executeAsync(request, change, clazz, null);
+    }
+
+    /**
+     * 异步执行请求，响应体直接解码为对象，默认在有界的专用线程池中执行同步的decode
+     * 请求和解码期间占用线程池的一个线程，不是非阻塞的
+     * @param request MimeRequest请求对象
+     * @param decoder 响应体解码器
+     * @param detail 更加详细的处理
+     * @param <R> 解码结果类型
+     * @return 解码结果
+     */
+    default <R> CompletableFuture<R> decodeAsync(MimeRequest request, BodyDecoder<R> decoder, Detail detail) {
+        Objects.requireNonNull(decoder, "decoder");
+        return CompletableFuture.supplyAsync(() -> this.decode(request, decoder, detail), AsyncPool.EXECUTOR);
+    }
+
+    /**
+     * 批量执行请求，结果顺序与输入顺序一致，失败的请求结果为null
+     * @param requests 请求列表
+     * @param concurrency 同时进行的最大请求数
+     * @return 请求结果
+     */
+    default List<String> executeAll(Collection<MimeRequest> requests, int concurrency) {
+        return this.executeAll(requests, Batch.of(concurrency)).stream()
+                .map(Batch.Result::getResult)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * 批量执行请求，结果顺序与输入顺序一致
+     * @param requests 请求列表
+     * @param batch 批量请求配置
+     * @return 每个请求的结果
+     * @throws Batch.FailedException 快速失败模式下有请求失败
+     */
+    default List<Batch.Result> executeAll(Collection<MimeRequest> requests, Batch batch) {
+        Objects.requireNonNull(requests, "requests");
+        Batch.Result[] results = new Batch.Result[requests.size()];
+        try {
+            this.executeEach(requests, batch, r -> results[r.getIndex()] = r).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+        return Arrays.asList(results);
+    }
+
+    /**
+     * 批量执行请求，每个请求完成时立即交给receiver，receiver不会被并发调用
+     * receiver在请求完成的线程中执行，应尽快返回
+     * @param requests 请求列表
+     * @param batch 批量请求配置
+     * @param receiver 结果消费者
+     * @return 全部完成时结束，快速失败模式下以Batch.FailedException结束
+     */
+    default CompletableFuture<Void> executeEach(Collection<MimeRequest> requests, Batch batch,
+                                                Consumer<Batch.Result> receiver) {
+        Objects.requireNonNull(requests, "requests");
+        Objects.requireNonNull(batch, "batch");
+        Objects.requireNonNull(receiver, "receiver");
+        return new BatchRunner(this, new ArrayList<>(requests), batch, receiver).start();
+    }
+
+    /**
+     * 执行请求，以流的形式消费响应体，消费结束后由本方法关闭流
+     * 回调中的请求结果为null，响应体不会转换为字符串
+     * 只有2xx响应交给receiver，其余响应只回调响应码和响应头，返回null
+     * 默认实现先通过execute读取完整的响应字符串，再以utf-8字节流交给receiver，并不是流式读取，
+     * 响应体在内存中同时存在字符串和字节两份；各实现应覆盖为真正的流式读取
+     * @param request MimeRequest请求对象
+     * @param receiver 响应体消费者
+     * @param detail 更加详细的处理
+     * @param <R> 消费结果类型
+     * @return 消费结果，请求失败或响应码不是2xx为null
+     */
+    default <R> R executeStream(MimeRequest request, Receiver<R> receiver, Detail detail) {
+        Objects.requireNonNull(receiver, "receiver");
+        AtomicReference<Integer> status = new AtomicReference<>();
+        AtomicReference<Runnable> report = new AtomicReference<>();
+        String result = this.execute(request, (url, method, requestHeader, body, code, responseHeader, text) -> {
+            status.set(code);
+            if (null != detail) {
+                // 与各实现一致，消费响应体之后再回调
+                report.set(() -> detail.accept(url, method, requestHeader, body, code, responseHeader, null));
+            }
+        });
+        try {
+            // 没有报告响应码的实现按结果判断
+            if (null == result || (null != status.get() && !success(status.get()))) {
+                return null;
+            }
+            try (InputStream in = new ByteArrayInputStream(result.getBytes(StandardCharsets.UTF_8))) {
+                return receiver.receive(in, StandardCharsets.UTF_8);
+            } catch (IOException e) {
+                error(e, getClass().getSimpleName(), request.getUrl());
+                return null;
+            }
+        } finally {
+            if (null != report.get()) {
+                report.get().run();
+            }
+        }
+    }
+
+    /**
+     * 执行请求，以流的形式消费响应体
+     * @param request MimeRequest请求对象
+     * @param receiver 响应体消费者
+     * @param <R> 消费结果类型
+     * @return 消费结果
+     */
+    default <R> R executeStream(MimeRequest request, Receiver<R> receiver) {
+        return this.executeStream(request, receiver, null);
+    }
+
+    /**
+     * 执行请求，将响应体直接写入文件，不经过字符串转换
+     * 只有2xx响应写入文件，先写入同目录的临时文件，写完后替换目标文件；
+     * 错误响应或写入失败时目标文件保持不变，只回调响应码和响应头
+     * 回调中的请求结果为写入的字节数
+     * @param request MimeRequest请求对象
+     * @param path 文件路径，已存在则覆盖
+     * @param detail 更加详细的处理
+     * @return 写入的字节数，请求失败或响应码不是2xx为null
+     */
+    default Long downloadTo(MimeRequest request, Path path, Detail detail) {
+        Objects.requireNonNull(path, "path");
+        AtomicReference<Long> written = new AtomicReference<>();
+        Detail report = null == detail ? null : (url, method, requestHeader, body, code, responseHeader, result) ->
+                detail.accept(url, method, requestHeader, body, code, responseHeader,
+                        null != written.get() ? String.valueOf(written.get()) : null);
+        return this.executeStream(request, Receiver.channel((body, charset) -> {
+            long size = MimeHttp.write(body, path);
+            written.set(size);
+            return size;
+        }), report);
+    }
+
+    /**
+     * 执行请求，将响应体直接写入文件
+     * @param request MimeRequest请求对象
+     * @param path 文件路径，已存在则覆盖
+     * @return 写入的字节数，请求失败为null
+     */
+    default Long downloadTo(MimeRequest request, Path path) {
+        return this.downloadTo(request, path, null);
+    }
+
     /**
      * 获取请求url，对url的参数进行encode
      * @param request MimeRequest对象
@@ -88,41 +350,102 @@ public interface MimeHttp {
      */
     static String url(MimeRequest request) {
         String url = request.getUrl();
-        if (request.getMethod() == Method.GET) {
-            StringBuilder sb = new StringBuilder();
-            if (null != request.getParameter()) {
-                Parameter parameter = request.getParameter();
-                for (String key : parameter.keySet()) {
-                    Object o = parameter.get(key);
+        if (request.getMethod() != Method.GET) {
+            return url;
+        }
+        Parameter parameter = request.getParameter();
+        String string = request.getString();
+        if ((null == parameter || parameter.isEmpty()) && (null == string || string.isEmpty())) {
+            return url;
+        }
+        // url和参数写入同一个缓冲区，不生成中间字符串
+        StringBuilder sb = PercentEncoder.buffer();
+        try {
+            sb.append(url);
+            int length = sb.length();
+            sb.append(0 > url.indexOf('?') ? '?' : (url.endsWith("&") || url.endsWith("?") ? "" : "&"));
+            int start = sb.length();
+            if (null != parameter) {
+                for (Map.Entry<String, Object> entry : parameter.entrySet()) {
+                    Object o = entry.getValue();
                     if (null == o) {
                         continue;
                     }
-                    String name = Util.encode(key);
-                    String value = Util.formatValue(o);
-                    sb.append(name).append("=").append(value).append("&");
+                    if (start < sb.length()) {
+                        sb.append('&');
+                    }
+                    PercentEncoder.encode(sb, entry.getKey()).append('=');
+                    ValueWriters.write(sb, o);
                 }
-                int length = sb.length();
-                if (0 < length) {
-                    sb.deleteCharAt(length - 1);
+            } else {
+                PercentEncoder.encode(sb, string);
+            }
+            if (start == sb.length()) {
+                sb.setLength(length);
+            }
+            return sb.toString();
+        } finally {
+            PercentEncoder.recycle(sb);
+        }
+    }
+
+    /**
+     * 将响应体写入文件，先写入同目录的临时文件，写完后替换目标文件，失败时删除临时文件，目标文件保持不变
+     * @param body 响应体通道
+     * @param path 文件路径
+     * @return 写入的字节数
+     * @throws IOException 读写异常
+     */
+    static long write(ReadableByteChannel body, Path path) throws IOException {
+        Path temp = Files.createTempFile(path.toAbsolutePath().getParent(), path.getFileName().toString(), ".tmp");
+        try {
+            long position = 0;
+            try (FileChannel file = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                long n;
+                while (0 < (n = file.transferFrom(body, position, TRANSFER_SIZE))) {
+                    position += n;
                 }
-            } else if (null != request.getString()) {
-                sb.append(Util.encode(request.getString()));
             }
+            try {
+                Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+            }
+            return position;
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
 
-            if (0 < sb.length()) {
-                String param = sb.toString();
-                if (url.contains("?")) {
-                    if (url.endsWith("&")) {
-                        url += param;
-                    } else {
-                        url += "&" + param;
+    /**
+     * 响应码是否为2xx
+     * @param code 响应码
+     * @return 是否成功
+     */
+    static boolean success(Integer code) {
+        return null != code && 200 <= code && code < 300;
+    }
+
+    /**
+     * 从Content-Type中获取字符集
+     * @param contentType Content-Type
+     * @return 字符集，未声明或不支持则为utf-8
+     */
+    static Charset charset(String contentType) {
+        if (null != contentType) {
+            for (String part : contentType.split(";")) {
+                part = part.trim();
+                if (part.regionMatches(true, 0, "charset=", 0, 8)) {
+                    String name = part.substring(8).replace("\"", "").trim();
+                    try {
+                        return Charset.forName(name);
+                    } catch (IllegalArgumentException e) {
+                        break;
                     }
-                } else {
-                    url += "?" + param;
                 }
             }
         }
-        return url;
+        return StandardCharsets.UTF_8;
     }
 
     /**
@@ -141,6 +464,46 @@ public interface MimeHttp {
         error("MimeHttp " + type + " " + e.getClass().getSimpleName() + ": " + url);
     }
 
+    /**
+     * 异常处理，装饰器拒绝请求的异常按类型映射：熔断为 503 CIRCUIT OPEN，限流为 429 RATE LIMITED，
+     * 其余按异常信息处理
+     * @param e 异常
+     * @param detail 更加详细的处理
+     * @param url 请求url
+     * @param method 请求方法
+     * @param request 请求header
+     * @param body 请求体
+     * @param code 结果码
+     * @param response 响应header
+     * @param result 请求结果
+     * @return 请求结果
+     */
+    static String except(Exception e, Detail detail,
+                         String url,
+                         Method method,
+                         Header request,
+                         Object body,
+                         Integer code,
+                         Header response,
+                         String result) {
+        String cause = null;
+        if (e instanceof CircuitBreakerHttp.OpenException) {
+            code = 503;
+            cause = " CIRCUIT OPEN";
+        } else if (e instanceof RateLimitHttp.LimitedException) {
+            code = 429;
+            cause = " RATE LIMITED";
+        }
+        if (null != cause) {
+            result = code + cause;
+            if (null != detail) {
+                detail.accept(url, method, request, body, code, response, result);
+            }
+            return result;
+        }
+        return except(null != e ? e.getMessage() : null, detail, url, method, request, body, code, response, result);
+    }
+
     /**
      * 异常处理
      * @param message 异常信息
@@ -162,6 +525,9 @@ public interface MimeHttp {
                          Integer code,
                          Header response,
                          String result) {
+        if (null == message) {
+            return result;
+        }
         String cause = null;
         switch (message) {
             case "Connection timed out: connect": cause = " REQUEST TIMEOUT"; break;
@@ -1,12 +1,16 @@
 package dive.http.common;
 
 
+import dive.http.common.model.Content;
 import dive.http.common.model.Header;
 import dive.http.common.model.Method;
 import dive.http.common.model.Parameter;
 
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * 请求对象，封装请求数据
@@ -39,12 +43,21 @@ public class MimeRequest {
      */
     private Parameter parameter;
 
+    /**
+     * 请求体，二进制或流形式
+     */
+    private Content content;
 
     /**
      * url替换，例如：{1} --> name  {name} -> alice
      */
     private Map<String, Object> replace;
 
+    /**
+     * 替换后的url，请求对象不可变，只需替换一次
+     */
+    private volatile String expanded;
+
     /**
      * 额外和请求无关的内容
      */
@@ -59,17 +72,20 @@ public class MimeRequest {
     }
 
     /**
-     * 获取url, 替换数据
+     * 获取url, 替换数据，变量值按所在位置进行编码，不修改请求对象，同一个请求可以重复执行
      * @return url
      */
     public String getUrl() {
-        if (null != replace && 0 < replace.size()) {
-            for (String name : replace.keySet()) {
-                url = url.replace("{" + name + "}", replace.get(name).toString());
+        String expanded = this.expanded;
+        if (null == expanded) {
+            if (null == url || null == replace || replace.isEmpty() || 0 > url.indexOf('{')) {
+                expanded = url;
+            } else {
+                expanded = UrlTemplate.compile(url).expand(replace);
             }
-            replace = null;
+            this.expanded = expanded;
         }
-        return url;
+        return expanded;
     }
 
     public Method getMethod() {
@@ -89,6 +105,21 @@ public class MimeRequest {
         return parameter;
     }
 
+    public Content getContent() {
+        return content;
+    }
+
+    /**
+     * 获取请求体，用于回调
+     * @return 键值对、字符串或二进制请求体
+     */
+    public Object getBody() {
+        if (null != parameter) {
+            return parameter;
+        }
+        return null != string ? string : content;
+    }
+
     public String getExtra() {
         return extra;
     }
@@ -112,6 +143,35 @@ public class MimeRequest {
         return http.execute(this, detail);
     }
 
+    /**
+     * 异步执行请求，获取结果
+     * @param http 执行请求的对象
+     * @return 请求结果
+     */
+    public CompletableFuture<String> executeAsync(MimeHttp http) {
+        return executeAsync(http, null);
+    }
+
+    /**
+     * 异步执行请求，获取结果
+     * @param http 执行请求的对象
+     * @param detail 更详细的处理结果
+     * @return 请求结果
+     */
+    public CompletableFuture<String> executeAsync(MimeHttp http, Detail detail) {
+        return http.executeAsync(this, detail);
+    }
+
+    /**
+     * 执行请求，将响应体直接写入文件
+     * @param http 执行请求的对象
+     * @param path 文件路径
+     * @return 写入的字节数
+     */
+    public Long downloadTo(MimeHttp http, Path path) {
+        return http.downloadTo(this, path);
+    }
+
     /**
      * 获取建造者实例
      * @return 建造者实例
@@ -129,6 +189,7 @@ public class MimeRequest {
         private Header header;
         private String string;
         private Parameter parameter;
+        private Content content;
 
         private Map<String, Object> replace;
         private String extra;
@@ -197,7 +258,7 @@ public class MimeRequest {
                 case POST:
                     this.method = Method.POST;
                     //post请求必须有请求体
-                    if (null == string && null == parameter) {
+                    if (null == string && null == parameter && null == content) {
                         string = "";
                     }
                     break;
@@ -222,7 +283,7 @@ public class MimeRequest {
          */
         public Builder post() {
             //post请求必须有请求体
-            if (null == string && null == parameter) {
+            if (null == string && null == parameter && null == content) {
                 string = "";
             }
             return method(Method.POST);
@@ -279,6 +340,7 @@ public class MimeRequest {
          */
         public Builder body(String body) {
             this.string = body;
+            content = null;
             return this;
         }
 
@@ -296,6 +358,7 @@ public class MimeRequest {
             }
             // 有键值对请求体就不需要字符串请求体了
             string = null;
+            content = null;
             return this;
         }
 
@@ -312,9 +375,69 @@ public class MimeRequest {
             }
             // 有键值对请求体就不需要字符串请求体了
             string = null;
+            content = null;
+            return this;
+        }
+
+        /**
+         * 设置二进制请求体，发送时才读取数据
+         * @param content 二进制请求体
+         * @return Builder
+         */
+        public Builder body(Content content) {
+            this.content = content;
+            // 有二进制请求体就不需要其他请求体了
+            string = null;
+            parameter = null;
             return this;
         }
 
+        /**
+         * 设置字节数组请求体
+         * @param bytes 字节数组
+         * @return Builder
+         */
+        public Builder body(byte[] bytes) {
+            return body(Content.of(bytes));
+        }
+
+        /**
+         * 设置ByteBuffer请求体
+         * @param buffer 缓冲区
+         * @return Builder
+         */
+        public Builder body(ByteBuffer buffer) {
+            return body(Content.of(buffer));
+        }
+
+        /**
+         * 设置文件请求体，按文件长度发送
+         * @param path 文件路径
+         * @return Builder
+         */
+        public Builder body(Path path) {
+            return body(Content.of(path));
+        }
+
+        /**
+         * 设置输入流请求体，长度未知，按分块传输发送
+         * @param source 数据源
+         * @return Builder
+         */
+        public Builder body(Content.Source source) {
+            return body(Content.of(source, -1));
+        }
+
+        /**
+         * 设置输入流请求体
+         * @param source 数据源
+         * @param length 长度，-1表示未知
+         * @return Builder
+         */
+        public Builder body(Content.Source source, long length) {
+            return body(Content.of(source, length));
+        }
+
         /**
          * 额外需要的内容
          * @param extra extra
@@ -335,7 +458,9 @@ public class MimeRequest {
             request.header = this.header;
             request.string = this.string;
             request.parameter = this.parameter;
-            request.replace = this.replace;
+            request.content = this.content;
+            // 复制一份，之后继续使用建造者不影响已创建的请求
+            request.replace = null != this.replace ? new HashMap<>(this.replace) : null;
             request.extra = this.extra;
             return request;
         }
@@ -358,5 +483,24 @@ public class MimeRequest {
         public String execute(MimeHttp http, Detail detail) {
             return http.execute(this.build(), detail);
         }
+
+        /**
+         * 异步执行请求，获取结果
+         * @param http 执行请求的对象
+         * @return 请求结果
+         */
+        public CompletableFuture<String> executeAsync(MimeHttp http) {
+            return http.executeAsync(this.build());
+        }
+
+        /**
+         * 异步执行请求，获取结果
+         * @param http 执行请求的对象
+         * @param detail 更详细的处理结果
+         * @return 请求结果
+         */
+        public CompletableFuture<String> executeAsync(MimeHttp http, Detail detail) {
+            return http.executeAsync(this.build(), detail);
+        }
     }
 }
@@ -0,0 +1,251 @@
+package dive.http.common;
+
+import java.util.Map;
+
+/**
+ * 百分号编码，安全字符查表判断，全部为安全字符时不复制；非ASCII字符按utf-8编码
+ * 表单编码与URLEncoder.encode(s, "utf-8")结果一致：空格编码为"+"，只保留字母、数字和".-*_"
+ * @author dawn
+ */
+public final class PercentEncoder {
+
+    /**
+     * 缓冲区超过此容量时不再复用
+     */
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    private static final ThreadLocal<Buffer> BUFFER = ThreadLocal.withInitial(Buffer::new);
+
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+
+    /**
+     * 表单和查询参数中不需要编码的字符
+     */
+    private static final boolean[] FORM = safe(".-*_");
+
+    /**
+     * 路径中不需要编码的字符：unreserved、sub-delims、":"和"@"
+     */
+    private static final boolean[] PATH = safe("-._~!$&'()*+,;=:@");
+
+    /**
+     * 查询参数中不需要编码的字符，去掉了作为分隔符的"&"、"="和"+"
+     */
+    private static final boolean[] QUERY = safe("-._~!$'()*,;:@/?");
+
+    private PercentEncoder() {}
+
+    /**
+     * 表单编码
+     * @param s 待编码的字符串
+     * @return 编码后的字符串，不需要编码时返回原字符串
+     */
+    public static String encode(String s) {
+        int safe = safe(s, FORM);
+        if (safe == s.length()) {
+            return s;
+        }
+        // 可能在编码函数中调用，不使用线程内的缓冲区
+        StringBuilder sb = new StringBuilder(s.length() + 16);
+        sb.append(s, 0, safe);
+        encode(sb, s, safe, FORM);
+        return sb.toString();
+    }
+
+    /**
+     * 表单编码，写入给定的缓冲区
+     * @param sb 缓冲区
+     * @param s 待编码的字符串
+     * @return 缓冲区
+     */
+    public static StringBuilder encode(StringBuilder sb, CharSequence s) {
+        return append(sb, s, FORM);
+    }
+
+    /**
+     * 表单编码单个字符，不成对的代理字符与String.getBytes一致编码为"?"
+     * @param sb 缓冲区
+     * @param c 字符
+     * @return 缓冲区
+     */
+    static StringBuilder encode(StringBuilder sb, char c) {
+        if (128 > c && FORM[c]) {
+            return sb.append(c);
+        }
+        encode(sb, String.valueOf(c), 0, FORM);
+        return sb;
+    }
+
+    /**
+     * 将参数编码为 k1=v1&amp;k2=v2，值按ValueWriter写出，为null的参数跳过
+     * @param parameter 参数
+     * @return 编码结果
+     */
+    public static String form(Map<String, ?> parameter) {
+        StringBuilder sb = buffer();
+        try {
+            form(sb, parameter);
+            return sb.toString();
+        } finally {
+            recycle(sb);
+        }
+    }
+
+    /**
+     * 将参数编码为 k1=v1&amp;k2=v2，写入给定的缓冲区，值按ValueWriter写出，为null的参数跳过
+     * @param sb 缓冲区
+     * @param parameter 参数
+     * @return 缓冲区
+     */
+    public static StringBuilder form(StringBuilder sb, Map<String, ?> parameter) {
+        boolean first = true;
+        for (Map.Entry<String, ?> entry : parameter.entrySet()) {
+            Object value = entry.getValue();
+            if (null == value) {
+                continue;
+            }
+            if (!first) {
+                sb.append('&');
+            }
+            first = false;
+            encode(sb, entry.getKey()).append('=');
+            ValueWriters.write(sb, value);
+        }
+        return sb;
+    }
+
+    /**
+     * 路径编码，"/"也会编码
+     * @param sb 缓冲区
+     * @param s 待编码的字符串
+     * @return 缓冲区
+     */
+    static StringBuilder path(StringBuilder sb, CharSequence s) {
+        return append(sb, s, PATH);
+    }
+
+    /**
+     * 查询参数值编码
+     * @param sb 缓冲区
+     * @param s 待编码的字符串
+     * @return 缓冲区
+     */
+    static StringBuilder query(StringBuilder sb, CharSequence s) {
+        return append(sb, s, QUERY);
+    }
+
+    /**
+     * 获取线程内复用的缓冲区，使用完毕后必须在finally中调用recycle
+     * 值的写出函数等可能在使用期间再次调用，嵌套调用时返回新建的缓冲区，不覆盖外层正在写入的内容
+     * @return 清空的缓冲区
+     */
+    static StringBuilder buffer() {
+        Buffer buffer = BUFFER.get();
+        if (0 < buffer.depth++) {
+            return new StringBuilder(256);
+        }
+        StringBuilder sb = buffer.sb;
+        sb.setLength(0);
+        return sb;
+    }
+
+    /**
+     * 缓冲区使用完毕，过大的缓冲区不再复用
+     * @param sb buffer()返回的缓冲区
+     */
+    static void recycle(StringBuilder sb) {
+        Buffer buffer = BUFFER.get();
+        buffer.depth--;
+        if (sb == buffer.sb && BUFFER_SIZE < sb.capacity()) {
+            buffer.sb = new StringBuilder(256);
+        }
+    }
+
+    private static StringBuilder append(StringBuilder sb, CharSequence s, boolean[] table) {
+        int safe = safe(s, table);
+        sb.append(s, 0, safe);
+        if (safe < s.length()) {
+            encode(sb, s, safe, table);
+        }
+        return sb;
+    }
+
+    /**
+     * 开头连续的安全字符数
+     */
+    private static int safe(CharSequence s, boolean[] table) {
+        int length = s.length();
+        for (int i = 0; i < length; i++) {
+            char c = s.charAt(i);
+            if (128 <= c || !table[c]) {
+                return i;
+            }
+        }
+        return length;
+    }
+
+    private static void encode(StringBuilder sb, CharSequence s, int from, boolean[] table) {
+        boolean form = FORM == table;
+        int length = s.length();
+        for (int i = from; i < length; i++) {
+            char c = s.charAt(i);
+            if (128 > c) {
+                if (table[c]) {
+                    sb.append(c);
+                } else if (form && ' ' == c) {
+                    sb.append('+');
+                } else {
+                    hex(sb, c);
+                }
+            } else if (0x800 > c) {
+                hex(sb, 0xC0 | (c >> 6));
+                hex(sb, 0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, s.charAt(++i));
+                hex(sb, 0xF0 | (cp >> 18));
+                hex(sb, 0x80 | ((cp >> 12) & 0x3F));
+                hex(sb, 0x80 | ((cp >> 6) & 0x3F));
+                hex(sb, 0x80 | (cp & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                // 不成对的代理字符，与String.getBytes一致替换为"?"
+                hex(sb, '?');
+            } else {
+                hex(sb, 0xE0 | (c >> 12));
+                hex(sb, 0x80 | ((c >> 6) & 0x3F));
+                hex(sb, 0x80 | (c & 0x3F));
+            }
+        }
+    }
+
+    private static void hex(StringBuilder sb, int b) {
+        sb.append('%').append(HEX[b >> 4]).append(HEX[b & 0xF]);
+    }
+
+    private static boolean[] safe(String extra) {
+        boolean[] safe = new boolean[128];
+        for (char c = 'a'; c <= 'z'; c++) {
+            safe[c] = true;
+        }
+        for (char c = 'A'; c <= 'Z'; c++) {
+            safe[c] = true;
+        }
+        for (char c = '0'; c <= '9'; c++) {
+            safe[c] = true;
+        }
+        for (char c : extra.toCharArray()) {
+            safe[c] = true;
+        }
+        return safe;
+    }
+
+    /**
+     * 线程内复用的缓冲区和嵌套深度
+     */
+    private static final class Buffer {
+
+        private StringBuilder sb = new StringBuilder(256);
+
+        private int depth;
+    }
+
+}
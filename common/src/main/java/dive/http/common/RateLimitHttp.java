@@ -0,0 +1,508 @@
+package dive.http.common;
+
+import dive.http.common.model.Header;
+import dive.http.common.model.Method;
+
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * 限流请求，每个主机(或每个路径、自定义键)一个令牌桶，拿到令牌才发出请求
+ * 阻塞模式下等待令牌，异步请求延迟发出而不占用线程；快速失败模式下不发出请求，
+ * 与连接失败一样经过回调，按 429 RATE LIMITED 返回，响应头Retry-After为需要等待的秒数
+ * 响应为429/503或带Retry-After、RateLimit-Remaining/RateLimit-Reset(含X-前缀)时降低发放速率，之后逐步恢复
+ * @author dawn
+ */
+public class RateLimitHttp extends BaseMimeHttp {
+
+    /**
+     * 实际执行请求的对象
+     */
+    private final MimeHttp http;
+
+    /**
+     * 令牌桶的键
+     */
+    private final Function<MimeRequest, String> key;
+
+    /**
+     * 默认每秒令牌数
+     */
+    private final double rate;
+
+    /**
+     * 默认桶容量
+     */
+    private final int burst;
+
+    /**
+     * 指定键的速率和容量
+     */
+    private final Map<String, Limit> limits;
+
+    /**
+     * 最长等待时间，纳秒，0为快速失败
+     */
+    private final long maxWait;
+
+    private final ConcurrentMap<String, TokenBucket> buckets = new ConcurrentHashMap<>();
+
+    private final LongAdder delayed = new LongAdder();
+
+    private final LongAdder rejected = new LongAdder();
+
+    private RateLimitHttp(Builder builder) {
+        this.http = builder.http;
+        this.key = builder.key;
+        this.rate = builder.rate;
+        this.burst = builder.burst;
+        this.limits = Collections.unmodifiableMap(new HashMap<>(builder.limits));
+        this.maxWait = builder.maxWait;
+    }
+
+    /**
+     * 获取建造者实例
+     * @param http 实际执行请求的对象
+     * @return 建造者实例
+     */
+    public static Builder builder(MimeHttp http) {
+        return new Builder(http);
+    }
+
+    @Override
+    public String execute(MimeRequest request, Detail detail) {
+        Objects.requireNonNull(request, "mime request is null");
+        String name = key.apply(request);
+        TokenBucket bucket = bucket(name);
+        LimitedException limited = acquire(name, bucket);
+        if (null != limited) {
+            return reject(request, limited, detail);
+        }
+        return http.execute(request, new Feedback(bucket, detail));
+    }
+
+    @Override
+    public CompletableFuture<String> executeAsync(MimeRequest request, Detail detail) {
+        Objects.requireNonNull(request, "mime request is null");
+        String name = key.apply(request);
+        TokenBucket bucket = bucket(name);
+        long wait = bucket.reserve(System.nanoTime(), maxWait);
+        if (wait > maxWait) {
+            return CompletableFuture.completedFuture(reject(request, new LimitedException(name, wait), detail));
+        }
+        if (0 == wait) {
+            return http.executeAsync(request, new Feedback(bucket, detail));
+        }
+        delayed.increment();
+        CompletableFuture<String> future = new CompletableFuture<>();
+        scheduler().schedule(() -> {
+            try {
+                http.executeAsync(request, new Feedback(bucket, detail)).whenComplete((result, e) -> {
+                    if (null != e) {
+                        future.completeExceptionally(e);
+                    } else {
+                        future.complete(result);
+                    }
+                });
+            } catch (RuntimeException e) {
+                future.completeExceptionally(e);
+            }
+        }, wait, TimeUnit.NANOSECONDS);
+        return future;
+    }
+
+    @Override
+    public <R> R executeStream(MimeRequest request, Receiver<R> receiver, Detail detail) {
+        Objects.requireNonNull(request, "mime request is null");
+        String name = key.apply(request);
+        TokenBucket bucket = bucket(name);
+        LimitedException limited = acquire(name, bucket);
+        if (null != limited) {
+            reject(request, limited, detail);
+            return null;
+        }
+        return http.executeStream(request, receiver, new Feedback(bucket, detail));
+    }
+
+    @Override
+    public Long downloadTo(MimeRequest request, Path path, Detail detail) {
+        Objects.requireNonNull(request, "mime request is null");
+        String name = key.apply(request);
+        TokenBucket bucket = bucket(name);
+        LimitedException limited = acquire(name, bucket);
+        if (null != limited) {
+            reject(request, limited, detail);
+            return null;
+        }
+        return http.downloadTo(request, path, new Feedback(bucket, detail));
+    }
+
+    /**
+     * 当前可用令牌数
+     * @param key 令牌桶的键，例如：api.huobi.pro
+     * @return 令牌数，尚未使用的键返回桶容量
+     */
+    public double permits(String key) {
+        TokenBucket bucket = buckets.get(key);
+        if (null == bucket) {
+            return limit(key).burst;
+        }
+        return bucket.permits(System.nanoTime());
+    }
+
+    /**
+     * 当前每秒令牌数，受响应调整
+     * @param key 令牌桶的键
+     * @return 每秒令牌数
+     */
+    public double rate(String key) {
+        TokenBucket bucket = buckets.get(key);
+        return null != bucket ? bucket.rate() : limit(key).rate;
+    }
+
+    /**
+     * 等待令牌后发出的请求数
+     * @return 请求数
+     */
+    public long getDelayed() {
+        return delayed.sum();
+    }
+
+    /**
+     * 因限流未发出的请求数
+     * @return 请求数
+     */
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "RateLimitHttp{buckets=" + buckets.size() + ", delayed=" + getDelayed()
+                + ", rejected=" + getRejected() + "}";
+    }
+
+    /**
+     * 同步获取令牌，阻塞模式下在当前线程等待
+     * @param name 令牌桶的键
+     * @param bucket 令牌桶
+     * @return 未拿到令牌的原因，拿到令牌时为null
+     */
+    private LimitedException acquire(String name, TokenBucket bucket) {
+        long wait = bucket.reserve(System.nanoTime(), maxWait);
+        if (wait > maxWait) {
+            return new LimitedException(name, wait);
+        }
+        if (0 < wait) {
+            delayed.increment();
+            try {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            } catch (InterruptedException e) {
+                // 请求不再发出，归还预订的令牌
+                bucket.refund();
+                Thread.currentThread().interrupt();
+                return new LimitedException(name, wait);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 未拿到令牌时直接返回，与连接失败一样经过回调
+     * @param request 请求对象
+     * @param limited 未拿到令牌的原因
+     * @param detail 更加详细的处理
+     * @return 请求结果
+     */
+    private String reject(MimeRequest request, LimitedException limited, Detail detail) {
+        rejected.increment();
+        long seconds = Math.max(1L, (limited.getWait() + 999) / 1000);
+        return MimeHttp.except(limited, detail,
+                MimeHttp.url(request),
+                request.getMethod(),
+                request.getHeader(),
+                request.getBody(),
+                null,
+                Header.build("Retry-After", String.valueOf(seconds)),
+                null);
+    }
+
+    private TokenBucket bucket(String name) {
+        return buckets.computeIfAbsent(name, n -> {
+            Limit limit = limit(n);
+            return new TokenBucket(limit.rate, limit.burst);
+        });
+    }
+
+    private Limit limit(String name) {
+        Limit limit = limits.get(name);
+        return null != limit ? limit : new Limit(rate, burst);
+    }
+
+    /**
+     * 根据响应调整令牌桶
+     * @param bucket 令牌桶
+     * @param code 响应码
+     * @param header 响应头
+     */
+    private static void adapt(TokenBucket bucket, Integer code, Header header) {
+        long now = System.nanoTime();
+        long retryAfter = Util.retryAfter(CacheEntry.first(header, "Retry-After"));
+        boolean limited = null != code && (429 == code || (503 == code && 0 <= retryAfter));
+        if (limited) {
+            bucket.slow();
+        }
+        if (0 <= retryAfter) {
+            bucket.pause(now + TimeUnit.MILLISECONDS.toNanos(retryAfter));
+        }
+        String remaining = first(header, "RateLimit-Remaining", "X-RateLimit-Remaining");
+        long reset = reset(first(header, "RateLimit-Reset", "X-RateLimit-Reset"));
+        double left = null != remaining ? Util.number(remaining) : -1;
+        if (0 <= left && 0 <= reset) {
+            if (0 == left) {
+                bucket.pause(now + TimeUnit.MILLISECONDS.toNanos(reset));
+                return;
+            }
+            if (0 < reset && !limited) {
+                // 剩余配额在重置前均匀使用
+                double allowed = left * 1000 / reset;
+                if (allowed < bucket.rate()) {
+                    bucket.limit(allowed);
+                } else {
+                    bucket.recover();
+                }
+                return;
+            }
+        }
+        if (!limited && null != code && code < 400) {
+            bucket.recover();
+        }
+    }
+
+    private static String first(Header header, String name, String alternative) {
+        String value = CacheEntry.first(header, name);
+        return null != value ? value : CacheEntry.first(header, alternative);
+    }
+
+    /**
+     * 解析RateLimit-Reset，可能是秒数、秒级或毫秒级时间戳
+     * @param value 响应头的值
+     * @return 距离重置的毫秒数，无法解析为-1
+     */
+    private static long reset(String value) {
+        if (null == value) {
+            return -1;
+        }
+        double reset = Util.number(value);
+        if (0 > reset) {
+            return -1;
+        }
+        if (1e12 <= reset) {
+            return Math.max(0L, (long) reset - System.currentTimeMillis());
+        }
+        if (1e9 <= reset) {
+            return Math.max(0L, (long) (reset * 1000) - System.currentTimeMillis());
+        }
+        return (long) (reset * 1000);
+    }
+
+    /**
+     * 获取响应码和响应头以调整令牌桶，再转交给调用方
+     */
+    private static class Feedback implements Detail {
+
+        private final TokenBucket bucket;
+
+        private final Detail detail;
+
+        Feedback(TokenBucket bucket, Detail detail) {
+            this.bucket = bucket;
+            this.detail = detail;
+        }
+
+        @Override
+        public void accept(String url, Method method, Header requestHeader, Object body,
+                           Integer code, Header responseHeader, String result) {
+            adapt(bucket, code, responseHeader);
+            if (null != detail) {
+                detail.accept(url, method, requestHeader, body, code, responseHeader, result);
+            }
+        }
+    }
+
+    /**
+     * 速率和容量
+     */
+    private static class Limit {
+
+        private final double rate;
+
+        private final int burst;
+
+        Limit(double rate, int burst) {
+            this.rate = rate;
+            this.burst = burst;
+        }
+    }
+
+    /**
+     * 没有可用令牌，或等待时间超过上限，交给MimeHttp.except映射为 429 RATE LIMITED，不会抛出
+     */
+    public static class LimitedException extends RuntimeException {
+
+        private static final long serialVersionUID = 4017465370213268512L;
+
+        private final String key;
+
+        private final long wait;
+
+        LimitedException(String key, long wait) {
+            // 每次拒绝都创建，不需要调用栈
+            super("rate limited: " + key + ", next permit in " + TimeUnit.NANOSECONDS.toMillis(wait) + "ms",
+                    null, false, false);
+            this.key = key;
+            this.wait = wait;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        /**
+         * 距离下一个令牌的时间
+         * @return 毫秒
+         */
+        public long getWait() {
+            return TimeUnit.NANOSECONDS.toMillis(wait);
+        }
+    }
+
+    /**
+     * 建造者类，用于创建RateLimitHttp对象
+     */
+    public static class Builder {
+
+        private final MimeHttp http;
+
+        private Function<MimeRequest, String> key = request -> Util.host(MimeHttp.url(request));
+
+        private double rate = 10;
+
+        private int burst = 10;
+
+        private final Map<String, Limit> limits = new HashMap<>();
+
+        private long maxWait = Long.MAX_VALUE;
+
+        private Builder(MimeHttp http) {
+            this.http = Objects.requireNonNull(http, "http");
+        }
+
+        /**
+         * 设置默认速率，默认每秒10个，容量10
+         * @param rate 每秒令牌数
+         * @param burst 桶容量，允许的突发请求数
+         * @return Builder
+         */
+        public Builder limit(double rate, int burst) {
+            this.rate = positive(rate, "rate");
+            this.burst = (int) positive(burst, "burst");
+            return this;
+        }
+
+        /**
+         * 设置指定键的速率
+         * @param key 令牌桶的键，例如：api.huobi.pro 或 api.huobi.pro/market/history/kline
+         * @param rate 每秒令牌数
+         * @param burst 桶容量
+         * @return Builder
+         */
+        public Builder limit(String key, double rate, int burst) {
+            Objects.requireNonNull(key, "key");
+            limits.put(key, new Limit(positive(rate, "rate"), (int) positive(burst, "burst")));
+            return this;
+        }
+
+        /**
+         * 每个主机一个令牌桶，默认方式
+         * @return Builder
+         */
+        public Builder byHost() {
+            this.key = request -> Util.host(MimeHttp.url(request));
+            return this;
+        }
+
+        /**
+         * 每个路径一个令牌桶，路径不含查询参数，url模板替换后的不同路径各自计数
+         * @return Builder
+         */
+        public Builder byPath() {
+            this.key = request -> Util.path(MimeHttp.url(request));
+            return this;
+        }
+
+        /**
+         * 自定义令牌桶的键
+         * @param key 从请求获取键
+         * @return Builder
+         */
+        public Builder key(Function<MimeRequest, String> key) {
+            this.key = Objects.requireNonNull(key, "key");
+            return this;
+        }
+
+        /**
+         * 等待令牌，默认方式
+         * @return Builder
+         */
+        public Builder block() {
+            this.maxWait = Long.MAX_VALUE;
+            return this;
+        }
+
+        /**
+         * 等待令牌，超过最长等待时间则失败
+         * @param maxWait 最长等待时间
+         * @param unit 时间单位
+         * @return Builder
+         */
+        public Builder block(long maxWait, TimeUnit unit) {
+            this.maxWait = unit.toNanos(maxWait);
+            return this;
+        }
+
+        /**
+         * 没有可用令牌时立即失败
+         * @return Builder
+         */
+        public Builder failFast() {
+            this.maxWait = 0;
+            return this;
+        }
+
+        /**
+         * 构建RateLimitHttp对象
+         * @return RateLimitHttp对象
+         */
+        public RateLimitHttp build() {
+            return new RateLimitHttp(this);
+        }
+
+        private static double positive(double value, String name) {
+            if (!(value > 0)) {
+                throw new IllegalArgumentException(name + " must be positive: " + value);
+            }
+            return value;
+        }
+    }
+
+}
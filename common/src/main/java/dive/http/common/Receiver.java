@@ -0,0 +1,53 @@
+package dive.http.common;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+
+/**
+ * 以流的形式消费响应体，流由执行请求的实现负责关闭，消费者不必关闭
+ * @param <R> 消费结果类型
+ * @author dawn
+ */
+@FunctionalInterface
+public interface Receiver<R> {
+
+    /**
+     * 消费响应体
+     * @param body 响应体输入流
+     * @param charset 响应声明的字符集，未声明则为utf-8
+     * @return 消费结果
+     * @throws IOException 读取异常
+     */
+    R receive(InputStream body, Charset charset) throws IOException;
+
+    /**
+     * 以通道的形式消费响应体
+     * @param channel 通道消费者
+     * @param <R> 消费结果类型
+     * @return 流消费者
+     */
+    static <R> Receiver<R> channel(Channel<R> channel) {
+        return (body, charset) -> channel.receive(Channels.newChannel(body), charset);
+    }
+
+    /**
+     * 以通道的形式消费响应体
+     * @param <R> 消费结果类型
+     */
+    @FunctionalInterface
+    interface Channel<R> {
+
+        /**
+         * 消费响应体
+         * @param body 响应体通道
+         * @param charset 响应声明的字符集，未声明则为utf-8
+         * @return 消费结果
+         * @throws IOException 读取异常
+         */
+        R receive(ReadableByteChannel body, Charset charset) throws IOException;
+    }
+
+}
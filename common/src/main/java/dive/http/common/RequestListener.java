@@ -0,0 +1,136 @@
+package dive.http.common;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * 请求过程监听，用于区分DNS、建立连接、TLS握手、服务端处理和读取响应体的耗时
+ * 事件在请求所在线程或IO线程上同步调用，方法应尽快返回，需要时间戳时在方法内调用System.nanoTime()
+ * 各实现在每次调用开始时通过call获取本次调用的监听，之后的事件都交给它，同一个请求对象多次发出时互不影响；
+ * 每次调用最终有且只有一个callEnd或callFailed；未设置监听时各实现不产生额外开销
+ * 支持的事件因实现而异：okhttp全部支持；httpclient同步请求全部支持，异步请求没有DNS、连接和请求写出事件；
+ * mime没有DNS、TLS握手和连接复用事件，HttpURLConnection内部解析域名，无法单独计时，解析耗时计入连接耗时，
+ * connectStart的地址未解析；GET请求没有请求写出事件，错误响应码按请求失败处理；
+ * 其余实现暂不支持
+ * @author dawn
+ */
+public interface RequestListener {
+
+    /**
+     * 为一次调用获取监听，各实现在请求开始前调用一次
+     * 同一个请求对象可能被多次发出(对冲请求、重试、批量中重复的请求)，需要区分每次调用时返回新的实例
+     * @param request 请求对象
+     * @return 本次调用的监听，默认为自身
+     */
+    default RequestListener call(MimeRequest request) {
+        return this;
+    }
+
+    /**
+     * 请求开始
+     * @param request 请求对象
+     */
+    default void callStart(MimeRequest request) {}
+
+    /**
+     * 开始解析域名
+     * @param request 请求对象
+     * @param host 域名
+     */
+    default void dnsStart(MimeRequest request, String host) {}
+
+    /**
+     * 域名解析结束
+     * @param request 请求对象
+     * @param host 域名
+     */
+    default void dnsEnd(MimeRequest request, String host) {}
+
+    /**
+     * 开始建立连接
+     * @param request 请求对象
+     * @param address 连接地址
+     */
+    default void connectStart(MimeRequest request, InetSocketAddress address) {}
+
+    /**
+     * 开始TLS握手
+     * @param request 请求对象
+     */
+    default void secureConnectStart(MimeRequest request) {}
+
+    /**
+     * TLS握手结束
+     * @param request 请求对象
+     */
+    default void secureConnectEnd(MimeRequest request) {}
+
+    /**
+     * 连接建立结束，包括TLS握手
+     * @param request 请求对象
+     */
+    default void connectEnd(MimeRequest request) {}
+
+    /**
+     * 获得连接
+     * @param request 请求对象
+     * @param reused 是否为复用的连接
+     */
+    default void connectionAcquired(MimeRequest request, boolean reused) {}
+
+    /**
+     * 请求头和请求体写出完毕
+     * @param request 请求对象
+     */
+    default void requestWritten(MimeRequest request) {}
+
+    /**
+     * 收到响应头
+     * @param request 请求对象
+     */
+    default void firstByte(MimeRequest request) {}
+
+    /**
+     * 响应体读取完毕
+     * @param request 请求对象
+     * @param bytes 实际读取的响应体字节数，按解码前的传输字节计，未知为-1
+     */
+    default void bodyEnd(MimeRequest request, long bytes) {}
+
+    /**
+     * 请求结束
+     * @param request 请求对象
+     */
+    default void callEnd(MimeRequest request) {}
+
+    /**
+     * 请求失败，之后不再有callEnd
+     * @param request 请求对象
+     * @param e 异常，接收者或回调抛出的非IO异常包装为IOException
+     */
+    default void callFailed(MimeRequest request, IOException e) {}
+
+    /**
+     * 包装响应流，读取时累计实际读到的字节数，供各实现在bodyEnd中报告
+     * 应包装解码前的原始响应流，与okhttp报告的传输字节数一致
+     * @param in 响应流
+     * @param count 字节数
+     * @return 读取时计数的响应流
+     */
+    static InputStream count(InputStream in, LongAdder count) {
+        return new Compression.Counting(in, count);
+    }
+
+    /**
+     * 汇总每个请求的各阶段耗时，请求结束或失败时交给consumer
+     * @param consumer 耗时消费者
+     * @return 监听
+     */
+    static RequestListener timing(Consumer<Timing> consumer) {
+        return new TimingListener(consumer);
+    }
+
+}
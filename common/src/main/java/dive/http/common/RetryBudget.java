@@ -0,0 +1,71 @@
+package dive.http.common;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 重试预算，限制重试数占请求数的比例，防止重试在故障时放大流量
+ * 每个请求存入ratio个令牌，每次重试取出一个令牌，余额不超过reserve个
+ * @author dawn
+ */
+class RetryBudget {
+
+    /**
+     * 一个令牌的计数
+     */
+    private static final long UNIT = 1000;
+
+    /**
+     * 每个请求存入的计数
+     */
+    private final long deposit;
+
+    /**
+     * 余额上限
+     */
+    private final long max;
+
+    private final AtomicLong balance;
+
+    /**
+     * 构造器
+     * @param ratio 重试数占请求数的比例
+     * @param reserve 余额上限，也是初始余额，允许流量很小时仍可重试
+     */
+    RetryBudget(double ratio, int reserve) {
+        this.deposit = (long) (ratio * UNIT);
+        this.max = reserve * UNIT;
+        this.balance = new AtomicLong(max);
+    }
+
+    /**
+     * 发出一个请求
+     */
+    void deposit() {
+        balance.accumulateAndGet(deposit, (b, d) -> Math.min(max, b + d));
+    }
+
+    /**
+     * 尝试进行一次重试
+     * @return 预算是否足够
+     */
+    boolean withdraw() {
+        while (true) {
+            long current = balance.get();
+            if (current < UNIT) {
+                return false;
+            }
+            if (balance.compareAndSet(current, current - UNIT)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * 当前可以进行的重试数
+     * @return 重试数
+     */
+    long available() {
+        return balance.get() / UNIT;
+    }
+
+}
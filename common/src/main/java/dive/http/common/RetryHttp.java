@@ -0,0 +1,449 @@
+package dive.http.common;
+
+import dive.http.common.model.Header;
+import dive.http.common.model.Method;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+
+/**
+ * 失败重试的请求
+ * 连接失败(未得到响应或408)、5xx和429时重试，等待时间使用去相关抖动(decorrelated jitter)，响应带Retry-After时不短于该时间
+ * 重试预算限制重试数占请求数的比例，故障时不会成倍放大流量
+ * POST默认不重试；回调只在最后一次尝试后调用一次，传入RetryHttp.Attempts可以获得每次尝试的耗时
+ * 流式请求和文件下载不重试
+ * @author dawn
+ */
+public class RetryHttp extends BaseMimeHttp {
+
+    /**
+     * 实际执行请求的对象
+     */
+    private final MimeHttp http;
+
+    /**
+     * 最多尝试次数，包括第一次
+     */
+    private final int maxAttempts;
+
+    /**
+     * 最短等待，毫秒
+     */
+    private final long baseDelay;
+
+    /**
+     * 最长等待，毫秒，Retry-After超过该值时不再重试
+     */
+    private final long maxDelay;
+
+    /**
+     * 是否重试POST
+     */
+    private final boolean retryPost;
+
+    /**
+     * 哪些异常可以重试
+     */
+    private final Predicate<Throwable> retryOn;
+
+    private final RetryBudget budget;
+
+    private final LongAdder retries = new LongAdder();
+
+    private final LongAdder exhausted = new LongAdder();
+
+    private RetryHttp(Builder builder) {
+        this.http = builder.http;
+        this.maxAttempts = builder.maxAttempts;
+        this.baseDelay = builder.baseDelay;
+        this.maxDelay = builder.maxDelay;
+        this.retryPost = builder.retryPost;
+        this.retryOn = builder.retryOn;
+        this.budget = new RetryBudget(builder.ratio, builder.reserve);
+    }
+
+    /**
+     * 获取建造者实例
+     * @param http 实际执行请求的对象
+     * @return 建造者实例
+     */
+    public static Builder builder(MimeHttp http) {
+        return new Builder(http);
+    }
+
+    @Override
+    public String execute(MimeRequest request, Detail detail) {
+        Objects.requireNonNull(request, "mime request is null");
+        budget.deposit();
+        long previous = baseDelay;
+        for (int attempt = 1; ; attempt++) {
+            Outcome outcome = new Outcome();
+            long start = System.nanoTime();
+            try {
+                outcome.value = http.execute(request, outcome);
+            } catch (RuntimeException e) {
+                outcome.error = e;
+            }
+            long delay = next(request, attempt, outcome, previous, start, detail);
+            if (0 > delay) {
+                return outcome.finish(detail);
+            }
+            try {
+                TimeUnit.MILLISECONDS.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return outcome.finish(detail);
+            }
+            previous = Math.max(baseDelay, delay);
+        }
+    }
+
+    @Override
+    public CompletableFuture<String> executeAsync(MimeRequest request, Detail detail) {
+        Objects.requireNonNull(request, "mime request is null");
+        budget.deposit();
+        CompletableFuture<String> future = new CompletableFuture<>();
+        attempt(request, detail, 1, baseDelay, future);
+        return future;
+    }
+
+    @Override
+    public <R> R executeStream(MimeRequest request, Receiver<R> receiver, Detail detail) {
+        return http.executeStream(request, receiver, detail);
+    }
+
+    @Override
+    public Long downloadTo(MimeRequest request, Path path, Detail detail) {
+        return http.downloadTo(request, path, detail);
+    }
+
+    /**
+     * 已进行的重试次数
+     * @return 次数
+     */
+    public long getRetries() {
+        return retries.sum();
+    }
+
+    /**
+     * 因重试预算不足而放弃的次数
+     * @return 次数
+     */
+    public long getExhausted() {
+        return exhausted.sum();
+    }
+
+    /**
+     * 当前预算内还可以进行的重试数
+     * @return 重试数
+     */
+    public long getBudget() {
+        return budget.available();
+    }
+
+    @Override
+    public String toString() {
+        return "RetryHttp{retries=" + getRetries() + ", exhausted=" + getExhausted()
+                + ", budget=" + getBudget() + "}";
+    }
+
+    /**
+     * 进行一次异步尝试，失败时延迟后进行下一次
+     * @param request 请求对象
+     * @param detail 更加详细的处理
+     * @param attempt 第几次尝试
+     * @param previous 上一次等待，毫秒
+     * @param future 最终结果
+     */
+    private void attempt(MimeRequest request, Detail detail, int attempt, long previous,
+                         CompletableFuture<String> future) {
+        Outcome outcome = new Outcome();
+        long start = System.nanoTime();
+        CompletableFuture<String> current;
+        try {
+            current = http.executeAsync(request, outcome);
+        } catch (RuntimeException e) {
+            current = new CompletableFuture<>();
+            current.completeExceptionally(e);
+        }
+        current.whenComplete((result, e) -> {
+            outcome.value = result;
+            outcome.error = e instanceof CompletionException && null != e.getCause() ? e.getCause() : e;
+            long delay;
+            try {
+                delay = next(request, attempt, outcome, previous, start, detail);
+            } catch (RuntimeException ex) {
+                future.completeExceptionally(ex);
+                return;
+            }
+            if (0 > delay) {
+                try {
+                    future.complete(outcome.finish(detail));
+                } catch (RuntimeException ex) {
+                    future.completeExceptionally(ex);
+                }
+                return;
+            }
+            scheduler().schedule(() -> attempt(request, detail, attempt + 1, Math.max(baseDelay, delay), future),
+                    delay, TimeUnit.MILLISECONDS);
+        });
+    }
+
+    /**
+     * 判断是否重试，并报告本次尝试
+     * @param request 请求对象
+     * @param attempt 第几次尝试
+     * @param outcome 本次结果
+     * @param previous 上一次等待，毫秒
+     * @param start 本次开始时间，纳秒
+     * @param detail 更加详细的处理
+     * @return 下次重试前的等待，毫秒，不再重试为-1
+     */
+    private long next(MimeRequest request, int attempt, Outcome outcome, long previous, long start, Detail detail) {
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        long delay = delay(request, attempt, outcome, previous);
+        if (detail instanceof Attempts) {
+            ((Attempts) detail).attempt(attempt, outcome.code, outcome.error, elapsed, delay);
+        }
+        return delay;
+    }
+
+    private long delay(MimeRequest request, int attempt, Outcome outcome, long previous) {
+        if (attempt >= maxAttempts || !retryable(outcome)) {
+            return -1;
+        }
+        if (Method.POST.equals(request.getMethod()) && !retryPost) {
+            return -1;
+        }
+        // decorrelated jitter: random(base, previous * 3)，不超过最长等待
+        long upper = Math.min(maxDelay, Math.max(baseDelay, previous) * 3);
+        long delay = baseDelay >= upper ? upper : ThreadLocalRandom.current().nextLong(baseDelay, upper + 1);
+        long retryAfter = Util.retryAfter(CacheEntry.first(outcome.header, "Retry-After"));
+        if (retryAfter > maxDelay) {
+            return -1;
+        }
+        delay = Math.max(delay, retryAfter);
+        if (!budget.withdraw()) {
+            exhausted.increment();
+            return -1;
+        }
+        retries.increment();
+        return delay;
+    }
+
+    /**
+     * 结果是否可以重试
+     * @param outcome 本次结果
+     * @return 是否可以重试
+     */
+    private boolean retryable(Outcome outcome) {
+        if (null != outcome.error) {
+            return retryOn.test(outcome.error);
+        }
+        if (null == outcome.code) {
+            // 没有得到响应
+            return null == outcome.value;
+        }
+        int code = outcome.code;
+        return 408 == code || 429 == code || (500 <= code && code < 600);
+    }
+
+    /**
+     * 异常或其原因中是否有IOException
+     * @param e 异常
+     * @return 是否为IO异常
+     */
+    private static boolean io(Throwable e) {
+        for (Throwable t = e; null != t; t = t.getCause()) {
+            if (t instanceof IOException) {
+                return true;
+            }
+            if (t == t.getCause()) {
+                break;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 需要每次尝试的情况时传入该回调
+     */
+    public interface Attempts extends Detail {
+
+        /**
+         * 每次尝试结束后回调
+         * @param attempt 第几次尝试，从1开始
+         * @param code 响应码，没有得到响应时为null
+         * @param error 异常，没有时为null
+         * @param elapsed 本次尝试耗时，毫秒
+         * @param delay 下次重试前的等待，毫秒，不再重试时为-1
+         */
+        void attempt(int attempt, Integer code, Throwable error, long elapsed, long delay);
+
+    }
+
+    /**
+     * 一次尝试的结果，记录回调以便最后转交给调用方
+     */
+    private static class Outcome implements Detail {
+
+        private String value;
+
+        private Throwable error;
+
+        private String url;
+
+        private Method method;
+
+        private Header requestHeader;
+
+        private Object body;
+
+        private Integer code;
+
+        private Header header;
+
+        private String result;
+
+        private boolean accepted;
+
+        @Override
+        public void accept(String url, Method method, Header requestHeader, Object body,
+                           Integer code, Header responseHeader, String result) {
+            this.url = url;
+            this.method = method;
+            this.requestHeader = requestHeader;
+            this.body = body;
+            this.code = code;
+            this.header = responseHeader;
+            this.result = result;
+            this.accepted = true;
+        }
+
+        /**
+         * 不再重试，将回调转交给调用方
+         * @param detail 更加详细的处理
+         * @return 请求结果
+         */
+        String finish(Detail detail) {
+            if (null != detail && accepted) {
+                detail.accept(url, method, requestHeader, body, code, header, result);
+            }
+            if (error instanceof RuntimeException) {
+                throw (RuntimeException) error;
+            }
+            if (error instanceof Error) {
+                throw (Error) error;
+            }
+            if (null != error) {
+                throw new CompletionException(error);
+            }
+            return value;
+        }
+    }
+
+    /**
+     * 建造者类，用于创建RetryHttp对象
+     */
+    public static class Builder {
+
+        private final MimeHttp http;
+
+        private int maxAttempts = 3;
+
+        private long baseDelay = 100;
+
+        private long maxDelay = 10_000;
+
+        private boolean retryPost;
+
+        private Predicate<Throwable> retryOn = RetryHttp::io;
+
+        private double ratio = 0.2;
+
+        private int reserve = 10;
+
+        private Builder(MimeHttp http) {
+            this.http = Objects.requireNonNull(http, "http");
+        }
+
+        /**
+         * 设置最多尝试次数，包括第一次，默认3次
+         * @param maxAttempts 最多尝试次数
+         * @return Builder
+         */
+        public Builder maxAttempts(int maxAttempts) {
+            if (maxAttempts < 1) {
+                throw new IllegalArgumentException("maxAttempts must be positive: " + maxAttempts);
+            }
+            this.maxAttempts = maxAttempts;
+            return this;
+        }
+
+        /**
+         * 设置等待时间范围，默认100毫秒到10秒
+         * @param baseDelay 最短等待
+         * @param maxDelay 最长等待
+         * @param unit 时间单位
+         * @return Builder
+         */
+        public Builder delay(long baseDelay, long maxDelay, TimeUnit unit) {
+            if (baseDelay < 0 || maxDelay < baseDelay) {
+                throw new IllegalArgumentException("illegal delay: " + baseDelay + ", " + maxDelay);
+            }
+            this.baseDelay = unit.toMillis(baseDelay);
+            this.maxDelay = unit.toMillis(maxDelay);
+            return this;
+        }
+
+        /**
+         * 设置重试预算，默认重试数不超过请求数的20%，另有10次余量
+         * @param ratio 重试数占请求数的比例
+         * @param reserve 余量，流量很小时仍可重试的次数
+         * @return Builder
+         */
+        public Builder budget(double ratio, int reserve) {
+            if (ratio < 0 || reserve < 0) {
+                throw new IllegalArgumentException("illegal budget: " + ratio + ", " + reserve);
+            }
+            this.ratio = ratio;
+            this.reserve = reserve;
+            return this;
+        }
+
+        /**
+         * 允许重试POST，仅在服务端能够处理重复请求时使用
+         * @return Builder
+         */
+        public Builder retryPost() {
+            this.retryPost = true;
+            return this;
+        }
+
+        /**
+         * 设置哪些异常可以重试，默认为IO异常
+         * @param retryOn 异常判断
+         * @return Builder
+         */
+        public Builder retryOn(Predicate<Throwable> retryOn) {
+            this.retryOn = Objects.requireNonNull(retryOn, "retryOn");
+            return this;
+        }
+
+        /**
+         * 构建RetryHttp对象
+         * @return RetryHttp对象
+         */
+        public RetryHttp build() {
+            return new RetryHttp(this);
+        }
+    }
+
+}
@@ -0,0 +1,508 @@
+package dive.http.common;
+
+import dive.http.common.model.Header;
+import dive.http.common.model.Method;
+import dive.http.common.model.Parameter;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+/**
+ * 签名请求，按交易所接口常见的方式对参数签名后再发出请求
+ * 签名内容为：[请求方法\n主机\n路径\n] + 按键排序的 k1=v1&amp;k2=v2 + 字符串请求体，参数按表单编码，与发出的内容一致
+ * 参数已按顺序时不再排序；固定参数在创建时编码一次；每个线程复用一个Mac
+ * 签名放在参数中时，签名后的参数按排序后的顺序发出，签名在最后
+ * @author dawn
+ */
+public class SignHttp extends BaseMimeHttp {
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    /**
+     * 实际执行请求的对象
+     */
+    private final MimeHttp http;
+
+    /**
+     * 每个线程的Mac和字节缓冲区
+     */
+    private final ThreadLocal<Signer> signers;
+
+    /**
+     * 签名内容是否以请求方法、主机和路径开头
+     */
+    private final boolean requestLine;
+
+    /**
+     * 签名放在请求头中，否则放在参数中
+     */
+    private final boolean inHeader;
+
+    /**
+     * 签名的参数名或请求头名
+     */
+    private final String name;
+
+    /**
+     * 签名使用base64编码，否则为小写十六进制
+     */
+    private final boolean base64;
+
+    /**
+     * 固定参数，按键排序
+     */
+    private final String[] fixedKeys;
+
+    private final Object[] fixedValues;
+
+    /**
+     * 固定参数编码后的 k=v
+     */
+    private final String[] fixedEncoded;
+
+    /**
+     * 每次请求时取值的参数
+     */
+    private final String[] dynamicKeys;
+
+    private final Supplier<?>[] dynamicValues;
+
+    /**
+     * 固定请求头
+     */
+    private final Header header;
+
+    private SignHttp(Builder builder) {
+        this.http = builder.http;
+        SecretKeySpec key = new SecretKeySpec(builder.secret, builder.algorithm);
+        // 创建时检查算法和密钥，避免在请求时才失败
+        try {
+            Mac.getInstance(builder.algorithm).init(key);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalArgumentException("invalid sign algorithm or secret: " + builder.algorithm, e);
+        }
+        this.signers = ThreadLocal.withInitial(() -> new Signer(builder.algorithm, key));
+        this.requestLine = builder.requestLine;
+        this.inHeader = builder.inHeader;
+        this.name = builder.name;
+        this.base64 = builder.base64;
+        List<String> keys = new ArrayList<>(builder.fixed.keySet());
+        keys.sort(String::compareTo);
+        this.fixedKeys = keys.toArray(new String[0]);
+        this.fixedValues = new Object[fixedKeys.length];
+        this.fixedEncoded = new String[fixedKeys.length];
+        for (int i = 0; i < fixedKeys.length; i++) {
+            fixedValues[i] = builder.fixed.get(fixedKeys[i]);
+            StringBuilder sb = new StringBuilder();
+            PercentEncoder.encode(sb, fixedKeys[i]).append('=');
+            ValueWriters.write(sb, fixedValues[i]);
+            fixedEncoded[i] = sb.toString();
+        }
+        this.dynamicKeys = builder.dynamic.keySet().toArray(new String[0]);
+        this.dynamicValues = builder.dynamic.values().toArray(new Supplier<?>[0]);
+        if (builder.header.isEmpty()) {
+            this.header = null;
+        } else {
+            this.header = Header.build(builder.header.size());
+            builder.header.each(this.header::add);
+        }
+    }
+
+    /**
+     * 获取建造者实例
+     * @param http 实际执行请求的对象
+     * @param secret 密钥
+     * @return 建造者实例
+     */
+    public static Builder builder(MimeHttp http, String secret) {
+        return new Builder(http, secret);
+    }
+
+    @Override
+    public String execute(MimeRequest request, Detail detail) {
+        return http.execute(sign(request), detail);
+    }
+
+    @Override
+    public CompletableFuture<String> executeAsync(MimeRequest request, Detail detail) {
+        MimeRequest signed;
+        try {
+            signed = sign(request);
+        } catch (RuntimeException e) {
+            CompletableFuture<String> future = new CompletableFuture<>();
+            future.completeExceptionally(e);
+            return future;
+        }
+        return http.executeAsync(signed, detail);
+    }
+
+    @Override
+    public <R> R executeStream(MimeRequest request, Receiver<R> receiver, Detail detail) {
+        return http.executeStream(sign(request), receiver, detail);
+    }
+
+    @Override
+    public Long downloadTo(MimeRequest request, Path path, Detail detail) {
+        return http.downloadTo(sign(request), path, detail);
+    }
+
+    /**
+     * 签名，不修改原请求
+     * @param request 请求对象，参数应放在键值对请求体中，url中已有的查询参数不参与签名
+     * @return 签名后的请求对象
+     */
+    public MimeRequest sign(MimeRequest request) {
+        Objects.requireNonNull(request, "mime request is null");
+        String string = request.getString();
+        boolean body = (null != string && !string.isEmpty()) || null != request.getContent();
+        Parameter origin = request.getParameter();
+        int size = fixedKeys.length + dynamicKeys.length + (null == origin ? 0 : origin.size());
+        String[] keys = new String[size];
+        Object[] values = new Object[size];
+        String[] encoded = new String[size];
+        int n = 0;
+        for (int i = 0; i < fixedKeys.length; i++) {
+            if (null == origin || !origin.containsKey(fixedKeys[i])) {
+                keys[n] = fixedKeys[i];
+                values[n] = fixedValues[i];
+                encoded[n] = fixedEncoded[i];
+                n++;
+            }
+        }
+        for (int i = 0; i < dynamicKeys.length; i++) {
+            if (null == origin || !origin.containsKey(dynamicKeys[i])) {
+                Object value = dynamicValues[i].get();
+                if (null != value) {
+                    keys[n] = dynamicKeys[i];
+                    values[n] = value;
+                    n++;
+                }
+            }
+        }
+        if (null != origin) {
+            for (Map.Entry<String, Object> entry : origin.entrySet()) {
+                if (null != entry.getValue()) {
+                    keys[n] = entry.getKey();
+                    values[n] = entry.getValue();
+                    n++;
+                }
+            }
+        }
+        sort(keys, values, encoded, n);
+        if (body && (0 < n || !inHeader)) {
+            throw new IllegalArgumentException("parameters and signature can not be added to a string or binary body, "
+                    + "sign into header instead: " + request.getUrl());
+        }
+
+        // 展开url模板同样使用线程内的缓冲区，需要在取缓冲区之前完成
+        String url = request.getUrl();
+        StringBuilder sb = PercentEncoder.buffer();
+        String signature;
+        try {
+            if (requestLine) {
+                requestLine(sb, request.getMethod(), url);
+            }
+            for (int i = 0; i < n; i++) {
+                if (0 < i) {
+                    sb.append('&');
+                }
+                if (null != encoded[i]) {
+                    sb.append(encoded[i]);
+                } else {
+                    PercentEncoder.encode(sb, keys[i]).append('=');
+                    ValueWriters.write(sb, values[i]);
+                }
+            }
+            if (null != string) {
+                sb.append(string);
+            }
+            signature = signers.get().sign(sb, base64);
+        } finally {
+            PercentEncoder.recycle(sb);
+        }
+
+        MimeRequest.Builder builder = new MimeRequest.Builder(url);
+        if (0 < n || !inHeader) {
+            Parameter parameter = Parameter.build();
+            for (int i = 0; i < n; i++) {
+                parameter.add(keys[i], values[i]);
+            }
+            if (!inHeader) {
+                parameter.add(name, signature);
+            }
+            builder.body(parameter);
+        } else if (null != string) {
+            builder.body(string);
+        } else if (null != request.getContent()) {
+            builder.body(request.getContent());
+        }
+        Header requestHeader = request.getHeader();
+        if (null != header || inHeader) {
+            Header copy = Header.build((null == requestHeader ? 0 : requestHeader.size()) + 4);
+            if (null != requestHeader) {
+                requestHeader.each(copy::add);
+            }
+            if (null != header) {
+                header.each(copy::put);
+            }
+            if (inHeader) {
+                copy.put(name, signature);
+            }
+            requestHeader = copy;
+        }
+        return builder.method(request.getMethod())
+                .header(requestHeader)
+                .extra(request.getExtra())
+                .build();
+    }
+
+    /**
+     * 按键排序，插入排序，已按顺序时只比较一遍
+     */
+    private static void sort(String[] keys, Object[] values, String[] encoded, int n) {
+        for (int i = 1; i < n; i++) {
+            String key = keys[i];
+            if (0 <= key.compareTo(keys[i - 1])) {
+                continue;
+            }
+            Object value = values[i];
+            String e = encoded[i];
+            int j = i - 1;
+            while (0 <= j && 0 < keys[j].compareTo(key)) {
+                keys[j + 1] = keys[j];
+                values[j + 1] = values[j];
+                encoded[j + 1] = encoded[j];
+                j--;
+            }
+            keys[j + 1] = key;
+            values[j + 1] = value;
+            encoded[j + 1] = e;
+        }
+    }
+
+    /**
+     * 写入 请求方法\n主机\n路径\n，主机为小写，不含用户信息
+     */
+    private static void requestLine(StringBuilder sb, Method method, String url) {
+        sb.append(method.name()).append('\n');
+        int start = url.indexOf("://");
+        start = 0 > start ? 0 : start + 3;
+        int end = url.length();
+        int slash = -1;
+        for (int i = start; i < url.length(); i++) {
+            char c = url.charAt(i);
+            if ('/' == c && 0 > slash) {
+                slash = i;
+            } else if ('?' == c || '#' == c) {
+                end = i;
+                break;
+            }
+        }
+        int hostEnd = 0 > slash ? end : slash;
+        int at = url.lastIndexOf('@', hostEnd - 1);
+        for (int i = start <= at ? at + 1 : start; i < hostEnd; i++) {
+            sb.append(Character.toLowerCase(url.charAt(i)));
+        }
+        sb.append('\n');
+        if (0 > slash) {
+            sb.append('/');
+        } else {
+            sb.append(url, slash, end);
+        }
+        sb.append('\n');
+    }
+
+    /**
+     * 线程内的Mac，签名内容为ASCII时直接写入复用的字节数组
+     */
+    private static class Signer {
+
+        private final Mac mac;
+
+        private byte[] bytes = new byte[512];
+
+        Signer(String algorithm, SecretKeySpec key) {
+            try {
+                this.mac = Mac.getInstance(algorithm);
+                this.mac.init(key);
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        String sign(StringBuilder sb, boolean base64) {
+            int length = sb.length();
+            if (bytes.length < length) {
+                bytes = new byte[Math.max(length, bytes.length * 2)];
+            }
+            boolean ascii = true;
+            for (int i = 0; i < length; i++) {
+                char c = sb.charAt(i);
+                if (128 <= c) {
+                    ascii = false;
+                    break;
+                }
+                bytes[i] = (byte) c;
+            }
+            if (ascii) {
+                mac.update(bytes, 0, length);
+            } else {
+                mac.update(sb.toString().getBytes(StandardCharsets.UTF_8));
+            }
+            byte[] digest = mac.doFinal();
+            if (base64) {
+                return Base64.getEncoder().encodeToString(digest);
+            }
+            char[] hex = new char[digest.length * 2];
+            for (int i = 0; i < digest.length; i++) {
+                hex[2 * i] = HEX[(digest[i] >> 4) & 0xF];
+                hex[2 * i + 1] = HEX[digest[i] & 0xF];
+            }
+            return new String(hex);
+        }
+    }
+
+    /**
+     * 建造者类，用于创建SignHttp对象
+     */
+    public static class Builder {
+
+        private final MimeHttp http;
+
+        private final byte[] secret;
+
+        private String algorithm = "HmacSHA256";
+
+        private boolean requestLine;
+
+        private boolean inHeader;
+
+        private String name = "signature";
+
+        private boolean base64;
+
+        private final Map<String, Object> fixed = new HashMap<>();
+
+        private final Map<String, Supplier<?>> dynamic = new LinkedHashMap<>();
+
+        private final Header header = Header.build();
+
+        private Builder(MimeHttp http, String secret) {
+            this.http = Objects.requireNonNull(http, "http");
+            this.secret = Objects.requireNonNull(secret, "secret").getBytes(StandardCharsets.UTF_8);
+        }
+
+        /**
+         * 设置签名算法，默认HmacSHA256
+         * @param algorithm Mac算法名，例如：HmacSHA512
+         * @return Builder
+         */
+        public Builder algorithm(String algorithm) {
+            this.algorithm = Objects.requireNonNull(algorithm, "algorithm");
+            return this;
+        }
+
+        /**
+         * 签名放在参数中，默认方式，例如：signature
+         * @param name 参数名
+         * @return Builder
+         */
+        public Builder query(String name) {
+            this.name = Objects.requireNonNull(name, "name");
+            this.inHeader = false;
+            return this;
+        }
+
+        /**
+         * 签名放在请求头中
+         * @param name 请求头名
+         * @return Builder
+         */
+        public Builder header(String name) {
+            this.name = Objects.requireNonNull(name, "name");
+            this.inHeader = true;
+            return this;
+        }
+
+        /**
+         * 签名内容以 请求方法\n主机\n路径\n 开头，例如火币的签名方式
+         * @return Builder
+         */
+        public Builder requestLine() {
+            this.requestLine = true;
+            return this;
+        }
+
+        /**
+         * 签名使用base64编码，默认为小写十六进制
+         * @return Builder
+         */
+        public Builder base64() {
+            this.base64 = true;
+            return this;
+        }
+
+        /**
+         * 签名使用小写十六进制编码，默认方式
+         * @return Builder
+         */
+        public Builder hex() {
+            this.base64 = false;
+            return this;
+        }
+
+        /**
+         * 每个请求都带上的固定参数，例如：AccessKeyId、SignatureMethod，请求中已有同名参数时不添加
+         * @param key 键
+         * @param value 值
+         * @return Builder
+         */
+        public Builder parameter(String key, Object value) {
+            fixed.put(Objects.requireNonNull(key, "key"), Objects.requireNonNull(value, "value"));
+            return this;
+        }
+
+        /**
+         * 每个请求时取值的参数，例如：timestamp，值为null时不添加
+         * @param key 键
+         * @param value 取值函数
+         * @return Builder
+         */
+        public Builder parameter(String key, Supplier<?> value) {
+            dynamic.put(Objects.requireNonNull(key, "key"), Objects.requireNonNull(value, "value"));
+            return this;
+        }
+
+        /**
+         * 每个请求都带上的固定请求头，例如：X-MBX-APIKEY
+         * @param key 键
+         * @param value 值
+         * @return Builder
+         */
+        public Builder header(String key, String value) {
+            header.put(Objects.requireNonNull(key, "key"), Objects.requireNonNull(value, "value"));
+            return this;
+        }
+
+        /**
+         * 构建SignHttp对象
+         * @return SignHttp对象
+         */
+        public SignHttp build() {
+            return new SignHttp(this);
+        }
+    }
+
+}
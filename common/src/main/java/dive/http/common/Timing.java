@@ -0,0 +1,143 @@
+package dive.http.common;
+
+/**
+ * 一个请求各阶段的耗时，单位纳秒，没有发生的阶段为-1
+ * @author dawn
+ */
+public class Timing {
+
+    private final MimeRequest request;
+
+    volatile long start = -1;
+
+    volatile long dnsStart = -1;
+
+    volatile long dnsEnd = -1;
+
+    volatile long connectStart = -1;
+
+    volatile long secureStart = -1;
+
+    volatile long secureEnd = -1;
+
+    volatile long connectEnd = -1;
+
+    volatile long written = -1;
+
+    volatile long firstByte = -1;
+
+    volatile long bodyEnd = -1;
+
+    volatile long end = -1;
+
+    volatile long bytes = -1;
+
+    volatile Boolean reused;
+
+    volatile boolean failed;
+
+    Timing(MimeRequest request) {
+        this.request = request;
+    }
+
+    public MimeRequest getRequest() {
+        return request;
+    }
+
+    /**
+     * 域名解析耗时
+     * @return 纳秒
+     */
+    public long getDns() {
+        return between(dnsStart, dnsEnd);
+    }
+
+    /**
+     * 建立连接耗时，包括TLS握手
+     * @return 纳秒
+     */
+    public long getConnect() {
+        return between(connectStart, connectEnd);
+    }
+
+    /**
+     * TLS握手耗时
+     * @return 纳秒
+     */
+    public long getTls() {
+        return between(secureStart, secureEnd);
+    }
+
+    /**
+     * 请求写出后到收到响应头的耗时，即服务端处理耗时
+     * @return 纳秒
+     */
+    public long getWait() {
+        return between(written, firstByte);
+    }
+
+    /**
+     * 请求开始到收到响应头的耗时
+     * @return 纳秒
+     */
+    public long getTtfb() {
+        return between(start, firstByte);
+    }
+
+    /**
+     * 读取响应体耗时
+     * @return 纳秒
+     */
+    public long getBody() {
+        return between(firstByte, bodyEnd);
+    }
+
+    /**
+     * 总耗时
+     * @return 纳秒
+     */
+    public long getTotal() {
+        return between(start, end);
+    }
+
+    /**
+     * 响应体字节数
+     * @return 字节数，未知为-1
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * 是否复用连接
+     * @return 是否复用，未知为null
+     */
+    public Boolean getReused() {
+        return reused;
+    }
+
+    /**
+     * 请求是否失败
+     * @return 是否失败
+     */
+    public boolean isFailed() {
+        return failed;
+    }
+
+    private static long between(long from, long to) {
+        return 0 <= from && 0 <= to ? to - from : -1;
+    }
+
+    private static String ms(long nanos) {
+        return 0 > nanos ? "-" : String.format("%.3fms", nanos / 1e6);
+    }
+
+    @Override
+    public String toString() {
+        return "Timing{dns=" + ms(getDns()) + ", connect=" + ms(getConnect()) + ", tls=" + ms(getTls())
+                + ", wait=" + ms(getWait()) + ", ttfb=" + ms(getTtfb()) + ", body=" + ms(getBody())
+                + ", total=" + ms(getTotal()) + ", reused=" + reused + ", bytes=" + bytes
+                + (failed ? ", failed" : "") + "}";
+    }
+
+}
@@ -0,0 +1,127 @@
+package dive.http.common;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+/**
+ * 记录各事件的时间，请求结束时汇总为Timing
+ * 每次调用一个Call实例，同一个请求对象多次发出时各自计时
+ * @author dawn
+ */
+class TimingListener implements RequestListener {
+
+    private final Consumer<Timing> consumer;
+
+    TimingListener(Consumer<Timing> consumer) {
+        this.consumer = Objects.requireNonNull(consumer, "consumer");
+    }
+
+    @Override
+    public RequestListener call(MimeRequest request) {
+        return new Call(new Timing(request));
+    }
+
+    /**
+     * 一次调用的计时
+     */
+    private class Call implements RequestListener {
+
+        private final Timing timing;
+
+        private final AtomicBoolean finished = new AtomicBoolean();
+
+        Call(Timing timing) {
+            this.timing = timing;
+        }
+
+        @Override
+        public void callStart(MimeRequest request) {
+            timing.start = System.nanoTime();
+        }
+
+        @Override
+        public void dnsStart(MimeRequest request, String host) {
+            if (0 > timing.dnsStart) {
+                timing.dnsStart = System.nanoTime();
+            }
+        }
+
+        @Override
+        public void dnsEnd(MimeRequest request, String host) {
+            timing.dnsEnd = System.nanoTime();
+        }
+
+        @Override
+        public void connectStart(MimeRequest request, InetSocketAddress address) {
+            if (0 > timing.connectStart) {
+                timing.connectStart = System.nanoTime();
+            }
+        }
+
+        @Override
+        public void secureConnectStart(MimeRequest request) {
+            timing.secureStart = System.nanoTime();
+        }
+
+        @Override
+        public void secureConnectEnd(MimeRequest request) {
+            timing.secureEnd = System.nanoTime();
+        }
+
+        @Override
+        public void connectEnd(MimeRequest request) {
+            timing.connectEnd = System.nanoTime();
+        }
+
+        @Override
+        public void connectionAcquired(MimeRequest request, boolean reused) {
+            timing.reused = reused;
+        }
+
+        @Override
+        public void requestWritten(MimeRequest request) {
+            timing.written = System.nanoTime();
+        }
+
+        @Override
+        public void firstByte(MimeRequest request) {
+            timing.firstByte = System.nanoTime();
+        }
+
+        @Override
+        public void bodyEnd(MimeRequest request, long bytes) {
+            timing.bodyEnd = System.nanoTime();
+            timing.bytes = bytes;
+        }
+
+        @Override
+        public void callEnd(MimeRequest request) {
+            finish(false);
+        }
+
+        @Override
+        public void callFailed(MimeRequest request, IOException e) {
+            finish(true);
+        }
+
+        /**
+         * 只汇总一次，事件可能来自不同的线程
+         */
+        private void finish(boolean failed) {
+            if (!finished.compareAndSet(false, true)) {
+                return;
+            }
+            timing.end = System.nanoTime();
+            timing.failed = failed;
+            try {
+                consumer.accept(timing);
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,130 @@
+package dive.http.common;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 无锁令牌桶
+ * 只记录下一个令牌的理论发放时间，获取令牌即对该时间做一次CAS，不加锁
+ * 时间单位均为纳秒
+ * @author dawn
+ */
+class TokenBucket {
+
+    /**
+     * 发放速率最多降低到配置值的 1/64
+     */
+    private static final int MAX_SLOWDOWN = 64;
+
+    /**
+     * 配置的令牌间隔
+     */
+    private final long base;
+
+    /**
+     * 桶容量
+     */
+    private final int burst;
+
+    /**
+     * 当前令牌间隔，根据响应调整
+     */
+    private final AtomicLong interval;
+
+    /**
+     * 理论到达时间：桶满时该值不晚于当前时间，每发放一个令牌推后一个间隔
+     */
+    private final AtomicLong tat;
+
+    /**
+     * 构造器
+     * @param rate 每秒令牌数
+     * @param burst 桶容量
+     */
+    TokenBucket(double rate, int burst) {
+        this.base = Math.max(1L, (long) (1_000_000_000L / rate));
+        this.burst = burst;
+        this.interval = new AtomicLong(base);
+        this.tat = new AtomicLong(System.nanoTime());
+    }
+
+    /**
+     * 预订一个令牌
+     * @param now 当前时间
+     * @param maxWait 最长等待时间
+     * @return 需要等待的时间，不超过maxWait时令牌已预订，超过时未预订
+     */
+    long reserve(long now, long maxWait) {
+        while (true) {
+            long current = tat.get();
+            long t = interval.get();
+            long next = Math.max(current, now) + t;
+            long wait = next - now - burst * t;
+            if (wait > maxWait) {
+                return wait;
+            }
+            if (tat.compareAndSet(current, next)) {
+                return Math.max(0L, wait);
+            }
+        }
+    }
+
+    /**
+     * 归还一个已预订但未使用的令牌
+     */
+    void refund() {
+        long t = interval.get();
+        tat.addAndGet(-t);
+    }
+
+    /**
+     * 当前可用令牌数
+     * @param now 当前时间
+     * @return 令牌数
+     */
+    double permits(long now) {
+        long t = interval.get();
+        double permits = (burst * t - (Math.max(tat.get(), now) - now)) / (double) t;
+        return Math.max(0D, permits);
+    }
+
+    /**
+     * 当前每秒令牌数
+     * @return 每秒令牌数
+     */
+    double rate() {
+        return 1_000_000_000D / interval.get();
+    }
+
+    /**
+     * 在指定时间之前不发放令牌，之后从一个令牌开始恢复
+     * @param until 暂停到的时间
+     */
+    void pause(long until) {
+        long target = until + (burst - 1) * interval.get();
+        tat.accumulateAndGet(target, Math::max);
+    }
+
+    /**
+     * 发放速率减半
+     */
+    void slow() {
+        interval.updateAndGet(t -> Math.min(base * MAX_SLOWDOWN, t * 2));
+    }
+
+    /**
+     * 发放速率不超过指定值
+     * @param rate 每秒令牌数
+     */
+    void limit(double rate) {
+        long t = Math.min(base * MAX_SLOWDOWN, Math.max(base, (long) (1_000_000_000L / Math.max(rate, 1e-9))));
+        interval.accumulateAndGet(t, Math::max);
+    }
+
+    /**
+     * 向配置的速率恢复八分之一
+     */
+    void recover() {
+        interval.updateAndGet(t -> t <= base ? t : Math.max(base, t - Math.max(1L, (t - base) / 8)));
+    }
+
+}
@@ -0,0 +1,189 @@
+package dive.http.common;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * url模板，例如：/s?wd={1}_{name}
+ * 模板只解析一次并缓存，替换时一次遍历写入线程内复用的缓冲区；变量值按所在位置编码，
+ * 路径中的变量编码"/"、"?"等字符，查询参数中的变量还编码"&"、"="和"+"
+ * 不可变，可以在多个线程间共享
+ * @author dawn
+ */
+public final class UrlTemplate {
+
+    /**
+     * 缓存的模板数量上限，超过后不再缓存，避免拼接出的url撑满内存
+     */
+    private static final int CACHE_SIZE = 1024;
+
+    private static final ConcurrentMap<String, UrlTemplate> CACHE = new ConcurrentHashMap<>();
+
+    /**
+     * 原始模板
+     */
+    private final String template;
+
+    /**
+     * 变量之间的字面量，比变量多一个
+     */
+    private final String[] literals;
+
+    /**
+     * 变量名
+     */
+    private final String[] names;
+
+    /**
+     * 变量是否在查询参数或片段中
+     */
+    private final boolean[] query;
+
+    private UrlTemplate(String template) {
+        this.template = template;
+        List<String> literals = new ArrayList<>();
+        List<String> names = new ArrayList<>();
+        List<Boolean> query = new ArrayList<>();
+        boolean inQuery = false;
+        int from = 0;
+        int i = 0;
+        while (i < template.length()) {
+            char c = template.charAt(i);
+            if ('?' == c || '#' == c) {
+                inQuery = true;
+            } else if ('{' == c) {
+                int end = template.indexOf('}', i + 1);
+                if (i + 1 < end && name(template, i + 1, end)) {
+                    literals.add(template.substring(from, i));
+                    names.add(template.substring(i + 1, end));
+                    query.add(inQuery);
+                    i = end + 1;
+                    from = i;
+                    continue;
+                }
+            }
+            i++;
+        }
+        literals.add(template.substring(from));
+        this.literals = literals.toArray(new String[0]);
+        this.names = names.toArray(new String[0]);
+        this.query = new boolean[names.size()];
+        for (int j = 0; j < this.query.length; j++) {
+            this.query[j] = query.get(j);
+        }
+    }
+
+    /**
+     * 解析模板，相同的模板返回缓存的对象
+     * @param template 模板
+     * @return 模板对象
+     */
+    public static UrlTemplate compile(String template) {
+        Objects.requireNonNull(template, "template");
+        UrlTemplate compiled = CACHE.get(template);
+        if (null != compiled) {
+            return compiled;
+        }
+        compiled = new UrlTemplate(template);
+        if (CACHE_SIZE > CACHE.size()) {
+            UrlTemplate previous = CACHE.putIfAbsent(template, compiled);
+            if (null != previous) {
+                return previous;
+            }
+        }
+        return compiled;
+    }
+
+    public String getTemplate() {
+        return template;
+    }
+
+    /**
+     * 获取模板中的变量名，按出现顺序
+     * @return 变量名
+     */
+    public List<String> getNames() {
+        return Collections.unmodifiableList(Arrays.asList(names));
+    }
+
+    /**
+     * 替换变量，没有提供值的变量保留原样
+     * @param variables 变量值
+     * @return url
+     */
+    public String expand(Map<String, ?> variables) {
+        if (0 == names.length) {
+            return template;
+        }
+        StringBuilder sb = PercentEncoder.buffer();
+        try {
+            expand(sb, variables);
+            return sb.toString();
+        } finally {
+            PercentEncoder.recycle(sb);
+        }
+    }
+
+    /**
+     * 按位置替换变量，第一个值对应{1}，第二个值对应{2}
+     * @param variables 变量值
+     * @return url
+     */
+    public String expand(Object... variables) {
+        Map<String, Object> map = new HashMap<>(variables.length * 2);
+        for (int i = 0; i < variables.length; i++) {
+            if (null != variables[i]) {
+                map.put(String.valueOf(i + 1), variables[i]);
+            }
+        }
+        return expand(map);
+    }
+
+    /**
+     * 替换变量，写入给定的缓冲区
+     * @param sb 缓冲区
+     * @param variables 变量值
+     */
+    public void expand(StringBuilder sb, Map<String, ?> variables) {
+        for (int i = 0; i < names.length; i++) {
+            sb.append(literals[i]);
+            Object value = null != variables ? variables.get(names[i]) : null;
+            if (null == value) {
+                sb.append('{').append(names[i]).append('}');
+            } else {
+                if (query[i]) {
+                    PercentEncoder.query(sb, value.toString());
+                } else {
+                    PercentEncoder.path(sb, value.toString());
+                }
+            }
+        }
+        sb.append(literals[names.length]);
+    }
+
+    /**
+     * 变量名不能包含url的分隔符
+     */
+    private static boolean name(String template, int start, int end) {
+        for (int i = start; i < end; i++) {
+            char c = template.charAt(i);
+            if ('{' == c || '/' == c || '?' == c || '&' == c || '=' == c || '#' == c || Character.isWhitespace(c)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return template;
+    }
+
+}
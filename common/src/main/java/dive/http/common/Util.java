@@ -1,13 +1,5 @@
 package dive.http.common;
 
-import java.io.UnsupportedEncodingException;
-import java.net.URLEncoder;
-import java.util.Arrays;
-import java.util.Collection;
-import java.util.LinkedList;
-import java.util.List;
-import java.util.stream.*;
-
 /**
  * 工具
  * @author dawn
@@ -20,79 +12,84 @@ class Util {
      * @return 编码后的字符串
      */
     static String encode(String s) {
-        try {
-            return URLEncoder.encode(s, "utf-8");
-        } catch (UnsupportedEncodingException e) {
-            throw new RuntimeException(e);
+        return PercentEncoder.encode(s);
+    }
+
+    /**
+     * 获取url中的主机
+     * @param url 请求url
+     * @return host[:port]，小写
+     */
+    static String host(String url) {
+        int start = url.indexOf("://");
+        start = 0 > start ? 0 : start + 3;
+        int end = url.length();
+        for (int i = start; i < url.length(); i++) {
+            char c = url.charAt(i);
+            if ('/' == c || '?' == c || '#' == c) {
+                end = i;
+                break;
+            }
+        }
+        String host = url.substring(start, end);
+        int at = host.lastIndexOf('@');
+        return (0 <= at ? host.substring(at + 1) : host).toLowerCase();
+    }
+
+    /**
+     * 获取url中的主机和路径，不含查询参数
+     * @param url 请求url
+     * @return host[:port]/path，主机小写
+     */
+    static String path(String url) {
+        int start = url.indexOf("://");
+        start = 0 > start ? 0 : start + 3;
+        int end = url.length();
+        for (int i = start; i < url.length(); i++) {
+            char c = url.charAt(i);
+            if ('?' == c || '#' == c) {
+                end = i;
+                break;
+            }
+        }
+        int slash = url.indexOf('/', start);
+        if (0 > slash || slash > end) {
+            return host(url);
         }
+        return host(url) + url.substring(slash, end);
     }
 
     /**
-     * 字符串流进行json数组格式化处理
-     * @param stream 字符串流
-     * @return json数组格式
+     * 解析Retry-After，秒数或HTTP日期
+     * @param value 响应头的值
+     * @return 等待毫秒数，无法解析为-1
      */
-    private static String toArrayString(Stream<String> stream) {
-        return "[" + stream.collect(Collectors.joining(",")) + "]";
+    static long retryAfter(String value) {
+        if (null == value) {
+            return -1;
+        }
+        double seconds = number(value);
+        if (0 <= seconds) {
+            return (long) (seconds * 1000);
+        }
+        long date = CacheEntry.date(value);
+        return 0 > date ? -1 : Math.max(0L, date - System.currentTimeMillis());
     }
 
     /**
-     * 将参数值进行格式化，主要针对数组列表集合等类型的json数组格式化处理
-     * @param o 待格式化的值
-     * @return 格式化后的请求参数的值
+     * 解析非负数，有多个值时取第一个
+     * @param value 字符串
+     * @return 数值，无法解析为-1
      */
-    @SuppressWarnings("unchecked")
-    static String formatValue(Object o) {
+    static double number(String value) {
+        int comma = value.indexOf(',');
+        String s = (0 <= comma ? value.substring(0, comma) : value).trim();
         try {
-            if (o.getClass().isArray()) {
-                switch (o.getClass().getTypeName()) {
-                    case "int[]":
-                        return toArrayString(IntStream.of((int[]) o).mapToObj(String::valueOf));
-                    case "long[]":
-                        return toArrayString(LongStream.of((long[]) o).mapToObj(String::valueOf));
-                    case "double[]":
-                        return toArrayString(DoubleStream.of((double[]) o).mapToObj(String::valueOf));
-                    case "float[]":
-                        List<Float> floats = new LinkedList<>();
-                        for (float f : (float[]) o) {
-                            floats.add(f);
-                        }
-                        return toArrayString(floats.stream().map(String::valueOf));
-                    case "char[]":
-                        List<Character> characters = new LinkedList<>();
-                        for (char c : (char[]) o) {
-                            characters.add(c);
-                        }
-                        return toArrayString(characters.stream().map(String::valueOf));
-                    case "boolean[]":
-                        List<Boolean> booleans = new LinkedList<>();
-                        for (boolean b : (boolean[]) o) {
-                            booleans.add(b);
-                        }
-                        return toArrayString(booleans.stream().map(String::valueOf));
-                    case "short[]":
-                        List<Short> shorts = new LinkedList<>();
-                        for (short s : (short[]) o) {
-                            shorts.add(s);
-                        }
-                        return toArrayString(shorts.stream().map(String::valueOf));
-                    case "byte[]":
-                        List<Byte> bytes = new LinkedList<>();
-                        for (byte b : (byte[]) o) {
-                            bytes.add(b);
-                        }
-                        return toArrayString(bytes.stream().map(String::valueOf));
-                        default:
-                }
-                return toArrayString(Arrays.stream((Object[]) o).map(Util::formatValue));
-            } else if (o instanceof Collection) {
-                return toArrayString(((Collection) o).stream().map(Util::formatValue));
-            } else {
-                return URLEncoder.encode(o.toString(), "utf-8");
-            }
-        } catch (UnsupportedEncodingException e) {
-            e.printStackTrace();
+            double number = Double.parseDouble(s);
+            return 0 <= number ? number : -1;
+        } catch (NumberFormatException e) {
+            return -1;
         }
-        return "";
     }
+
 }
@@ -0,0 +1,40 @@
+package dive.http.common;
+
+/**
+ * 请求参数值的写出方式，用于查询参数和表单
+ * 写入的内容应已编码，字符串部分可以用PercentEncoder.encode(sb, s)写入
+ * @param <T> 值类型
+ * @author dawn
+ */
+@FunctionalInterface
+public interface ValueWriter<T> {
+
+    /**
+     * 写出参数值
+     * @param sb 缓冲区
+     * @param value 参数值，不为null
+     */
+    void write(StringBuilder sb, T value);
+
+    /**
+     * 注册某类型的写出方式，对其子类同样生效，覆盖内置的方式；应在发出请求前注册
+     * @param type 类型
+     * @param writer 写出方式
+     * @param <T> 值类型
+     */
+    static <T> void register(Class<T> type, ValueWriter<? super T> writer) {
+        ValueWriters.register(type, writer);
+    }
+
+    /**
+     * 按注册的方式格式化参数值
+     * @param value 参数值
+     * @return 编码后的字符串
+     */
+    static String format(Object value) {
+        StringBuilder sb = new StringBuilder();
+        ValueWriters.write(sb, value);
+        return sb.toString();
+    }
+
+}
@@ -0,0 +1,226 @@
+package dive.http.common;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 参数值写出方式的注册表，按值的类查找并缓存
+ * 基本类型数组直接写入缓冲区，不装箱；数组和集合写为 [a,b,c]，元素按各自类型写出
+ * @author dawn
+ */
+class ValueWriters {
+
+    /**
+     * 用户注册的写出方式
+     */
+    private static final Map<Class<?>, ValueWriter<Object>> REGISTERED = new ConcurrentHashMap<>();
+
+    /**
+     * 按类缓存的查找结果，注册时换成新的缓存
+     * 注册前开始的查找可能得到旧的结果，只会写入被换掉的缓存，不会留在新的缓存中
+     */
+    private static volatile Map<Class<?>, ValueWriter<Object>> cache = new ConcurrentHashMap<>();
+
+    /**
+     * 其余类型按toString编码
+     */
+    private static final ValueWriter<Object> STRING = (sb, v) -> PercentEncoder.encode(sb, v.toString());
+
+    private static final ValueWriter<Object> OBJECTS = (sb, v) -> {
+        Object[] array = (Object[]) v;
+        sb.append('[');
+        for (int i = 0; i < array.length; i++) {
+            if (0 < i) {
+                sb.append(',');
+            }
+            write(sb, array[i]);
+        }
+        sb.append(']');
+    };
+
+    private static final ValueWriter<Object> COLLECTION = (sb, v) -> {
+        sb.append('[');
+        boolean first = true;
+        for (Object o : (Collection<?>) v) {
+            if (!first) {
+                sb.append(',');
+            }
+            first = false;
+            write(sb, o);
+        }
+        sb.append(']');
+    };
+
+    /**
+     * 内置的写出方式
+     */
+    private static final Map<Class<?>, ValueWriter<Object>> BUILTIN = new HashMap<>();
+
+    static {
+        BUILTIN.put(String.class, (sb, v) -> PercentEncoder.encode(sb, (String) v));
+        // 数字和布尔值的字符串形式只含安全字符，直接写入，不生成中间字符串
+        BUILTIN.put(Integer.class, (sb, v) -> sb.append(((Integer) v).intValue()));
+        BUILTIN.put(Long.class, (sb, v) -> sb.append(((Long) v).longValue()));
+        BUILTIN.put(Short.class, (sb, v) -> sb.append(((Short) v).intValue()));
+        BUILTIN.put(Byte.class, (sb, v) -> sb.append(((Byte) v).intValue()));
+        BUILTIN.put(Boolean.class, (sb, v) -> sb.append(((Boolean) v).booleanValue()));
+        BUILTIN.put(Double.class, (sb, v) -> sb.append(((Double) v).doubleValue()));
+        BUILTIN.put(Float.class, (sb, v) -> sb.append(((Float) v).floatValue()));
+        BUILTIN.put(int[].class, (sb, v) -> {
+            int[] array = (int[]) v;
+            sb.append('[');
+            for (int i = 0; i < array.length; i++) {
+                (0 < i ? sb.append(',') : sb).append(array[i]);
+            }
+            sb.append(']');
+        });
+        BUILTIN.put(long[].class, (sb, v) -> {
+            long[] array = (long[]) v;
+            sb.append('[');
+            for (int i = 0; i < array.length; i++) {
+                (0 < i ? sb.append(',') : sb).append(array[i]);
+            }
+            sb.append(']');
+        });
+        BUILTIN.put(double[].class, (sb, v) -> {
+            double[] array = (double[]) v;
+            sb.append('[');
+            for (int i = 0; i < array.length; i++) {
+                (0 < i ? sb.append(',') : sb).append(array[i]);
+            }
+            sb.append(']');
+        });
+        BUILTIN.put(float[].class, (sb, v) -> {
+            float[] array = (float[]) v;
+            sb.append('[');
+            for (int i = 0; i < array.length; i++) {
+                (0 < i ? sb.append(',') : sb).append(array[i]);
+            }
+            sb.append(']');
+        });
+        BUILTIN.put(short[].class, (sb, v) -> {
+            short[] array = (short[]) v;
+            sb.append('[');
+            for (int i = 0; i < array.length; i++) {
+                (0 < i ? sb.append(',') : sb).append(array[i]);
+            }
+            sb.append(']');
+        });
+        BUILTIN.put(byte[].class, (sb, v) -> {
+            byte[] array = (byte[]) v;
+            sb.append('[');
+            for (int i = 0; i < array.length; i++) {
+                (0 < i ? sb.append(',') : sb).append(array[i]);
+            }
+            sb.append(']');
+        });
+        BUILTIN.put(boolean[].class, (sb, v) -> {
+            boolean[] array = (boolean[]) v;
+            sb.append('[');
+            for (int i = 0; i < array.length; i++) {
+                (0 < i ? sb.append(',') : sb).append(array[i]);
+            }
+            sb.append(']');
+        });
+        // 每个字符与Character一样编码
+        BUILTIN.put(char[].class, (sb, v) -> {
+            char[] array = (char[]) v;
+            sb.append('[');
+            for (int i = 0; i < array.length; i++) {
+                PercentEncoder.encode(0 < i ? sb.append(',') : sb, array[i]);
+            }
+            sb.append(']');
+        });
+    }
+
+    private ValueWriters() {}
+
+    @SuppressWarnings("unchecked")
+    static synchronized <T> void register(Class<T> type, ValueWriter<? super T> writer) {
+        REGISTERED.put(type, (ValueWriter<Object>) writer);
+        cache = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * 写出参数值
+     * @param sb 缓冲区
+     * @param value 参数值，null写为"null"
+     */
+    static void write(StringBuilder sb, Object value) {
+        if (null == value) {
+            sb.append("null");
+            return;
+        }
+        Class<?> type = value.getClass();
+        Map<Class<?>, ValueWriter<Object>> cache = ValueWriters.cache;
+        ValueWriter<Object> writer = cache.get(type);
+        if (null == writer) {
+            writer = find(type);
+            cache.put(type, writer);
+        }
+        writer.write(sb, value);
+    }
+
+    /**
+     * 查找写出方式：注册的类型及其父类和接口优先，其次是内置类型、数组和集合
+     */
+    private static ValueWriter<Object> find(Class<?> type) {
+        if (!REGISTERED.isEmpty()) {
+            ValueWriter<Object> writer = registered(type);
+            if (null != writer) {
+                return writer;
+            }
+        }
+        ValueWriter<Object> writer = BUILTIN.get(type);
+        if (null != writer) {
+            return writer;
+        }
+        if (type.isArray()) {
+            return OBJECTS;
+        }
+        if (Collection.class.isAssignableFrom(type)) {
+            return COLLECTION;
+        }
+        return STRING;
+    }
+
+    /**
+     * 按类、父类、接口的顺序查找注册的写出方式
+     */
+    private static ValueWriter<Object> registered(Class<?> type) {
+        for (Class<?> c = type; null != c; c = c.getSuperclass()) {
+            ValueWriter<Object> writer = REGISTERED.get(c);
+            if (null != writer) {
+                return writer;
+            }
+        }
+        Set<Class<?>> seen = new HashSet<>();
+        Deque<Class<?>> queue = new ArrayDeque<>();
+        for (Class<?> c = type; null != c; c = c.getSuperclass()) {
+            for (Class<?> i : c.getInterfaces()) {
+                queue.add(i);
+            }
+        }
+        while (!queue.isEmpty()) {
+            Class<?> i = queue.poll();
+            if (!seen.add(i)) {
+                continue;
+            }
+            ValueWriter<Object> writer = REGISTERED.get(i);
+            if (null != writer) {
+                return writer;
+            }
+            for (Class<?> parent : i.getInterfaces()) {
+                queue.add(parent);
+            }
+        }
+        return null;
+    }
+
+}
@@ -0,0 +1,69 @@
+package dive.http.common;
+
+import java.nio.file.Path;
+import java.util.Objects;
+import java.util.concurrent.Executor;
+
+/**
+ * 阻塞实现的异步请求改为在虚拟线程中调用其同步请求，每个请求一个虚拟线程，不受线程池大小限制
+ * 适用于ClientHttp、SpringHttp、mime.MimeHttp等阻塞实现，批量请求executeAll/executeEach同样经过虚拟线程
+ * java 21以下没有虚拟线程，使用默认的有界线程池，与直接使用被包装的实现相同
+ * 同步请求仍在调用线程中执行
+ * @author dawn
+ */
+public class VirtualHttp extends BaseMimeHttp {
+
+    /**
+     * 实际执行请求的对象
+     */
+    private final MimeHttp http;
+
+    /**
+     * 构造器
+     * @param http 实际执行请求的对象
+     */
+    public VirtualHttp(MimeHttp http) {
+        this.http = Objects.requireNonNull(http, "http");
+        this.executor = VirtualThreads.executor();
+    }
+
+    /**
+     * 当前jdk是否支持虚拟线程
+     * @return java 21及以上为true
+     */
+    public static boolean supported() {
+        return VirtualThreads.supported();
+    }
+
+    /**
+     * 每个任务一个虚拟线程的执行器，也可以直接设置给阻塞实现：http.executor(VirtualHttp.virtualExecutor())
+     * @return 执行器，不支持时为null，设置null时保持默认的线程池
+     */
+    public static Executor virtualExecutor() {
+        return VirtualThreads.executor();
+    }
+
+    @Override
+    public String execute(MimeRequest request, Detail detail) {
+        return http.execute(request, detail);
+    }
+
+    @Override
+    public <R> R executeStream(MimeRequest request, Receiver<R> receiver, Detail detail) {
+        return http.executeStream(request, receiver, detail);
+    }
+
+    @Override
+    public Long downloadTo(MimeRequest request, Path path, Detail detail) {
+        return http.downloadTo(request, path, detail);
+    }
+
+    /**
+     * 被包装的实现
+     * @return 实际执行请求的对象
+     */
+    public MimeHttp getHttp() {
+        return http;
+    }
+
+}
@@ -0,0 +1,30 @@
+package dive.http.common;
+
+import java.util.concurrent.Executor;
+
+/**
+ * 虚拟线程，java 21以下没有虚拟线程
+ * java 21的实现位于src/main/java21，打包到多版本jar的META-INF/versions/21
+ * @author dawn
+ */
+final class VirtualThreads {
+
+    private VirtualThreads() {}
+
+    /**
+     * 当前jdk是否支持虚拟线程
+     * @return 是否支持
+     */
+    static boolean supported() {
+        return false;
+    }
+
+    /**
+     * 每个任务一个虚拟线程的执行器
+     * @return 不支持时为null
+     */
+    static Executor executor() {
+        return null;
+    }
+
+}
@@ -0,0 +1,231 @@
+package dive.http.common.model;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Objects;
+
+/**
+ * 二进制请求体，发送时才打开数据源，不需要把请求体整体读入内存
+ * 长度已知时按固定长度发送，未知(-1)时按分块传输发送
+ * @author dawn
+ */
+public class Content {
+
+    /**
+     * 默认类型
+     */
+    public static final String OCTET_STREAM = "application/octet-stream";
+
+    /**
+     * 数据源
+     */
+    private final Source source;
+
+    /**
+     * 长度，-1表示未知
+     */
+    private final long length;
+
+    /**
+     * 类型
+     */
+    private final String type;
+
+    /**
+     * 文件路径，数据来自文件时不为null
+     */
+    private final Path path;
+
+    private Content(Source source, long length, String type, Path path) {
+        this.source = Objects.requireNonNull(source, "source");
+        this.length = length;
+        this.type = null != type ? type : OCTET_STREAM;
+        this.path = path;
+    }
+
+    /**
+     * 字节数组请求体
+     * @param bytes 字节数组
+     * @param type 类型
+     * @return 请求体
+     */
+    public static Content of(byte[] bytes, String type) {
+        Objects.requireNonNull(bytes, "bytes");
+        return new Content(() -> new ByteArrayInputStream(bytes), bytes.length, type, null);
+    }
+
+    /**
+     * 字节数组请求体
+     * @param bytes 字节数组
+     * @return 请求体
+     */
+    public static Content of(byte[] bytes) {
+        return of(bytes, null);
+    }
+
+    /**
+     * ByteBuffer请求体，发送position到limit之间的数据，不改变原buffer的位置
+     * @param buffer 缓冲区
+     * @param type 类型
+     * @return 请求体
+     */
+    public static Content of(ByteBuffer buffer, String type) {
+        Objects.requireNonNull(buffer, "buffer");
+        return new Content(() -> new BufferInputStream(buffer.duplicate()), buffer.remaining(), type, null);
+    }
+
+    /**
+     * ByteBuffer请求体
+     * @param buffer 缓冲区
+     * @return 请求体
+     */
+    public static Content of(ByteBuffer buffer) {
+        return of(buffer, null);
+    }
+
+    /**
+     * 文件请求体
+     * @param path 文件路径
+     * @param type 类型
+     * @return 请求体
+     */
+    public static Content of(Path path, String type) {
+        Objects.requireNonNull(path, "path");
+        try {
+            return new Content(() -> Files.newInputStream(path), Files.size(path), type, path);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * 文件请求体
+     * @param path 文件路径
+     * @return 请求体
+     */
+    public static Content of(Path path) {
+        return of(path, null);
+    }
+
+    /**
+     * 输入流请求体
+     * @param source 数据源，每次发送都会重新打开
+     * @param length 长度，-1表示未知
+     * @param type 类型
+     * @return 请求体
+     */
+    public static Content of(Source source, long length, String type) {
+        return new Content(source, length, type, null);
+    }
+
+    /**
+     * 输入流请求体
+     * @param source 数据源，每次发送都会重新打开
+     * @param length 长度，-1表示未知
+     * @return 请求体
+     */
+    public static Content of(Source source, long length) {
+        return of(source, length, null);
+    }
+
+    /**
+     * 打开数据源
+     * @return 输入流，由调用方关闭
+     * @throws IOException 打开异常
+     */
+    public InputStream open() throws IOException {
+        return source.open();
+    }
+
+    /**
+     * 将数据写入输出流
+     * @param out 输出流，不会被关闭
+     * @return 写入的字节数
+     * @throws IOException 读写异常
+     */
+    public long writeTo(OutputStream out) throws IOException {
+        long count = 0;
+        try (InputStream in = source.open()) {
+            byte[] buffer = new byte[8192];
+            int n;
+            while (-1 != (n = in.read(buffer))) {
+                out.write(buffer, 0, n);
+                count += n;
+            }
+        }
+        return count;
+    }
+
+    public long getLength() {
+        return length;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    @Override
+    public String toString() {
+        return "Content{type=" + type + ", length=" + length + "}";
+    }
+
+    /**
+     * 数据源
+     */
+    @FunctionalInterface
+    public interface Source {
+
+        /**
+         * 打开输入流
+         * @return 输入流
+         * @throws IOException 打开异常
+         */
+        InputStream open() throws IOException;
+    }
+
+    /**
+     * ByteBuffer输入流
+     */
+    private static class BufferInputStream extends InputStream {
+
+        private final ByteBuffer buffer;
+
+        private BufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (0 == len) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int n = Math.min(len, buffer.remaining());
+            buffer.get(b, off, n);
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+
+}
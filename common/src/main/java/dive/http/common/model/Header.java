@@ -1,26 +1,87 @@
 package dive.http.common.model;
 
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.util.*;
 import java.util.function.BiConsumer;
-import java.util.stream.Collectors;
 
 /**
  * http请求头
+ * 键值对按顺序存放在一个数组中，键忽略大小写，常用的键统一为规范写法的同一个字符串；
+ * 作为Map使用时同名的值合并为一个列表，列表是对本对象的视图，修改列表即修改请求头
+ * 0.0.2起继承AbstractMap而不是HashMap：赋值给HashMap的代码需要改为Map，
+ * 序列化格式与之前的版本不兼容，之前版本序列化的数据反序列化时抛出InvalidClassException
  * @author dawn
  */
-public class Header extends HashMap<String, List<String>> implements Serializable {
+public class Header extends AbstractMap<String, List<String>> implements Cloneable, Serializable {
 
-    private static final long serialVersionUID = -5369345064482266035L;
+    private static final long serialVersionUID = 7608727169749763979L;
 
-    private Header() {}
+    /**
+     * 常用的键，按规范写法
+     */
+    private static final String[] COMMON = {
+            "Accept", "Accept-Charset", "Accept-Encoding", "Accept-Language", "Accept-Ranges",
+            "Access-Control-Allow-Origin", "Age", "Allow", "Alt-Svc", "Authorization",
+            "Cache-Control", "Connection", "Content-Disposition", "Content-Encoding", "Content-Language",
+            "Content-Length", "Content-Location", "Content-Range", "Content-Security-Policy", "Content-Type",
+            "Cookie", "Date", "ETag", "Expect", "Expires", "Host", "If-Match", "If-Modified-Since",
+            "If-None-Match", "If-Range", "If-Unmodified-Since", "Keep-Alive", "Last-Modified", "Link",
+            "Location", "Origin", "Pragma", "Proxy-Authenticate", "Proxy-Authorization", "Range",
+            "RateLimit-Remaining", "RateLimit-Reset", "Referer", "Retry-After", "Server", "Set-Cookie",
+            "Strict-Transport-Security", "Transfer-Encoding", "Upgrade", "User-Agent", "Vary", "Via",
+            "WWW-Authenticate", "X-Content-Type-Options", "X-Forwarded-For", "X-Frame-Options",
+            "X-RateLimit-Remaining", "X-RateLimit-Reset", "X-Requested-With"
+    };
+
+    /**
+     * 常用键的开放寻址表，按忽略大小写的hash查找，不需要转换大小写；
+     * 添加时统一为表中的字符串，查找时直接忽略大小写比较
+     */
+    private static final String[] NAMES = new String[128];
+
+    static {
+        for (String name : COMMON) {
+            int i = hash(name) & (NAMES.length - 1);
+            while (null != NAMES[i]) {
+                i = (i + 1) & (NAMES.length - 1);
+            }
+            NAMES[i] = name;
+        }
+    }
+
+    /**
+     * 键值对，2i为键，2i+1为值
+     */
+    private transient String[] slots;
+
+    /**
+     * 键值对数量
+     */
+    private transient int count;
+
+    private Header(int capacity) {
+        this.slots = new String[Math.max(capacity, 4) * 2];
+    }
 
     /**
      * 获取实例
      * @return 实例
      */
     public static Header build() {
-        return new Header();
+        return new Header(8);
+    }
+
+    /**
+     * 获取实例，预留空间
+     * @param capacity 预计的键值对数量
+     * @return 实例
+     */
+    public static Header build(int capacity) {
+        return new Header(capacity);
     }
 
     /**
@@ -30,11 +91,7 @@ public class Header extends HashMap<String, List<String>> implements Serializabl
      * @return 对象
      */
     public static Header build(String key, String value) {
-        Header header = new Header();
-        List<String> values = new LinkedList<>();
-        values.add(value);
-        header.put(key, values);
-        return header;
+        return new Header(8).add(key, value);
     }
 
     /**
@@ -43,18 +100,26 @@ public class Header extends HashMap<String, List<String>> implements Serializabl
      */
     @Override
     public int size() {
-        return super.values().stream()
-                .mapToInt(Collection::size)
-                .sum();
+        return count;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return 0 == count;
     }
 
     /**
-     * 是否包含键
+     * 是否包含键，忽略大小写
      * @param key 键
      * @return 是否包含键
      */
     public boolean containsKey(String key) {
-        return null != key && super.containsKey(key);
+        return null != key && 0 <= next(key, 0);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return key instanceof String && containsKey((String) key);
     }
 
     /**
@@ -66,30 +131,52 @@ public class Header extends HashMap<String, List<String>> implements Serializabl
         if (null == value) {
             return false;
         }
-        for (List<String> values : super.values()) {
-            for (String v : values) {
-                if (value.equals(v)) {
-                    return true;
-                }
+        for (int i = 0; i < count; i++) {
+            if (value.equals(slots[2 * i + 1])) {
+                return true;
             }
         }
         return false;
     }
 
+    @Override
+    public boolean containsValue(Object value) {
+        if (value instanceof String) {
+            return containsValue((String) value);
+        }
+        return super.containsValue(value);
+    }
+
     /**
-     * 获取值
+     * 获取值，忽略大小写
+     * 返回的列表是对本对象的视图而不是副本，之后对请求头的修改会反映在列表中；
+     * 列表的每次访问都要扫描键值对，多次访问时先复制，只需要一个值时用first(String)
      * @param key 键
-     * @return 值
+     * @return 值，不存在为null
      */
     public List<String> get(String key) {
         if (null == key) {
             return null;
         }
-        List<String> values = super.get(key);
-        if (null == values || 0 == values.size()) {
+        return 0 <= next(key, 0) ? new Values(key) : null;
+    }
+
+    @Override
+    public List<String> get(Object key) {
+        return key instanceof String ? get((String) key) : null;
+    }
+
+    /**
+     * 获取第一个值，忽略大小写，不产生额外对象
+     * @param key 键
+     * @return 值，不存在为null
+     */
+    public String first(String key) {
+        if (null == key) {
             return null;
         }
-        return values;
+        int i = next(key, 0);
+        return 0 <= i ? slots[2 * i + 1] : null;
     }
 
     /**
@@ -100,13 +187,37 @@ public class Header extends HashMap<String, List<String>> implements Serializabl
      */
     public Header put(String key, String value) {
         if (null != key && null != value) {
-            List<String> values = new LinkedList<>();
-            values.add(value);
-            super.put(key, values);
+            String name = canonical(key);
+            int i = next(name, 0);
+            if (0 > i) {
+                append(name, value);
+            } else {
+                slots[2 * i] = name;
+                slots[2 * i + 1] = value;
+                removeKey(name, i + 1);
+            }
         }
         return this;
     }
 
+    @Override
+    public List<String> put(String key, List<String> values) {
+        if (null == key) {
+            return null;
+        }
+        String name = canonical(key);
+        List<String> previous = snapshot(name);
+        removeKey(name, 0);
+        if (null != values) {
+            for (String value : values) {
+                if (null != value) {
+                    append(name, value);
+                }
+            }
+        }
+        return previous;
+    }
+
     /**
      * 添加一组键值对，若存在键，不替换
      * @param key 键
@@ -115,21 +226,36 @@ public class Header extends HashMap<String, List<String>> implements Serializabl
      */
     public Header add(String key, String value) {
         if (null != key && null != value) {
-            List<String> values = super.computeIfAbsent(key, k -> new LinkedList<>());
-            values.add(value);
+            append(canonical(key), value);
         }
         return this;
     }
 
     /**
-     * 移除键
+     * 移除键，忽略大小写
      * @param key 键
      */
     public void remove(String key) {
         if (null == key) {
             return;
         }
-        super.remove(key);
+        removeKey(key, 0);
+    }
+
+    @Override
+    public List<String> remove(Object key) {
+        if (!(key instanceof String)) {
+            return null;
+        }
+        List<String> previous = snapshot((String) key);
+        removeKey((String) key, 0);
+        return previous;
+    }
+
+    @Override
+    public void clear() {
+        Arrays.fill(slots, 0, 2 * count, null);
+        count = 0;
     }
 
     /**
@@ -137,31 +263,391 @@ public class Header extends HashMap<String, List<String>> implements Serializabl
      * @return 键值对列表
      */
     public List<Pair> pairs() {
-        return super.entrySet()
-                .stream()
-                .flatMap(e -> e.getValue().stream()
-                        .map(v -> new Pair(e.getKey(), v)))
-                .collect(Collectors.toList());
+        List<Pair> pairs = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            pairs.add(new Pair(slots[2 * i], slots[2 * i + 1]));
+        }
+        return pairs;
     }
 
     /**
-     * 遍历所有键值对
+     * 按添加顺序遍历所有键值对，不产生额外对象
      * @param action 对键值进行的操作
      */
     public void each(BiConsumer<String, String> action) {
         Objects.requireNonNull(action, "action");
-        for (Pair pair : this.pairs()) {
-            action.accept(pair.getKey(), pair.getValue());
+        for (int i = 0; i < count; i++) {
+            action.accept(slots[2 * i], slots[2 * i + 1]);
         }
     }
 
+    @Override
+    public Set<Entry<String, List<String>>> entrySet() {
+        return new Entries();
+    }
+
+    /**
+     * size()为键值对数量，键的数量以entrySet为准
+     */
+    @Override
+    public Set<String> keySet() {
+        Set<Entry<String, List<String>>> entries = entrySet();
+        return new AbstractSet<String>() {
+            @Override
+            public Iterator<String> iterator() {
+                Iterator<Entry<String, List<String>>> i = entries.iterator();
+                return new Iterator<String>() {
+                    @Override
+                    public boolean hasNext() {
+                        return i.hasNext();
+                    }
+
+                    @Override
+                    public String next() {
+                        return i.next().getKey();
+                    }
+
+                    @Override
+                    public void remove() {
+                        i.remove();
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return entries.size();
+            }
+
+            @Override
+            public boolean contains(Object key) {
+                return containsKey(key);
+            }
+        };
+    }
+
+    @Override
+    public Collection<List<String>> values() {
+        Set<Entry<String, List<String>>> entries = entrySet();
+        return new AbstractCollection<List<String>>() {
+            @Override
+            public Iterator<List<String>> iterator() {
+                Iterator<Entry<String, List<String>>> i = entries.iterator();
+                return new Iterator<List<String>>() {
+                    @Override
+                    public boolean hasNext() {
+                        return i.hasNext();
+                    }
+
+                    @Override
+                    public List<String> next() {
+                        return i.next().getValue();
+                    }
+
+                    @Override
+                    public void remove() {
+                        i.remove();
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return entries.size();
+            }
+        };
+    }
+
+    /**
+     * 复制键值对，副本与本对象互不影响
+     * @return 副本
+     */
+    @Override
+    public Header clone() {
+        Header header = new Header(count);
+        System.arraycopy(slots, 0, header.slots, 0, 2 * count);
+        header.count = count;
+        return header;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return this == o || o instanceof Map && entrySet().equals(((Map<?, ?>) o).entrySet());
+    }
+
+    @Override
+    public int hashCode() {
+        return entrySet().hashCode();
+    }
+
     @Override
     public String toString() {
-        return "Header{" +
-                this.pairs().stream()
-                        .map(p -> "\"" + p.getKey() + "\":\""
-                                + p.getValue() + "\"")
-                        .collect(Collectors.joining(","))
-                + "}";
+        StringBuilder sb = new StringBuilder("Header{");
+        for (int i = 0; i < count; i++) {
+            if (0 < i) {
+                sb.append(',');
+            }
+            sb.append('"').append(slots[2 * i]).append("\":\"").append(slots[2 * i + 1]).append('"');
+        }
+        return sb.append('}').toString();
+    }
+
+    /**
+     * 序列化为键值对数量和依次排列的键值
+     */
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        out.defaultWriteObject();
+        out.writeInt(count);
+        for (int i = 0; i < 2 * count; i++) {
+            out.writeObject(slots[i]);
+        }
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        int size = in.readInt();
+        if (0 > size) {
+            throw new InvalidObjectException("negative size: " + size);
+        }
+        // 数量来自数据流，不按它预先分配
+        slots = new String[Math.min(Math.max(size, 4), 64) * 2];
+        for (int i = 0; i < size; i++) {
+            Object name = in.readObject();
+            Object value = in.readObject();
+            if (!(name instanceof String) || !(value instanceof String)) {
+                throw new InvalidObjectException("header name and value must be strings");
+            }
+            append(canonical((String) name), (String) value);
+        }
+    }
+
+    /**
+     * 常用键返回规范写法的字符串，其余原样返回
+     * @param name 键
+     * @return 键
+     */
+    private static String canonical(String name) {
+        int i = hash(name) & (NAMES.length - 1);
+        String n;
+        while (null != (n = NAMES[i])) {
+            if (n == name || n.equalsIgnoreCase(name)) {
+                return n;
+            }
+            i = (i + 1) & (NAMES.length - 1);
+        }
+        return name;
+    }
+
+    /**
+     * 忽略大小写的hash，只取长度和首尾字符，冲突由探测解决
+     */
+    private static int hash(String name) {
+        int length = name.length();
+        if (0 == length) {
+            return 0;
+        }
+        return length * 31 + (name.charAt(0) | 0x20) * 7 + (name.charAt(length - 1) | 0x20);
+    }
+
+    private static boolean same(String a, String b) {
+        return a == b || a.equalsIgnoreCase(b);
+    }
+
+    /**
+     * 从from开始查找键
+     * @return 序号，不存在为-1
+     */
+    private int next(String name, int from) {
+        for (int i = from; i < count; i++) {
+            if (same(slots[2 * i], name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void append(String name, String value) {
+        if (slots.length == 2 * count) {
+            slots = Arrays.copyOf(slots, slots.length * 2);
+        }
+        slots[2 * count] = name;
+        slots[2 * count + 1] = value;
+        count++;
+    }
+
+    private void removeAt(int i) {
+        System.arraycopy(slots, 2 * i + 2, slots, 2 * i, 2 * (count - i - 1));
+        count--;
+        slots[2 * count] = null;
+        slots[2 * count + 1] = null;
+    }
+
+    /**
+     * 从from开始移除所有同名的键值对，原地压缩
+     */
+    private void removeKey(String name, int from) {
+        int to = from;
+        for (int i = from; i < count; i++) {
+            if (!same(slots[2 * i], name)) {
+                slots[2 * to] = slots[2 * i];
+                slots[2 * to + 1] = slots[2 * i + 1];
+                to++;
+            }
+        }
+        Arrays.fill(slots, 2 * to, 2 * count, null);
+        count = to;
+    }
+
+    private List<String> snapshot(String name) {
+        List<String> values = null;
+        for (int i = next(name, 0); 0 <= i; i = next(name, i + 1)) {
+            if (null == values) {
+                values = new ArrayList<>(2);
+            }
+            values.add(slots[2 * i + 1]);
+        }
+        return values;
+    }
+
+    /**
+     * 同名的值，对请求头的视图
+     */
+    private final class Values extends AbstractList<String> {
+
+        private final String name;
+
+        Values(String name) {
+            this.name = name;
+        }
+
+        /**
+         * 第index个同名值的位置
+         */
+        private int slot(int index) {
+            int i = next(name, 0);
+            for (int n = 0; n < index && 0 <= i; n++) {
+                i = next(name, i + 1);
+            }
+            if (0 > index || 0 > i) {
+                throw new IndexOutOfBoundsException("Index: " + index);
+            }
+            return i;
+        }
+
+        @Override
+        public String get(int index) {
+            return slots[2 * slot(index) + 1];
+        }
+
+        @Override
+        public int size() {
+            int size = 0;
+            for (int i = 0; i < count; i++) {
+                if (same(slots[2 * i], name)) {
+                    size++;
+                }
+            }
+            return size;
+        }
+
+        @Override
+        public String set(int index, String value) {
+            Objects.requireNonNull(value, "value");
+            int i = slot(index);
+            String old = slots[2 * i + 1];
+            slots[2 * i + 1] = value;
+            return old;
+        }
+
+        @Override
+        public boolean add(String value) {
+            Objects.requireNonNull(value, "value");
+            append(name, value);
+            return true;
+        }
+
+        @Override
+        public String remove(int index) {
+            int i = slot(index);
+            String old = slots[2 * i + 1];
+            removeAt(i);
+            return old;
+        }
+    }
+
+    /**
+     * 迭代得到的键值对，setValue写回所属的Header
+     */
+    private static final class HeaderEntry extends SimpleEntry<String, List<String>> {
+
+        private static final long serialVersionUID = 3171460255612487015L;
+
+        private final Header header;
+
+        HeaderEntry(Header header, String name, List<String> values) {
+            super(name, values);
+            this.header = header;
+        }
+
+        @Override
+        public List<String> setValue(List<String> value) {
+            return header.put(getKey(), value);
+        }
+    }
+
+    /**
+     * 按键分组的视图，每个键只出现一次，顺序为键第一次出现的顺序
+     */
+    private final class Entries extends AbstractSet<Entry<String, List<String>>> {
+
+        /**
+         * 不重复的键，按第一次出现的顺序
+         */
+        private List<String> names() {
+            List<String> names = new ArrayList<>(count);
+            Set<String> seen = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+            for (int i = 0; i < count; i++) {
+                String name = slots[2 * i];
+                if (seen.add(name)) {
+                    names.add(name);
+                }
+            }
+            return names;
+        }
+
+        @Override
+        public int size() {
+            return names().size();
+        }
+
+        @Override
+        public Iterator<Entry<String, List<String>>> iterator() {
+            Iterator<String> names = names().iterator();
+            return new Iterator<Entry<String, List<String>>>() {
+
+                private String current;
+
+                @Override
+                public boolean hasNext() {
+                    return names.hasNext();
+                }
+
+                @Override
+                public Entry<String, List<String>> next() {
+                    String name = names.next();
+                    current = name;
+                    return new HeaderEntry(Header.this, name, new Values(name));
+                }
+
+                @Override
+                public void remove() {
+                    if (null == current) {
+                        throw new IllegalStateException();
+                    }
+                    removeKey(current, 0);
+                    current = null;
+                }
+            };
+        }
     }
 }
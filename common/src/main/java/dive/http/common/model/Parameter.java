@@ -1,5 +1,7 @@
 package dive.http.common.model;
 
+import dive.http.common.PercentEncoder;
+
 import java.io.Serializable;
 import java.util.*;
 import java.util.function.Function;
@@ -81,15 +83,17 @@ public class Parameter extends LinkedHashMap<String, Object> implements Serializ
         if (null == encode) {
             encode = Object::toString;
         }
-        StringBuilder sb = new StringBuilder();
-        Function<Object, String> finalEncode = encode;
-        this.forEach((k, v) -> sb.append(k).append(delimiter)
-                .append(finalEncode.apply(v)).append(join));
-        String result = sb.toString();
-        if (0 < sb.length()) {
-            result = result.substring(0, result.length() - join.length());
+        // 编码函数可能使用线程内的缓冲区，这里单独创建
+        StringBuilder sb = new StringBuilder(size() * 16);
+        boolean first = true;
+        for (Map.Entry<String, Object> entry : entrySet()) {
+            if (!first) {
+                sb.append(join);
+            }
+            first = false;
+            sb.append(entry.getKey()).append(delimiter).append(encode.apply(entry.getValue()));
         }
-        return result;
+        return sb.toString();
     }
 
     /**
@@ -109,6 +113,14 @@ public class Parameter extends LinkedHashMap<String, Object> implements Serializ
         return concat("=", "&", null);
     }
 
+    /**
+     * 按application/x-www-form-urlencoded编码，键和值都会编码，值为null的参数跳过
+     * @return 编码结果
+     */
+    public String form() {
+        return PercentEncoder.form(this);
+    }
+
     /**
      * 转换json格式
      * @param function 转换函数
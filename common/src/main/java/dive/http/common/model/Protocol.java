@@ -0,0 +1,20 @@
+package dive.http.common.model;
+
+/**
+ * 协议版本
+ * @author dawn
+ */
+public enum Protocol {
+    /**
+     * http/1.1
+     */
+    HTTP_1_1,
+    /**
+     * http/2，https通过ALPN协商，各实现对不支持http/2的服务端处理不同
+     */
+    HTTP_2,
+    /**
+     * 明文http/2，不经协商直接使用(prior knowledge)，服务端必须支持h2c
+     */
+    H2C
+}
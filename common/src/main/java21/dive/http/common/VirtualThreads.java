@@ -0,0 +1,40 @@
+package dive.http.common;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * 虚拟线程，java 21实现，打包到多版本jar的META-INF/versions/21
+ * @author dawn
+ */
+final class VirtualThreads {
+
+    private VirtualThreads() {}
+
+    /**
+     * 当前jdk是否支持虚拟线程
+     * @return 是否支持
+     */
+    static boolean supported() {
+        return true;
+    }
+
+    /**
+     * 每个任务一个虚拟线程的执行器，所有实例共享，虚拟线程不需要关闭执行器回收
+     * @return 执行器
+     */
+    static Executor executor() {
+        return Holder.EXECUTOR;
+    }
+
+    /**
+     * 首次使用时才创建
+     */
+    private static class Holder {
+
+        private static final ExecutorService EXECUTOR = Executors.newThreadPerTaskExecutor(
+                Thread.ofVirtual().name("dive-http-virtual-", 1).factory());
+    }
+
+}
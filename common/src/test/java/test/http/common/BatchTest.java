@@ -0,0 +1,102 @@
+package test.http.common;
+
+import dive.http.common.Batch;
+import dive.http.common.MimeRequest;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static test.http.common.StubHttp.get;
+
+public class BatchTest {
+
+    private final StubHttp backend = new StubHttp();
+
+    @Test
+    public void testSuccessByCode() {
+        backend.reply(200).reply(408, null, "timeout").reply(204, null, "").fail(new AssertionError("boom"));
+        List<Batch.Result> results = backend.executeAll(requests("a", 4), Batch.of(2));
+        Assert.assertEquals(4, results.size());
+        Assert.assertTrue(results.get(0).isSuccess());
+        Assert.assertEquals("r-1", results.get(0).getResult());
+        // 有响应体的408是失败，空响应体的204是成功
+        Assert.assertFalse(results.get(1).isSuccess());
+        Assert.assertEquals(408, (int) results.get(1).getCode());
+        Assert.assertTrue(results.get(2).isSuccess());
+        Assert.assertEquals("", results.get(2).getResult());
+        // executeAsync抛出的Error计为失败，批量请求仍能结束
+        Assert.assertFalse(results.get(3).isSuccess());
+        Assert.assertTrue(results.get(3).getError() instanceof AssertionError);
+        for (int i = 0; i < results.size(); i++) {
+            Assert.assertEquals(i, results.get(i).getIndex());
+        }
+    }
+
+    @Test
+    public void testFailFast() {
+        backend.reply(200, 500, 200, 200);
+        AtomicInteger called = new AtomicInteger();
+        Batch batch = Batch.builder().concurrency(1).failFast()
+                .detail((url, method, request, body, code, response, result) -> called.incrementAndGet())
+                .build();
+        try {
+            backend.executeAll(requests("a", 4), batch);
+            Assert.fail();
+        } catch (Batch.FailedException e) {
+            Assert.assertEquals(1, e.getResult().getIndex());
+            Assert.assertEquals(500, (int) e.getResult().getCode());
+        }
+        Assert.assertEquals(2, called.get());
+    }
+
+    @Test
+    public void testReceiverException() {
+        List<String> errors = new ArrayList<>();
+        backend.error(errors::add);
+        AtomicInteger received = new AtomicInteger();
+        backend.executeEach(requests("a", 3), Batch.of(1), r -> {
+            received.incrementAndGet();
+            throw new IllegalStateException("receiver");
+        }).join();
+        Assert.assertEquals(3, received.get());
+        Assert.assertEquals(3, errors.size());
+    }
+
+    /**
+     * 请求完成后才发出下一个，总并发数和每个主机的并发数都不超过限制
+     */
+    @Test
+    public void testConcurrency() {
+        backend.manual();
+        List<MimeRequest> requests = requests("a", 6);
+        requests.addAll(requests("b", 4));
+        Batch batch = Batch.builder().concurrency(3).maxPerHost("a", 1).build();
+        CompletableFuture<Void> done = backend.executeEach(requests, batch, r -> {});
+        for (int i = 0; i < requests.size(); i++) {
+            Assert.assertFalse(done.isDone());
+            backend.call(i).complete("ok");
+        }
+        Assert.assertTrue(done.isDone());
+        Assert.assertEquals(requests.size(), backend.getPending());
+        Assert.assertEquals(3, backend.getMaxRunning());
+        Assert.assertEquals(1, backend.getMaxRunning("a"));
+    }
+
+    @Test
+    public void testEmpty() {
+        Assert.assertTrue(backend.executeAll(new ArrayList<>(), Batch.of(1)).isEmpty());
+    }
+
+    private static List<MimeRequest> requests(String host, int count) {
+        List<MimeRequest> requests = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            requests.add(get("http://" + host + "/" + i));
+        }
+        return requests;
+    }
+
+}
@@ -0,0 +1,76 @@
+package test.http.common;
+
+import dive.http.common.BodyDecoder;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class BodyDecoderTest {
+
+    private static final BodyDecoder<String> LINE = BodyDecoder.reader(reader -> new BufferedReader(reader).readLine());
+
+    @Test
+    public void testDecode() {
+        StubHttp http = new StubHttp().reply(200, null, "hello\nworld");
+        List<Integer> codes = new ArrayList<>();
+        String line = http.decode(StubHttp.get(), LINE, (url, method, request, body, code, response, result) -> codes.add(code));
+        Assert.assertEquals("hello", line);
+        Assert.assertEquals(1, codes.size());
+        Assert.assertEquals(200, codes.get(0).intValue());
+    }
+
+    @Test
+    public void testCharset() throws IOException {
+        Charset gbk = Charset.forName("GBK");
+        byte[] bytes = "你好".getBytes(gbk);
+        Assert.assertEquals("你好", LINE.decode(bytes, gbk));
+        Assert.assertNotEquals("你好", LINE.decode(bytes, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 错误响应不交给解码器，只回调响应码
+     */
+    @Test
+    public void testErrorNotDecoded() {
+        StubHttp http = new StubHttp().reply(404, null, "not found").reply(302, null, "moved");
+        AtomicInteger decoded = new AtomicInteger();
+        BodyDecoder<String> decoder = (body, charset) -> {
+            decoded.incrementAndGet();
+            return LINE.decode(body, charset);
+        };
+        List<Integer> codes = new ArrayList<>();
+        Assert.assertNull(http.decode(StubHttp.get(), decoder, (url, method, request, body, code, response, result) -> codes.add(code)));
+        Assert.assertNull(http.decode(StubHttp.get(), decoder, (url, method, request, body, code, response, result) -> codes.add(code)));
+        Assert.assertEquals(0, decoded.get());
+        Assert.assertEquals("[404, 302]", codes.toString());
+        Assert.assertEquals("r-3", http.decode(StubHttp.get(), decoder, null));
+        Assert.assertEquals(1, decoded.get());
+    }
+
+    @Test
+    public void testDecodeError() {
+        List<String> errors = new ArrayList<>();
+        StubHttp http = new StubHttp();
+        http.error(errors::add);
+        Assert.assertNull(http.decode(StubHttp.get(), (body, charset) -> {
+            throw new IOException("bad body");
+        }, null));
+        Assert.assertEquals(1, errors.size());
+    }
+
+    @Test
+    public void testDecodeAsync() throws Exception {
+        StubHttp http = new StubHttp().reply(200, null, "async").reply(500, null, "boom");
+        Assert.assertEquals("async", http.decodeAsync(StubHttp.get(), LINE, null).get(5, TimeUnit.SECONDS));
+        Assert.assertNull(http.decodeAsync(StubHttp.get(), LINE, null).get(5, TimeUnit.SECONDS));
+    }
+
+}
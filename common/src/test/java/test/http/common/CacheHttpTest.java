@@ -0,0 +1,165 @@
+package test.http.common;
+
+import dive.http.common.BaseMimeHttp;
+import dive.http.common.CacheHttp;
+import dive.http.common.Detail;
+import dive.http.common.MimeRequest;
+import dive.http.common.model.Header;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class CacheHttpTest {
+
+    private static final String URL = "http://localhost/cache";
+
+    private final AtomicInteger calls = new AtomicInteger();
+
+    private final BaseMimeHttp backend = new BaseMimeHttp() {
+        @Override
+        public String execute(MimeRequest request, Detail detail) {
+            String result = "body-" + calls.incrementAndGet() + "-中文";
+            if (null != detail) {
+                detail.accept(request.getUrl(), request.getMethod(), request.getHeader(), null,
+                        200, Header.build("Cache-Control", "max-age=60").add("ETag", "\"1\""), result);
+            }
+            return result;
+        }
+    };
+
+    private Path dir;
+
+    @Before
+    public void before() throws IOException {
+        dir = Files.createTempDirectory("dive-http-cache");
+    }
+
+    @After
+    public void after() throws IOException {
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+            for (Path path : stream) {
+                Files.delete(path);
+            }
+        }
+        Files.delete(dir);
+    }
+
+    /**
+     * 内存只能放下很少的缓存，淘汰的缓存写入磁盘后仍能命中，新的实例也能读取磁盘中的缓存
+     */
+    @Test
+    public void testDisk() throws Exception {
+        CacheHttp http = CacheHttp.builder(backend).memory(1).disk(dir, 1L << 20).build();
+        String first = http.execute(get(URL));
+        http.execute(get(URL + "/other"));
+        Assert.assertEquals(first, http.execute(get(URL)));
+        Assert.assertEquals(2, calls.get());
+
+        CacheHttp reopened = CacheHttp.builder(backend).memory(1).disk(dir, 1L << 20).build();
+        Assert.assertEquals("body-2-中文", reopened.execute(get(URL + "/other")));
+        Assert.assertEquals(2, calls.get());
+        Assert.assertEquals(1, reopened.getHits());
+    }
+
+    /**
+     * 目录中同名但不是缓存格式的文件(例如java序列化的对象)不会被反序列化，视为未命中并删除
+     */
+    @Test
+    public void testForeignFile() throws Exception {
+        Path path = dir.resolve(name(URL));
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(new ArrayList<>());
+        }
+        Files.write(path, bytes.toByteArray());
+
+        CacheHttp http = CacheHttp.builder(backend).memory(1).disk(dir, 1L << 20).build();
+        Assert.assertEquals("body-1-中文", http.execute(get(URL)));
+        Assert.assertEquals(1, calls.get());
+        Assert.assertEquals(0, http.getHits());
+    }
+
+    @Test
+    public void testDiskLimit() throws Exception {
+        CacheHttp http = CacheHttp.builder(backend).memory(1).disk(dir, 1).build();
+        http.execute(get(URL));
+        http.execute(get(URL));
+        Assert.assertEquals(2, calls.get());
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "*.cache")) {
+            Assert.assertFalse(stream.iterator().hasNext());
+        }
+    }
+
+    /**
+     * 并发的淘汰转存、读回和清空之后，磁盘上不留下过期的缓存文件和临时文件，之后的请求全部未命中
+     */
+    @Test
+    public void testConcurrentClear() throws Exception {
+        CacheHttp http = CacheHttp.builder(backend).memory(1).disk(dir, 1L << 20).build();
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        AtomicBoolean stop = new AtomicBoolean();
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                int n = i;
+                futures.add(pool.submit(() -> {
+                    for (int j = 0; !stop.get(); j++) {
+                        http.execute(get(URL + "/" + (n + j) % 4));
+                    }
+                }));
+            }
+            for (int i = 0; i < 200; i++) {
+                http.clear();
+                Thread.sleep(1);
+            }
+            stop.set(true);
+            for (Future<?> future : futures) {
+                future.get(10, TimeUnit.SECONDS);
+            }
+        } finally {
+            stop.set(true);
+            pool.shutdown();
+        }
+        http.clear();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+            Assert.assertFalse(stream.iterator().hasNext());
+        }
+        int before = calls.get();
+        for (int i = 0; i < 4; i++) {
+            http.execute(get(URL + "/" + i));
+        }
+        Assert.assertEquals(before + 4, calls.get());
+    }
+
+    private static MimeRequest get(String url) {
+        return MimeRequest.builder().url(url).get().build();
+    }
+
+    private static String name(String key) throws Exception {
+        byte[] digest = MessageDigest.getInstance("SHA-256").digest(key.getBytes(StandardCharsets.UTF_8));
+        StringBuilder sb = new StringBuilder();
+        for (byte b : digest) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.append(".cache").toString();
+    }
+
+}
@@ -0,0 +1,145 @@
+package test.http.common;
+
+import dive.http.common.CircuitBreakerHttp;
+import dive.http.common.CircuitBreakerHttp.State;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static test.http.common.StubHttp.HOST;
+import static test.http.common.StubHttp.get;
+
+public class CircuitBreakerHttpTest {
+
+    private final StubHttp backend = new StubHttp().manual();
+
+    private final List<String> transitions = new ArrayList<>();
+
+    private CircuitBreakerHttp.Builder builder() {
+        return CircuitBreakerHttp.builder(backend)
+                .window(4, 4)
+                .failureRate(0.5)
+                .open(200, TimeUnit.MILLISECONDS, 2)
+                .listener((host, from, to) -> {
+                    synchronized (transitions) {
+                        transitions.add(host + ":" + from + "->" + to);
+                    }
+                });
+    }
+
+    /**
+     * 失败比例达到阈值后熔断，熔断期间不发出请求，按503 CIRCUIT OPEN经过回调
+     */
+    @Test
+    public void testOpen() {
+        CircuitBreakerHttp http = builder().open(10, TimeUnit.SECONDS, 2).build();
+        backend.reply(200, 500, 200);
+        for (int i = 0; i < 3; i++) {
+            http.execute(get());
+        }
+        Assert.assertEquals(State.CLOSED, http.state(HOST));
+        backend.fail(new IllegalStateException("bug"));
+        try {
+            http.execute(get());
+            Assert.fail();
+        } catch (IllegalStateException e) {
+            Assert.assertEquals(State.OPEN, http.state(HOST));
+        }
+        List<Integer> rejected = new ArrayList<>();
+        String result = http.execute(get(), (url, method, request, body, code, response, r) -> rejected.add(code));
+        Assert.assertEquals("503 CIRCUIT OPEN", result);
+        Assert.assertEquals(Arrays.asList(503), rejected);
+        // 状态按请求时的主机取值，大小写和url都可以
+        Assert.assertEquals(State.OPEN, http.state("API.Example.com"));
+        Assert.assertEquals(State.OPEN, http.state(StubHttp.URL));
+        Assert.assertEquals(4, backend.getCalls());
+        Assert.assertEquals(1, http.getRejected());
+        // 其他主机不受影响
+        Assert.assertEquals("r-5", http.execute(get("http://other.example.com/")));
+        Assert.assertEquals(Arrays.asList(HOST + ":CLOSED->OPEN"), transitions);
+    }
+
+    /**
+     * 4xx中只有408计为失败，窗口内失败比例不足时不熔断
+     */
+    @Test
+    public void testBelowThreshold() {
+        CircuitBreakerHttp http = builder().build();
+        backend.reply(404, 500, 200, 401, 429, 408, 200, 200);
+        for (int i = 0; i < 8; i++) {
+            http.execute(get());
+        }
+        Assert.assertEquals(State.CLOSED, http.state(HOST));
+        Assert.assertEquals(8, backend.getCalls());
+    }
+
+    @Test
+    public void testHalfOpen() throws Exception {
+        CircuitBreakerHttp http = builder().build();
+        backend.reply(500, 500, 500, 500);
+        for (int i = 0; i < 4; i++) {
+            http.execute(get());
+        }
+        Assert.assertEquals(State.OPEN, http.state(HOST));
+        Thread.sleep(250);
+        // 探测失败，继续熔断
+        backend.reply(503);
+        http.execute(get());
+        Assert.assertEquals(State.OPEN, http.state(HOST));
+        Assert.assertEquals("503 CIRCUIT OPEN", http.execute(get()));
+        Thread.sleep(250);
+        // 探测全部成功，恢复
+        http.execute(get());
+        Assert.assertEquals(State.HALF_OPEN, http.state(HOST));
+        http.execute(get());
+        Assert.assertEquals(State.CLOSED, http.state(HOST));
+        Assert.assertEquals(Arrays.asList(
+                HOST + ":CLOSED->OPEN",
+                HOST + ":OPEN->HALF_OPEN",
+                HOST + ":HALF_OPEN->OPEN",
+                HOST + ":OPEN->HALF_OPEN",
+                HOST + ":HALF_OPEN->CLOSED"), transitions);
+    }
+
+    @Test
+    public void testSlowCalls() {
+        CircuitBreakerHttp http = builder().slowCall(10, TimeUnit.MILLISECONDS, 0.5).build();
+        backend.delay(20);
+        for (int i = 0; i < 4; i++) {
+            http.execute(get());
+        }
+        Assert.assertEquals(State.OPEN, http.state(HOST));
+    }
+
+    /**
+     * 半开状态只放行指定数量的探测请求，取消的探测请求归还名额
+     */
+    @Test
+    public void testProbes() throws Exception {
+        CircuitBreakerHttp http = builder().build();
+        backend.reply(500, 500, 500, 500);
+        for (int i = 0; i < 4; i++) {
+            http.execute(get());
+        }
+        Thread.sleep(250);
+        CompletableFuture<String> first = http.executeAsync(get());
+        CompletableFuture<String> second = http.executeAsync(get());
+        Assert.assertEquals("503 CIRCUIT OPEN", http.executeAsync(get()).join());
+        Assert.assertEquals(6, backend.getCalls());
+
+        first.cancel(true);
+        CompletableFuture<String> third = http.executeAsync(get());
+        Assert.assertEquals(7, backend.getCalls());
+        backend.call(1).complete("ok");
+        backend.call(2).complete("ok");
+        Assert.assertEquals("ok", second.join());
+        Assert.assertEquals("ok", third.join());
+        Assert.assertEquals(State.CLOSED, http.state(HOST));
+    }
+
+}
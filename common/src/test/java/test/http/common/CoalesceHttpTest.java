@@ -0,0 +1,108 @@
+package test.http.common;
+
+import dive.http.common.CoalesceHttp;
+import dive.http.common.Detail;
+import dive.http.common.MimeRequest;
+import dive.http.common.model.Header;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import static test.http.common.StubHttp.URL;
+import static test.http.common.StubHttp.get;
+
+public class CoalesceHttpTest {
+
+    private final StubHttp backend = new StubHttp().manual();
+
+    @Test
+    public void testAsyncShared() {
+        CoalesceHttp http = new CoalesceHttp(backend);
+        List<Header> headers = new ArrayList<>();
+        Detail detail = (url, method, request, body, code, response, result) -> {
+            Assert.assertEquals(200, (int) code);
+            headers.add(response);
+        };
+        CompletableFuture<String> a = http.executeAsync(get(), detail);
+        CompletableFuture<String> b = http.executeAsync(get(), detail);
+        CompletableFuture<String> c = http.executeAsync(get(), detail);
+        Assert.assertEquals(1, backend.getCalls());
+        Assert.assertEquals(2, http.getCoalesced());
+        Assert.assertEquals(1, http.getInFlight());
+
+        backend.call(0).complete(200, Header.build("X-N", "1"), "async");
+        Assert.assertEquals("async", a.join());
+        Assert.assertEquals("async", b.join());
+        Assert.assertEquals("async", c.join());
+        Assert.assertEquals(0, http.getInFlight());
+        // 每个等待者得到各自的响应头副本
+        Assert.assertEquals(3, headers.size());
+        Assert.assertNotSame(headers.get(0), headers.get(1));
+        Assert.assertEquals(headers.get(0), headers.get(2));
+
+        // 完成后的相同请求重新发出
+        http.executeAsync(get(), null);
+        Assert.assertEquals(2, backend.getCalls());
+    }
+
+    @Test
+    public void testKey() {
+        CoalesceHttp http = new CoalesceHttp(backend, "Authorization");
+        http.executeAsync(MimeRequest.builder().url(URL).get().header("Authorization", "a").build(), null);
+        http.executeAsync(MimeRequest.builder().url(URL).get().header("Authorization", "b").build(), null);
+        http.executeAsync(MimeRequest.builder().url(URL).get().header("Authorization", "a")
+                .header("Accept", "text/plain").build(), null);
+        http.executeAsync(get(URL + "?x=1"), null);
+        http.executeAsync(MimeRequest.builder().url(URL).post().body("x", "1").build(), null);
+        http.executeAsync(MimeRequest.builder().url(URL).post().body("x", "1").build(), null);
+        Assert.assertEquals(5, backend.getCalls());
+        Assert.assertEquals(1, http.getCoalesced());
+    }
+
+    @Test
+    public void testFailureShared() {
+        CoalesceHttp http = new CoalesceHttp(backend);
+        CompletableFuture<String> a = http.executeAsync(get(), null);
+        CompletableFuture<String> b = http.executeAsync(get(), null);
+        backend.call(0).fail(new IllegalStateException("down"));
+        for (CompletableFuture<String> future : Arrays.asList(a, b)) {
+            try {
+                future.join();
+                Assert.fail();
+            } catch (CompletionException e) {
+                Assert.assertTrue(e.getCause() instanceof IllegalStateException);
+            }
+        }
+        Assert.assertEquals(0, http.getInFlight());
+    }
+
+    /**
+     * 同步请求：领头的请求阻塞时，相同的请求等待并共享它的结果
+     */
+    @Test
+    public void testSyncShared() throws Exception {
+        CoalesceHttp http = new CoalesceHttp(backend.hold());
+        String[] results = new String[2];
+        Thread leader = new Thread(() -> results[0] = http.execute(get()));
+        leader.start();
+        Assert.assertTrue(backend.awaitEntered());
+        Thread follower = new Thread(() -> results[1] = http.execute(get()));
+        follower.start();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (0 == http.getCoalesced() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        backend.release();
+        leader.join(5000);
+        follower.join(5000);
+        Assert.assertEquals(1, backend.getCalls());
+        Assert.assertEquals("r-1", results[0]);
+        Assert.assertEquals("r-1", results[1]);
+    }
+
+}
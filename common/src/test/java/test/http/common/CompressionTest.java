@@ -0,0 +1,130 @@
+package test.http.common;
+
+import dive.http.common.Compression;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+public class CompressionTest {
+
+    private static final String TEXT = text(64 * 1024);
+
+    private static final int BYTES = TEXT.getBytes(StandardCharsets.UTF_8).length;
+
+    @Test
+    public void testDefaults() {
+        Assert.assertEquals("gzip, deflate", Compression.of().accept());
+        Assert.assertNull(Compression.none().accept());
+        Assert.assertNull(Compression.of().getRequestCoding());
+        Assert.assertNull(Compression.of().encode(TEXT, StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testGzip() throws IOException {
+        Compression compression = Compression.builder().request(Compression.GZIP, 0).build();
+        byte[] encoded = compression.encode(TEXT, StandardCharsets.UTF_8);
+        Assert.assertTrue(encoded.length < BYTES / 2);
+        Assert.assertEquals(TEXT, new String(compression.decode(encoded, "gzip"), StandardCharsets.UTF_8));
+        Assert.assertEquals(TEXT, read(compression.decode(new ByteArrayInputStream(encoded), "x-gzip, identity")));
+        Assert.assertEquals(BYTES, compression.getRequestRaw());
+        Assert.assertEquals(encoded.length, compression.getRequestEncoded());
+        Assert.assertEquals(2L * BYTES, compression.getResponseDecoded());
+    }
+
+    /**
+     * deflate同时接受zlib格式和不带zlib头的原始数据
+     */
+    @Test
+    public void testDeflate() throws IOException {
+        Compression compression = Compression.builder().request(Compression.DEFLATE, 0).build();
+        byte[] zlib = compression.encode(TEXT.getBytes(StandardCharsets.UTF_8));
+        Assert.assertEquals(TEXT, new String(compression.decode(zlib, "deflate"), StandardCharsets.UTF_8));
+
+        ByteArrayOutputStream raw = new ByteArrayOutputStream();
+        try (DeflaterOutputStream out = new DeflaterOutputStream(raw, new Deflater(Deflater.DEFAULT_COMPRESSION, true))) {
+            out.write(TEXT.getBytes(StandardCharsets.UTF_8));
+        }
+        Assert.assertEquals(TEXT, new String(compression.decode(raw.toByteArray(), "deflate"), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testThreshold() {
+        Compression compression = Compression.builder().request(Compression.GZIP, 1024).build();
+        Assert.assertNull(compression.encode(new byte[1023]));
+        Assert.assertNotNull(compression.encode(new byte[1024]));
+        // 字符数的3倍仍不足阈值时不转换
+        Assert.assertNull(compression.encode("abc", StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 空响应体和不认识的编码原样返回
+     */
+    @Test
+    public void testPassThrough() throws IOException {
+        byte[] body = "plain".getBytes(StandardCharsets.UTF_8);
+        Compression compression = Compression.of();
+        Assert.assertSame(body, compression.decode(body, "br"));
+        Assert.assertSame(body, compression.decode(body, null));
+        Assert.assertEquals(-1, compression.decode(new ByteArrayInputStream(new byte[0]), "gzip").read());
+    }
+
+    @Test
+    public void testZstd() throws IOException {
+        Assume.assumeTrue(Compression.zstd());
+        Assert.assertFalse(Compression.of().accept().contains("zstd"));
+        Compression compression = Compression.builder().accept("zstd", "gzip").request(Compression.ZSTD, 0).build();
+        Assert.assertEquals("zstd, gzip", compression.accept());
+        byte[] encoded = compression.encode(TEXT, StandardCharsets.UTF_8);
+        Assert.assertEquals(TEXT, new String(compression.decode(encoded, "zstd"), StandardCharsets.UTF_8));
+
+        // 解码后超过上限
+        Compression limited = Compression.builder().zstdLimit(1024).build();
+        try {
+            limited.decode(encoded, "zstd");
+            Assert.fail();
+        } catch (IOException e) {
+            Assert.assertTrue(e.getMessage().contains("exceeds"));
+        }
+
+        // 损坏的数据不重试，直接失败
+        byte[] broken = Arrays.copyOf(encoded, encoded.length);
+        Arrays.fill(broken, broken.length / 2, broken.length, (byte) 0x5A);
+        try {
+            compression.decode(broken, "zstd");
+            Assert.fail();
+        } catch (IOException e) {
+            Assert.assertTrue(e.getMessage().startsWith("invalid zstd body"));
+        }
+    }
+
+    private static String read(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int n;
+        while (-1 != (n = in.read(buffer))) {
+            out.write(buffer, 0, n);
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static String text(int length) {
+        Random random = new Random(7);
+        String[] words = {"alpha", "beta", "gamma", "delta", "数据", "压缩"};
+        StringBuilder sb = new StringBuilder(length);
+        while (sb.length() < length) {
+            sb.append(words[random.nextInt(words.length)]).append(' ');
+        }
+        return sb.toString();
+    }
+
+}
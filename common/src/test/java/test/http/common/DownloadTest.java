@@ -0,0 +1,76 @@
+package test.http.common;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+public class DownloadTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testDownload() throws IOException {
+        Path path = folder.getRoot().toPath().resolve("a.txt");
+        StubHttp http = new StubHttp().reply(200, null, "downloaded");
+        List<String> results = new ArrayList<>();
+        Long size = http.downloadTo(StubHttp.get(), path, (url, method, request, body, code, response, result) -> results.add(code + " " + result));
+        Assert.assertEquals(10L, size.longValue());
+        Assert.assertEquals("downloaded", read(path));
+        Assert.assertEquals("[200 10]", results.toString());
+        Assert.assertArrayEquals(new String[]{"a.txt"}, folder.getRoot().list());
+    }
+
+    /**
+     * 错误响应不写入文件，已有文件保持不变
+     */
+    @Test
+    public void testErrorKeepsFile() throws IOException {
+        Path path = folder.getRoot().toPath().resolve("a.txt");
+        Files.write(path, "old".getBytes(StandardCharsets.UTF_8));
+        StubHttp http = new StubHttp().reply(404, null, "not found").reply(503, null, "unavailable");
+        List<String> results = new ArrayList<>();
+        Assert.assertNull(http.downloadTo(StubHttp.get(), path, (url, method, request, body, code, response, result) -> results.add(code + " " + result)));
+        Assert.assertNull(http.downloadTo(StubHttp.get(), path));
+        Assert.assertEquals("old", read(path));
+        Assert.assertEquals("[404 null]", results.toString());
+
+        Path missing = folder.getRoot().toPath().resolve("b.txt");
+        http.reply(500, null, "error");
+        Assert.assertNull(http.downloadTo(StubHttp.get(), missing));
+        Assert.assertFalse(Files.exists(missing));
+        Assert.assertEquals(1, folder.getRoot().list().length);
+    }
+
+    /**
+     * 写入失败时删除临时文件
+     */
+    @Test
+    public void testWriteFailure() throws IOException {
+        File dir = folder.newFolder("dir");
+        Path path = dir.toPath();
+        StubHttp http = new StubHttp().reply(200, null, "body");
+        List<String> errors = new ArrayList<>();
+        http.error(errors::add);
+        // 目标是非空目录，替换失败
+        Files.write(path.resolve("child"), new byte[1]);
+        Assert.assertNull(http.downloadTo(StubHttp.get(), path));
+        Assert.assertTrue(Files.isDirectory(path));
+        Assert.assertArrayEquals(new String[]{"dir"}, folder.getRoot().list());
+        Assert.assertEquals(1, errors.size());
+    }
+
+    private static String read(Path path) throws IOException {
+        return new String(Files.readAllBytes(path), StandardCharsets.UTF_8);
+    }
+
+}
@@ -0,0 +1,77 @@
+package test.http.common;
+
+import dive.http.common.model.Header;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+public class HeaderTest {
+
+    @Test
+    public void testSerialize() throws Exception {
+        Header header = Header.build("content-type", "text/plain").add("X-A", "1").add("x-a", "2");
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(header);
+        }
+        Header read;
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            read = (Header) in.readObject();
+        }
+        Assert.assertEquals(header.toString(), read.toString());
+        Assert.assertEquals(header, read);
+        // 常用键仍统一为规范写法
+        Assert.assertEquals("Content-Type", read.pairs().get(0).getKey());
+        read.add("X-B", "3");
+        Assert.assertEquals(4, read.size());
+    }
+
+    @Test
+    public void testClone() {
+        Header header = Header.build("X-A", "1");
+        Header copy = header.clone();
+        copy.put("X-A", "2");
+        copy.add("X-B", "3");
+        Assert.assertEquals("1", header.first("X-A"));
+        Assert.assertEquals(1, header.size());
+        Assert.assertEquals("2", copy.first("x-a"));
+    }
+
+    /**
+     * entrySet按键分组，忽略大小写，顺序为键第一次出现的顺序
+     */
+    @Test
+    public void testEntries() {
+        Header header = Header.build();
+        for (int i = 0; i < 200; i++) {
+            header.add("X-" + (i % 50), String.valueOf(i)).add("x-" + (i % 50), "lower");
+        }
+        Assert.assertEquals(400, header.size());
+        Assert.assertEquals(50, header.entrySet().size());
+        int n = 0;
+        for (Map.Entry<String, List<String>> entry : header.entrySet()) {
+            Assert.assertEquals("X-" + n, entry.getKey());
+            Assert.assertEquals(8, entry.getValue().size());
+            n++;
+        }
+
+        Iterator<Map.Entry<String, List<String>>> i = header.entrySet().iterator();
+        while (i.hasNext()) {
+            if (!"X-7".equals(i.next().getKey())) {
+                i.remove();
+            }
+        }
+        Assert.assertEquals(8, header.size());
+        Assert.assertEquals(Arrays.asList("7", "lower", "57", "lower", "107", "lower", "157", "lower"),
+                header.get("X-7"));
+    }
+
+}
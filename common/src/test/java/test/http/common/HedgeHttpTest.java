@@ -0,0 +1,165 @@
+package test.http.common;
+
+import dive.http.common.HedgeHttp;
+import dive.http.common.MimeRequest;
+import dive.http.common.model.Header;
+import dive.http.common.model.Method;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+
+import static test.http.common.StubHttp.URL;
+import static test.http.common.StubHttp.get;
+
+public class HedgeHttpTest {
+
+    private final StubHttp backend = new StubHttp().manual();
+
+    @Test
+    public void testHedgeWins() throws Exception {
+        HedgeHttp http = HedgeHttp.builder(backend).delay(10, TimeUnit.MILLISECONDS).build();
+        List<Integer> codes = new ArrayList<>();
+        CompletableFuture<String> result = http.executeAsync(get(),
+                (url, method, request, body, code, response, r) -> codes.add(code));
+        backend.await(2);
+        backend.call(1).complete(201, Header.build(), "hedge");
+        Assert.assertEquals("hedge", result.join());
+        // 落后的原请求被取消，它的回调不会转交
+        Assert.assertTrue(backend.call(0).getFuture().isCancelled());
+        Assert.assertEquals(1, http.getHedges());
+        Assert.assertEquals(1, http.getWon());
+        Assert.assertEquals(1, codes.size());
+        Assert.assertEquals(201, (int) codes.get(0));
+    }
+
+    @Test
+    public void testPrimaryInTime() throws Exception {
+        HedgeHttp http = HedgeHttp.builder(backend).delay(50, TimeUnit.MILLISECONDS).build();
+        CompletableFuture<String> result = http.executeAsync(get());
+        backend.await(1);
+        backend.call(0).complete("primary");
+        Assert.assertEquals("primary", result.join());
+        Thread.sleep(100);
+        Assert.assertEquals(1, backend.getPending());
+        Assert.assertEquals(0, http.getHedges());
+    }
+
+    /**
+     * 一个请求失败时等待另一个，都失败才失败
+     */
+    @Test
+    public void testFailure() throws Exception {
+        HedgeHttp http = HedgeHttp.builder(backend).delay(1, TimeUnit.MILLISECONDS).build();
+        CompletableFuture<String> result = http.executeAsync(get());
+        backend.await(2);
+        backend.call(0).fail(new IllegalStateException("primary"));
+        Assert.assertFalse(result.isDone());
+        backend.call(1).complete("hedge");
+        Assert.assertEquals("hedge", result.join());
+
+        result = http.executeAsync(get());
+        backend.await(4);
+        backend.call(2).fail(new IllegalStateException("primary"));
+        backend.call(3).fail(new IllegalStateException("hedge"));
+        try {
+            result.join();
+            Assert.fail();
+        } catch (CompletionException e) {
+            Assert.assertEquals("hedge", e.getCause().getMessage());
+        }
+    }
+
+    /**
+     * 原请求失败返回null时不作为结果，等待对冲请求
+     */
+    @Test
+    public void testNullLoses() throws Exception {
+        HedgeHttp http = HedgeHttp.builder(backend).delay(1, TimeUnit.MILLISECONDS).build();
+        List<Integer> codes = new ArrayList<>();
+        CompletableFuture<String> result = http.executeAsync(get(),
+                (url, method, request, body, code, response, r) -> codes.add(code));
+        backend.await(2);
+        backend.call(0).complete(503, null);
+        Assert.assertFalse(result.isDone());
+        backend.call(1).complete(200, "hedge");
+        Assert.assertEquals("hedge", result.join());
+        Assert.assertEquals(1, http.getWon());
+        Assert.assertEquals("[200]", codes.toString());
+
+        // 都返回null时结果为null，转交后完成的请求的回调
+        codes.clear();
+        result = http.executeAsync(get(), (url, method, request, body, code, response, r) -> codes.add(code));
+        backend.await(4);
+        backend.call(2).complete(503, null);
+        backend.call(3).complete(500, null);
+        Assert.assertNull(result.join());
+        Assert.assertEquals(1, http.getWon());
+        Assert.assertEquals("[500]", codes.toString());
+    }
+
+    /**
+     * 默认只对冲GET，PUT和DELETE需要指定，POST不能对冲
+     */
+    @Test
+    public void testMethods() throws Exception {
+        HedgeHttp http = HedgeHttp.builder(backend).delay(0, TimeUnit.MILLISECONDS).build();
+        http.executeAsync(MimeRequest.builder().url(URL).post().body("a", "1").build());
+        http.executeAsync(MimeRequest.builder().url(URL).put().body("a", "1").build());
+        http.executeAsync(MimeRequest.builder().url(URL).delete().build());
+        Thread.sleep(50);
+        Assert.assertEquals(3, backend.getPending());
+        Assert.assertEquals(0, http.getHedges());
+
+        http = HedgeHttp.builder(backend).delay(0, TimeUnit.MILLISECONDS).methods(Method.GET, Method.PUT).build();
+        http.executeAsync(MimeRequest.builder().url(URL).put().body("a", "1").build());
+        backend.await(5);
+        Assert.assertEquals(1, http.getHedges());
+        try {
+            HedgeHttp.builder(backend).methods(Method.POST);
+            Assert.fail();
+        } catch (IllegalArgumentException e) {
+            Assert.assertTrue(e.getMessage().contains("POST"));
+        }
+    }
+
+    /**
+     * 对冲预算用完后不再发出对冲请求
+     */
+    @Test
+    public void testBudget() throws Exception {
+        HedgeHttp http = HedgeHttp.builder(backend).delay(1, TimeUnit.MILLISECONDS).budget(0, 1).build();
+        http.executeAsync(get());
+        backend.await(2);
+        http.executeAsync(get());
+        backend.await(3);
+        Thread.sleep(50);
+        Assert.assertEquals(3, backend.getPending());
+        Assert.assertEquals(1, http.getHedges());
+    }
+
+    /**
+     * 记录足够多的耗时后，等待时间取分位数
+     */
+    @Test
+    public void testQuantile() throws Exception {
+        HedgeHttp http = HedgeHttp.builder(backend).quantile(0.5, 5, TimeUnit.SECONDS).build();
+        Assert.assertEquals(5000, http.getDelay());
+        for (int i = 0; i < 32; i++) {
+            CompletableFuture<String> result = http.executeAsync(get());
+            backend.await(i + 1);
+            backend.call(i).complete("ok");
+            result.join();
+            if (i < 31) {
+                Assert.assertEquals(5000, http.getDelay());
+            }
+        }
+        Assert.assertTrue(http.getDelay() < 1000);
+        Assert.assertEquals(0, http.getHedges());
+    }
+
+}
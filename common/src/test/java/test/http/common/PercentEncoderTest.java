@@ -0,0 +1,104 @@
+package test.http.common;
+
+import dive.http.common.PercentEncoder;
+import dive.http.common.UrlTemplate;
+import dive.http.common.ValueWriter;
+import dive.http.common.model.Parameter;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.net.URLEncoder;
+import java.util.Random;
+
+public class PercentEncoderTest {
+
+    private static final int COUNT = 200_000;
+
+    /**
+     * 随机字符串与URLEncoder.encode(s, "UTF-8")逐个比较，覆盖ASCII、多字节字符、成对和不成对的代理字符
+     */
+    @Test
+    public void testSameAsUrlEncoder() throws Exception {
+        Random random = new Random(20181018L);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < COUNT; i++) {
+            String s = random(random);
+            String expected = URLEncoder.encode(s, "UTF-8");
+            Assert.assertEquals(s, expected, PercentEncoder.encode(s));
+            sb.setLength(0);
+            Assert.assertEquals(s, expected, PercentEncoder.encode(sb, s).toString());
+        }
+    }
+
+    @Test
+    public void testSafeUnchanged() {
+        String s = "abcXYZ019.-*_";
+        Assert.assertSame(s, PercentEncoder.encode(s));
+    }
+
+    @Test
+    public void testForm() throws Exception {
+        Parameter parameter = Parameter.build("a b", "1+1").add("skip", null).add("中", "&=");
+        Assert.assertEquals(URLEncoder.encode("a b", "UTF-8") + "=" + URLEncoder.encode("1+1", "UTF-8")
+                        + "&" + URLEncoder.encode("中", "UTF-8") + "=" + URLEncoder.encode("&=", "UTF-8"),
+                PercentEncoder.form(parameter));
+    }
+
+    /**
+     * 第一对键值为空时同样添加分隔符
+     */
+    @Test
+    public void testConcatEmpty() {
+        Assert.assertEquals("|a", Parameter.build("", "").add("a", "").concat("", "|", null));
+    }
+
+    /**
+     * 写出参数值时再次编码，内层使用新的缓冲区，不覆盖外层正在写入的内容
+     */
+    @Test
+    public void testReentrant() {
+        ValueWriter.register(Nested.class, (sb, nested) -> sb.append(PercentEncoder.encode(PercentEncoder.form(nested.parameter))));
+        Nested nested = new Nested(Parameter.build("x", "1").add("y", "a b"));
+        Assert.assertEquals("a=1&n=x%3D1%26y%3Da%2Bb&b=2", PercentEncoder.form(Parameter.build("a", "1").add("n", nested).add("b", "2")));
+        Object value = new Object() {
+            @Override
+            public String toString() {
+                return PercentEncoder.form(Parameter.build("k", "v w"));
+            }
+        };
+        Assert.assertEquals("/s/k=v+w?q=k%3Dv%2Bw", UrlTemplate.compile("/s/{1}?q={1}").expand(value));
+        // 嵌套之后外层重新使用线程内的缓冲区
+        Assert.assertEquals("c=3", PercentEncoder.form(Parameter.build("c", 3)));
+    }
+
+    private static class Nested {
+
+        final Parameter parameter;
+
+        Nested(Parameter parameter) {
+            this.parameter = parameter;
+        }
+    }
+
+    private static String random(Random random) {
+        int length = random.nextInt(24);
+        StringBuilder sb = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            int kind = random.nextInt(10);
+            if (kind < 5) {
+                sb.append((char) random.nextInt(128));
+            } else if (kind < 7) {
+                sb.append((char) (0x80 + random.nextInt(0x800 - 0x80)));
+            } else if (kind < 9) {
+                sb.append((char) (0x800 + random.nextInt(0xD800 - 0x800)));
+            } else if (random.nextBoolean()) {
+                sb.appendCodePoint(0x10000 + random.nextInt(0x10FFFF - 0x10000));
+            } else {
+                // 不成对的代理字符
+                sb.append((char) (0xD800 + random.nextInt(0x800)));
+            }
+        }
+        return sb.toString();
+    }
+
+}
@@ -0,0 +1,179 @@
+package test.http.common;
+
+import dive.http.common.RateLimitHttp;
+import dive.http.common.model.Header;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static test.http.common.StubHttp.HOST;
+import static test.http.common.StubHttp.get;
+
+public class RateLimitHttpTest {
+
+    private final StubHttp backend = new StubHttp();
+
+    @Test
+    public void testBurstThenFailFast() {
+        RateLimitHttp http = RateLimitHttp.builder(backend).limit(1, 3).failFast().build();
+        for (int i = 0; i < 3; i++) {
+            Assert.assertEquals("r-" + (i + 1), http.execute(get()));
+        }
+        Assert.assertEquals("1", retryAfter(http));
+        Assert.assertEquals(3, backend.getCalls());
+        Assert.assertEquals(1, http.getRejected());
+        Assert.assertTrue(http.permits(HOST) < 1);
+        // 其他主机有各自的令牌桶
+        Assert.assertEquals(3, http.permits("other.example.com"), 0);
+        Assert.assertEquals("r-4", http.execute(get("http://other.example.com/")));
+    }
+
+    @Test
+    public void testKeyLimit() {
+        RateLimitHttp http = RateLimitHttp.builder(backend).limit(100, 100).limit(HOST, 1, 1).failFast().build();
+        http.execute(get());
+        Assert.assertEquals("429 RATE LIMITED", http.execute(get()));
+        Assert.assertEquals(1, http.getRejected());
+        Assert.assertEquals(1, http.rate(HOST), 1e-6);
+        Assert.assertEquals(100, http.rate("other.example.com"), 1e-6);
+    }
+
+    /**
+     * 429降低发放速率，之后成功的响应逐步恢复，不超过配置的速率
+     */
+    @Test
+    public void test429() {
+        RateLimitHttp http = RateLimitHttp.builder(backend).limit(1000, 1000).build();
+        backend.reply(429);
+        http.execute(get());
+        Assert.assertEquals(500, http.rate(HOST), 1);
+        backend.reply(429);
+        http.execute(get());
+        Assert.assertEquals(250, http.rate(HOST), 1);
+        double last = http.rate(HOST);
+        for (int i = 0; i < 100; i++) {
+            http.execute(get());
+            double rate = http.rate(HOST);
+            Assert.assertTrue(rate >= last);
+            last = rate;
+        }
+        Assert.assertEquals(1000, last, 1);
+    }
+
+    @Test
+    public void testRetryAfter() {
+        RateLimitHttp http = RateLimitHttp.builder(backend).limit(1000, 10).failFast().build();
+        backend.reply(503, Header.build("Retry-After", "2"), null);
+        http.execute(get());
+        Assert.assertEquals("2", retryAfter(http));
+    }
+
+    @Test
+    public void testRemainingZero() {
+        RateLimitHttp http = RateLimitHttp.builder(backend).limit(1000, 10).failFast().build();
+        backend.reply(200, Header.build("X-RateLimit-Remaining", "0").add("X-RateLimit-Reset", "5"), null);
+        http.execute(get());
+        Assert.assertEquals(0, http.permits(HOST), 0);
+        Assert.assertEquals("5", retryAfter(http));
+    }
+
+    /**
+     * 异步请求不阻塞调用线程，等待令牌后延迟发出
+     */
+    @Test
+    public void testAsyncDelayed() {
+        RateLimitHttp http = RateLimitHttp.builder(backend).limit(20, 1).build();
+        long start = System.nanoTime();
+        CompletableFuture<String> first = http.executeAsync(get());
+        CompletableFuture<String> second = http.executeAsync(get());
+        CompletableFuture<String> third = http.executeAsync(get());
+        Assert.assertFalse(third.isDone());
+        Assert.assertEquals("r-1", first.join());
+        Assert.assertEquals("r-2", second.join());
+        Assert.assertEquals("r-3", third.join());
+        Assert.assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 90);
+        Assert.assertEquals(2, http.getDelayed());
+    }
+
+    @Test
+    public void testAsyncRejected() {
+        RateLimitHttp http = RateLimitHttp.builder(backend).limit(1, 1).failFast().build();
+        http.executeAsync(get()).join();
+        List<Integer> codes = new ArrayList<>();
+        String result = http.executeAsync(get(), (url, method, request, body, code, response, r) -> codes.add(code)).join();
+        Assert.assertEquals("429 RATE LIMITED", result);
+        Assert.assertEquals(Collections.singletonList(429), codes);
+        Assert.assertEquals(1, backend.getCalls());
+    }
+
+    /**
+     * 等待令牌时被中断，不发出请求并归还令牌
+     */
+    @Test
+    public void testInterrupted() {
+        RateLimitHttp http = RateLimitHttp.builder(backend).limit(2, 1).build();
+        http.execute(get());
+        Thread.currentThread().interrupt();
+        Assert.assertEquals("429 RATE LIMITED", http.execute(get()));
+        Assert.assertTrue(Thread.interrupted());
+        Assert.assertEquals(1, backend.getCalls());
+        // 令牌已归还，下一个请求只等待一个间隔(500ms)而不是两个
+        long start = System.nanoTime();
+        http.execute(get());
+        Assert.assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 800);
+        Assert.assertEquals(2, backend.getCalls());
+    }
+
+    /**
+     * 并发获取令牌，发出的请求数恰好等于桶容量
+     */
+    @Test
+    public void testConcurrentReserve() throws Exception {
+        RateLimitHttp http = RateLimitHttp.builder(backend).limit(0.001, 1000).failFast().build();
+        int threads = 8;
+        CountDownLatch start = new CountDownLatch(1);
+        List<Thread> list = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int j = 0; j < 500; j++) {
+                    http.execute(get());
+                }
+            });
+            thread.start();
+            list.add(thread);
+        }
+        start.countDown();
+        for (Thread thread : list) {
+            thread.join();
+        }
+        Assert.assertEquals(1000, backend.getCalls());
+        Assert.assertEquals(threads * 500 - 1000, http.getRejected());
+    }
+
+    /**
+     * 快速失败的请求不抛出异常，经过回调得到429和Retry-After
+     * @return Retry-After的秒数
+     */
+    private static String retryAfter(RateLimitHttp http) {
+        List<Header> headers = new ArrayList<>();
+        String result = http.execute(get(), (url, method, request, body, code, response, r) -> {
+            Assert.assertEquals(429, (int) code);
+            headers.add(response);
+        });
+        Assert.assertEquals("429 RATE LIMITED", result);
+        Assert.assertEquals(1, headers.size());
+        return headers.get(0).first("Retry-After");
+    }
+
+}
@@ -0,0 +1,148 @@
+package test.http.common;
+
+import dive.http.common.MimeRequest;
+import dive.http.common.RetryHttp;
+import dive.http.common.model.Header;
+import dive.http.common.model.Method;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static test.http.common.StubHttp.URL;
+import static test.http.common.StubHttp.get;
+
+public class RetryHttpTest {
+
+    private static final String URL = "http://localhost/retry";
+
+    private static final UncheckedIOException IO = new UncheckedIOException(new IOException("connect"));
+
+    private final StubHttp backend = new StubHttp();
+
+    private RetryHttp.Builder builder() {
+        return RetryHttp.builder(backend).delay(1, 5, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 回调只在最后一次尝试后调用一次，Attempts得到每次尝试
+     */
+    @Test
+    public void testRetryUntilSuccess() {
+        backend.reply(503).fail(IO).reply(429, 200);
+        RetryHttp http = builder().maxAttempts(5).build();
+        List<Integer> accepted = new ArrayList<>();
+        List<long[]> attempts = new ArrayList<>();
+        String result = http.execute(get(), new RetryHttp.Attempts() {
+            @Override
+            public void attempt(int attempt, Integer code, Throwable error, long elapsed, long delay) {
+                attempts.add(new long[]{attempt, null == code ? 0 : code, delay});
+            }
+
+            @Override
+            public void accept(String url, Method method, Header request, Object body,
+                               Integer code, Header response, String result) {
+                accepted.add(code);
+            }
+        });
+        Assert.assertEquals("r-4", result);
+        Assert.assertEquals(4, backend.getCalls());
+        Assert.assertEquals(3, http.getRetries());
+        Assert.assertEquals(Arrays.asList(200), accepted);
+        Assert.assertEquals(4, attempts.size());
+        for (int i = 0; i < 3; i++) {
+            Assert.assertEquals(i + 1, attempts.get(i)[0]);
+            Assert.assertTrue(1 <= attempts.get(i)[2] && attempts.get(i)[2] <= 5);
+        }
+        Assert.assertEquals(0, attempts.get(1)[1]);
+        Assert.assertEquals(-1, attempts.get(3)[2]);
+    }
+
+    @Test
+    public void testMaxAttempts() {
+        backend.reply(500, 500, 500, 500);
+        RetryHttp http = builder().maxAttempts(3).build();
+        Assert.assertEquals("r-3", http.execute(get()));
+        Assert.assertEquals(3, backend.getCalls());
+    }
+
+    @Test
+    public void testNotRetried() {
+        RetryHttp http = builder().build();
+        backend.reply(404);
+        http.execute(get());
+        Assert.assertEquals(1, backend.getCalls());
+
+        backend.fail(new IllegalStateException("bug"));
+        try {
+            http.execute(get());
+            Assert.fail();
+        } catch (IllegalStateException e) {
+            Assert.assertEquals(2, backend.getCalls());
+        }
+
+        // Retry-After超过最长等待
+        backend.reply(503, Header.build("Retry-After", "60"), null);
+        http.execute(get());
+        Assert.assertEquals(3, backend.getCalls());
+        Assert.assertEquals(0, http.getRetries());
+    }
+
+    @Test
+    public void testPost() {
+        MimeRequest post = MimeRequest.builder().url(URL).post().body("a", "1").build();
+        backend.reply(503, 503);
+        builder().build().execute(post);
+        Assert.assertEquals(1, backend.getCalls());
+        builder().retryPost().build().execute(post);
+        Assert.assertEquals(3, backend.getCalls());
+    }
+
+    /**
+     * 预算用完后不再重试，之后每个请求按比例补充
+     */
+    @Test
+    public void testBudget() {
+        RetryHttp http = builder().maxAttempts(10).budget(0.5, 2).build();
+        Assert.assertEquals(2, http.getBudget());
+        backend.fail(IO).fail(IO).fail(IO);
+        try {
+            http.execute(get());
+            Assert.fail();
+        } catch (UncheckedIOException e) {
+            Assert.assertEquals(3, backend.getCalls());
+        }
+        Assert.assertEquals(2, http.getRetries());
+        Assert.assertEquals(1, http.getExhausted());
+        Assert.assertEquals(0, http.getBudget());
+
+        // 两个请求补充一次重试
+        http.execute(get());
+        backend.reply(503, 503);
+        http.execute(get());
+        Assert.assertEquals(3, http.getRetries());
+        Assert.assertEquals(2, http.getExhausted());
+        Assert.assertEquals(6, backend.getCalls());
+    }
+
+    @Test
+    public void testAsync() {
+        backend.fail(IO).reply(502, 200);
+        RetryHttp http = builder().build();
+        AtomicInteger accepted = new AtomicInteger();
+        String result = http.executeAsync(get(), (url, method, request, body, code, response, r) -> {
+            accepted.incrementAndGet();
+            Assert.assertEquals(200, (int) code);
+        }).join();
+        Assert.assertEquals("r-3", result);
+        Assert.assertEquals(1, accepted.get());
+        Assert.assertEquals(2, http.getRetries());
+    }
+
+}
@@ -0,0 +1,78 @@
+package test.http.common;
+
+import dive.http.common.BaseMimeHttp;
+import dive.http.common.Detail;
+import dive.http.common.MimeRequest;
+import dive.http.common.SignHttp;
+import org.junit.Assert;
+import org.junit.Test;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+
+public class SignHttpTest {
+
+    private static final String SECRET = "secret";
+
+    private final SignHttp http = SignHttp.builder(new BaseMimeHttp() {
+        @Override
+        public String execute(MimeRequest request, Detail detail) {
+            return null;
+        }
+    }, SECRET).requestLine().parameter("AccessKeyId", "key").build();
+
+    @Test
+    public void testPlainUrl() throws Exception {
+        MimeRequest request = MimeRequest.builder()
+                .url("https://API.huobi.pro/v1/x?ignored=1")
+                .get()
+                .body("symbol", "btcusdt")
+                .build();
+        Assert.assertEquals(hmac("GET\napi.huobi.pro\n/v1/x\nAccessKeyId=key&symbol=btcusdt"), signature(request));
+    }
+
+    /**
+     * 展开url模板与签名使用同一个线程内缓冲区，第一次签名也应与普通url相同
+     */
+    @Test
+    public void testTemplateUrl() throws Exception {
+        String expected = hmac("GET\napi.huobi.pro\n/v1/x\nAccessKeyId=key&symbol=btcusdt");
+        for (int i = 0; i < 2; i++) {
+            MimeRequest request = MimeRequest.builder()
+                    .url("https://api.huobi.pro/v1/{p}")
+                    .replace("p", "x")
+                    .get()
+                    .body("symbol", "btcusdt")
+                    .build();
+            Assert.assertEquals(expected, signature(request));
+            Assert.assertEquals(expected, signature(request));
+        }
+    }
+
+    @Test
+    public void testSortedParameters() throws Exception {
+        MimeRequest request = MimeRequest.builder()
+                .url("https://api.huobi.pro/v1/order")
+                .post()
+                .body("b", "2 3")
+                .body("a", "1")
+                .build();
+        Assert.assertEquals(hmac("POST\napi.huobi.pro\n/v1/order\nAccessKeyId=key&a=1&b=2+3"), signature(request));
+    }
+
+    private String signature(MimeRequest request) {
+        return String.valueOf(http.sign(request).getParameter().get("signature"));
+    }
+
+    private static String hmac(String content) throws Exception {
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(SECRET.getBytes(StandardCharsets.UTF_8), "HmacSHA256"));
+        StringBuilder sb = new StringBuilder();
+        for (byte b : mac.doFinal(content.getBytes(StandardCharsets.UTF_8))) {
+            sb.append(String.format("%02x", b));
+        }
+        return sb.toString();
+    }
+
+}
@@ -0,0 +1,348 @@
+package test.http.common;
+
+import dive.http.common.BaseMimeHttp;
+import dive.http.common.Detail;
+import dive.http.common.MimeRequest;
+import dive.http.common.model.Header;
+import org.junit.Assert;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 测试用的后端，不发出网络请求
+ * 同步请求依次按脚本响应，脚本用完后按默认响应码返回"r-第几次调用"
+ * 异步请求默认立即执行同步请求，manual()后挂起，由测试决定何时完成
+ */
+public class StubHttp extends BaseMimeHttp {
+
+    public static final String HOST = "api.example.com";
+
+    public static final String URL = "http://" + HOST + "/stub";
+
+    private final AtomicInteger calls = new AtomicInteger();
+
+    private final ConcurrentLinkedQueue<Reply> replies = new ConcurrentLinkedQueue<>();
+
+    private volatile int code = 200;
+
+    private volatile Header header;
+
+    private volatile long delay;
+
+    private volatile CountDownLatch entered;
+
+    private volatile CountDownLatch release;
+
+    private volatile boolean manual;
+
+    private final List<Call> pending = new ArrayList<>();
+
+    private final AtomicInteger running = new AtomicInteger();
+
+    private final AtomicInteger maxRunning = new AtomicInteger();
+
+    private final Map<String, int[]> hosts = new ConcurrentHashMap<>();
+
+    /**
+     * 依次返回的响应码
+     * @param codes 响应码
+     * @return 本实例
+     */
+    public StubHttp reply(int... codes) {
+        for (int code : codes) {
+            replies.add(new Reply(code, null, null, null));
+        }
+        return this;
+    }
+
+    /**
+     * 下一个响应
+     * @param code 响应码
+     * @param header 响应头
+     * @param result 响应体，null时为"r-第几次调用"
+     * @return 本实例
+     */
+    public StubHttp reply(int code, Header header, String result) {
+        replies.add(new Reply(code, header, result, null));
+        return this;
+    }
+
+    /**
+     * 下一个请求抛出异常
+     * @param error RuntimeException或Error
+     * @return 本实例
+     */
+    public StubHttp fail(Throwable error) {
+        replies.add(new Reply(0, null, null, error));
+        return this;
+    }
+
+    /**
+     * 脚本用完后的响应
+     * @param code 响应码
+     * @param header 响应头
+     * @return 本实例
+     */
+    public StubHttp respond(int code, Header header) {
+        this.code = code;
+        this.header = header;
+        return this;
+    }
+
+    /**
+     * 每个同步请求的耗时
+     * @param millis 毫秒
+     * @return 本实例
+     */
+    public StubHttp delay(long millis) {
+        this.delay = millis;
+        return this;
+    }
+
+    /**
+     * 同步请求进入后阻塞，直到release()
+     * @return 本实例
+     */
+    public StubHttp hold() {
+        entered = new CountDownLatch(1);
+        release = new CountDownLatch(1);
+        return this;
+    }
+
+    public boolean awaitEntered() throws InterruptedException {
+        return entered.await(5, TimeUnit.SECONDS);
+    }
+
+    public void release() {
+        release.countDown();
+    }
+
+    /**
+     * 异步请求挂起，由call(i)完成
+     * @return 本实例
+     */
+    public StubHttp manual() {
+        this.manual = true;
+        return this;
+    }
+
+    @Override
+    public String execute(MimeRequest request, Detail detail) {
+        int n = calls.incrementAndGet();
+        Reply reply = replies.poll();
+        if (null == reply) {
+            reply = new Reply(code, header, null, null);
+        }
+        if (null != reply.error) {
+            throw StubHttp.<RuntimeException>sneaky(reply.error);
+        }
+        if (null != entered) {
+            entered.countDown();
+            await(release);
+        }
+        if (0 < delay) {
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        String result = null == reply.result ? "r-" + n : reply.result;
+        if (null != detail) {
+            detail.accept(request.getUrl(), request.getMethod(), request.getHeader(), null,
+                    reply.code, reply.header, result);
+        }
+        return result;
+    }
+
+    @Override
+    public CompletableFuture<String> executeAsync(MimeRequest request, Detail detail) {
+        if (!manual) {
+            return CompletableFuture.completedFuture(execute(request, detail));
+        }
+        calls.incrementAndGet();
+        Call call = new Call(request, detail);
+        maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+        int[] host = hosts.computeIfAbsent(call.host, h -> new int[2]);
+        synchronized (host) {
+            host[0]++;
+            host[1] = Math.max(host[0], host[1]);
+        }
+        synchronized (pending) {
+            pending.add(call);
+            pending.notifyAll();
+        }
+        return call.future;
+    }
+
+    /**
+     * 等待挂起的异步请求数达到size
+     * @param size 请求数
+     */
+    public void await(int size) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        synchronized (pending) {
+            while (pending.size() < size) {
+                long wait = deadline - System.currentTimeMillis();
+                Assert.assertTrue("waiting for " + size + " requests", 0 < wait);
+                pending.wait(wait);
+            }
+        }
+    }
+
+    /**
+     * @param index 第几个异步请求，从0开始
+     * @return 挂起的请求
+     */
+    public Call call(int index) {
+        synchronized (pending) {
+            return pending.get(index);
+        }
+    }
+
+    public int getPending() {
+        synchronized (pending) {
+            return pending.size();
+        }
+    }
+
+    /**
+     * @return 同步和异步请求的总次数
+     */
+    public int getCalls() {
+        return calls.get();
+    }
+
+    /**
+     * @return 同时挂起的异步请求的最大数量
+     */
+    public int getMaxRunning() {
+        return maxRunning.get();
+    }
+
+    /**
+     * @param host 主机
+     * @return 该主机同时挂起的异步请求的最大数量
+     */
+    public int getMaxRunning(String host) {
+        int[] counts = hosts.get(host);
+        if (null == counts) {
+            return 0;
+        }
+        synchronized (counts) {
+            return counts[1];
+        }
+    }
+
+    public static MimeRequest get() {
+        return get(URL);
+    }
+
+    public static MimeRequest get(String url) {
+        return MimeRequest.builder().url(url).get().build();
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T extends Throwable> T sneaky(Throwable error) throws T {
+        throw (T) error;
+    }
+
+    private static final class Reply {
+
+        private final int code;
+
+        private final Header header;
+
+        private final String result;
+
+        private final Throwable error;
+
+        private Reply(int code, Header header, String result, Throwable error) {
+            this.code = code;
+            this.header = header;
+            this.result = result;
+            this.error = error;
+        }
+
+    }
+
+    /**
+     * 挂起的异步请求
+     */
+    public final class Call {
+
+        private final MimeRequest request;
+
+        private final Detail detail;
+
+        private final String host;
+
+        private final CompletableFuture<String> future = new CompletableFuture<>();
+
+        private Call(MimeRequest request, Detail detail) {
+            this.request = request;
+            this.detail = detail;
+            this.host = URI.create(request.getUrl()).getHost();
+        }
+
+        public MimeRequest getRequest() {
+            return request;
+        }
+
+        public CompletableFuture<String> getFuture() {
+            return future;
+        }
+
+        public void complete(String result) {
+            complete(200, null, result);
+        }
+
+        public void complete(int code, String result) {
+            complete(code, null, result);
+        }
+
+        /**
+         * 先调用回调，再完成请求
+         * 完成时调用方可能同步发出下一个请求，因此先减少计数
+         */
+        public void complete(int code, Header header, String result) {
+            finish();
+            if (null != detail) {
+                detail.accept(request.getUrl(), request.getMethod(), request.getHeader(), null, code, header, result);
+            }
+            future.complete(result);
+        }
+
+        public void fail(Throwable error) {
+            finish();
+            future.completeExceptionally(error);
+        }
+
+        private void finish() {
+            running.decrementAndGet();
+            int[] counts = hosts.get(host);
+            synchronized (counts) {
+                counts[0]--;
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,55 @@
+package test.http.common;
+
+import dive.http.common.MimeRequest;
+import dive.http.common.RequestListener;
+import dive.http.common.Timing;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+public class TimingListenerTest {
+
+    /**
+     * 同一个请求对象同时发出两次(例如对冲请求)，各自计时互不合并
+     */
+    @Test
+    public void testSameRequestTwice() {
+        List<Timing> timings = new CopyOnWriteArrayList<>();
+        RequestListener listener = RequestListener.timing(timings::add);
+        MimeRequest request = MimeRequest.builder().url("http://localhost/").get().build();
+
+        RequestListener first = listener.call(request);
+        RequestListener second = listener.call(request);
+        first.callStart(request);
+        second.callStart(request);
+        first.bodyEnd(request, 10);
+        first.callEnd(request);
+        Assert.assertEquals(1, timings.size());
+        Assert.assertEquals(10, timings.get(0).getBytes());
+        Assert.assertFalse(timings.get(0).isFailed());
+
+        second.callFailed(request, new IOException("reset"));
+        Assert.assertEquals(2, timings.size());
+        Assert.assertEquals(-1, timings.get(1).getBytes());
+        Assert.assertTrue(timings.get(1).isFailed());
+    }
+
+    /**
+     * 每次调用只汇总一次
+     */
+    @Test
+    public void testFinishOnce() {
+        List<Timing> timings = new CopyOnWriteArrayList<>();
+        MimeRequest request = MimeRequest.builder().url("http://localhost/").get().build();
+        RequestListener call = RequestListener.timing(timings::add).call(request);
+        call.callStart(request);
+        call.callEnd(request);
+        call.callFailed(request, new IOException("Aborted"));
+        Assert.assertEquals(1, timings.size());
+        Assert.assertFalse(timings.get(0).isFailed());
+    }
+
+}
@@ -0,0 +1,77 @@
+package test.http.common;
+
+import dive.http.common.MimeRequest;
+import dive.http.common.UrlTemplate;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+public class UrlTemplateTest {
+
+    @Test
+    public void testExpand() {
+        UrlTemplate template = UrlTemplate.compile("https://api.example.com/{symbol}/kline?period={period}&size={2}");
+        Assert.assertEquals(Arrays.asList("symbol", "period", "2"), template.getNames());
+        Map<String, Object> variables = new HashMap<>();
+        variables.put("symbol", "btcusdt");
+        variables.put("period", "1min");
+        variables.put("2", 150);
+        Assert.assertEquals("https://api.example.com/btcusdt/kline?period=1min&size=150", template.expand(variables));
+        Assert.assertSame(template, UrlTemplate.compile("https://api.example.com/{symbol}/kline?period={period}&size={2}"));
+    }
+
+    /**
+     * 路径中的变量编码"/"和"?"，保留"&"、"="和"+"；查询参数中的变量编码"&"、"="和"+"，保留"/"和"?"
+     */
+    @Test
+    public void testPathAndQuery() {
+        UrlTemplate template = UrlTemplate.compile("http://example.com/{1}?q={2}#{3}");
+        Assert.assertEquals("http://example.com/a%2Fb%3Fc&d=e+f%20g?q=a/b?c%26d%3De%2Bf%20g#%23x%26",
+                template.expand("a/b?c&d=e+f g", "a/b?c&d=e+f g", "#x&"));
+        Assert.assertEquals("http://example.com/%E4%B8%AD%E6%96%87?q=%E4%B8%AD%E6%96%87#~",
+                template.expand("中文", "中文", "~"));
+    }
+
+    /**
+     * 值按原文编码，已经编码的值中的"%"会再次编码，调用方应传入未编码的值
+     */
+    @Test
+    public void testPreEncoded() {
+        UrlTemplate template = UrlTemplate.compile("http://example.com/{1}?q={2}");
+        Assert.assertEquals("http://example.com/a%2520b?q=a%2520b", template.expand("a%20b", "a%20b"));
+        Assert.assertEquals("http://example.com/a%20b?q=a%20b", template.expand("a b", "a b"));
+    }
+
+    /**
+     * 没有提供值的变量保留原样，不是变量的花括号不处理
+     */
+    @Test
+    public void testMissing() {
+        UrlTemplate template = UrlTemplate.compile("http://example.com/{1}/{name}?q={a b}&r={}");
+        Assert.assertEquals(Arrays.asList("1", "name"), template.getNames());
+        Assert.assertEquals("http://example.com/x/{name}?q={a b}&r={}", template.expand("x"));
+        Assert.assertEquals("http://example.com/{1}/{name}?q={a b}&r={}", template.expand(Collections.emptyMap()));
+        Assert.assertEquals("http://example.com/{1}/{name}?q={a b}&r={}", template.expand((Map<String, ?>) null));
+        Assert.assertEquals("http://example.com/{1}/y?q={a b}&r={}", template.expand(Collections.singletonMap("name", "y")));
+        Assert.assertSame("http://example.com/a", UrlTemplate.compile("http://example.com/a").expand("x"));
+    }
+
+    /**
+     * MimeRequest的replace按位置编码变量值
+     */
+    @Test
+    public void testRequest() {
+        MimeRequest request = MimeRequest.builder()
+                .url("http://example.com/{1}?wd={1}_{name}")
+                .replace("a/b")
+                .replace("name", "c&d")
+                .get()
+                .build();
+        Assert.assertEquals("http://example.com/a%2Fb?wd=a/b_c%26d", request.getUrl());
+    }
+
+}
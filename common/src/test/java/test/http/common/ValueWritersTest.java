@@ -0,0 +1,274 @@
+package test.http.common;
+
+import dive.http.common.ValueWriter;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+
+public class ValueWritersTest {
+
+    private static final int COUNT = 20_000;
+
+    /**
+     * 随机的标量、各种基本类型数组、嵌套的数组和集合，与原先Util.formatValue的结果逐字节比较
+     */
+    @Test
+    public void testSameAsFormatValue() throws Exception {
+        Random random = new Random(20181018L);
+        for (int i = 0; i < COUNT; i++) {
+            Object value = value(random, 0);
+            Assert.assertEquals(formatValue(value), ValueWriter.format(value));
+        }
+    }
+
+    @Test
+    public void testSpecialNumbers() throws Exception {
+        Object[] values = {
+                Double.NaN, Double.NEGATIVE_INFINITY, -0.0d, Double.MIN_VALUE, 1e-7d, 1e21d,
+                Float.NaN, Float.POSITIVE_INFINITY, -0.0f, Float.MIN_VALUE, 1e-5f, 3.4e38f,
+                Integer.MIN_VALUE, Long.MIN_VALUE, Short.MIN_VALUE, Byte.MIN_VALUE,
+                new double[]{Double.NaN, -0.0d}, new float[]{Float.NEGATIVE_INFINITY, 0.1f},
+                new int[0], new Object[0], new ArrayList<>(), ""
+        };
+        for (Object value : values) {
+            Assert.assertEquals(formatValue(value), ValueWriter.format(value));
+        }
+    }
+
+    /**
+     * 注册的写出方式对子类生效，数组和集合中的元素同样使用
+     */
+    @Test
+    public void testRegistered() {
+        ValueWriter.register(Point.class, (sb, p) -> sb.append(p.x).append('~').append(p.y));
+        Assert.assertEquals("1~2", ValueWriter.format(new Point(1, 2)));
+        Assert.assertEquals("[3~4,5~6]", ValueWriter.format(new Object[]{new Point3(3, 4), new Point(5, 6)}));
+        Assert.assertEquals("[7~8]", ValueWriter.format(Arrays.asList(new Point(7, 8))));
+    }
+
+    /**
+     * 注册与并发的查找同时进行时，注册之后的写出使用新的写出方式
+     */
+    @Test
+    public void testRegisterRace() throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(3);
+        AtomicBoolean stop = new AtomicBoolean();
+        try {
+            for (int i = 0; i < 3; i++) {
+                pool.execute(() -> {
+                    while (!stop.get()) {
+                        ValueWriter.format(new Tag());
+                    }
+                });
+            }
+            for (int i = 0; i < COUNT; i++) {
+                String expected = "t" + i;
+                ValueWriter.register(Tag.class, (sb, tag) -> sb.append(expected));
+                Assert.assertEquals(expected, ValueWriter.format(new Tag()));
+            }
+        } finally {
+            stop.set(true);
+            pool.shutdown();
+        }
+    }
+
+    private static class Tag {
+    }
+
+    private static class Point {
+
+        final int x;
+
+        final int y;
+
+        Point(int x, int y) {
+            this.x = x;
+            this.y = y;
+        }
+    }
+
+    private static class Point3 extends Point {
+
+        Point3(int x, int y) {
+            super(x, y);
+        }
+    }
+
+    private static Object value(Random random, int depth) {
+        int kind = random.nextInt(depth < 2 ? 22 : 12);
+        int length = random.nextInt(6);
+        switch (kind) {
+            case 0: return random.nextInt();
+            case 1: return random.nextLong();
+            case 2: return (short) random.nextInt();
+            case 3: return (byte) random.nextInt();
+            case 4: return random.nextBoolean();
+            case 5: return Double.longBitsToDouble(random.nextLong());
+            case 6: return Float.intBitsToFloat(random.nextInt());
+            case 7: return random.nextDouble() * 1000;
+            case 8: return (char) random.nextInt(0x3000);
+            case 9: return new BigDecimal(random.nextLong()).movePointLeft(random.nextInt(10));
+            case 10:
+            case 11: return string(random);
+            case 12: {
+                int[] a = new int[length];
+                for (int i = 0; i < length; i++) {
+                    a[i] = random.nextInt();
+                }
+                return a;
+            }
+            case 13: {
+                long[] a = new long[length];
+                for (int i = 0; i < length; i++) {
+                    a[i] = random.nextLong();
+                }
+                return a;
+            }
+            case 14: {
+                double[] a = new double[length];
+                for (int i = 0; i < length; i++) {
+                    a[i] = Double.longBitsToDouble(random.nextLong());
+                }
+                return a;
+            }
+            case 15: {
+                float[] a = new float[length];
+                for (int i = 0; i < length; i++) {
+                    a[i] = Float.intBitsToFloat(random.nextInt());
+                }
+                return a;
+            }
+            case 16: {
+                short[] a = new short[length];
+                for (int i = 0; i < length; i++) {
+                    a[i] = (short) random.nextInt();
+                }
+                return a;
+            }
+            case 17: {
+                byte[] a = new byte[length];
+                random.nextBytes(a);
+                return a;
+            }
+            case 18: {
+                boolean[] a = new boolean[length];
+                for (int i = 0; i < length; i++) {
+                    a[i] = random.nextBoolean();
+                }
+                return a;
+            }
+            case 19: {
+                // 每个字符单独编码，包括不成对的代理字符
+                char[] a = new char[length];
+                for (int i = 0; i < length; i++) {
+                    a[i] = (char) (random.nextBoolean() ? random.nextInt(128) : random.nextInt(0xE000));
+                }
+                return a;
+            }
+            case 20: {
+                Object[] a = new Object[length];
+                for (int i = 0; i < length; i++) {
+                    a[i] = value(random, depth + 1);
+                }
+                return a;
+            }
+            default: {
+                Collection<Object> c = random.nextBoolean() ? new ArrayList<>() : new LinkedHashSet<>();
+                for (int i = 0; i < length; i++) {
+                    c.add(value(random, depth + 1));
+                }
+                return c;
+            }
+        }
+    }
+
+    private static String string(Random random) {
+        int length = random.nextInt(8);
+        StringBuilder sb = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            sb.append((char) (random.nextBoolean() ? random.nextInt(128) : random.nextInt(0xD800)));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 原先Util.formatValue的实现，作为参照；char[]的元素改为与其他值一样编码
+     */
+    private static String formatValue(Object o) throws Exception {
+        if (o.getClass().isArray()) {
+            List<String> list = new ArrayList<>();
+            switch (o.getClass().getTypeName()) {
+                case "int[]":
+                    for (int v : (int[]) o) {
+                        list.add(String.valueOf(v));
+                    }
+                    return toArrayString(list);
+                case "long[]":
+                    for (long v : (long[]) o) {
+                        list.add(String.valueOf(v));
+                    }
+                    return toArrayString(list);
+                case "double[]":
+                    for (double v : (double[]) o) {
+                        list.add(String.valueOf(v));
+                    }
+                    return toArrayString(list);
+                case "float[]":
+                    for (float v : (float[]) o) {
+                        list.add(String.valueOf(Float.valueOf(v)));
+                    }
+                    return toArrayString(list);
+                case "char[]":
+                    for (char v : (char[]) o) {
+                        list.add(URLEncoder.encode(String.valueOf(Character.valueOf(v)), "UTF-8"));
+                    }
+                    return toArrayString(list);
+                case "boolean[]":
+                    for (boolean v : (boolean[]) o) {
+                        list.add(String.valueOf(Boolean.valueOf(v)));
+                    }
+                    return toArrayString(list);
+                case "short[]":
+                    for (short v : (short[]) o) {
+                        list.add(String.valueOf(Short.valueOf(v)));
+                    }
+                    return toArrayString(list);
+                case "byte[]":
+                    for (byte v : (byte[]) o) {
+                        list.add(String.valueOf(Byte.valueOf(v)));
+                    }
+                    return toArrayString(list);
+                default:
+            }
+            for (Object v : (Object[]) o) {
+                list.add(formatValue(v));
+            }
+            return toArrayString(list);
+        } else if (o instanceof Collection) {
+            List<String> list = new ArrayList<>();
+            for (Object v : (Collection<?>) o) {
+                list.add(formatValue(v));
+            }
+            return toArrayString(list);
+        } else {
+            return URLEncoder.encode(o.toString(), "UTF-8");
+        }
+    }
+
+    private static String toArrayString(List<String> list) {
+        return list.stream().collect(Collectors.joining(",", "[", "]"));
+    }
+
+}
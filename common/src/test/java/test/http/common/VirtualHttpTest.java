@@ -0,0 +1,100 @@
+package test.http.common;
+
+import dive.http.common.BaseMimeHttp;
+import dive.http.common.Detail;
+import dive.http.common.MimeRequest;
+import dive.http.common.VirtualHttp;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+public class VirtualHttpTest {
+
+    /**
+     * 返回执行请求的线程名，java 21上同时标记是否为虚拟线程
+     */
+    private final BaseMimeHttp backend = new BaseMimeHttp() {
+        @Override
+        public String execute(MimeRequest request, Detail detail) {
+            String result = Thread.currentThread().getName() + (virtual(Thread.currentThread()) ? " virtual" : "");
+            if (null != detail) {
+                detail.accept(request.getUrl(), request.getMethod(), request.getHeader(), null, 200, null, result);
+            }
+            return result;
+        }
+    };
+
+    /**
+     * java 21以下没有虚拟线程，异步请求使用默认的有界线程池，批量请求同样如此
+     */
+    @Test
+    public void testFallback() throws Exception {
+        Assume.assumeFalse(VirtualHttp.supported());
+        Assert.assertNull(VirtualHttp.virtualExecutor());
+        VirtualHttp http = new VirtualHttp(backend);
+        Assert.assertTrue(http.executeAsync(StubHttp.get()).get(5, TimeUnit.SECONDS).startsWith("dive-http-async-"));
+        for (String result : http.executeAll(requests(8), 4)) {
+            Assert.assertTrue(result, result.startsWith("dive-http-async-"));
+        }
+        // 设置null时保持默认的线程池
+        backend.executor(VirtualHttp.virtualExecutor());
+        Assert.assertTrue(backend.executeAsync(StubHttp.get()).get(5, TimeUnit.SECONDS).startsWith("dive-http-async-"));
+    }
+
+    /**
+     * java 21及以上每个异步请求一个虚拟线程
+     */
+    @Test
+    public void testVirtual() throws Exception {
+        Assume.assumeTrue(VirtualHttp.supported());
+        Executor executor = VirtualHttp.virtualExecutor();
+        Assert.assertNotNull(executor);
+        Assert.assertSame(executor, VirtualHttp.virtualExecutor());
+        VirtualHttp http = new VirtualHttp(backend);
+        Assert.assertTrue(http.executeAsync(StubHttp.get()).get(5, TimeUnit.SECONDS).endsWith(" virtual"));
+        for (String result : http.executeAll(requests(8), 4)) {
+            Assert.assertTrue(result, result.endsWith(" virtual"));
+        }
+    }
+
+    /**
+     * 同步请求、流式请求和回调都在调用线程中转交给被包装的实现
+     */
+    @Test
+    public void testDelegate() {
+        VirtualHttp http = new VirtualHttp(backend);
+        Assert.assertSame(backend, http.getHttp());
+        String caller = Thread.currentThread().getName();
+        List<Integer> codes = new ArrayList<>();
+        Assert.assertEquals(caller, http.execute(StubHttp.get(), (url, method, request, body, code, response, result) -> codes.add(code)));
+        Assert.assertEquals("[200]", codes.toString());
+        Assert.assertEquals(caller, http.executeStream(StubHttp.get(), (in, charset) -> Thread.currentThread().getName()));
+    }
+
+    private static List<MimeRequest> requests(int count) {
+        List<MimeRequest> requests = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            requests.add(StubHttp.get());
+        }
+        return requests;
+    }
+
+    /**
+     * Thread.isVirtual在java 21才有，测试按java 8编译
+     */
+    private static boolean virtual(Thread thread) {
+        try {
+            Method method = Thread.class.getMethod("isVirtual");
+            return (Boolean) method.invoke(thread);
+        } catch (ReflectiveOperationException e) {
+            return false;
+        }
+    }
+
+}
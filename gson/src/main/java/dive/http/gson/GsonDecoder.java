@@ -0,0 +1,85 @@
+package dive.http.gson;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import dive.http.common.BodyDecoder;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.reflect.Type;
+import java.util.Objects;
+
+/**
+ * 使用Gson解码响应体，按声明的字符集从字节流读取
+ * 解析异常转换为IOException，与读取异常一样由各实现统一处理
+ * 用法：http.decode(request, GsonDecoder.of(Foo.class), null)，异步使用decodeAsync
+ * @author dawn
+ */
+public final class GsonDecoder {
+
+    /**
+     * 默认的Gson，线程安全
+     */
+    private static final Gson GSON = new Gson();
+
+    private GsonDecoder() {}
+
+    /**
+     * 使用默认的Gson
+     * @param type 结果类型
+     * @param <R> 结果类型
+     * @return 解码器
+     */
+    public static <R> BodyDecoder<R> of(Class<R> type) {
+        return of(GSON, TypeToken.get(type));
+    }
+
+    /**
+     * 使用给定的Gson
+     * @param gson Gson
+     * @param type 结果类型
+     * @param <R> 结果类型
+     * @return 解码器
+     */
+    public static <R> BodyDecoder<R> of(Gson gson, Class<R> type) {
+        return of(gson, TypeToken.get(type));
+    }
+
+    /**
+     * 使用给定的Gson，解码为泛型类型
+     * @param gson Gson
+     * @param type 结果类型，例如：new TypeToken&lt;List&lt;Kline&gt;&gt;() {}.getType()
+     * @param <R> 结果类型
+     * @return 解码器
+     */
+    @SuppressWarnings("unchecked")
+    public static <R> BodyDecoder<R> of(Gson gson, Type type) {
+        return of(gson, (TypeToken<R>) TypeToken.get(type));
+    }
+
+    /**
+     * 使用给定的Gson，解码为泛型类型
+     * @param gson Gson
+     * @param type 结果类型
+     * @param <R> 结果类型
+     * @return 解码器
+     */
+    public static <R> BodyDecoder<R> of(Gson gson, TypeToken<R> type) {
+        Objects.requireNonNull(gson, "gson");
+        Objects.requireNonNull(type, "type");
+        // 类型适配器只查找一次
+        TypeAdapter<R> adapter = gson.getAdapter(type);
+        return (body, charset) -> {
+            JsonReader reader = gson.newJsonReader(new InputStreamReader(body, charset));
+            try {
+                return adapter.read(reader);
+            } catch (JsonParseException | IllegalStateException | NumberFormatException e) {
+                throw new IOException(e);
+            }
+        };
+    }
+
+}
@@ -0,0 +1,102 @@
+package dive.http.jackson;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import dive.http.common.BodyDecoder;
+
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Objects;
+
+/**
+ * 使用Jackson解码响应体
+ * utf-8和utf-16/32由Jackson直接从字节解析，其余字符集按声明的字符集转换为字符流
+ * 用法：http.decode(request, JacksonDecoder.of(Foo.class), null)，异步使用decodeAsync
+ * @author dawn
+ */
+public final class JacksonDecoder {
+
+    /**
+     * 默认的ObjectMapper，配置后线程安全
+     */
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private JacksonDecoder() {}
+
+    /**
+     * 使用默认的ObjectMapper
+     * @param type 结果类型
+     * @param <R> 结果类型
+     * @return 解码器
+     */
+    public static <R> BodyDecoder<R> of(Class<R> type) {
+        return of(MAPPER, type);
+    }
+
+    /**
+     * 使用给定的ObjectMapper
+     * @param mapper ObjectMapper
+     * @param type 结果类型
+     * @param <R> 结果类型
+     * @return 解码器
+     */
+    public static <R> BodyDecoder<R> of(ObjectMapper mapper, Class<R> type) {
+        Objects.requireNonNull(mapper, "mapper");
+        return of(mapper.readerFor(Objects.requireNonNull(type, "type")));
+    }
+
+    /**
+     * 使用给定的ObjectMapper，解码为泛型类型
+     * @param mapper ObjectMapper
+     * @param type 结果类型，例如：new TypeReference&lt;List&lt;Kline&gt;&gt;() {}
+     * @param <R> 结果类型
+     * @return 解码器
+     */
+    public static <R> BodyDecoder<R> of(ObjectMapper mapper, TypeReference<R> type) {
+        Objects.requireNonNull(mapper, "mapper");
+        return of(mapper.readerFor(Objects.requireNonNull(type, "type")));
+    }
+
+    /**
+     * 使用给定的ObjectMapper，解码为指定类型
+     * @param mapper ObjectMapper
+     * @param type 结果类型
+     * @param <R> 结果类型
+     * @return 解码器
+     */
+    public static <R> BodyDecoder<R> of(ObjectMapper mapper, JavaType type) {
+        Objects.requireNonNull(mapper, "mapper");
+        return of(mapper.readerFor(Objects.requireNonNull(type, "type")));
+    }
+
+    /**
+     * 使用给定的ObjectReader，ObjectReader不可变，可以共享
+     * @param reader ObjectReader
+     * @param <R> 结果类型
+     * @return 解码器
+     */
+    public static <R> BodyDecoder<R> of(ObjectReader reader) {
+        Objects.requireNonNull(reader, "reader");
+        return (body, charset) -> {
+            if (unicode(charset)) {
+                return reader.readValue(body);
+            }
+            return reader.readValue(new InputStreamReader(body, charset));
+        };
+    }
+
+    /**
+     * Jackson能从字节自动识别的编码
+     */
+    private static boolean unicode(Charset charset) {
+        return StandardCharsets.UTF_8.equals(charset)
+                || StandardCharsets.UTF_16.equals(charset)
+                || StandardCharsets.UTF_16BE.equals(charset)
+                || StandardCharsets.UTF_16LE.equals(charset)
+                || StandardCharsets.US_ASCII.equals(charset);
+    }
+
+}
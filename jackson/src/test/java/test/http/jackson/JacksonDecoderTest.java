@@ -0,0 +1,107 @@
+package test.http.jackson;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import dive.http.common.BaseMimeHttp;
+import dive.http.common.BodyDecoder;
+import dive.http.common.Detail;
+import dive.http.common.MimeRequest;
+import dive.http.jackson.JacksonDecoder;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+public class JacksonDecoderTest {
+
+    private static final MimeRequest GET = MimeRequest.builder().url("http://api.example.com/kline").get().build();
+
+    public static class Kline {
+        public String symbol;
+        public double close;
+    }
+
+    @Test
+    public void testClass() throws IOException {
+        Kline kline = JacksonDecoder.of(Kline.class).decode(bytes("{\"symbol\":\"btc\",\"close\":1.5}"), StandardCharsets.UTF_8);
+        Assert.assertEquals("btc", kline.symbol);
+        Assert.assertEquals(1.5, kline.close, 0);
+    }
+
+    @Test
+    public void testGeneric() throws IOException {
+        BodyDecoder<List<Kline>> decoder = JacksonDecoder.of(new ObjectMapper(), new TypeReference<List<Kline>>() {});
+        List<Kline> klines = decoder.decode(bytes("[{\"symbol\":\"a\"},{\"symbol\":\"b\"}]"), StandardCharsets.UTF_8);
+        Assert.assertEquals(2, klines.size());
+        Assert.assertEquals("b", klines.get(1).symbol);
+    }
+
+    /**
+     * 非unicode字符集经过Reader转换，unicode字符集由Jackson直接读取字节
+     */
+    @Test
+    public void testCharset() throws IOException {
+        Charset gbk = Charset.forName("GBK");
+        Kline kline = JacksonDecoder.of(Kline.class).decode("{\"symbol\":\"比特币\"}".getBytes(gbk), gbk);
+        Assert.assertEquals("比特币", kline.symbol);
+        kline = JacksonDecoder.of(Kline.class).decode("{\"symbol\":\"以太坊\"}".getBytes(StandardCharsets.UTF_16LE), StandardCharsets.UTF_16LE);
+        Assert.assertEquals("以太坊", kline.symbol);
+    }
+
+    @Test(expected = IOException.class)
+    public void testMalformed() throws IOException {
+        JacksonDecoder.of(JsonNode.class).decode(bytes("{\"close\":"), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testDecode() throws Exception {
+        Fixed http = new Fixed(200, "{\"symbol\":\"eth\"}");
+        Assert.assertEquals("eth", http.decode(GET, JacksonDecoder.of(Kline.class), null).symbol);
+        Assert.assertEquals("eth", http.decodeAsync(GET, JacksonDecoder.of(Kline.class), null).get(5, TimeUnit.SECONDS).symbol);
+    }
+
+    /**
+     * 错误响应的响应体不是期望的结构，不交给解码器
+     */
+    @Test
+    public void testError() {
+        Fixed http = new Fixed(500, "<html>error</html>");
+        int[] code = new int[1];
+        Assert.assertNull(http.decode(GET, JacksonDecoder.of(Kline.class),
+                (url, method, request, body, c, response, result) -> code[0] = c));
+        Assert.assertEquals(500, code[0]);
+    }
+
+    private static byte[] bytes(String json) {
+        return json.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 总是返回同一响应的后端
+     */
+    private static class Fixed extends BaseMimeHttp {
+
+        private final int code;
+
+        private final String body;
+
+        private Fixed(int code, String body) {
+            this.code = code;
+            this.body = body;
+        }
+
+        @Override
+        public String execute(MimeRequest request, Detail detail) {
+            if (null != detail) {
+                detail.accept(request.getUrl(), request.getMethod(), request.getHeader(), null, code, null, body);
+            }
+            return body;
+        }
+    }
+
+}
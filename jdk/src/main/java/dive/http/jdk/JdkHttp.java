@@ -0,0 +1,517 @@
+package dive.http.jdk;
+
+import dive.http.common.BaseMimeHttp;
+import dive.http.common.Compression;
+import dive.http.common.Detail;
+import dive.http.common.MimeHttp;
+import dive.http.common.MimeRequest;
+import dive.http.common.Receiver;
+import dive.http.common.model.Content;
+import dive.http.common.model.Header;
+import dive.http.common.model.Method;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.ConnectException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpConnectTimeoutException;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+
+/**
+ * 利用java11的HttpClient实现，默认使用HTTP/2，同一主机的并发请求复用一个连接
+ * @author dawn
+ */
+public class JdkHttp extends BaseMimeHttp {
+
+    /**
+     * HttpClient不允许设置的请求头
+     */
+    private static final Set<String> RESTRICTED = Set.of("connection", "content-length", "expect", "host", "upgrade");
+
+    /**
+     * 默认超时时间
+     */
+    private static final Duration TIMEOUT = Duration.ofSeconds(10);
+
+    /**
+     * HttpClient 实例，自行创建时首次请求才创建
+     */
+    private volatile HttpClient client;
+
+    /**
+     * 自行创建HttpClient时的协议版本，使用传入的HttpClient时为null
+     */
+    private final HttpClient.Version version;
+
+    /**
+     * 单个请求的超时时间
+     */
+    private final Duration timeout;
+
+    /**
+     * 构造器，HTTP/2优先，不支持时自动降级为HTTP/1.1
+     * 异步回调在executor()中执行，未设置时为共享的有界线程池
+     */
+    public JdkHttp() {
+        this(HttpClient.Version.HTTP_2);
+    }
+
+    /**
+     * 构造器
+     * @param version 协议版本
+     */
+    public JdkHttp(HttpClient.Version version) {
+        this.version = Objects.requireNonNull(version, "version");
+        this.timeout = TIMEOUT;
+    }
+
+    /**
+     * 构造器，异步回调在HttpClient自身的执行器中执行，executor(Executor)对其无效
+     * @param client HttpClient实例
+     * @param timeout 单个请求的超时时间
+     */
+    public JdkHttp(HttpClient client, Duration timeout) {
+        this.client = Objects.requireNonNull(client, "client");
+        this.version = null;
+        this.timeout = timeout;
+    }
+
+    /**
+     * 获取HttpClient，自行创建时只创建一次，任务转交给当前的executor()
+     * 之后通过executor(Executor)更改执行器不需要重建HttpClient，连接和选择器线程继续复用
+     * @return HttpClient实例
+     */
+    private HttpClient client() {
+        HttpClient c = client;
+        if (null == c) {
+            synchronized (this) {
+                c = client;
+                if (null == c) {
+                    Executor executor = task -> executor().execute(task);
+                    c = HttpClient.newBuilder()
+                            .version(version)
+                            .followRedirects(HttpClient.Redirect.NORMAL)
+                            .connectTimeout(TIMEOUT)
+                            .executor(executor)
+                            .build();
+                    client = c;
+                }
+            }
+        }
+        return c;
+    }
+
+    @Override
+    public String execute(MimeRequest request, Detail detail) {
+        Objects.requireNonNull(request, "mime request is null");
+
+        String url = MimeHttp.url(request);
+        Method method = request.getMethod();
+        Header requestHeader = request.getHeader();
+        Object para = request.getBody();
+
+        String result;
+        try {
+            HttpResponse<byte[]> response = client().send(request(request, url), HttpResponse.BodyHandlers.ofByteArray());
+            result = response(response, text(response), detail, url, method, requestHeader, para);
+        } catch (IOException e) {
+            result = failure(e, detail, url, method, requestHeader, para);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            error(e, "JdkHttp", url);
+            result = null;
+        }
+        if (null == result) {
+            error("JdkHttp result is null. url --> " + url);
+        }
+        return result;
+    }
+
+    @Override
+    public CompletableFuture<String> executeAsync(MimeRequest request, Detail detail) {
+        Objects.requireNonNull(request, "mime request is null");
+
+        String url = MimeHttp.url(request);
+        Method method = request.getMethod();
+        Header requestHeader = request.getHeader();
+        Object para = request.getBody();
+
+        Abortable<byte[]> handler = new Abortable<>(HttpResponse.BodyHandlers.ofByteArray());
+        CompletableFuture<HttpResponse<byte[]>> sent = client().sendAsync(request(request, url), handler);
+        CompletableFuture<String> future = new CompletableFuture<>();
+        sent.whenComplete((response, e) -> {
+            if (future.isDone()) {
+                return;
+            }
+            Throwable cause = e instanceof CompletionException && null != e.getCause() ? e.getCause() : e;
+            if (cause instanceof CancellationException) {
+                // 请求被取消不是失败，也没有结果
+                future.cancel(false);
+                return;
+            }
+            if (null != cause && !(cause instanceof IOException)) {
+                future.completeExceptionally(cause);
+                return;
+            }
+            String result;
+            try {
+                result = null != cause ? failure((IOException) cause, detail, url, method, requestHeader, para)
+                        : response(response, text(response), detail, url, method, requestHeader, para);
+            } catch (IOException ex) {
+                result = failure(ex, detail, url, method, requestHeader, para);
+            } catch (RuntimeException ex) {
+                future.completeExceptionally(ex);
+                return;
+            }
+            if (null == result) {
+                error("JdkHttp result is null. url --> " + url);
+            }
+            future.complete(result);
+        });
+        // 取消时中止请求：java16之前取消sendAsync的结果不会中止交换，通过取消响应体的订阅关闭流
+        future.whenComplete((result, e) -> {
+            if (future.isCancelled()) {
+                handler.abort();
+                sent.cancel(true);
+            }
+        });
+        return future;
+    }
+
+    @Override
+    public <R> R executeStream(MimeRequest request, Receiver<R> receiver, Detail detail) {
+        Objects.requireNonNull(request, "mime request is null");
+        Objects.requireNonNull(receiver, "receiver");
+
+        String url = MimeHttp.url(request);
+        Method method = request.getMethod();
+        Header requestHeader = request.getHeader();
+        Object para = request.getBody();
+
+        R result = null;
+        try {
+            HttpResponse<InputStream> response = client().send(request(request, url), HttpResponse.BodyHandlers.ofInputStream());
+            if (MimeHttp.success(response.statusCode())) {
+                try (InputStream in = compression.decode(response.body(), encoding(response))) {
+                    result = receiver.receive(in, MimeHttp.charset(response.headers().firstValue("Content-Type").orElse(null)));
+                }
+            } else {
+                // 错误响应不交给receiver，读完后连接可以复用
+                try (InputStream in = response.body()) {
+                    in.transferTo(OutputStream.nullOutputStream());
+                }
+            }
+            response(response, null, detail, url, method, requestHeader, para);
+        } catch (IOException e) {
+            failure(e, detail, url, method, requestHeader, para);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            error(e, "JdkHttp", url);
+        }
+        return result;
+    }
+
+    @Override
+    public Long downloadTo(MimeRequest request, Path path, Detail detail) {
+        Objects.requireNonNull(request, "mime request is null");
+        Objects.requireNonNull(path, "path");
+
+        String url = MimeHttp.url(request);
+        Method method = request.getMethod();
+        Header requestHeader = request.getHeader();
+        Object para = request.getBody();
+
+        Long result = null;
+        try {
+            HttpResponse<InputStream> response = client().send(request(request, url), HttpResponse.BodyHandlers.ofInputStream());
+            // 只有2xx响应写入，先写入临时文件，完成后替换目标文件，错误响应不覆盖已有文件
+            try (InputStream in = response.body()) {
+                if (MimeHttp.success(response.statusCode())) {
+                    try (InputStream decoded = compression.decode(in, encoding(response))) {
+                        result = MimeHttp.write(Channels.newChannel(decoded), path);
+                    }
+                } else {
+                    in.transferTo(OutputStream.nullOutputStream());
+                }
+            }
+            response(response, null != result ? String.valueOf(result) : null, detail, url, method, requestHeader, para);
+        } catch (IOException e) {
+            failure(e, detail, url, method, requestHeader, para);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            error(e, "JdkHttp", url);
+        }
+        return result;
+    }
+
+    /**
+     * 构造请求对象
+     * @param request MimeRequest请求对象
+     * @param url 请求url
+     * @return 请求对象
+     */
+    private HttpRequest request(MimeRequest request, String url) {
+        HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create(url));
+        if (null != timeout) {
+            builder.timeout(timeout);
+        }
+        if (null != request.getHeader()) {
+            request.getHeader().each((k, v) -> {
+                if (!RESTRICTED.contains(k.toLowerCase())) {
+                    builder.header(k, v);
+                }
+            });
+        }
+        String accept = compression.accept();
+        if (null != accept && (null == request.getHeader() || !request.getHeader().containsKey("Accept-Encoding"))) {
+            builder.header("Accept-Encoding", accept);
+        }
+        Method method = request.getMethod();
+        if (Method.GET.equals(method)) {
+            return builder.GET().build();
+        }
+        return builder.method(method.name(), body(request, builder)).build();
+    }
+
+    /**
+     * 构造请求体，未设置Content-Type时按请求体类型补充
+     * @param request MimeRequest请求对象
+     * @param builder 请求构造器
+     * @return 请求体
+     */
+    private HttpRequest.BodyPublisher body(MimeRequest request, HttpRequest.Builder builder) {
+        Header header = request.getHeader();
+        boolean typed = null != header && header.containsKey("Content-Type");
+        boolean encode = null == header || !header.containsKey("Content-Encoding");
+        if (null != request.getParameter()) {
+            if (!typed) {
+                builder.header("Content-Type", "application/x-www-form-urlencoded; charset=utf-8");
+            }
+            return text(request.getParameter().form(), builder, encode);
+        }
+        if (null != request.getString()) {
+            String string = request.getString();
+            if (!typed) {
+                if (!string.trim().startsWith("{") && !string.trim().startsWith("[")) {
+                    builder.header("Content-Type", "text/plain; charset=utf-8");
+                } else {
+                    builder.header("Content-Type", "application/json; charset=utf-8");
+                }
+            }
+            return text(string, builder, encode);
+        }
+        Content content = request.getContent();
+        if (null != content) {
+            if (!typed) {
+                builder.header("Content-Type", content.getType());
+            }
+            if (null != content.getPath()) {
+                try {
+                    return HttpRequest.BodyPublishers.ofFile(content.getPath());
+                } catch (FileNotFoundException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            HttpRequest.BodyPublisher publisher = HttpRequest.BodyPublishers.ofInputStream(() -> {
+                try {
+                    return content.open();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+            if (0 <= content.getLength()) {
+                return HttpRequest.BodyPublishers.fromPublisher(publisher, content.getLength());
+            }
+            return publisher;
+        }
+        return HttpRequest.BodyPublishers.noBody();
+    }
+
+    /**
+     * 构造字符串请求体，达到阈值时压缩
+     * @param text 请求体
+     * @param builder 请求构造器，压缩时设置Content-Encoding
+     * @param encode 是否可以压缩，已指定Content-Encoding时不压缩
+     * @return 请求体
+     */
+    private HttpRequest.BodyPublisher text(String text, HttpRequest.Builder builder, boolean encode) {
+        Compression compression = this.compression;
+        byte[] encoded = encode ? compression.encode(text, StandardCharsets.UTF_8) : null;
+        if (null == encoded) {
+            return HttpRequest.BodyPublishers.ofString(text, StandardCharsets.UTF_8);
+        }
+        builder.header("Content-Encoding", compression.getRequestCoding());
+        return HttpRequest.BodyPublishers.ofByteArray(encoded);
+    }
+
+    /**
+     * 按Content-Encoding解码响应体，按声明的字符集转换为字符串
+     * @param response 响应
+     * @return 响应体
+     * @throws IOException 解码异常
+     */
+    private String text(HttpResponse<byte[]> response) throws IOException {
+        byte[] bytes = compression.decode(response.body(), encoding(response));
+        return new String(bytes, MimeHttp.charset(response.headers().firstValue("Content-Type").orElse(null)));
+    }
+
+    /**
+     * 响应头Content-Encoding的值
+     * @param response 响应
+     * @return 没有时为null
+     */
+    private static String encoding(HttpResponse<?> response) {
+        return response.headers().firstValue("Content-Encoding").orElse(null);
+    }
+
+    /**
+     * 处理响应结果
+     * @param response 响应
+     * @param result 请求结果
+     * @param detail 更加详细的处理
+     * @param url 请求url
+     * @param method 请求方法
+     * @param requestHeader 请求header
+     * @param para 请求体
+     * @return 请求结果
+     */
+    private String response(HttpResponse<?> response, String result, Detail detail,
+                            String url, Method method, Header requestHeader, Object para) {
+        if (null != detail) {
+            detail.accept(url,
+                    method,
+                    requestHeader,
+                    para,
+                    response.statusCode(),
+                    header(response.headers()),
+                    result);
+        }
+        return result;
+    }
+
+    /**
+     * 获取响应头
+     * @param headers HttpClient的响应头
+     * @return 响应头
+     */
+    private Header header(HttpHeaders headers) {
+        Header responseHeader = Header.build(headers.map().size());
+        headers.map().forEach((k, list) -> list.forEach(v -> responseHeader.add(k, v)));
+        return responseHeader;
+    }
+
+    /**
+     * 请求异常处理
+     * @param e 异常
+     * @param detail 更加详细的处理
+     * @param url 请求url
+     * @param method 请求方法
+     * @param requestHeader 请求header
+     * @param para 请求体
+     * @return 请求结果
+     */
+    private String failure(IOException e, Detail detail,
+                           String url, Method method, Header requestHeader, Object para) {
+        e.printStackTrace();
+        error(e, "JdkHttp", url);
+        String message = null;
+        if (e instanceof HttpConnectTimeoutException) {
+            message = "Connection timed out: connect";
+        } else if (e instanceof ConnectException) {
+            message = null != e.getCause() ? e.getCause().getMessage() : e.getMessage();
+        }
+        if (null == message) {
+            return null;
+        }
+        return MimeHttp.except(message, detail,
+                url,
+                method,
+                requestHeader,
+                para,
+                null,
+                Header.build(),
+                null);
+    }
+
+    /**
+     * 可以中止的响应体处理，取消请求时取消响应体的订阅，HttpClient随之关闭HTTP/2流或HTTP/1.1连接
+     * java11到15取消sendAsync的结果不会中止交换，收到响应头之前取消的请求在收到响应头时中止
+     * @param <T> 响应体类型
+     */
+    private static final class Abortable<T> implements HttpResponse.BodyHandler<T> {
+
+        private final HttpResponse.BodyHandler<T> handler;
+
+        private volatile Flow.Subscription subscription;
+
+        private volatile boolean aborted;
+
+        private Abortable(HttpResponse.BodyHandler<T> handler) {
+            this.handler = handler;
+        }
+
+        @Override
+        public HttpResponse.BodySubscriber<T> apply(HttpResponse.ResponseInfo info) {
+            HttpResponse.BodySubscriber<T> subscriber = handler.apply(info);
+            return new HttpResponse.BodySubscriber<T>() {
+                @Override
+                public CompletionStage<T> getBody() {
+                    return subscriber.getBody();
+                }
+
+                @Override
+                public void onSubscribe(Flow.Subscription s) {
+                    subscription = s;
+                    subscriber.onSubscribe(s);
+                    if (aborted) {
+                        s.cancel();
+                    }
+                }
+
+                @Override
+                public void onNext(List<ByteBuffer> item) {
+                    subscriber.onNext(item);
+                }
+
+                @Override
+                public void onError(Throwable throwable) {
+                    subscriber.onError(throwable);
+                }
+
+                @Override
+                public void onComplete() {
+                    subscriber.onComplete();
+                }
+            };
+        }
+
+        void abort() {
+            aborted = true;
+            Flow.Subscription s = subscription;
+            if (null != s) {
+                s.cancel();
+            }
+        }
+    }
+
+}
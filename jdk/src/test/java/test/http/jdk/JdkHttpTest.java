@@ -0,0 +1,337 @@
+package test.http.jdk;
+
+import com.sun.net.httpserver.HttpServer;
+import dive.http.common.MimeHttp;
+import dive.http.common.MimeRequest;
+import dive.http.jdk.JdkHttp;
+import org.apache.hc.core5.http.EntityDetails;
+import org.apache.hc.core5.http.HttpException;
+import org.apache.hc.core5.http.HttpRequest;
+import org.apache.hc.core5.http.Message;
+import org.apache.hc.core5.http.URIScheme;
+import org.apache.hc.core5.http.impl.bootstrap.HttpAsyncServer;
+import org.apache.hc.core5.http.nio.AsyncRequestConsumer;
+import org.apache.hc.core5.http.nio.AsyncServerRequestHandler;
+import org.apache.hc.core5.http.nio.entity.StringAsyncEntityConsumer;
+import org.apache.hc.core5.http.nio.support.BasicRequestConsumer;
+import org.apache.hc.core5.http.nio.support.BasicResponseProducer;
+import org.apache.hc.core5.http.protocol.HttpContext;
+import org.apache.hc.core5.http.protocol.HttpCoreContext;
+import org.apache.hc.core5.http2.HttpVersionPolicy;
+import org.apache.hc.core5.http2.impl.nio.bootstrap.H2ServerBootstrap;
+import org.apache.hc.core5.http2.ssl.H2ServerTlsStrategy;
+import org.apache.hc.core5.io.CloseMode;
+import org.apache.hc.core5.reactor.ListenerEndpoint;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManagerFactory;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.http.HttpClient;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.KeyStore;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+@SpringBootTest
+public class JdkHttpTest {
+
+    private static HttpServer server;
+
+    private static String base;
+
+    private MimeHttp http = new JdkHttp();
+
+    /**
+     * 本地服务，分块返回请求路径中指定字节数的响应体，例如/chunked/5000；/s 返回请求方法和查询串
+     */
+    @BeforeClass
+    public static void start() throws Exception {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/chunked/", exchange -> {
+            String path = exchange.getRequestURI().getPath();
+            byte[] body = new byte[Integer.parseInt(path.substring(path.lastIndexOf('/') + 1))];
+            Arrays.fill(body, (byte) 'a');
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=UTF-8");
+            exchange.sendResponseHeaders(200, 0);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(body);
+            }
+        });
+        server.createContext("/s", exchange -> {
+            byte[] body = (exchange.getRequestMethod() + " " + exchange.getRequestURI().getRawQuery()).getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=UTF-8");
+            exchange.getResponseHeaders().set("X-Agent", String.valueOf(exchange.getRequestHeaders().getFirst("User-Agent")));
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(body);
+            }
+        });
+        server.start();
+        base = "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    @AfterClass
+    public static void stop() {
+        server.stop(0);
+    }
+
+    @Test
+    public void test() {
+        List<String> details = new ArrayList<>();
+        String result = new MimeRequest.Builder()
+                .url(base + "/s?wd={1}_{name}")
+                .replace(123)
+                .replace("name", 456)
+                .get()
+                .header("User-Agent", "dive-http")
+                .body("name", "123")
+                .body("name2", "123")
+                .build()
+                .execute(http, (url, method, request, body, code, response, r) -> details.add(
+                        method + " " + request.first("User-Agent") + " " + code + " " + response.first("X-Agent") + " " + r));
+        Assert.assertEquals("GET wd=123_456&name=123&name2=123", result);
+        Assert.assertEquals(Collections.singletonList("GET dive-http 200 dive-http " + result), details);
+    }
+
+    /**
+     * 错误响应同样回调响应码
+     */
+    @Test
+    public void testError() {
+        List<Integer> codes = new ArrayList<>();
+        new MimeRequest.Builder()
+                .url(base + "/missing")
+                .get()
+                .build()
+                .execute(http, (url, method, request, body, code, response, result) -> codes.add(code));
+        Assert.assertEquals(Collections.singletonList(404), codes);
+    }
+
+    @Test
+    public void testAsync() throws Exception {
+        List<String> details = new ArrayList<>();
+        String result = new MimeRequest.Builder()
+                .url(base + "/s?wd={1}_{name}")
+                .replace(123)
+                .replace("name", 456)
+                .get()
+                .build()
+                .executeAsync(http, (url, method, request, body, code, response, r) -> details.add(method + " " + code + " " + r))
+                .get(10, TimeUnit.SECONDS);
+        Assert.assertEquals("GET wd=123_456", result);
+        Assert.assertEquals(Collections.singletonList("GET 200 " + result), details);
+    }
+
+    @Test
+    public void testStream() {
+        List<Integer> codes = new ArrayList<>();
+        Long length = http.executeStream(new MimeRequest.Builder()
+                .url(base + "/chunked/20000")
+                .get()
+                .build(), (in, charset) -> {
+                    long count = 0;
+                    byte[] buffer = new byte[8192];
+                    int n;
+                    while (-1 != (n = in.read(buffer))) {
+                        count += n;
+                    }
+                    return count;
+                }, (url, method, request, body, code, response, result) -> codes.add(code));
+        Assert.assertEquals(20000L, length.longValue());
+        Assert.assertEquals(Collections.singletonList(200), codes);
+    }
+
+    /**
+     * 同一HttpClient的并发请求在一个HTTP/2连接上复用
+     * java.net.http只通过Upgrade使用h2c，本地HTTP/2服务不支持Upgrade，改用TLS+ALPN协商h2
+     */
+    @Test
+    public void testMultiplex() throws Exception {
+        Path dir = Files.createTempDirectory("h2");
+        HttpAsyncServer server = null;
+        try {
+            char[] password = "changeit".toCharArray();
+            SSLContext ssl = ssl(dir.resolve("localhost.p12"), password);
+            server = H2ServerBootstrap.bootstrap()
+                    .setVersionPolicy(HttpVersionPolicy.FORCE_HTTP_2)
+                    .setTlsStrategy(new H2ServerTlsStrategy(ssl))
+                    .register("*", new AsyncServerRequestHandler<Message<HttpRequest, String>>() {
+                        @Override
+                        public AsyncRequestConsumer<Message<HttpRequest, String>> prepare(HttpRequest request, EntityDetails entityDetails, HttpContext context) {
+                            return new BasicRequestConsumer<>(new StringAsyncEntityConsumer());
+                        }
+
+                        @Override
+                        public void handle(Message<HttpRequest, String> message, ResponseTrigger trigger, HttpContext context) throws HttpException, IOException {
+                            HttpCoreContext core = HttpCoreContext.adapt(context);
+                            InetSocketAddress remote = (InetSocketAddress) core.getEndpointDetails().getRemoteAddress();
+                            trigger.submitResponse(new BasicResponseProducer(200, core.getProtocolVersion() + " " + remote.getPort()), context);
+                        }
+                    })
+                    .create();
+            server.start();
+            ListenerEndpoint endpoint = server.listen(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), URIScheme.HTTPS).get(5, TimeUnit.SECONDS);
+            int port = ((InetSocketAddress) endpoint.getAddress()).getPort();
+
+            HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_2).sslContext(ssl).build();
+            MimeHttp http = new JdkHttp(client, Duration.ofSeconds(5));
+            // 首个连接协商出h2之前的并发请求各自建立连接，先建立连接
+            String first = http.execute(MimeRequest.builder().url("https://127.0.0.1:" + port + "/").get().build());
+            Assert.assertNotNull(first);
+            Assert.assertTrue(first, first.startsWith("HTTP/2"));
+            List<CompletableFuture<String>> futures = IntStream.range(0, 20)
+                    .mapToObj(i -> new MimeRequest.Builder()
+                            .url("https://127.0.0.1:" + port + "/s?wd={1}")
+                            .replace(i)
+                            .get()
+                            .build()
+                            .executeAsync(http))
+                    .collect(Collectors.toList());
+            Set<String> results = new HashSet<>();
+            for (CompletableFuture<String> future : futures) {
+                results.add(future.get(10, TimeUnit.SECONDS));
+            }
+            Assert.assertEquals(Collections.singleton(first), results);
+        } finally {
+            if (null != server) {
+                server.close(CloseMode.IMMEDIATE);
+            }
+            Files.walk(dir).sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    /**
+     * 取消异步请求时中止交换，服务端随后写入失败
+     */
+    @Test
+    public void testCancel() throws Exception {
+        CountDownLatch sending = new CountDownLatch(3);
+        CountDownLatch aborted = new CountDownLatch(1);
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/", exchange -> {
+            exchange.sendResponseHeaders(200, 0);
+            try (OutputStream os = exchange.getResponseBody()) {
+                for (int i = 0; i < 200; i++) {
+                    os.write('a');
+                    os.flush();
+                    sending.countDown();
+                    Thread.sleep(50);
+                }
+            } catch (IOException e) {
+                aborted.countDown();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        server.start();
+        try {
+            JdkHttp http = new JdkHttp();
+            CompletableFuture<String> future = http.executeAsync(MimeRequest.builder()
+                    .url("http://127.0.0.1:" + server.getAddress().getPort() + "/")
+                    .get()
+                    .build());
+            Assert.assertTrue(sending.await(5, TimeUnit.SECONDS));
+            Assert.assertTrue(future.cancel(true));
+            Assert.assertTrue(aborted.await(5, TimeUnit.SECONDS));
+            Assert.assertTrue(future.isCancelled());
+            try {
+                future.join();
+                Assert.fail();
+            } catch (CancellationException ignored) {
+                // 取消的请求没有结果
+            }
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    /**
+     * 更改执行器不重建HttpClient，之后的请求复用已有连接并在新的执行器中完成
+     */
+    @Test
+    public void testExecutor() throws Exception {
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", exchange -> {
+            byte[] body = String.valueOf(exchange.getRemoteAddress().getPort()).getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(body);
+            }
+        });
+        server.start();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            JdkHttp http = new JdkHttp();
+            MimeRequest request = MimeRequest.builder()
+                    .url("http://127.0.0.1:" + server.getAddress().getPort() + "/")
+                    .get()
+                    .build();
+            String first = http.executeAsync(request).get(5, TimeUnit.SECONDS);
+            AtomicInteger tasks = new AtomicInteger();
+            http.executor(task -> {
+                tasks.incrementAndGet();
+                executor.execute(task);
+            });
+            Assert.assertEquals(first, http.executeAsync(request).get(5, TimeUnit.SECONDS));
+            Assert.assertTrue(0 < tasks.get());
+        } finally {
+            executor.shutdown();
+            server.stop(0);
+        }
+    }
+
+    /**
+     * 用keytool生成127.0.0.1的自签名证书，服务端和客户端共用
+     */
+    private static SSLContext ssl(Path store, char[] password) throws Exception {
+        Process keytool = new ProcessBuilder(Paths.get(System.getProperty("java.home"), "bin", "keytool").toString(),
+                "-genkeypair", "-alias", "localhost", "-keyalg", "RSA", "-keysize", "2048", "-validity", "1",
+                "-dname", "CN=localhost", "-ext", "SAN=ip:127.0.0.1", "-storetype", "PKCS12",
+                "-keystore", store.toString(), "-storepass", new String(password), "-keypass", new String(password))
+                .redirectErrorStream(true)
+                .start();
+        keytool.getInputStream().transferTo(OutputStream.nullOutputStream());
+        Assert.assertEquals(0, keytool.waitFor());
+        KeyStore keyStore = KeyStore.getInstance("PKCS12");
+        try (InputStream in = Files.newInputStream(store)) {
+            keyStore.load(in, password);
+        }
+        KeyManagerFactory keys = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        keys.init(keyStore, password);
+        TrustManagerFactory trust = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+        trust.init(keyStore);
+        SSLContext ssl = SSLContext.getInstance("TLS");
+        ssl.init(keys.getKeyManagers(), trust.getTrustManagers(), null);
+        return ssl;
+    }
+
+}
@@ -0,0 +1,110 @@
+package dive.http.mime;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * 读取响应体用的字节块，固定大小的块在有界池中复用
+ * 响应体按块读取，块满时取下一块，不对已读取的数据反复扩容复制，读完后一次性按字符集解码
+ * @author dawn
+ */
+final class Chunks {
+
+    /**
+     * 每块的字节数
+     */
+    static final int SIZE = 8192;
+
+    /**
+     * 池中最多保留的块数，超出的块直接丢弃
+     */
+    private static final int LIMIT = 64;
+
+    private static final ArrayBlockingQueue<byte[]> POOL = new ArrayBlockingQueue<>(LIMIT);
+
+    private Chunks() {}
+
+    /**
+     * 从池中取一块，池为空时新建
+     * @return 字节块
+     */
+    static byte[] take() {
+        byte[] chunk = POOL.poll();
+        return null != chunk ? chunk : new byte[SIZE];
+    }
+
+    /**
+     * 归还字节块，池满时丢弃
+     * @param chunk 字节块
+     */
+    static void recycle(byte[] chunk) {
+        if (null != chunk && SIZE == chunk.length) {
+            POOL.offer(chunk);
+        }
+    }
+
+    /**
+     * 读取全部字节并解码为字符串，保持响应体原样
+     * @param in 输入流，不负责关闭
+     * @param charset 字符集
+     * @return 字符串
+     * @throws IOException 读取异常
+     */
+    static String read(InputStream in, Charset charset) throws IOException {
+        byte[][] full = null;
+        int count = 0;
+        byte[] current = take();
+        int position = 0;
+        try {
+            int n;
+            while (-1 != (n = in.read(current, position, SIZE - position))) {
+                position += n;
+                if (SIZE == position) {
+                    if (null == full) {
+                        full = new byte[4][];
+                    } else if (count == full.length) {
+                        full = Arrays.copyOf(full, count << 1);
+                    }
+                    full[count++] = current;
+                    current = take();
+                    position = 0;
+                }
+            }
+            if (0 == count) {
+                return new String(current, 0, position, charset);
+            }
+            // 多块时合并一次再解码，避免在块的边界截断多字节字符
+            byte[] bytes = new byte[count * SIZE + position];
+            for (int i = 0; i < count; i++) {
+                System.arraycopy(full[i], 0, bytes, i * SIZE, SIZE);
+            }
+            System.arraycopy(current, 0, bytes, count * SIZE, position);
+            return new String(bytes, charset);
+        } finally {
+            for (int i = 0; i < count; i++) {
+                recycle(full[i]);
+            }
+            recycle(current);
+        }
+    }
+
+    /**
+     * 读完并丢弃剩余的字节，读完的连接才能被jdk作为keep-alive连接复用
+     * @param in 输入流，不负责关闭
+     * @throws IOException 读取异常
+     */
+    static void drain(InputStream in) throws IOException {
+        byte[] chunk = take();
+        try {
+            while (-1 != in.read(chunk)) {
+                // 丢弃
+            }
+        } finally {
+            recycle(chunk);
+        }
+    }
+
+}
@@ -1,19 +1,22 @@
 package dive.http.mime;
 
 import dive.http.common.BaseMimeHttp;
+import dive.http.common.Compression;
 import dive.http.common.Detail;
 import dive.http.common.MimeRequest;
+import dive.http.common.Receiver;
+import dive.http.common.RequestListener;
+import dive.http.common.model.Content;
 import dive.http.common.model.Header;
 import dive.http.common.model.Method;
-import dive.http.common.model.Parameter;
 
 import java.io.*;
 import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
 import java.net.URL;
 import java.nio.charset.StandardCharsets;
-import java.util.List;
-import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * java原生http请求
@@ -28,100 +31,329 @@ public class MimeHttp extends BaseMimeHttp {
 		String url = dive.http.common.MimeHttp.url(request);
 		Method method = request.getMethod();
 		Header requestHeader = request.getHeader();
-		Parameter parameter = request.getParameter();
-		String string = request.getString();
-		Object para = null != parameter ? parameter : string;
+		Object para = request.getBody();
 
+		RequestListener listener = null == this.listener ? null : this.listener.call(request);
+		if (null != listener) {
+			listener.callStart(request);
+		}
+		boolean ended = false;
 		HttpURLConnection connection = null;
-		PrintWriter out = null;
 		InputStream in = null;
-		Integer code = null;
-		Header responseHeader = Header.build();
 		String result = null;
 		try {
 			connection = (HttpURLConnection) new URL(url).openConnection();
-			connection.setDoInput(true);
-			connection.setDoOutput(true);
-			connection.setUseCaches(false);
-			connection.setRequestMethod(method.name());
-
-			// "User-Agent", "Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/70.0.3538.110 Safari/537.36");
-			if (null != requestHeader) {
-				requestHeader.each(connection::setRequestProperty);
-			}
-
-			connection.connect();
-			if (!method.equals(Method.GET)) {
-				out = new PrintWriter(connection.getOutputStream());
-				if (null != parameter) {
-					out.print(parameter.concat());
-				} else if (null != string) {
-					out.print(string);
-				}
-				out.flush();
-			}
-
-			in = connection.getInputStream();
+			connect(connection, request, listener);
 
-			BufferedReader buffer = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
-			StringBuilder sb = new StringBuilder();
-			String line;
-			while ((line = buffer.readLine()) != null) {
-				sb.append(line).append("\n");
+			LongAdder bytes = null == listener ? null : new LongAdder();
+			in = response(connection, request, listener, bytes);
+			result = Chunks.read(in, dive.http.common.MimeHttp.charset(connection.getContentType()));
+			ended = true;
+			if (null != listener) {
+				listener.bodyEnd(request, bytes.sum());
+				listener.callEnd(request);
 			}
-			result = sb.toString();
 			if (null != detail) {
-				code = connection.getResponseCode();
-				Map<String,List<String>> headerMap = connection.getHeaderFields();
-				headerMap.forEach((k, vs) -> vs.forEach(v -> responseHeader.add(k, v)));
 				detail.accept(url,
 						method,
 						requestHeader,
 						para,
-						code,
-						responseHeader,
+						connection.getResponseCode(),
+						header(connection),
 						result);
 			}
 		} catch (IOException e) {
-			e.printStackTrace();
-			if (null != connection) {
-				try {
-					code = connection.getResponseCode();
-					if (403 == code) {
-						error("maybe you should add 'User-Agent' for headers, for example: Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/70.0.3538.110 Safari/537.36");
-					}
-				} catch (IOException e1) {
-					e1.printStackTrace();
-				}
+			ended = true;
+			if (null != listener) {
+				listener.callFailed(request, e);
+			}
+			result = failure(e, connection, detail, url, method, requestHeader, para);
+		} finally {
+			close(in, url);
+			if (!ended && null != listener) {
+				// 接收者或回调抛出了非IO异常，同样结束本次调用
+				listener.callFailed(request, new IOException("Aborted"));
+			}
+		}
+		if (null == result) {
+			error("MimeClient result is null. url --> " + url);
+		}
+		return result;
+	}
+
+	@Override
+	public <R> R executeStream(MimeRequest request, Receiver<R> receiver, Detail detail) {
+		Objects.requireNonNull(request, "mime request is null");
+		Objects.requireNonNull(receiver, "receiver");
+
+		String url = dive.http.common.MimeHttp.url(request);
+		Method method = request.getMethod();
+		Header requestHeader = request.getHeader();
+		Object para = request.getBody();
+
+		RequestListener listener = null == this.listener ? null : this.listener.call(request);
+		if (null != listener) {
+			listener.callStart(request);
+		}
+		boolean ended = false;
+		HttpURLConnection connection = null;
+		InputStream in = null;
+		R result = null;
+		try {
+			connection = (HttpURLConnection) new URL(url).openConnection();
+			connect(connection, request, listener);
+
+			LongAdder bytes = null == listener ? null : new LongAdder();
+			in = response(connection, request, listener, bytes);
+			// 4xx/5xx在getInputStream时抛出异常，其余非2xx响应同样不交给receiver
+			if (dive.http.common.MimeHttp.success(connection.getResponseCode())) {
+				result = receiver.receive(in, dive.http.common.MimeHttp.charset(connection.getContentType()));
+			} else {
+				Chunks.drain(in);
+			}
+			ended = true;
+			if (null != listener) {
+				// 接收者可能没有读完响应体，报告实际读取的字节数
+				listener.bodyEnd(request, bytes.sum());
+				listener.callEnd(request);
 			}
-			error(e, "MimeClient", url);
-			if (e.getMessage().contains("Connection timed out")) {
-				result = dive.http.common.MimeHttp.except("Connection timed out: connect", detail,
-						url,
+			if (null != detail) {
+				detail.accept(url,
 						method,
 						requestHeader,
 						para,
-						code,
-						responseHeader,
-						result);
+						connection.getResponseCode(),
+						header(connection),
+						null);
+			}
+		} catch (IOException e) {
+			ended = true;
+			if (null != listener) {
+				listener.callFailed(request, e);
 			}
+			failure(e, connection, detail, url, method, requestHeader, para);
 		} finally {
+			close(in, url);
+			if (!ended && null != listener) {
+				// 接收者或回调抛出了非IO异常，同样结束本次调用
+				listener.callFailed(request, new IOException("Aborted"));
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * 设置连接属性，建立连接并写入请求体
+	 * 请求体按固定长度流式写出，长度未知时分块传输，不在连接内部缓冲整个请求体
+	 * @param connection 连接
+	 * @param request 请求对象
+	 * @param listener 请求过程监听，可以为null
+	 * @throws IOException 连接异常
+	 */
+	private void connect(HttpURLConnection connection, MimeRequest request, RequestListener listener) throws IOException {
+		Method method = request.getMethod();
+		connection.setDoInput(true);
+		connection.setDoOutput(true);
+		connection.setUseCaches(false);
+		connection.setRequestMethod(method.name());
+
+		// "User-Agent", "Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/70.0.3538.110 Safari/537.36");
+		if (null != request.getHeader()) {
+			request.getHeader().each(connection::setRequestProperty);
+		}
+		Compression compression = this.compression;
+		if (null != compression.accept() && null == connection.getRequestProperty("Accept-Encoding")) {
+			connection.setRequestProperty("Accept-Encoding", compression.accept());
+		}
+
+		if (method.equals(Method.GET)) {
+			open(connection, request, listener);
+			return;
+		}
+
+		Content content = request.getContent();
+		byte[] bytes = null;
+		if (null != request.getParameter()) {
+			bytes = request.getParameter().form().getBytes(StandardCharsets.UTF_8);
+		} else if (null != request.getString()) {
+			bytes = request.getString().getBytes(StandardCharsets.UTF_8);
+		} else if (null != content) {
+			if (null == connection.getRequestProperty("Content-Type")) {
+				connection.setRequestProperty("Content-Type", content.getType());
+			}
+			if (0 <= content.getLength()) {
+				connection.setFixedLengthStreamingMode(content.getLength());
+			} else {
+				connection.setChunkedStreamingMode(0);
+			}
+		}
+		if (null != bytes) {
+			byte[] encoded = null == connection.getRequestProperty("Content-Encoding") ? compression.encode(bytes) : null;
+			if (null != encoded) {
+				connection.setRequestProperty("Content-Encoding", compression.getRequestCoding());
+				bytes = encoded;
+			}
+			connection.setFixedLengthStreamingMode(bytes.length);
+		}
+
+		open(connection, request, listener);
+		try (OutputStream out = connection.getOutputStream()) {
+			if (null != bytes) {
+				out.write(bytes);
+			} else if (null != content) {
+				content.writeTo(out);
+			}
+			out.flush();
+		}
+		if (null != listener) {
+			listener.requestWritten(request);
+		}
+	}
+
+	/**
+	 * 建立连接，HttpURLConnection在内部解析域名，没有DNS事件，解析耗时计入连接耗时
+	 * 单独解析得到的地址不一定是实际连接的地址，耗时也只是JVM缓存的查询，因此不报告
+	 * 复用keep-alive连接时连接耗时接近0
+	 * @param connection 连接
+	 * @param request 请求对象
+	 * @param listener 请求过程监听，可以为null
+	 * @throws IOException 连接异常
+	 */
+	private void open(HttpURLConnection connection, MimeRequest request, RequestListener listener) throws IOException {
+		if (null == listener) {
+			connection.connect();
+			return;
+		}
+		URL url = connection.getURL();
+		int port = -1 != url.getPort() ? url.getPort() : url.getDefaultPort();
+		listener.connectStart(request, InetSocketAddress.createUnresolved(url.getHost(), port));
+		connection.connect();
+		listener.connectEnd(request);
+	}
+
+	/**
+	 * 读取响应头并获取响应流，按Content-Encoding解码，有监听时在读到响应头后发出事件
+	 * @param connection 连接
+	 * @param request 请求对象
+	 * @param listener 请求过程监听，可以为null
+	 * @param bytes 累计读取的原始响应体字节数，没有监听时为null
+	 * @return 响应流
+	 * @throws IOException 响应异常
+	 */
+	private InputStream response(HttpURLConnection connection, MimeRequest request, RequestListener listener,
+								 LongAdder bytes) throws IOException {
+		if (null != listener) {
+			connection.getResponseCode();
+			listener.firstByte(request);
+		}
+		InputStream in = connection.getInputStream();
+		if (null != bytes) {
+			in = RequestListener.count(in, bytes);
+		}
+		return compression.decode(in, connection.getContentEncoding());
+	}
+
+	/**
+	 * 获取响应头
+	 * @param connection 连接
+	 * @return 响应头
+	 */
+	private Header header(HttpURLConnection connection) {
+		Header responseHeader = Header.build(16);
+		// 按响应中的顺序逐个读取，不经过getHeaderFields生成的不可变Map；第0个为状态行，没有键
+		String value;
+		for (int i = 0; null != (value = connection.getHeaderField(i)); i++) {
+			String key = connection.getHeaderFieldKey(i);
+			if (null != key) {
+				responseHeader.add(key, value);
+			}
+		}
+		return responseHeader;
+	}
+
+	/**
+	 * 请求异常处理
+	 * @param e 异常
+	 * @param connection 连接
+	 * @param detail 更加详细的处理
+	 * @param url 请求url
+	 * @param method 请求方法
+	 * @param requestHeader 请求header
+	 * @param para 请求体
+	 * @return 请求结果
+	 */
+	private String failure(IOException e, HttpURLConnection connection, Detail detail,
+						   String url, Method method, Header requestHeader, Object para) {
+		e.printStackTrace();
+		Integer code = null;
+		if (null != connection) {
 			try {
-				if (null != in) {
-					in.close();
-				}
-				if (null != out) {
-					out.close();
+				code = connection.getResponseCode();
+				if (403 == code) {
+					error("maybe you should add 'User-Agent' for headers, for example: Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/70.0.3538.110 Safari/537.36");
 				}
-			} catch (Exception e) {
-				error("MimeClient close is error. url --> " + url);
+			} catch (IOException e1) {
+				e1.printStackTrace();
 			}
+			drain(connection, url);
 		}
-		if (null == result) {
-			error("MimeClient result is null. url --> " + url);
+		error(e, "MimeClient", url);
+		if (null != code && 0 < code && null != detail) {
+			// 有响应码时同样回调，调用方可以获取错误响应的响应码和响应头
+			detail.accept(url,
+					method,
+					requestHeader,
+					para,
+					code,
+					header(connection),
+					null);
+			return null;
 		}
-		return result;
+		if (null != e.getMessage() && e.getMessage().contains("Connection timed out")) {
+			return dive.http.common.MimeHttp.except("Connection timed out: connect", detail,
+					url,
+					method,
+					requestHeader,
+					para,
+					code,
+					Header.build(),
+					null);
+		}
+		return null;
 	}
 
-}
+	/**
+	 * 读完并关闭错误响应流，jdk才会把连接放回keep-alive缓存
+	 * @param connection 连接
+	 * @param url 请求url
+	 */
+	private void drain(HttpURLConnection connection, String url) {
+		InputStream error = connection.getErrorStream();
+		if (null == error) {
+			return;
+		}
+		try {
+			Chunks.drain(error);
+		} catch (IOException e) {
+			error("MimeClient drain error stream is error. url --> " + url);
+		} finally {
+			close(error, url);
+		}
+	}
 
+	/**
+	 * 关闭输入流
+	 * @param in 输入流
+	 * @param url 请求url
+	 */
+	private void close(InputStream in, String url) {
+		try {
+			if (null != in) {
+				in.close();
+			}
+		} catch (Exception e) {
+			error("MimeClient close is error. url --> " + url);
+		}
+	}
+
+}
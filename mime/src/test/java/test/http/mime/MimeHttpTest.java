@@ -1,40 +1,222 @@
 package test.http.mime;
 
+import com.sun.net.httpserver.HttpServer;
 import dive.http.common.MimeRequest;
+import dive.http.common.RequestListener;
 import dive.http.mime.MimeHttp;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
 import org.junit.Test;
 import org.springframework.boot.test.context.SpringBootTest;
 
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
 @SpringBootTest
 public class MimeHttpTest {
 
+    private static HttpServer server;
+
+    private static String base;
+
     private MimeHttp http = new MimeHttp();
 
+    /**
+     * 本地服务，分块返回请求路径中指定字节数的响应体，例如/chunked/5000；/text/N 返回N个字符的中英文混合文本；/s 返回请求方法和查询串
+     */
+    @BeforeClass
+    public static void start() throws Exception {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.createContext("/chunked/", exchange -> {
+            String path = exchange.getRequestURI().getPath();
+            byte[] body = new byte[Integer.parseInt(path.substring(path.lastIndexOf('/') + 1))];
+            Arrays.fill(body, (byte) 'a');
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=UTF-8");
+            exchange.sendResponseHeaders(200, 0);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(body);
+            }
+        });
+        server.createContext("/text/", exchange -> {
+            String path = exchange.getRequestURI().getPath();
+            byte[] body = text(Integer.parseInt(path.substring(path.lastIndexOf('/') + 1))).getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=UTF-8");
+            exchange.sendResponseHeaders(200, 0);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(body);
+            }
+        });
+        server.createContext("/s", exchange -> {
+            byte[] body = (exchange.getRequestMethod() + " " + exchange.getRequestURI().getRawQuery()).getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=UTF-8");
+            exchange.getResponseHeaders().set("X-Agent", String.valueOf(exchange.getRequestHeaders().getFirst("User-Agent")));
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(body);
+            }
+        });
+        server.start();
+        base = "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    @AfterClass
+    public static void stop() {
+        server.stop(0);
+    }
+
+    /**
+     * 报告实际读取的响应体字节数，分块传输时没有Content-Length
+     * HttpURLConnection内部解析域名，没有DNS事件
+     */
+    @Test
+    public void testListener() {
+        List<String> events = new ArrayList<>();
+        long[] bytes = new long[]{-2};
+        RequestListener listener = new RequestListener() {
+            @Override
+            public void dnsStart(MimeRequest request, String host) {
+                events.add("dns");
+            }
+
+            @Override
+            public void bodyEnd(MimeRequest request, long count) {
+                bytes[0] = count;
+            }
+
+            @Override
+            public void callEnd(MimeRequest request) {
+                events.add("end");
+            }
+        };
+        MimeHttp listened = new MimeHttp();
+        listened.listener(listener);
+        String result = listened.execute(MimeRequest.builder().url(base + "/chunked/5000").get().build());
+        Assert.assertEquals(5000, result.length());
+        Assert.assertEquals(5000, bytes[0]);
+        Assert.assertEquals("[end]", events.toString());
+
+        Long read = listened.executeStream(MimeRequest.builder().url(base + "/chunked/3000").get().build(), (in, charset) -> {
+            long count = 0;
+            while (-1 != in.read()) {
+                count++;
+            }
+            return count;
+        });
+        Assert.assertEquals(3000L, read.longValue());
+        Assert.assertEquals(3000, bytes[0]);
+    }
+
+    /**
+     * 响应体按8K的块读取，空响应、恰好整块、跨块以及多字节字符跨越块边界时都与原文一致
+     */
+    @Test
+    public void testChunks() {
+        for (int size : new int[]{0, 1, 8191, 8192, 8193, 3 * 8192, 100_000}) {
+            Assert.assertEquals(size, http.execute(MimeRequest.builder().url(base + "/chunked/" + size).get().build()).length());
+        }
+        // 每3个字符中有一个3字节的汉字，块边界落在汉字中间
+        for (int length : new int[]{1, 4096, 4097, 5000, 20_000}) {
+            Assert.assertEquals(text(length), http.execute(MimeRequest.builder().url(base + "/text/" + length).get().build()));
+        }
+    }
+
+    /**
+     * 并发读取时池中的块不会被两个请求同时使用
+     */
+    @Test
+    public void testChunksConcurrent() throws Exception {
+        List<CompletableFuture<String>> futures = new ArrayList<>();
+        for (int i = 0; i < 64; i++) {
+            futures.add(http.executeAsync(MimeRequest.builder().url(base + "/text/" + (1000 + i * 997)).get().build()));
+        }
+        for (int i = 0; i < futures.size(); i++) {
+            Assert.assertEquals(text(1000 + i * 997), futures.get(i).get(10, TimeUnit.SECONDS));
+        }
+    }
+
+    private static String text(int length) {
+        StringBuilder sb = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            sb.append(0 == i % 3 ? '中' : (char) ('a' + i % 26));
+        }
+        return sb.toString();
+    }
+
     @Test
     public void test() {
-        new MimeRequest.Builder()
-                .url("http://www.baidu.com")
-                .url("https://www.baidu.com/s?wd={1}_{name}")
-                .url("http://www.huobi.com")
-                .url("https://www.huobi.com")
+        List<String> details = new ArrayList<>();
+        String result = new MimeRequest.Builder()
+                .url(base + "/s?wd={1}_{name}")
                 .replace(123)
                 .replace("name", 456)
                 .get()
-                .header("User-Agent", "Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/70.0.3538.110 Safari/537.36")
+                .header("User-Agent", "dive-http")
                 .body("name", "123")
                 .body("name2", "123")
                 .build()
-                .execute(http, (url, method, request, body, code, response, result) -> {
-                    System.out.println("url: " + url);
-                    System.out.println("method: " + method);
-                    System.out.println("request: ");
-                    if (null != request) request.forEach((k, v) -> System.out.println(k + " --> " + v));
-                    System.out.println("body:\n" + body);
-                    System.out.println("code: " + code);
-                    System.out.println("response:");
-                    if (null != response) response.forEach((k, v) -> System.out.println(k + " --> " + v));
-                    System.out.println("result: \n" + result);
-                });
+                .execute(http, (url, method, request, body, code, response, r) -> details.add(
+                        method + " " + request.first("User-Agent") + " " + code + " " + response.first("X-Agent") + " " + r));
+        Assert.assertEquals("GET wd=123_456&name=123&name2=123", result);
+        Assert.assertEquals(Collections.singletonList("GET dive-http 200 dive-http " + result), details);
+    }
+
+    /**
+     * 错误响应同样回调响应码
+     */
+    @Test
+    public void testError() {
+        List<Integer> codes = new ArrayList<>();
+        new MimeRequest.Builder()
+                .url(base + "/missing")
+                .get()
+                .build()
+                .execute(http, (url, method, request, body, code, response, result) -> codes.add(code));
+        Assert.assertEquals(Collections.singletonList(404), codes);
+    }
+
+    @Test
+    public void testAsync() throws Exception {
+        List<String> details = new ArrayList<>();
+        String result = new MimeRequest.Builder()
+                .url(base + "/s?wd={1}_{name}")
+                .replace(123)
+                .replace("name", 456)
+                .get()
+                .build()
+                .executeAsync(http, (url, method, request, body, code, response, r) -> details.add(method + " " + code + " " + r))
+                .get(10, TimeUnit.SECONDS);
+        Assert.assertEquals("GET wd=123_456", result);
+        Assert.assertEquals(Collections.singletonList("GET 200 " + result), details);
+    }
+
+    @Test
+    public void testStream() {
+        List<Integer> codes = new ArrayList<>();
+        Long length = http.executeStream(new MimeRequest.Builder()
+                .url(base + "/chunked/20000")
+                .get()
+                .build(), (in, charset) -> {
+                    long count = 0;
+                    byte[] buffer = new byte[8192];
+                    int n;
+                    while (-1 != (n = in.read(buffer))) {
+                        count += n;
+                    }
+                    return count;
+                }, (url, method, request, body, code, response, result) -> codes.add(code));
+        Assert.assertEquals(20000L, length.longValue());
+        Assert.assertEquals(Collections.singletonList(200), codes);
     }
 
 }
@@ -0,0 +1,115 @@
+package dive.http.okhttp;
+
+import dive.http.common.MimeRequest;
+import dive.http.common.RequestListener;
+import okhttp3.Call;
+import okhttp3.Connection;
+import okhttp3.EventListener;
+import okhttp3.Handshake;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.util.List;
+
+/**
+ * 将Okhttp的EventListener事件转交给RequestListener，每个请求一个实例
+ * @author dawn
+ */
+class OkEvents extends EventListener {
+
+    private final RequestListener listener;
+
+    private final MimeRequest request;
+
+    /**
+     * 本次请求是否新建了连接
+     */
+    private boolean connected;
+
+    OkEvents(RequestListener listener, MimeRequest request) {
+        this.listener = listener;
+        this.request = request;
+    }
+
+    @Override
+    public void callStart(Call call) {
+        listener.callStart(request);
+    }
+
+    @Override
+    public void dnsStart(Call call, String domainName) {
+        listener.dnsStart(request, domainName);
+    }
+
+    @Override
+    public void dnsEnd(Call call, String domainName, List<InetAddress> inetAddressList) {
+        listener.dnsEnd(request, domainName);
+    }
+
+    @Override
+    public void connectStart(Call call, InetSocketAddress inetSocketAddress, Proxy proxy) {
+        connected = true;
+        listener.connectStart(request, inetSocketAddress);
+    }
+
+    @Override
+    public void secureConnectStart(Call call) {
+        listener.secureConnectStart(request);
+    }
+
+    @Override
+    public void secureConnectEnd(Call call, Handshake handshake) {
+        listener.secureConnectEnd(request);
+    }
+
+    @Override
+    public void connectEnd(Call call, InetSocketAddress inetSocketAddress, Proxy proxy, Protocol protocol) {
+        listener.connectEnd(request);
+    }
+
+    @Override
+    public void connectionAcquired(Call call, Connection connection) {
+        listener.connectionAcquired(request, !connected);
+    }
+
+    @Override
+    public void requestHeadersEnd(Call call, Request request) {
+        if (null == request.body()) {
+            listener.requestWritten(this.request);
+        }
+    }
+
+    @Override
+    public void requestBodyEnd(Call call, long byteCount) {
+        listener.requestWritten(request);
+    }
+
+    /**
+     * responseHeadersStart在阻塞读取响应头之前触发，以读完响应头为准
+     */
+    @Override
+    public void responseHeadersEnd(Call call, Response response) {
+        listener.firstByte(request);
+    }
+
+    @Override
+    public void responseBodyEnd(Call call, long byteCount) {
+        listener.bodyEnd(request, byteCount);
+    }
+
+    @Override
+    public void callEnd(Call call) {
+        listener.callEnd(request);
+    }
+
+    @Override
+    public void callFailed(Call call, IOException ioe) {
+        listener.callFailed(request, ioe);
+    }
+
+}
@@ -1,20 +1,36 @@
 package dive.http.okhttp;
 
 import dive.http.common.BaseMimeHttp;
+import dive.http.common.Compression;
 import dive.http.common.Detail;
 import dive.http.common.MimeHttp;
 import dive.http.common.MimeRequest;
+import dive.http.common.Receiver;
+import dive.http.common.RequestListener;
+import dive.http.common.model.Content;
 import dive.http.common.model.Header;
 import dive.http.common.model.Method;
-import dive.http.common.model.Parameter;
+import dive.http.common.model.Protocol;
 import okhttp3.*;
+import okio.BufferedSink;
+import okio.Okio;
+import okio.Source;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.ConnectException;
 import java.net.Proxy;
 import java.net.SocketTimeoutException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 
 /**
  * Okhttp实现
@@ -30,6 +46,11 @@ public class OkHttp extends BaseMimeHttp {
      */
     private OkHttpClient client;
 
+    /**
+     * 设置监听前OkHttpClient原有的EventListener
+     */
+    private EventListener.Factory events;
+
     /**
      * 构造器
      * @param proxy 代理对象
@@ -59,6 +80,36 @@ public class OkHttp extends BaseMimeHttp {
             .build();
     }
 
+    /**
+     * 构造器
+     * @param connect 设置连接超时时间
+     * @param read 设置读取超时时间
+     * @param protocol 协议版本
+     */
+    public OkHttp(long connect, int read, Protocol protocol) {
+        client = new OkHttpClient.Builder()
+            .connectTimeout(connect, TimeUnit.SECONDS)
+            .readTimeout(read, TimeUnit.SECONDS)
+            .protocols(protocols(protocol))
+            .build();
+    }
+
+    /**
+     * 构造器
+     * @param protocol 协议版本
+     */
+    public OkHttp(Protocol protocol) {
+        client = new OkHttpClient.Builder().protocols(protocols(protocol)).build();
+    }
+
+    /**
+     * 构造器
+     * @param client OkHttpClient实例
+     */
+    public OkHttp(OkHttpClient client) {
+        this.client = Objects.requireNonNull(client, "client");
+    }
+
     /**
      * 构造器
      */
@@ -66,6 +117,44 @@ public class OkHttp extends BaseMimeHttp {
         client = new OkHttpClient();
     }
 
+    /**
+     * 协议版本转换为Okhttp的协议列表，HTTP_2在服务端不支持时降级为http/1.1
+     * @param protocol 协议版本
+     * @return 协议列表
+     */
+    private static List<okhttp3.Protocol> protocols(Protocol protocol) {
+        Objects.requireNonNull(protocol, "protocol");
+        switch (protocol) {
+            case HTTP_1_1: return Collections.singletonList(okhttp3.Protocol.HTTP_1_1);
+            case H2C: return Collections.singletonList(okhttp3.Protocol.H2_PRIOR_KNOWLEDGE);
+            case HTTP_2:
+            default: return Arrays.asList(okhttp3.Protocol.HTTP_2, okhttp3.Protocol.HTTP_1_1);
+        }
+    }
+
+    /**
+     * 设置请求过程监听，通过Okhttp的EventListener获取事件，会替换OkHttpClient原有的EventListener，传入null时恢复
+     * @param listener 监听
+     * @return 本实例
+     */
+    @Override
+    public OkHttp listener(RequestListener listener) {
+        super.listener(listener);
+        if (null == events) {
+            events = client.eventListenerFactory();
+        }
+        if (null == listener) {
+            client = client.newBuilder().eventListenerFactory(events).build();
+        } else {
+            client = client.newBuilder().eventListenerFactory(call -> {
+                MimeRequest request = call.request().tag(MimeRequest.class);
+                RequestListener current = this.listener;
+                return null == request || null == current ? EventListener.NONE : new OkEvents(current.call(request), request);
+            }).build();
+        }
+        return this;
+    }
+
     @Override
     public String execute(MimeRequest request, Detail detail) {
         Objects.requireNonNull(request, "mime request is null");
@@ -73,82 +162,266 @@ public class OkHttp extends BaseMimeHttp {
         String url = MimeHttp.url(request);
         Method method = request.getMethod();
         Header requestHeader = request.getHeader();
-        Parameter parameter = request.getParameter();
-        String string = request.getString();
-        Object para = null != parameter ? parameter : string;
+        Object para = request.getBody();
 
-        RequestBody body = null;
         Response response = null;
-        Integer code = null;
-        Header responseHeader = Header.build();
         String result = null;
 
         try {
-            if (!Method.GET.equals(method)) {
-                body = body(request);
+            response = client.newCall(request(request, url)).execute();
+            result = response(response, detail, url, method, requestHeader, para);
+        } catch (IOException e) {
+            result = failure(e, detail, url, method, requestHeader, para);
+        } finally {
+            if (null != response) {
+                response.close();
             }
-            Request.Builder builder = new Request.Builder();
-            Headers headers = headers(request.getHeader());
-            if (null != headers) {
-                builder.headers(headers);
+        }
+        if (null == result) {
+            error("Okhttp result is null. url --> " + url);
+        }
+        return result;
+    }
+
+    @Override
+    public CompletableFuture<String> executeAsync(MimeRequest request, Detail detail) {
+        Objects.requireNonNull(request, "mime request is null");
+
+        String url = MimeHttp.url(request);
+        Method method = request.getMethod();
+        Header requestHeader = request.getHeader();
+        Object para = request.getBody();
+
+        CompletableFuture<String> future = new CompletableFuture<>();
+        Call call = client.newCall(request(request, url));
+        call.enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                if (future.isDone()) {
+                    return;
+                }
+                complete(failure(e, detail, url, method, requestHeader, para));
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) {
+                try {
+                    complete(OkHttp.this.response(response, detail, url, method, requestHeader, para));
+                } catch (IOException e) {
+                    if (!future.isDone()) {
+                        complete(failure(e, detail, url, method, requestHeader, para));
+                    }
+                } catch (RuntimeException e) {
+                    future.completeExceptionally(e);
+                } finally {
+                    response.close();
+                }
             }
-            builder.url(url);
-            builder.method(method.name(), body);
-            Request r = builder.build();
-            response = client.newCall(r).execute();
-            ResponseBody requestBody = response.body();
-            if (null != requestBody) {
-                result = requestBody.string();
+
+            private void complete(String result) {
+                if (null == result) {
+                    error("Okhttp result is null. url --> " + url);
+                }
+                future.complete(result);
+            }
+        });
+        // 取消时取消请求
+        future.whenComplete((result, e) -> {
+            if (future.isCancelled()) {
+                call.cancel();
+            }
+        });
+        return future;
+    }
+
+    @Override
+    public <R> R executeStream(MimeRequest request, Receiver<R> receiver, Detail detail) {
+        Objects.requireNonNull(receiver, "receiver");
+        return stream(request, detail, responseBody -> {
+            MediaType contentType = responseBody.contentType();
+            Charset charset = null != contentType ? contentType.charset(StandardCharsets.UTF_8) : StandardCharsets.UTF_8;
+            try (InputStream in = responseBody.byteStream()) {
+                return receiver.receive(in, charset);
+            }
+        }, result -> null);
+    }
+
+    @Override
+    public Long downloadTo(MimeRequest request, Path path, Detail detail) {
+        Objects.requireNonNull(path, "path");
+        // 只有2xx响应写入，先写入临时文件，完成后替换目标文件
+        return stream(request, detail, responseBody -> MimeHttp.write(responseBody.source(), path), String::valueOf);
+    }
+
+    /**
+     * 执行请求，直接处理2xx响应的响应体，其余响应不交给handler，返回null
+     * @param request 请求对象
+     * @param detail 更加详细的处理
+     * @param handler 响应体处理
+     * @param text 回调中请求结果的表示
+     * @param <R> 处理结果类型
+     * @return 处理结果
+     */
+    private <R> R stream(MimeRequest request, Detail detail,
+                         BodyHandler<R> handler, Function<R, String> text) {
+        Objects.requireNonNull(request, "mime request is null");
+
+        String url = MimeHttp.url(request);
+        Method method = request.getMethod();
+        Header requestHeader = request.getHeader();
+        Object para = request.getBody();
+
+        Response response = null;
+        R result = null;
+
+        try {
+            response = client.newCall(request(request, url)).execute();
+            // 只处理2xx响应，错误响应只回调响应码和响应头
+            ResponseBody responseBody = MimeHttp.success(response.code()) ? body(response) : null;
+            if (null != responseBody) {
+                result = handler.handle(responseBody);
             }
             if (null != detail) {
-                code = response.code();
-                headers = response.headers();
-                headers.toMultimap().forEach((k, list) ->
-                        list.forEach(v -> responseHeader.put(k, v)));
                 detail.accept(url,
                         method,
                         requestHeader,
                         para,
-                        code,
-                        responseHeader,
-                        result);
+                        response.code(),
+                        header(response),
+                        null != result ? text.apply(result) : null);
             }
-        } catch (SocketTimeoutException e) {
-            e.printStackTrace();
-            error(e, "Okhttp", url);
-            result = MimeHttp.except("Connection timed out: connect", detail,
-                    url,
-                    method,
-                    requestHeader,
-                    para,
-                    code,
-                    responseHeader,
-                    result);
-        } catch (ConnectException e) {
-            e.printStackTrace();
-            error(e, "Okhttp", url);
-            result = MimeHttp.except(e.getCause().getMessage(), detail,
-                    url,
-                    method,
-                    requestHeader,
-                    para,
-                    code,
-                    responseHeader,
-                    result);
         } catch (IOException e) {
-            e.printStackTrace();
-            error(e, "Okhttp", url);
+            failure(e, detail, url, method, requestHeader, para);
         } finally {
             if (null != response) {
                 response.close();
             }
         }
-        if (null == result) {
-            error("Okhttp result is null. url --> " + url);
+        return result;
+    }
+
+    /**
+     * 构造Okhttp用的请求
+     * @param request 请求对象
+     * @param url 请求url
+     * @return Request
+     */
+    private Request request(MimeRequest request, String url) {
+        Request.Builder builder = new Request.Builder();
+        Headers headers = headers(request.getHeader());
+        if (null != headers) {
+            builder.headers(headers);
+        }
+        // 自行声明Accept-Encoding后Okhttp不再透明解压，统一由Compression解码
+        Compression compression = this.compression;
+        if (null != compression.accept() && (null == headers || null == headers.get("Accept-Encoding"))) {
+            builder.header("Accept-Encoding", compression.accept());
+        }
+        RequestBody body = null;
+        if (!Method.GET.equals(request.getMethod())) {
+            body = body(request, builder, null == headers || null == headers.get("Content-Encoding"));
+        }
+        builder.url(url);
+        builder.method(request.getMethod().name(), body);
+        if (null != listener) {
+            builder.tag(MimeRequest.class, request);
+        }
+        return builder.build();
+    }
+
+    /**
+     * 读取响应结果
+     * @param response 响应
+     * @param detail 更加详细的处理
+     * @param url 请求url
+     * @param method 请求方法
+     * @param requestHeader 请求header
+     * @param para 请求体
+     * @return 请求结果
+     * @throws IOException 读取异常
+     */
+    private String response(Response response, Detail detail,
+                            String url, Method method, Header requestHeader, Object para) throws IOException {
+        String result = null;
+        ResponseBody responseBody = body(response);
+        if (null != responseBody) {
+            result = responseBody.string();
+        }
+        if (null != detail) {
+            detail.accept(url,
+                    method,
+                    requestHeader,
+                    para,
+                    response.code(),
+                    header(response),
+                    result);
         }
         return result;
     }
 
+    /**
+     * 获取按Content-Encoding解码后的响应体
+     * @param response 响应
+     * @return 响应体
+     * @throws IOException 读取异常
+     */
+    private ResponseBody body(Response response) throws IOException {
+        ResponseBody responseBody = response.body();
+        String encoding = response.header("Content-Encoding");
+        if (null == responseBody || null == encoding) {
+            return responseBody;
+        }
+        InputStream in = compression.decode(responseBody.byteStream(), encoding);
+        return ResponseBody.create(responseBody.contentType(), -1L, Okio.buffer(Okio.source(in)));
+    }
+
+    /**
+     * 获取响应头
+     * @param response 响应
+     * @return 响应头
+     */
+    private Header header(Response response) {
+        Headers headers = response.headers();
+        Header responseHeader = Header.build(headers.size());
+        for (int i = 0; i < headers.size(); i++) {
+            responseHeader.add(headers.name(i), headers.value(i));
+        }
+        return responseHeader;
+    }
+
+    /**
+     * 请求异常处理
+     * @param e 异常
+     * @param detail 更加详细的处理
+     * @param url 请求url
+     * @param method 请求方法
+     * @param requestHeader 请求header
+     * @param para 请求体
+     * @return 请求结果
+     */
+    private String failure(IOException e, Detail detail,
+                           String url, Method method, Header requestHeader, Object para) {
+        e.printStackTrace();
+        error(e, "Okhttp", url);
+        String message = null;
+        if (e instanceof SocketTimeoutException) {
+            message = "Connection timed out: connect";
+        } else if (e instanceof ConnectException) {
+            message = null != e.getCause() ? e.getCause().getMessage() : e.getMessage();
+        }
+        if (null == message) {
+            return null;
+        }
+        return MimeHttp.except(message, detail,
+                url,
+                method,
+                requestHeader,
+                para,
+                null,
+                Header.build(),
+                null);
+    }
+
     /**
      * 构造Okhttp用的header
      * @param header header
@@ -164,26 +437,90 @@ public class OkHttp extends BaseMimeHttp {
     }
 
     /**
-     * 构造Okhttp用的body
+     * 构造Okhttp用的body，字符串和键值对请求体达到阈值时压缩
      * @param request 请求对象
+     * @param builder 请求构造，压缩时设置Content-Encoding
+     * @param encode 是否可以压缩，已指定Content-Encoding时不压缩
      * @return RequestBody
      */
-    private RequestBody body(MimeRequest request) {
+    private RequestBody body(MimeRequest request, Request.Builder builder, boolean encode) {
         if (null != request.getParameter()) {
-            Parameter parameter = request.getParameter();
-            FormBody.Builder builder = new FormBody.Builder();
-            parameter.forEach((k, v) -> builder.add(k, v.toString()));
-            return builder.build();
+            return body(FORM, request.getParameter().form(), builder, encode);
         } else if (null != request.getString()) {
             okhttp3.MediaType mt = JSON;
             if (!request.getString().trim().startsWith("{") && !request.getString().trim().startsWith("[")) {
                 mt = PLAIN;
             }
-            return RequestBody.create(mt, request.getString());
+            return body(mt, request.getString(), builder, encode);
+        } else if (null != request.getContent()) {
+            return body(request.getContent());
         }
 
         error("can not recognize body:" + request);
         return null;
     }
 
+    /**
+     * 构造字符串body
+     * @param type 类型
+     * @param text 请求体
+     * @param builder 请求构造
+     * @param encode 是否可以压缩
+     * @return RequestBody
+     */
+    private RequestBody body(MediaType type, String text, Request.Builder builder, boolean encode) {
+        Compression compression = this.compression;
+        Charset charset = type.charset(StandardCharsets.UTF_8);
+        byte[] encoded = encode ? compression.encode(text, charset) : null;
+        if (null == encoded) {
+            return RequestBody.create(type, text);
+        }
+        builder.header("Content-Encoding", compression.getRequestCoding());
+        return RequestBody.create(type, encoded);
+    }
+
+    /**
+     * 构造Okhttp用的流式body，写出时才打开数据源，长度未知时分块传输
+     * @param content 二进制请求体
+     * @return RequestBody
+     */
+    private RequestBody body(Content content) {
+        MediaType type = MediaType.parse(content.getType());
+        return new RequestBody() {
+            @Override
+            public MediaType contentType() {
+                return type;
+            }
+
+            @Override
+            public long contentLength() {
+                return content.getLength();
+            }
+
+            @Override
+            public void writeTo(BufferedSink sink) throws IOException {
+                try (Source source = null != content.getPath()
+                        ? Okio.source(content.getPath()) : Okio.source(content.open())) {
+                    sink.writeAll(source);
+                }
+            }
+        };
+    }
+
+    /**
+     * 响应体处理
+     * @param <R> 处理结果类型
+     */
+    @FunctionalInterface
+    private interface BodyHandler<R> {
+
+        /**
+         * 处理响应体
+         * @param body 响应体
+         * @return 处理结果
+         * @throws IOException 读取异常
+         */
+        R handle(ResponseBody body) throws IOException;
+    }
+
 }
@@ -2,10 +2,37 @@ package test.http.okhttp;
 
 import dive.http.common.MimeHttp;
 import dive.http.common.MimeRequest;
+import dive.http.common.model.Protocol;
 import dive.http.okhttp.OkHttp;
+import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.EntityDetails;
+import org.apache.hc.core5.http.HttpException;
+import org.apache.hc.core5.http.HttpRequest;
+import org.apache.hc.core5.http.Message;
+import org.apache.hc.core5.http.impl.bootstrap.HttpAsyncServer;
+import org.apache.hc.core5.http.nio.AsyncRequestConsumer;
+import org.apache.hc.core5.http.nio.AsyncServerRequestHandler;
+import org.apache.hc.core5.http.nio.entity.StringAsyncEntityConsumer;
+import org.apache.hc.core5.http.nio.support.BasicRequestConsumer;
+import org.apache.hc.core5.http.nio.support.BasicResponseProducer;
+import org.apache.hc.core5.http.protocol.HttpContext;
+import org.apache.hc.core5.http2.HttpVersionPolicy;
+import org.apache.hc.core5.http2.impl.nio.bootstrap.H2ServerBootstrap;
+import org.apache.hc.core5.io.CloseMode;
+import org.junit.Assert;
 import org.junit.Test;
 import org.springframework.boot.test.context.SpringBootTest;
 
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
 @SpringBootTest
 public class OkHttpTest {
 
@@ -37,4 +64,106 @@ public class OkHttpTest {
                 });
     }
 
+    @Test
+    public void testAsync() {
+        new MimeRequest.Builder()
+                .url("https://www.baidu.com/s?wd={1}_{name}")
+                .replace(123)
+                .replace("name", 456)
+                .get()
+                .build()
+                .executeAsync(http, (url, method, request, body, code, response, result) -> {
+                    System.out.println("url: " + url);
+                    System.out.println("code: " + code);
+                })
+                .thenAccept(result -> System.out.println("result: \n" + result))
+                .join();
+    }
+
+    @Test
+    public void testStream() {
+        Long length = http.executeStream(new MimeRequest.Builder()
+                .url("https://www.baidu.com/")
+                .get()
+                .build(), (in, charset) -> {
+                    long count = 0;
+                    byte[] buffer = new byte[8192];
+                    int n;
+                    while (-1 != (n = in.read(buffer))) {
+                        count += n;
+                    }
+                    return count;
+                });
+        System.out.println("length: " + length);
+    }
+
+    @Test
+    public void testDownload() throws IOException {
+        Path path = Files.createTempFile("baidu", ".html");
+        Long length = new MimeRequest.Builder()
+                .url("https://www.baidu.com/")
+                .get()
+                .build()
+                .downloadTo(http, path);
+        System.out.println("length: " + length + " file: " + Files.size(path));
+        Files.delete(path);
+    }
+
+    /**
+     * 本地h2c服务，原样返回请求体或请求路径
+     */
+    @Test
+    public void testH2c() throws Exception {
+        AtomicInteger connections = new AtomicInteger();
+        HttpAsyncServer server = H2ServerBootstrap.bootstrap()
+                .setVersionPolicy(HttpVersionPolicy.FORCE_HTTP_2)
+                .setIOSessionDecorator(session -> {
+                    connections.incrementAndGet();
+                    return session;
+                })
+                .register("*", new AsyncServerRequestHandler<Message<HttpRequest, String>>() {
+                    @Override
+                    public AsyncRequestConsumer<Message<HttpRequest, String>> prepare(HttpRequest request, EntityDetails entityDetails, HttpContext context) {
+                        return new BasicRequestConsumer<>(null != entityDetails ? new StringAsyncEntityConsumer() : null);
+                    }
+
+                    @Override
+                    public void handle(Message<HttpRequest, String> message, ResponseTrigger responseTrigger, HttpContext context) throws HttpException, IOException {
+                        String body = null != message.getBody() ? message.getBody() : message.getHead().getPath();
+                        responseTrigger.submitResponse(new BasicResponseProducer(200, body, ContentType.TEXT_PLAIN), context);
+                    }
+                })
+                .create();
+        server.start();
+        try {
+            InetSocketAddress address = (InetSocketAddress) server.listen(new InetSocketAddress("127.0.0.1", 0)).get().getAddress();
+            String base = "http://127.0.0.1:" + address.getPort();
+            MimeHttp h2c = new OkHttp(Protocol.H2C);
+
+            String result = new MimeRequest.Builder()
+                    .url(base + "/echo")
+                    .post()
+                    .body("{\"name\":\"123\"}")
+                    .build()
+                    .execute(h2c);
+            Assert.assertEquals("{\"name\":\"123\"}", result);
+
+            List<CompletableFuture<String>> futures = IntStream.range(0, 50)
+                    .mapToObj(i -> new MimeRequest.Builder()
+                            .url(base + "/{1}")
+                            .replace(i)
+                            .get()
+                            .build()
+                            .executeAsync(h2c))
+                    .collect(Collectors.toList());
+            for (int i = 0; i < futures.size(); i++) {
+                Assert.assertEquals("/" + i, futures.get(i).join());
+            }
+            System.out.println("connections: " + connections.get());
+            Assert.assertEquals(1, connections.get());
+        } finally {
+            server.close(CloseMode.GRACEFUL);
+        }
+    }
+
 }
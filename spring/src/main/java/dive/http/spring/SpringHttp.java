@@ -1,52 +1,118 @@
 package dive.http.spring;
 
 import dive.http.common.BaseMimeHttp;
+import dive.http.common.Compression;
 import dive.http.common.Detail;
 import dive.http.common.MimeHttp;
 import dive.http.common.MimeRequest;
+import dive.http.common.Receiver;
+import dive.http.common.model.Content;
 import dive.http.common.model.Header;
 import dive.http.common.model.Method;
-import dive.http.common.model.Parameter;
+import org.springframework.core.io.AbstractResource;
+import org.springframework.core.io.PathResource;
+import org.springframework.core.io.Resource;
 import org.springframework.http.HttpEntity;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
 import org.springframework.http.converter.StringHttpMessageConverter;
-import org.springframework.util.LinkedMultiValueMap;
-import org.springframework.util.MultiValueMap;
-import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.util.concurrent.ListenableFuture;
+import org.springframework.web.client.HttpStatusCodeException;
 import org.springframework.web.client.ResourceAccessException;
 import org.springframework.web.client.RestClientException;
 import org.springframework.web.client.RestTemplate;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
 
 /**
  * 利用Spring的RestTemplate实现
+ * 默认构造器的异步请求基于httpasyncclient非阻塞执行，请求体在发出前缓冲在内存中
+ * 传入RestTemplate构造时没有非阻塞客户端，异步请求在执行器中调用RestTemplate，执行器可通过executor(Executor)更换
+ * Spring 5.1中未废弃的非阻塞客户端只有WebClient，需要引入webflux和reactor，因此仍使用AsyncRestTemplate，
+ * 废弃的类型写全限定名，警告只在用到它的成员上抑制
  * @author dawn
  */
 public class SpringHttp extends BaseMimeHttp {
 
+    private static final MediaType FORM = new MediaType(MediaType.APPLICATION_FORM_URLENCODED, StandardCharsets.UTF_8);
+
     /**
      * RestTemplate 实例
      */
     private final RestTemplate rest;
 
     /**
-     * 构造器
+     * 是否使用默认的非阻塞AsyncRestTemplate
+     */
+    private final boolean nonBlocking;
+
+    /**
+     * AsyncRestTemplate 实例，用于异步请求，默认在首次异步请求时创建
+     */
+    @SuppressWarnings("deprecation")
+    private volatile org.springframework.web.client.AsyncRestTemplate async;
+
+    /**
+     * 构造器，同步请求体不在内存中缓冲，直接流式写出
      */
     public SpringHttp() {
-        this.rest = new RestTemplate();
+        SimpleClientHttpRequestFactory factory = new SimpleClientHttpRequestFactory();
+        factory.setBufferRequestBody(false);
+        this.rest = new RestTemplate(factory);
         rest.getMessageConverters().set(1, new StringHttpMessageConverter(StandardCharsets.UTF_8));
+        this.nonBlocking = true;
     }
 
     /**
-     * 构造器
+     * 构造器，异步请求在执行器中执行
      * @param restTemplate RestTemplate实例
      */
     public SpringHttp(RestTemplate restTemplate) {
         this.rest = restTemplate;
+        this.nonBlocking = false;
+    }
+
+    /**
+     * 构造器，异步请求由传入的AsyncRestTemplate执行
+     * @param restTemplate RestTemplate实例
+     * @param asyncRestTemplate AsyncRestTemplate实例
+     */
+    @SuppressWarnings("deprecation")
+    public SpringHttp(RestTemplate restTemplate, org.springframework.web.client.AsyncRestTemplate asyncRestTemplate) {
+        this.rest = restTemplate;
+        this.async = Objects.requireNonNull(asyncRestTemplate, "async rest template");
+        this.nonBlocking = true;
+    }
+
+    /**
+     * 非阻塞的AsyncRestTemplate，首次使用时才创建，避免只发同步请求时也创建客户端
+     * @return AsyncRestTemplate实例，没有时为null
+     */
+    @SuppressWarnings("deprecation")
+    private org.springframework.web.client.AsyncRestTemplate async() {
+        org.springframework.web.client.AsyncRestTemplate template = async;
+        if (null == template && nonBlocking) {
+            synchronized (this) {
+                template = async;
+                if (null == template) {
+                    template = new org.springframework.web.client.AsyncRestTemplate(
+                            new org.springframework.http.client.HttpComponentsAsyncClientHttpRequestFactory());
+                    template.getMessageConverters().set(1, new StringHttpMessageConverter(StandardCharsets.UTF_8));
+                    async = template;
+                }
+            }
+        }
+        return template;
     }
 
     @Override
@@ -56,79 +122,294 @@ public class SpringHttp extends BaseMimeHttp {
         String url = MimeHttp.url(request);
         Method method = request.getMethod();
         Header requestHeader = request.getHeader();
-        Parameter parameter = request.getParameter();
-        String string = request.getString();
-        Object para = null != parameter ? parameter : string;
+        Object para = request.getBody();
+
+        HttpMethod httpMethod = HttpMethod.valueOf(method.name());
+        String result;
+
+        try {
+            ResponseEntity<byte[]> response = rest.exchange(url, httpMethod, entity(request), byte[].class);
+            result = response(response, detail, url, method, requestHeader, para);
+        } catch (RestClientException e) {
+            result = failure(e, detail, url, method, requestHeader, para);
+        }
+        if (null == result) {
+            error("RestTemplate result is null. url --> " + url);
+        }
+        return result;
+    }
+
+    /**
+     * 异步请求，有AsyncRestTemplate时不占用线程等待响应，否则在执行器中执行同步请求
+     */
+    @Override
+    @SuppressWarnings("deprecation")
+    public CompletableFuture<String> executeAsync(MimeRequest request, Detail detail) {
+        Objects.requireNonNull(request, "mime request is null");
+        org.springframework.web.client.AsyncRestTemplate async = async();
+        if (null == async) {
+            return super.executeAsync(request, detail);
+        }
+
+        String url = MimeHttp.url(request);
+        Method method = request.getMethod();
+        Header requestHeader = request.getHeader();
+        Object para = request.getBody();
 
         HttpMethod httpMethod = HttpMethod.valueOf(method.name());
-        Object body = null;
-        Integer code = null;
-        Header responseHeader = null;
-        String result = null;
 
+        CompletableFuture<String> future = new CompletableFuture<>();
+        Consumer<String> complete = result -> {
+            if (null == result) {
+                error("RestTemplate result is null. url --> " + url);
+            }
+            future.complete(result);
+        };
+        ListenableFuture<ResponseEntity<byte[]>> exchange;
         try {
-            HttpHeaders headers = this.headers(request.getHeader());
-            if (!HttpMethod.GET.equals(httpMethod)) {
-                body = this.body(request);
+            exchange = async.exchange(url, httpMethod, entity(request), byte[].class);
+        } catch (RestClientException e) {
+            complete.accept(failure(e, detail, url, method, requestHeader, para));
+            return future;
+        }
+        exchange.addCallback(
+                response -> {
+                    try {
+                        complete.accept(response(response, detail, url, method, requestHeader, para));
+                    } catch (RestClientException e) {
+                        complete.accept(failure(e, detail, url, method, requestHeader, para));
+                    } catch (RuntimeException e) {
+                        future.completeExceptionally(e);
+                    }
+                },
+                e -> {
+                    if (future.isDone()) {
+                        return;
+                    }
+                    if (e instanceof RestClientException) {
+                        complete.accept(failure((RestClientException) e, detail, url, method, requestHeader, para));
+                    } else if (e instanceof IOException) {
+                        complete.accept(failure(new ResourceAccessException(e.getMessage(), (IOException) e),
+                                detail, url, method, requestHeader, para));
+                    } else {
+                        future.completeExceptionally(e);
+                    }
+                });
+        // 取消时取消请求
+        future.whenComplete((result, e) -> {
+            if (future.isCancelled()) {
+                exchange.cancel(true);
             }
-            HttpEntity<Object> entity = new HttpEntity<>(body, headers);
-            ResponseEntity<String> response = rest.exchange(url, httpMethod, entity, String.class);
-            result = response.getBody();
+        });
+        return future;
+    }
 
-            if (null != detail) {
-                code = response.getStatusCodeValue();
-                headers = response.getHeaders();
-                Header finalResponseHeader = Header.build();
-                headers.forEach((k, list) -> list.forEach(v -> finalResponseHeader.put(k, v)));
-                detail.accept(url,
-                        method,
-                        requestHeader,
-                        para,
-                        code,
-                        finalResponseHeader,
-                        result);
+    @Override
+    public <R> R executeStream(MimeRequest request, Receiver<R> receiver, Detail detail) {
+        Objects.requireNonNull(request, "mime request is null");
+        Objects.requireNonNull(receiver, "receiver");
+
+        String url = MimeHttp.url(request);
+        Method method = request.getMethod();
+        Header requestHeader = request.getHeader();
+        Object para = request.getBody();
+
+        HttpMethod httpMethod = HttpMethod.valueOf(method.name());
+
+        try {
+            return rest.execute(url, httpMethod, rest.httpEntityCallback(entity(request)), response -> {
+                MediaType contentType = response.getHeaders().getContentType();
+                Charset charset = null != contentType && null != contentType.getCharset()
+                        ? contentType.getCharset() : StandardCharsets.UTF_8;
+                R result = null;
+                // 默认的错误处理只拦截4xx/5xx，自定义错误处理时其余非2xx响应同样不交给receiver
+                if (MimeHttp.success(response.getRawStatusCode())) {
+                    try (InputStream in = body(response)) {
+                        result = receiver.receive(in, charset);
+                    }
+                }
+                if (null != detail) {
+                    detail.accept(url,
+                            method,
+                            requestHeader,
+                            para,
+                            response.getRawStatusCode(),
+                            header(response.getHeaders()),
+                            null);
+                }
+                return result;
+            });
+        } catch (RestClientException e) {
+            failure(e, detail, url, method, requestHeader, para);
+        }
+        return null;
+    }
+
+    /**
+     * 构造请求实体
+     * @param request 请求对象
+     * @return 请求实体
+     */
+    private HttpEntity<Object> entity(MimeRequest request) {
+        HttpHeaders headers = this.headers(request.getHeader());
+        Compression compression = this.compression;
+        if (null != compression.accept() && (null == headers || !headers.containsKey(HttpHeaders.ACCEPT_ENCODING))) {
+            if (null == headers) {
+                headers = new HttpHeaders();
+            }
+            headers.set(HttpHeaders.ACCEPT_ENCODING, compression.accept());
+        }
+        Object body = null;
+        if (!Method.GET.equals(request.getMethod())) {
+            body = this.body(request);
+            if (null != request.getParameter()) {
+                if (null == headers) {
+                    headers = new HttpHeaders();
+                }
+                if (null == headers.getContentType()) {
+                    headers.setContentType(FORM);
+                }
             }
-        } catch (HttpClientErrorException e) {
-            e.printStackTrace();
-            error(e, "RestTemplate", url);
-            code = e.getRawStatusCode();
+            Content content = request.getContent();
+            if (null != content) {
+                if (null == headers) {
+                    headers = new HttpHeaders();
+                }
+                if (null == headers.getContentType()) {
+                    headers.setContentType(MediaType.parseMediaType(content.getType()));
+                }
+            }
+            // 字符串和键值对请求体达到阈值时压缩，以字节写出
+            byte[] encoded = body instanceof String && (null == headers || !headers.containsKey(HttpHeaders.CONTENT_ENCODING))
+                    ? compression.encode((String) body, StandardCharsets.UTF_8) : null;
+            if (null != encoded) {
+                if (null == headers) {
+                    headers = new HttpHeaders();
+                }
+                if (null == headers.getContentType()) {
+                    headers.setContentType(new MediaType(MediaType.TEXT_PLAIN, StandardCharsets.UTF_8));
+                }
+                headers.set(HttpHeaders.CONTENT_ENCODING, compression.getRequestCoding());
+                body = encoded;
+            }
+        }
+        return new HttpEntity<>(body, headers);
+    }
+
+    /**
+     * 读取响应结果
+     * @param response 响应
+     * @param detail 更加详细的处理
+     * @param url 请求url
+     * @param method 请求方法
+     * @param requestHeader 请求header
+     * @param para 请求体
+     * @return 请求结果
+     */
+    private String response(ResponseEntity<byte[]> response, Detail detail,
+                            String url, Method method, Header requestHeader, Object para) {
+        String result = text(response);
+
+        if (null != detail) {
+            detail.accept(url,
+                    method,
+                    requestHeader,
+                    para,
+                    response.getStatusCodeValue(),
+                    header(response.getHeaders()),
+                    result);
+        }
+        return result;
+    }
+
+    /**
+     * 按Content-Encoding解码响应体，按声明的字符集转换为字符串
+     * @param response 响应
+     * @return 响应体，没有响应体时为null
+     */
+    private String text(ResponseEntity<byte[]> response) {
+        byte[] bytes = response.getBody();
+        if (null == bytes) {
+            return null;
+        }
+        HttpHeaders headers = response.getHeaders();
+        try {
+            bytes = compression.decode(bytes, headers.getFirst(HttpHeaders.CONTENT_ENCODING));
+        } catch (IOException e) {
+            throw new ResourceAccessException(e.getMessage(), e);
+        }
+        MediaType contentType = headers.getContentType();
+        Charset charset = null != contentType && null != contentType.getCharset()
+                ? contentType.getCharset() : StandardCharsets.UTF_8;
+        return new String(bytes, charset);
+    }
+
+    /**
+     * 按Content-Encoding解码的响应流
+     * @param response 响应
+     * @return 响应流
+     * @throws IOException 读取异常
+     */
+    private InputStream body(ClientHttpResponse response) throws IOException {
+        return compression.decode(response.getBody(), response.getHeaders().getFirst(HttpHeaders.CONTENT_ENCODING));
+    }
+
+    /**
+     * 获取响应头
+     * @param headers spring的响应头
+     * @return 响应头
+     */
+    private Header header(HttpHeaders headers) {
+        Header finalResponseHeader = Header.build(null == headers ? 0 : headers.size());
+        if (null != headers) {
+            headers.forEach((k, list) -> list.forEach(v -> finalResponseHeader.add(k, v)));
+        }
+        return finalResponseHeader;
+    }
+
+    /**
+     * 请求异常处理
+     * @param e 异常
+     * @param detail 更加详细的处理
+     * @param url 请求url
+     * @param method 请求方法
+     * @param requestHeader 请求header
+     * @param para 请求体
+     * @return 请求结果
+     */
+    private String failure(RestClientException e, Detail detail,
+                           String url, Method method, Header requestHeader, Object para) {
+        e.printStackTrace();
+        error(e, "RestTemplate", url);
+        if (e instanceof HttpStatusCodeException) {
+            HttpStatusCodeException exception = (HttpStatusCodeException) e;
+            int code = exception.getRawStatusCode();
             if (403 == code) {
                 error("maybe you should add 'User-Agent' for headers, for example: Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/70.0.3538.110 Safari/537.36");
             }
-            result = code + " " + e.getStatusText();
-            HttpHeaders headers = e.getResponseHeaders();
-            Header finalResponseHeader = Header.build();
-            if (null != headers) {
-                headers.forEach((k, list) -> list.forEach(v -> finalResponseHeader.put(k, v)));
-            }
+            String result = code + " " + exception.getStatusText();
             if (null != detail) {
                 detail.accept(url,
                         method,
                         requestHeader,
                         para,
                         code,
-                        finalResponseHeader,
+                        header(exception.getResponseHeaders()),
                         result);
             }
-        } catch (ResourceAccessException e) {
-            e.printStackTrace();
-            error(e, "RestTemplate", url);
-            result = MimeHttp.except(e.getCause().getMessage(), detail,
+            return result;
+        }
+        if (e instanceof ResourceAccessException && null != e.getCause()) {
+            return MimeHttp.except(e.getCause().getMessage(), detail,
                     url,
                     method,
                     requestHeader,
                     para,
-                    code,
-                    responseHeader,
-                    result);
-        } catch (RestClientException e) {
-            e.printStackTrace();
-            error(e, "RestTemplate", url);
+                    null,
+                    null,
+                    null);
         }
-        if (null == result) {
-            error("RestTemplate result is null. url --> " + url);
-        }
-        return result;
+        return null;
     }
 
     private HttpHeaders headers(Header header) {
@@ -142,16 +423,43 @@ public class SpringHttp extends BaseMimeHttp {
 
     private Object body(MimeRequest request) {
         if (null != request.getParameter()) {
-            Parameter parameter = request.getParameter();
-            MultiValueMap<String, Object> b = new LinkedMultiValueMap<>();
-            parameter.forEach(b::add);
-            return b;
+            return request.getParameter().form();
         }
         if (null != request.getString()) {
             return request.getString();
         }
+        if (null != request.getContent()) {
+            return resource(request.getContent());
+        }
         super.error("can not recognize body:" + request);
         return null;
     }
 
+    /**
+     * 二进制请求体转换为Resource，写出时才打开数据源
+     * @param content 二进制请求体
+     * @return Resource
+     */
+    private Resource resource(Content content) {
+        if (null != content.getPath()) {
+            return new PathResource(content.getPath());
+        }
+        return new AbstractResource() {
+            @Override
+            public String getDescription() {
+                return content.toString();
+            }
+
+            @Override
+            public InputStream getInputStream() throws IOException {
+                return content.open();
+            }
+
+            @Override
+            public long contentLength() {
+                return content.getLength();
+            }
+        };
+    }
+
 }
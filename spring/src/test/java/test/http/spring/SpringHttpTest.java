@@ -1,16 +1,66 @@
 package test.http.spring;
 
+import com.sun.net.httpserver.HttpServer;
 import dive.http.common.MimeHttp;
 import dive.http.common.MimeRequest;
 import dive.http.spring.SpringHttp;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
 import org.junit.Test;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.web.client.RestTemplate;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
 
 @SpringBootTest
 public class SpringHttpTest {
 
+    private static HttpServer server;
+
+    private static String base;
+
     private MimeHttp http = new SpringHttp();
 
+    /**
+     * 本地服务，原样返回请求体或请求路径
+     */
+    @BeforeClass
+    public static void start() throws Exception {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", exchange -> {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            try (InputStream in = exchange.getRequestBody()) {
+                byte[] buffer = new byte[8192];
+                int n;
+                while (-1 != (n = in.read(buffer))) {
+                    out.write(buffer, 0, n);
+                }
+            }
+            byte[] body = 0 < out.size() ? out.toByteArray()
+                    : exchange.getRequestURI().getPath().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=UTF-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(body);
+            }
+        });
+        server.start();
+        base = "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    @AfterClass
+    public static void stop() {
+        server.stop(0);
+    }
+
     @Test
     public void test() {
         new MimeRequest.Builder()
@@ -38,4 +88,61 @@ public class SpringHttpTest {
                 });
     }
 
+    /**
+     * 默认构造器的异步请求由httpasyncclient的I/O线程完成，不占用执行器线程
+     */
+    @Test
+    public void testAsync() {
+        List<String> threads = new ArrayList<>();
+        List<Integer> codes = new ArrayList<>();
+        String result = new MimeRequest.Builder()
+                .url(base + "/async")
+                .post()
+                .body("{\"name\":\"123\"}")
+                .build()
+                .executeAsync(http, (url, method, request, body, code, response, r) -> {
+                    threads.add(Thread.currentThread().getName());
+                    codes.add(code);
+                })
+                .join();
+        Assert.assertEquals("{\"name\":\"123\"}", result);
+        Assert.assertEquals(200, (int) codes.get(0));
+        Assert.assertFalse(threads.get(0).startsWith("dive-http-async-"));
+    }
+
+    /**
+     * 只传入RestTemplate时异步请求在执行器中执行
+     */
+    @Test
+    public void testAsyncExecutor() {
+        List<String> threads = new ArrayList<>();
+        String result = new MimeRequest.Builder()
+                .url(base + "/executor")
+                .get()
+                .build()
+                .executeAsync(new SpringHttp(new RestTemplate()),
+                        (url, method, request, body, code, response, r) -> threads.add(Thread.currentThread().getName()))
+                .join();
+        Assert.assertEquals("/executor", result);
+        Assert.assertTrue(threads.get(0).startsWith("dive-http-async-"));
+    }
+
+    @Test
+    public void testStream() {
+        Long length = http.executeStream(new MimeRequest.Builder()
+                .url("https://www.baidu.com/")
+                .get()
+                .header("User-Agent", "Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/70.0.3538.110 Safari/537.36")
+                .build(), (in, charset) -> {
+                    long count = 0;
+                    byte[] buffer = new byte[8192];
+                    int n;
+                    while (-1 != (n = in.read(buffer))) {
+                        count += n;
+                    }
+                    return count;
+                });
+        System.out.println("length: " + length);
+    }
+
 }